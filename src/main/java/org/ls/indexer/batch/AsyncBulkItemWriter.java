@@ -0,0 +1,185 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/AsyncBulkItemWriter.java
+ * 文件名称: AsyncBulkItemWriter.java
+ * 开发时间: 2025-06-21 10:20:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 异步流水线模式下的 ItemWriter。按顺序解包 ConcurrentFileProcessor 返回的 Future，
+ *          解析结果累计到 maxBulkBytes 时立即在后台线程中提交 bulk 请求，使块内剩余文件的解析与已解析文件的 bulk 写入重叠。
+ *
+ * 功能说明：
+ * 后台 bulk 按提交顺序在单个线程中执行。write 返回前等待本块的全部 bulk 完成，因此块的事务 (以及 ItemReader 的检查点)
+ * 只在本块的文档全部写入 ES 后才提交，进程崩溃后重新运行不会跳过未写入的文件。
+ * 失败处理与 ElasticsearchBulkItemWriter、StreamingBulkItemWriter 一致: bulk 请求在重试耗尽后仍然失败
+ * (传输异常或可重试的失败，ElasticsearchPersistenceService 抛出 IndexingException) 时使当前块失败；
+ * 不可重试的文档错误已发送到失败 Topic，只计数，块照常提交，作业不会卡在一个坏文档上。
+ * 步骤结束时 (afterStep) 关闭后台线程，并把各阶段利用率写入步骤的 ExecutionContext。
+ */
+package org.ls.indexer.batch;
+
+import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.service.ElasticsearchPersistenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class AsyncBulkItemWriter implements ItemWriter<Future<EsDocumentDto>>, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncBulkItemWriter.class);
+
+    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+    private final PipelineStageMetrics metrics;
+    private final int parseThreads;
+    private final long maxBulkBytes;
+
+    private ExecutorService bulkExecutor;
+    private boolean stepReported;
+
+    public AsyncBulkItemWriter(ElasticsearchPersistenceService elasticsearchPersistenceService,
+                               PipelineStageMetrics metrics,
+                               int parseThreads,
+                               long maxBulkBytes) {
+        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+        this.metrics = metrics;
+        this.parseThreads = parseThreads;
+        this.maxBulkBytes = maxBulkBytes;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        metrics.reset();
+        this.stepReported = false;
+        this.bulkExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "historical-bulk-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        logger.info("异步流水线已启动。解析线程数: {}", parseThreads);
+    }
+
+    /**
+     * 按顺序解包当前块的解析结果，每累计 maxBulkBytes 在后台提交一个 bulk 请求，返回前等待本块的全部 bulk 完成。
+     *
+     * @param chunk 包含解析结果 Future 的块。
+     * @throws Exception 如果解析失败或 bulk 写入失败。
+     */
+    @Override
+    public void write(Chunk<? extends Future<EsDocumentDto>> chunk) throws Exception {
+        List<Future<Boolean>> bulks = new ArrayList<>();
+        List<EsDocumentDto> batch = new ArrayList<>();
+        long batchBytes = 0L;
+        int documentCount = 0;
+        try {
+            for (Future<EsDocumentDto> future : chunk.getItems()) {
+                long waitStart = System.nanoTime();
+                EsDocumentDto document = unwrap(future);
+                metrics.addParseWait(System.nanoTime() - waitStart);
+                if (document == null) {
+                    continue;
+                }
+                long size = BulkRequestPartitioner.estimateSerializedBytes(document);
+                if (!batch.isEmpty() && batchBytes + size > maxBulkBytes) {
+                    bulks.add(submitBulk(batch));
+                    batch = new ArrayList<>();
+                    batchBytes = 0L;
+                }
+                batch.add(document);
+                batchBytes += size;
+                documentCount++;
+            }
+            if (!batch.isEmpty()) {
+                bulks.add(submitBulk(batch));
+            }
+        } finally {
+            // 解析失败时也等待已提交的 bulk 结束，避免与重试的块并发写入
+            awaitBulks(bulks, documentCount, chunk.size());
+        }
+    }
+
+    private Future<Boolean> submitBulk(List<EsDocumentDto> documents) {
+        logger.debug("AsyncBulkItemWriter 在后台提交 {} 个文档的 bulk 请求。", documents.size());
+        return bulkExecutor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return elasticsearchPersistenceService.bulkIndexHistoricalDocuments(documents);
+            } finally {
+                metrics.addBulkBusy(System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * 等待本块提交的全部 bulk 完成 (块事务提交前的屏障)，有 bulk 请求抛出异常时重新抛出。
+     */
+    private void awaitBulks(List<Future<Boolean>> bulks, int documentCount, int chunkSize) throws Exception {
+        if (bulks.isEmpty()) {
+            logger.debug("AsyncBulkItemWriter 本块没有需要写入的文档 (全部被跳过)。");
+            return;
+        }
+        long waitStart = System.nanoTime();
+        boolean success = true;
+        Exception failure = null;
+        try {
+            for (Future<Boolean> bulk : bulks) {
+                try {
+                    success &= bulk.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    logger.error("后台 bulk 请求失败: {}", cause != null ? cause.getMessage() : e.getMessage(), cause);
+                    if (failure == null) {
+                        failure = cause instanceof Exception ? (Exception) cause : e;
+                    }
+                }
+            }
+        } finally {
+            metrics.addBulkWait(System.nanoTime() - waitStart);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (!success) {
+            logger.warn("AsyncBulkItemWriter 写入 {} 个文档时部分文档因不可重试的错误失败，已记录到失败 Topic。", documentCount);
+            return;
+        }
+        logger.info("AsyncBulkItemWriter 已写入 {} 个文档 (本块共 {} 项，{} 个 bulk 请求)。", documentCount, chunkSize, bulks.size());
+    }
+
+    private EsDocumentDto unwrap(Future<EsDocumentDto> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            logger.error("异步解析文件时发生错误: {}", cause != null ? cause.getMessage() : e.getMessage(), cause);
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (stepReported) {
+            return null;
+        }
+        stepReported = true;
+
+        bulkExecutor.shutdown(); // 每个块的 bulk 已在 write 中等待完成
+
+        Map<String, Object> utilization = metrics.snapshot(parseThreads);
+        utilization.forEach((key, value) -> stepExecution.getExecutionContext().put(key, value));
+        logger.info("异步流水线阶段利用率 (步骤 '{}'): {}", stepExecution.getStepName(), utilization);
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/BulkRequestPartitioner.java
+ * 文件名称: BulkRequestPartitioner.java
+ * 开发时间: 2025-06-23 09:50:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 按文档序列化后的估算字节数，将一个块的文档拆分为多个不超过目标大小的 bulk 请求，
+ *          避免单个 bulk 请求过大导致 ES 拒绝或超时。
+ */
+package org.ls.indexer.batch;
+
+import org.ls.indexer.dto.EsDocumentDto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class BulkRequestPartitioner {
+
+    // 除字符串字段外，每个文档的 JSON 结构与 bulk 操作行的估算字节数
+    private static final long PER_DOCUMENT_OVERHEAD_BYTES = 256L;
+
+    private BulkRequestPartitioner() {
+    }
+
+    /**
+     * 将文档按顺序拆分为多个批次，每个批次的估算字节数不超过 maxBytes。
+     * 单个文档本身超过 maxBytes 时单独成为一个批次。
+     *
+     * @param documents 要写入的文档
+     * @param maxBytes  每个 bulk 请求的目标字节数
+     * @return 拆分后的批次列表
+     */
+    public static List<List<EsDocumentDto>> partition(List<EsDocumentDto> documents, long maxBytes) {
+        List<List<EsDocumentDto>> batches = new ArrayList<>();
+        List<EsDocumentDto> current = new ArrayList<>();
+        long currentBytes = 0L;
+        for (EsDocumentDto document : documents) {
+            long size = estimateSerializedBytes(document);
+            if (!current.isEmpty() && currentBytes + size > maxBytes) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0L;
+            }
+            current.add(document);
+            currentBytes += size;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    /**
+     * 估算文档序列化为 JSON 后的字节数 (按 UTF-8 计算各字符串字段长度)。
+     */
+    public static long estimateSerializedBytes(EsDocumentDto document) {
+        if (document == null) {
+            return 0L;
+        }
+        return PER_DOCUMENT_OVERHEAD_BYTES
+                + utf8Length(document.getFileId())
+                + utf8Length(document.getContent())
+                + utf8Length(document.getFilename())
+                + utf8Length(document.getSourcePath())
+                + utf8Length(document.getTitle())
+                + utf8Length(document.getAuthor())
+                + utf8Length(document.getContentSha256());
+    }
+
+    private static long utf8Length(String value) {
+        if (value == null) {
+            return 0L;
+        }
+        long bytes = 0L;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/ByteAwareChunkCompletionPolicy.java
+ * 文件名称: ByteAwareChunkCompletionPolicy.java
+ * 开发时间: 2025-06-23 09:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 历史索引步骤的块完成策略。在以下任一条件先满足时关闭当前块:
+ *          估算的序列化字节数达到 maxBytes、文件数达到 maxItems、块持续时间达到 maxTime。
+ *
+ * 功能说明：
+ * 同时作为 ItemReadListener 注册到步骤上，在每次读取文件路径后按文件大小累计估算字节数。
+ * 估算值为文件大小与 Tika 内容提取上限 (write-limit 字符数 x 3 字节) 中的较小者，再加上固定的元数据开销；
+ * 对 PDF 等二进制格式该估算偏保守，实际的 bulk 请求大小由 BulkRequestPartitioner 在写入阶段再次限制。
+ * 每个块关闭时记录关闭原因、文件数、估算字节数与耗时。
+ * 注意: 该策略保存当前块的状态，只适用于单线程执行的步骤。
+ */
+package org.ls.indexer.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.repeat.CompletionPolicy;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.context.RepeatContextSupport;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ByteAwareChunkCompletionPolicy implements CompletionPolicy, ItemReadListener<Path> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ByteAwareChunkCompletionPolicy.class);
+
+    // 每个文档除正文外的元数据 (ID、文件名、路径、时间等) 及 bulk 操作行的估算字节数
+    private static final long PER_DOCUMENT_OVERHEAD_BYTES = 512L;
+
+    private final int maxItems;
+    private final long maxBytes;
+    private final long maxTimeMillis;
+    private final long maxContentBytes;
+
+    private ChunkSizeContext currentContext;
+
+    /**
+     * @param maxItems        每个块的最大文件数
+     * @param maxBytes        每个块的目标序列化字节数
+     * @param maxTimeMillis   每个块的最大持续时间 (毫秒)，小于等于 0 表示不限制
+     * @param tikaWriteLimit  Tika 内容提取上限 (字符数)，-1 表示不限制
+     */
+    public ByteAwareChunkCompletionPolicy(int maxItems, long maxBytes, long maxTimeMillis, int tikaWriteLimit) {
+        this.maxItems = Math.max(1, maxItems);
+        this.maxBytes = Math.max(1L, maxBytes);
+        this.maxTimeMillis = maxTimeMillis;
+        // UTF-8 下单个字符最多按 3 字节估算 (中文)
+        this.maxContentBytes = tikaWriteLimit > 0 ? tikaWriteLimit * 3L : Long.MAX_VALUE;
+    }
+
+    @Override
+    public RepeatContext start(RepeatContext parent) {
+        this.currentContext = new ChunkSizeContext(parent);
+        return currentContext;
+    }
+
+    @Override
+    public void update(RepeatContext context) {
+        ((ChunkSizeContext) context).itemCount++;
+    }
+
+    @Override
+    public void afterRead(Path item) {
+        if (currentContext != null) {
+            currentContext.estimatedBytes += estimateBytes(item);
+        }
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context, RepeatStatus result) {
+        if (result == null || !result.isContinuable()) {
+            report((ChunkSizeContext) context, "数据读取完毕");
+            return true;
+        }
+        return isComplete(context);
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context) {
+        ChunkSizeContext chunkContext = (ChunkSizeContext) context;
+        String reason = null;
+        if (chunkContext.itemCount >= maxItems) {
+            reason = "达到最大文件数";
+        } else if (chunkContext.estimatedBytes >= maxBytes) {
+            reason = "达到目标字节数";
+        } else if (maxTimeMillis > 0 && chunkContext.elapsedMillis() >= maxTimeMillis) {
+            reason = "达到最大持续时间";
+        }
+        if (reason == null) {
+            return false;
+        }
+        report(chunkContext, reason);
+        return true;
+    }
+
+    private void report(ChunkSizeContext context, String reason) {
+        if (context.reported || context.itemCount == 0) {
+            return;
+        }
+        context.reported = true;
+        logger.info("块已关闭 (原因: {})。文件数: {}, 估算字节数: {}, 耗时: {}ms (上限: {} 个 / {} 字节 / {}ms)",
+                reason, context.itemCount, context.estimatedBytes, context.elapsedMillis(),
+                maxItems, maxBytes, maxTimeMillis);
+    }
+
+    private long estimateBytes(Path path) {
+        long fileSize;
+        try {
+            fileSize = Files.size(path);
+        } catch (IOException e) {
+            fileSize = 0L;
+        }
+        return Math.min(fileSize, maxContentBytes) + PER_DOCUMENT_OVERHEAD_BYTES;
+    }
+
+    /**
+     * 单个块的计数状态。
+     */
+    private static class ChunkSizeContext extends RepeatContextSupport {
+        private final long startNanos = System.nanoTime();
+        private int itemCount;
+        private long estimatedBytes;
+        private boolean reported;
+
+        ChunkSizeContext(RepeatContext parent) {
+            super(parent);
+        }
+
+        long elapsedMillis() {
+            return (System.nanoTime() - startNanos) / 1_000_000L;
+        }
+    }
+}
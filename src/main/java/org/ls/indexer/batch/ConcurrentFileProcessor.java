@@ -0,0 +1,54 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/ConcurrentFileProcessor.java
+ * 文件名称: ConcurrentFileProcessor.java
+ * 开发时间: 2025-06-21 10:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 异步流水线模式下的 ItemProcessor。将文件解析提交到线程池并立即返回 Future，
+ *          由 AsyncBulkItemWriter 在写入阶段解包结果。
+ */
+package org.ls.indexer.batch;
+
+import org.ls.indexer.dto.EsDocumentDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import java.nio.file.Path;
+import java.util.concurrent.Future;
+
+public class ConcurrentFileProcessor implements ItemProcessor<Path, Future<EsDocumentDto>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrentFileProcessor.class);
+
+    private final ItemProcessor<Path, EsDocumentDto> delegate;
+    private final AsyncTaskExecutor parseTaskExecutor;
+    private final PipelineStageMetrics metrics;
+
+    public ConcurrentFileProcessor(ItemProcessor<Path, EsDocumentDto> delegate,
+                                   AsyncTaskExecutor parseTaskExecutor,
+                                   PipelineStageMetrics metrics) {
+        this.delegate = delegate;
+        this.parseTaskExecutor = parseTaskExecutor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 将文件提交到解析线程池。
+     *
+     * @param filePath ItemReader 提供过来的文件路径。
+     * @return 解析结果的 Future；Future 的结果可能为 null (表示该文件被跳过)。
+     */
+    @Override
+    public Future<EsDocumentDto> process(Path filePath) {
+        logger.trace("提交文件到解析线程池: {}", filePath);
+        return parseTaskExecutor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return delegate.process(filePath);
+            } finally {
+                metrics.addParseBusy(System.nanoTime() - start);
+            }
+        });
+    }
+}
@@ -4,6 +4,15 @@
  * 开发时间: 2025-05-19 03:30:15 UTC/GMT+08:00
  * 作者: Gemini
  * 代码用途: Spring Batch ItemReader，用于递归扫描指定目录，读取符合条件的文件路径。
+ *
+ * 功能说明：
+ * 按文件名排序的深度优先顺序逐个目录惰性遍历 (每次只列出当前目录)，遍历顺序在多次运行之间保持确定。
+ * 检查点为最后读出的文件相对于遍历根目录的路径 (directory.scan.last.path)，保存在步骤的 ExecutionContext 中，
+ * 因此分区步骤的每个分区都有各自的检查点。
+ * 重启时按检查点路径逐级定位: 每一层只列出检查点路径上的目录，跳过排在检查点之前的兄弟节点，
+ * 已完成的目录不会被重新列出。
+ * 作业参数构建的 HistoricalScanFilter 会下推到遍历中: 只从子目录 (subPath) 开始遍历；
+ * 文件名带有其他受支持扩展名的条目在读取属性前即被排除；修改时间过滤复用遍历时读取的属性，不额外访问文件。
  */
 package org.ls.indexer.batch;
 
@@ -19,47 +28,71 @@ import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
 
 import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class DirectoryScanningItemReader implements ItemStreamReader<Path> {
 
     private static final Logger logger = LoggerFactory.getLogger(DirectoryScanningItemReader.class);
 
+    private static final String LAST_PATH_KEY = "directory.scan.last.path";
+    private static final String READ_COUNT_KEY = "directory.scan.read.count";
+    // 旧版本基于 Files.walk 列表下标的检查点，顺序不确定，不再使用
+    private static final String LEGACY_CURRENT_INDEX_KEY = "directory.scan.current.index";
+
+    private static final Comparator<Path> BY_FILE_NAME = Comparator.comparing(p -> p.getFileName().toString());
+
     private final AppProperties appProperties;
     private final IndexerProperties indexerProperties;
+    private final HistoricalScanFilter scanFilter;
 
-    private List<Path> filePaths;
-    private AtomicInteger currentIndex; // 使用 AtomicInteger 保证线程安全，尽管当前版本主要在单线程open中初始化
-
-    private static final String CURRENT_INDEX_KEY = "directory.scan.current.index";
+    private final Deque<DirectoryCursor> cursors = new ArrayDeque<>(); // 当前遍历路径上每一层目录的游标
+    private Path baseDir; // 遍历的根目录 (基础目录或其子目录)，检查点路径相对于该目录
+    private Set<String> supportedExtensions; // 本次作业读取的扩展名
+    private Set<String> excludedExtensions;  // 受支持但本次作业未选中的扩展名，这类文件无需读取属性即可排除
+    private String lastReadRelativePath;
+    private long lastReadModifiedMillis;
+    private long readCount;
 
     public DirectoryScanningItemReader(AppProperties appProperties, IndexerProperties indexerProperties) {
+        this(appProperties, indexerProperties, HistoricalScanFilter.none());
+    }
+
+    public DirectoryScanningItemReader(AppProperties appProperties, IndexerProperties indexerProperties,
+                                       HistoricalScanFilter scanFilter) {
         this.appProperties = appProperties;
         this.indexerProperties = indexerProperties;
-        this.filePaths = new CopyOnWriteArrayList<>(); // 线程安全的List，以防未来扩展
-        this.currentIndex = new AtomicInteger(0);
+        this.scanFilter = scanFilter != null ? scanFilter : HistoricalScanFilter.none();
     }
 
     /**
      * 在步骤开始前调用，用于打开资源或初始化状态。
-     * 此处用于扫描目录并填充文件列表。
+     * 此处只校验基础目录并定位到检查点，不会预先扫描整个目录树。
      *
      * @param executionContext 用于在批处理运行之间共享和持久化状态。
      * @throws ItemStreamException 如果打开资源失败。
      */
     @Override
     public void open(ExecutionContext executionContext) throws ItemStreamException {
-        this.filePaths.clear();
-        this.currentIndex.set(0);
+        this.cursors.clear();
+        this.baseDir = null;
+        this.lastReadRelativePath = executionContext.containsKey(LAST_PATH_KEY) ? executionContext.getString(LAST_PATH_KEY) : null;
+        this.readCount = executionContext.getLong(READ_COUNT_KEY, 0L);
 
         String baseDirString = appProperties.getTargetBaseDir();
         if (baseDirString == null || baseDirString.isBlank()) {
@@ -69,37 +102,47 @@ public class DirectoryScanningItemReader implements ItemStreamReader<Path> {
             return; // 或者返回，让read()返回null
         }
 
-        Path baseDir = Paths.get(baseDirString);
-        if (!Files.exists(baseDir) || !Files.isDirectory(baseDir)) {
-            logger.warn("目标基础目录 {} 不存在或不是一个目录。ItemReader 将不会读取任何文件。", baseDir);
+        Path baseDirPath = Paths.get(baseDirString);
+        if (scanFilter.getSubPath() != null) {
+            Path root = baseDirPath.resolve(scanFilter.getSubPath()).normalize();
+            if (!root.startsWith(baseDirPath.normalize())) {
+                throw new ItemStreamException("子目录 " + scanFilter.getSubPath() + " 不在基础目录 " + baseDirPath + " 内。");
+            }
+            baseDirPath = root;
+        }
+        if (!Files.exists(baseDirPath) || !Files.isDirectory(baseDirPath)) {
+            logger.warn("目标基础目录 {} 不存在或不是一个目录。ItemReader 将不会读取任何文件。", baseDirPath);
             return;
         }
 
-        Set<String> supportedExtensions = indexerProperties.getSupportedExtensionsSet();
-        if (supportedExtensions.isEmpty()) {
+        Set<String> allSupported = indexerProperties.getSupportedExtensionsSet();
+        Set<String> extensions = new HashSet<>(allSupported);
+        if (!scanFilter.getExtensions().isEmpty()) {
+            extensions.retainAll(scanFilter.getExtensions());
+        }
+        if (extensions.isEmpty()) {
             logger.warn("支持的文件扩展名列表为空。ItemReader 将不会读取任何文件。");
             return;
         }
+        this.baseDir = baseDirPath;
+        this.supportedExtensions = extensions;
+        this.excludedExtensions = new HashSet<>(allSupported);
+        this.excludedExtensions.removeAll(extensions);
 
-        logger.info("开始扫描目录: {}，支持的扩展名: {}", baseDir, supportedExtensions);
-
-        try (Stream<Path> pathStream = Files.walk(baseDir)) {
-            this.filePaths.addAll(pathStream
-                    .filter(Files::isRegularFile)
-                    .filter(path -> {
-                        String fileName = path.getFileName().toString().toLowerCase();
-                        return supportedExtensions.stream().anyMatch(fileName::endsWith);
-                    })
-                    .collect(Collectors.toList()));
-            logger.info("目录扫描完成。发现 {} 个符合条件的文件。", this.filePaths.size());
+        if (lastReadRelativePath == null && executionContext.containsKey(LEGACY_CURRENT_INDEX_KEY)) {
+            logger.warn("ExecutionContext 中只有旧版本的下标检查点 ({})，其对应的遍历顺序不确定，将从头开始扫描 " +
+                    "(已索引且未变化的文件会被解析前过滤阶段跳过)。", LEGACY_CURRENT_INDEX_KEY);
+        }
 
-            // 尝试从 ExecutionContext 恢复索引，实现基本的重启能力
-            // 注意：这仅在文件列表本身在重启间保持一致（或重新扫描得到相同顺序）时才有效。
-            if (executionContext.containsKey(CURRENT_INDEX_KEY)) {
-                this.currentIndex.set(executionContext.getInt(CURRENT_INDEX_KEY));
-                logger.info("从 ExecutionContext 恢复读取索引到: {}", this.currentIndex.get());
+        logger.info("开始扫描目录: {}，支持的扩展名: {}，修改时间下限: {}", baseDir, supportedExtensions,
+                scanFilter.getModifiedSince() != null ? scanFilter.getModifiedSince() : "无");
+        try {
+            if (lastReadRelativePath != null) {
+                logger.info("从检查点恢复扫描，上次读取到: {} (已读取 {} 个文件)", lastReadRelativePath, readCount);
+                seek(baseDir, Arrays.asList(lastReadRelativePath.split("/")));
+            } else {
+                cursors.push(new DirectoryCursor(listSorted(baseDir), 0));
             }
-
         } catch (IOException e) {
             logger.error("扫描目录 {} 时发生IO错误: {}", baseDir, e.getMessage(), e);
             throw new ItemStreamException("扫描目录失败: " + baseDir, e);
@@ -107,21 +150,131 @@ public class DirectoryScanningItemReader implements ItemStreamReader<Path> {
     }
 
     /**
-     * 从文件列表中读取下一个文件路径。
+     * 按检查点路径逐级定位游标。每一层只列出检查点路径上的目录，跳过排序在检查点之前的兄弟节点。
+     *
+     * @param dir        当前目录
+     * @param components 检查点路径在当前目录下剩余的各级名称
+     */
+    private void seek(Path dir, List<String> components) throws IOException {
+        List<Path> children = listSorted(dir);
+        String name = components.get(0);
+        int index = 0;
+        while (index < children.size() && children.get(index).getFileName().toString().compareTo(name) < 0) {
+            index++;
+        }
+        boolean matched = index < children.size() && children.get(index).getFileName().toString().equals(name);
+        if (matched && components.size() > 1
+                && Files.isDirectory(children.get(index), LinkOption.NOFOLLOW_LINKS)) {
+            // 检查点位于该子目录内: 当前层从下一个兄弟节点继续，先进入子目录定位
+            cursors.push(new DirectoryCursor(children, index + 1));
+            seek(children.get(index), components.subList(1, components.size()));
+            return;
+        }
+        // 检查点即为该节点 (已读取)，或该节点已不存在: 从排在其后的第一个节点继续
+        cursors.push(new DirectoryCursor(children, matched ? index + 1 : index));
+    }
+
+    /**
+     * 按确定的顺序读取下一个文件路径。
      *
      * @return 下一个文件路径，如果所有文件已读取完毕则返回 null。
      * @throws Exception 如果读取过程中发生不可恢复的错误。
      */
     @Override
     public Path read() throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
-        if (currentIndex.get() < filePaths.size()) {
-            Path filePath = filePaths.get(currentIndex.getAndIncrement());
-            logger.debug("ItemReader 读取文件: {}", filePath);
-            return filePath;
-        } else {
-            logger.info("ItemReader 已读取所有文件，返回 null。");
-            return null; // 表示读取结束
+        while (!cursors.isEmpty()) {
+            DirectoryCursor cursor = cursors.peek();
+            if (!cursor.hasNext()) {
+                cursors.pop();
+                continue;
+            }
+            Path child = cursor.next();
+            String fileName = child.getFileName().toString().toLowerCase();
+            if (!excludedExtensions.isEmpty() && endsWithAny(fileName, excludedExtensions)) {
+                // 本次作业未选中的文件类型，不读取属性直接跳过
+                continue;
+            }
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                logger.warn("读取 {} 的属性失败，已跳过: {}", child, e.getMessage());
+                continue;
+            }
+            if (attrs.isDirectory()) {
+                // 与 Files.walk 默认行为一致，不进入符号链接指向的目录
+                List<Path> children = listSorted(child);
+                if (!children.isEmpty()) {
+                    cursors.push(new DirectoryCursor(children, 0));
+                }
+                continue;
+            }
+            if (!endsWithAny(fileName, supportedExtensions)) {
+                continue;
+            }
+            boolean regularFile = attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(child));
+            if (!regularFile) {
+                continue;
+            }
+            // 符号链接需要取目标文件的修改时间
+            FileTime lastModified = attrs.isSymbolicLink() ? Files.getLastModifiedTime(child) : attrs.lastModifiedTime();
+            if (isModifiedSince(lastModified)) {
+                lastReadRelativePath = toRelativeString(child);
+                lastReadModifiedMillis = lastModified.toMillis();
+                readCount++;
+                logger.debug("ItemReader 读取文件: {}", child);
+                return child;
+            }
         }
+        if (baseDir != null) {
+            logger.info("ItemReader 已读取所有文件，返回 null。本步骤共读取 {} 个文件。", readCount);
+        }
+        return null; // 表示读取结束
+    }
+
+    private static boolean endsWithAny(String fileName, Set<String> extensions) {
+        for (String extension : extensions) {
+            if (fileName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isModifiedSince(FileTime lastModified) {
+        return scanFilter.getModifiedSince() == null || !lastModified.toInstant().isBefore(scanFilter.getModifiedSince());
+    }
+
+    /**
+     * 返回最近一次 read() 读出的文件的最后修改时间 (epoch 毫秒)，取自遍历时读取的属性，供按修改时间排序使用。
+     */
+    public long getLastReadModifiedMillis() {
+        return lastReadModifiedMillis;
+    }
+
+    /**
+     * 列出目录下的直接子节点并按文件名排序。没有访问权限的目录会被记录警告并跳过。
+     */
+    private List<Path> listSorted(Path dir) throws IOException {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        } catch (AccessDeniedException e) {
+            logger.warn("没有权限访问目录 {}，已跳过。", dir);
+            return Collections.emptyList();
+        }
+        children.sort(BY_FILE_NAME);
+        return children;
+    }
+
+    private String toRelativeString(Path path) {
+        List<String> names = new ArrayList<>();
+        for (Path name : baseDir.relativize(path)) {
+            names.add(name.toString());
+        }
+        return String.join("/", names);
     }
 
     /**
@@ -132,9 +285,12 @@ public class DirectoryScanningItemReader implements ItemStreamReader<Path> {
      */
     @Override
     public void update(ExecutionContext executionContext) throws ItemStreamException {
-        // 存储当前读取的索引，以便在作业重启时可以从该点继续（如果文件列表不变）
-        executionContext.putInt(CURRENT_INDEX_KEY, currentIndex.get());
-        logger.trace("ItemReader 更新 ExecutionContext 中的索引为: {}", currentIndex.get());
+        // 存储最后读取的文件相对路径，重启时从该路径之后继续
+        if (lastReadRelativePath != null) {
+            executionContext.putString(LAST_PATH_KEY, lastReadRelativePath);
+        }
+        executionContext.putLong(READ_COUNT_KEY, readCount);
+        logger.trace("ItemReader 更新 ExecutionContext 中的检查点为: {}", lastReadRelativePath);
     }
 
     /**
@@ -144,8 +300,28 @@ public class DirectoryScanningItemReader implements ItemStreamReader<Path> {
      */
     @Override
     public void close() throws ItemStreamException {
-        logger.info("关闭 DirectoryScanningItemReader。清空文件列表。");
-        this.filePaths.clear();
-        this.currentIndex.set(0);
+        logger.info("关闭 DirectoryScanningItemReader。");
+        this.cursors.clear();
+    }
+
+    /**
+     * 单个目录已排序子节点的遍历游标。
+     */
+    private static class DirectoryCursor {
+        private final List<Path> children;
+        private int position;
+
+        DirectoryCursor(List<Path> children, int position) {
+            this.children = children;
+            this.position = position;
+        }
+
+        boolean hasNext() {
+            return position < children.size();
+        }
+
+        Path next() {
+            return children.get(position++);
+        }
     }
 }
@@ -5,31 +5,45 @@
  * 作者: Gemini
  * 代码用途: Spring Batch ItemWriter，将EsDocumentDto列表批量写入Elasticsearch。
  * 这个 ItemWriter 将负责接收由 FileToEsDocumentProcessor 处理后生成的 EsDocumentDto 对象列表（以 Chunk 的形式），
- * 并调用 ElasticsearchPersistenceService 将它们批量写入 Elasticsearch。
+ * 并逐个提交到共享的 BulkIngestionService，由它与 Kafka 监听器等其他来源的写入合并为 bulk 请求
+ * (操作数、字节数和时间阈值见 dms.indexer.bulk.*)。
+ * 提交后立即 flush 并等待本块所有文档的 Future 完成，保证块提交 (检查点) 之前文档已写入 ES。
+ * 失败处理 (与 AsyncBulkItemWriter、StreamingBulkItemWriter 一致):
+ * - 不可重试的文档错误 (mapper_parsing、序列化失败等) 已发送到失败 Topic，只计数，块照常提交，作业不会卡在一个坏文档上；
+ * - 传输异常或可重试的失败在重试耗尽后仍然存在 (TransientIndexingException，例如 ES 不可用) 时抛出 IndexingException，
+ *   块不提交，检查点不会越过未写入的文件。
+ * 字节上限由 BulkIngestionService 的 BulkIngester (dms.indexer.bulk.max-bytes) 按字节数发送 bulk 请求保证。
  *
  */
 package org.ls.indexer.batch;
 
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
 import org.ls.indexer.dto.EsDocumentDto;
-import org.ls.indexer.service.ElasticsearchPersistenceService;
+import org.ls.indexer.exception.IndexingException;
+import org.ls.indexer.exception.TransientIndexingException;
+import org.ls.indexer.service.BulkIngestionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.item.Chunk; // Spring Batch Chunk
 import org.springframework.batch.item.ItemWriter; // Spring Batch ItemWriter
+
+import java.util.ArrayList;
 import java.util.List; // 确保导入 List
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public class ElasticsearchBulkItemWriter implements ItemWriter<EsDocumentDto> {
 
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchBulkItemWriter.class);
 
-    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+    private final BulkIngestionService bulkIngestionService;
 
-    public ElasticsearchBulkItemWriter(ElasticsearchPersistenceService elasticsearchPersistenceService) {
-        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+    public ElasticsearchBulkItemWriter(BulkIngestionService bulkIngestionService) {
+        this.bulkIngestionService = bulkIngestionService;
     }
 
     /**
-     * 将一批 EsDocumentDto 对象批量写入 Elasticsearch。
+     * 将一批 EsDocumentDto 对象提交到共享的 bulk 写入组件，并等待全部完成。
      *
      * @param chunk 包含要写入的 EsDocumentDto 对象的块 (Chunk)。
      * Chunk 实现了 List 接口，其getItems()方法返回一个List。
@@ -37,11 +51,8 @@ public class ElasticsearchBulkItemWriter implements ItemWriter<EsDocumentDto> {
      */
     @Override
     public void write(Chunk<? extends EsDocumentDto> chunk) throws Exception {
-        // 从 Chunk 中获取项目列表
-        // Chunk<? extends EsDocumentDto> itemsChunk = chunk; // 这行是多余的
         List<? extends EsDocumentDto> items = chunk.getItems();
 
-
         if (items.isEmpty()) {
             logger.debug("ItemWriter 接收到空的项目列表，无需写入。");
             return;
@@ -50,25 +61,35 @@ public class ElasticsearchBulkItemWriter implements ItemWriter<EsDocumentDto> {
         logger.info("ItemWriter 开始批量写入 {} 个文档到 Elasticsearch。", items.size());
 
         try {
-            // ElasticsearchPersistenceService.bulkIndexDocuments 期望 List<EsDocumentDto>
-            // 由于 items 是 List<? extends EsDocumentDto>，我们需要将其转换为 List<EsDocumentDto>。
-            // 如果确定 EsDocumentDto 是最终类型且不会有子类传递，可以直接强制类型转换。
-            // 或者，如果允许子类且 ElasticsearchPersistenceService 可以处理它们，则转换也是安全的。
-            // 为了更明确，可以创建一个新的List，但这会引入额外的开销。
-            // 在这种情况下，直接转换通常是可以接受的。
-            @SuppressWarnings("unchecked") // 压制非受检转换警告，因为我们期望items中的元素都是EsDocumentDto
-            List<EsDocumentDto> dtoList = (List<EsDocumentDto>) items;
+            List<CompletableFuture<BulkResponseItem>> futures = new ArrayList<>(items.size());
+            for (EsDocumentDto document : items) {
+                futures.add(bulkIngestionService.submitHistoricalIndex(document));
+            }
+            bulkIngestionService.flush(); // 不等待 flush-interval，尽快提交本块剩余的文档
 
-            boolean success = elasticsearchPersistenceService.bulkIndexDocuments(dtoList);
-            if (success) {
+            int failed = 0;
+            Throwable transientFailure = null;
+            for (CompletableFuture<BulkResponseItem> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof IndexingException && !(cause instanceof TransientIndexingException)) {
+                        failed++; // 已发送到失败 Topic
+                        logger.error("文档写入失败 (已记录到失败 Topic): {}", cause.getMessage());
+                    } else if (transientFailure == null) {
+                        transientFailure = cause;
+                    }
+                }
+            }
+            if (transientFailure != null) {
+                throw new IndexingException("批量写入 " + items.size() + " 个文档时 ES 写入在重试后仍然失败: "
+                        + transientFailure.getMessage(), transientFailure);
+            }
+            if (failed == 0) {
                 logger.info("成功批量写入 {} 个文档。", items.size());
             } else {
-                logger.warn("批量写入 {} 个文档时发生部分或全部失败 (详见ElasticsearchPersistenceService日志)。", items.size());
-                // 根据需求，这里可以抛出异常以使当前块或步骤失败
-                // 例如: throw new RuntimeException("批量写入 Elasticsearch 失败，请检查日志。");
-                // 如果 ElasticsearchPersistenceService.bulkIndexDocuments 在失败时会抛出异常，
-                // 那么这里的判断可能就不需要了，异常会直接传播出去。
-                // 当前 ElasticsearchPersistenceService.bulkIndexDocuments 设计为返回boolean并记录错误。
+                logger.warn("批量写入 {} 个文档时 {} 个因不可重试的错误失败，已记录到失败 Topic。", items.size(), failed);
             }
         } catch (Exception e) {
             logger.error("ItemWriter 在批量写入 Elasticsearch 时发生严重错误: {}", e.getMessage(), e);
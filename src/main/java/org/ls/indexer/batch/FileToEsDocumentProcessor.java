@@ -7,19 +7,21 @@
  *
  * 功能说明：
  * ItemProcessor<Path, EsDocumentDto>: 实现此接口，表明它接收一个 Path 对象，并输出一个 EsDocumentDto 对象（或者 null 如果该项应被跳过）。
- * 依赖注入: 通过构造函数注入 FileParserService 和 ElasticsearchIdGenerator。这些依赖在 BatchConfig.java 中已经配置好了。
+ * 依赖注入: 通过构造函数注入 FileParserService、ElasticsearchIdGenerator、HistoricalJobThrottle 和 ChunkedDocumentService。这些依赖在 BatchConfig.java 中已经配置好了。
  * process(Path filePath) 方法:
  * 接收一个文件路径。
+ * 限流: 解析前先读取文件属性，按文件大小向 HistoricalJobThrottle 申请配额 (文档数/秒、MB/秒)，超过上限时阻塞等待。
  * 调用 FileParserService: 使用 fileParserService.parseFile(filePath) 来提取文件的文本内容、标题和作者。
  * 处理解析结果: 如果解析结果为 null 或者提取的内容为空，则记录警告并返回 null。返回 null 会告诉 Spring Batch 跳过这个 Item，它不会被传递给 ItemWriter。
  * 调用 ElasticsearchIdGenerator: 使用 elasticsearchIdGenerator.generateIdFromFilePath(filePath) 为当前文件生成一个确定性的文档 ID。
  * 获取文件属性:
- * 使用 Files.size(filePath) 获取文件大小。
- * 使用 Files.readAttributes(filePath, BasicFileAttributes.class) 获取文件的基本属性，然后从中提取最后修改时间并转换为 epoch seconds。
+ * 使用 Files.readAttributes(filePath, BasicFileAttributes.class) 一次性获取文件大小和最后修改时间 (转换为 epoch seconds)，限流与构建文档共用。
  * 构建 EsDocumentDto: 使用 EsDocumentDto.builder() 创建文档对象。
  * filename: 对于历史数据批量索引，我们直接使用文件的实际名称。
  * sourcePath: 使用文件的绝对路径作为源路径。
  * eventTimestamp: 对于批量作业，可以将事件时间戳设置为当前处理时间 (Instant.now())。
+ * 分块文档模式 (dms.indexer.chunking.enabled): 不提取完整文本，由 ChunkedDocumentService 流式写入分块文档后，
+ * 返回不含 content、带 chunk_count 的父文档交给 ItemWriter；没有任何分块 (内容为空) 时跳过该文件。
  * 错误处理:
  * 捕获 FileParserService 可能抛出的 IndexingException。在这种情况下，记录错误并返回 null 以跳过该文件。
  * 捕获其他任何意外的 Exception。在这种情况下，记录错误并重新抛出异常。这允许 Spring Batch 的步骤级错误处理机制（如配置的 skipLimit 或 retryLimit）介入。如果希望这些错误也只是跳过该项，可以改为返回 null。
@@ -30,14 +32,16 @@ package org.ls.indexer.batch;
 import org.ls.indexer.dto.EsDocumentDto;
 import org.ls.indexer.dto.FileParseResult;
 import org.ls.indexer.exception.IndexingException;
+import org.ls.indexer.service.ChunkedDocumentService;
 import org.ls.indexer.service.FileParserService;
+import org.ls.indexer.service.HistoricalJobThrottle;
 import org.ls.indexer.util.ElasticsearchIdGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.item.ItemProcessor; // Spring Batch ItemProcessor
 
-import java.io.IOException; // For Files.size
-import java.nio.file.Files; // For Files.size
+import java.io.IOException;
+import java.nio.file.Files; // For Files.readAttributes
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes; // For lastModifiedTime
 import java.time.Instant;
@@ -48,11 +52,17 @@ public class FileToEsDocumentProcessor implements ItemProcessor<Path, EsDocument
 
     private final FileParserService fileParserService;
     private final ElasticsearchIdGenerator elasticsearchIdGenerator;
+    private final HistoricalJobThrottle historicalJobThrottle;
+    private final ChunkedDocumentService chunkedDocumentService;
 
     public FileToEsDocumentProcessor(FileParserService fileParserService,
-                                     ElasticsearchIdGenerator elasticsearchIdGenerator) {
+                                     ElasticsearchIdGenerator elasticsearchIdGenerator,
+                                     HistoricalJobThrottle historicalJobThrottle,
+                                     ChunkedDocumentService chunkedDocumentService) {
         this.fileParserService = fileParserService;
         this.elasticsearchIdGenerator = elasticsearchIdGenerator;
+        this.historicalJobThrottle = historicalJobThrottle;
+        this.chunkedDocumentService = chunkedDocumentService;
     }
 
     /**
@@ -72,30 +82,35 @@ public class FileToEsDocumentProcessor implements ItemProcessor<Path, EsDocument
         }
 
         try {
-            // 1. 解析文件内容和元数据
-            FileParseResult parseResult = fileParserService.parseFile(filePath);
-
-            // 如果解析结果为空或内容为空 (根据业务需求决定是否跳过)
-            if (parseResult == null || parseResult.getContent() == null || parseResult.getContent().isEmpty()) {
-                logger.warn("文件 {} 解析结果为空或内容为空，已跳过。", filePath);
-                return null; // 跳过此文件
-            }
-
-            // 2. 生成 Elasticsearch 文档 ID
-            String documentId = elasticsearchIdGenerator.generateIdFromFilePath(filePath);
-
-            // 3. 获取文件属性 (最后修改时间, 文件大小)
+            // 1. 获取文件属性 (最后修改时间, 文件大小)，并按吞吐量上限限流
             long fileSize;
             long lastModifiedEpochSeconds;
             try {
-                fileSize = Files.size(filePath);
                 BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+                fileSize = attrs.size();
                 lastModifiedEpochSeconds = attrs.lastModifiedTime().toInstant().getEpochSecond();
             } catch (IOException e) {
                 logger.error("获取文件 {} 的属性 (大小/最后修改时间) 失败: {}", filePath, e.getMessage(), e);
                 // 根据策略决定是否跳过或抛出异常，这里选择跳过
                 return null;
             }
+            historicalJobThrottle.acquire(fileSize);
+
+            if (chunkedDocumentService.isEnabled()) {
+                return processInChunks(filePath, fileSize, lastModifiedEpochSeconds);
+            }
+
+            // 2. 解析文件内容和元数据
+            FileParseResult parseResult = fileParserService.parseFile(filePath);
+
+            // 如果解析结果为空或内容为空 (根据业务需求决定是否跳过)
+            if (parseResult == null || parseResult.getContent() == null || parseResult.getContent().isEmpty()) {
+                logger.warn("文件 {} 解析结果为空或内容为空，已跳过。", filePath);
+                return null; // 跳过此文件
+            }
+
+            // 3. 生成 Elasticsearch 文档 ID
+            String documentId = elasticsearchIdGenerator.generateIdFromFilePath(filePath);
 
             // 4. 构建 EsDocumentDto
             EsDocumentDto esDoc = EsDocumentDto.builder()
@@ -107,6 +122,7 @@ public class FileToEsDocumentProcessor implements ItemProcessor<Path, EsDocument
                     .title(parseResult.getTitle())
                     .author(parseResult.getAuthor())
                     .fileSizeBytes(fileSize)
+                    .contentSha256(parseResult.getContentSha256())
                     .eventTimestamp(Instant.now()) // 对于批量作业，可以将事件时间戳设置为当前处理时间
                     .build();
 
@@ -120,6 +136,10 @@ public class FileToEsDocumentProcessor implements ItemProcessor<Path, EsDocument
             // 根据需要，可以选择记录错误并跳过 (返回null)，或者让异常传播以使步骤失败
             // 返回 null 会被视为一个被过滤的项，不会传递给 ItemWriter
             return null;
+        } catch (InterruptedException e) {
+            // 限流等待期间被中断 (例如作业被停止)，恢复中断标志后交给批处理框架处理
+            Thread.currentThread().interrupt();
+            throw e;
         } catch (Exception e) {
             // 捕获其他意外异常
             logger.error("处理文件 {} 时发生未知错误: {}", filePath, e.getMessage(), e);
@@ -128,4 +148,26 @@ public class FileToEsDocumentProcessor implements ItemProcessor<Path, EsDocument
             throw e; // 重新抛出，让批处理框架处理
         }
     }
+
+    /**
+     * 分块文档模式: 分块由 ChunkedDocumentService 写入目标索引，返回的父文档由 ItemWriter 写入。
+     */
+    private EsDocumentDto processInChunks(Path filePath, long fileSize, long lastModifiedEpochSeconds) throws IndexingException {
+        EsDocumentDto parent = EsDocumentDto.builder()
+                .fileId(elasticsearchIdGenerator.generateIdFromFilePath(filePath))
+                .filename(filePath.getFileName().toString())
+                .sourcePath(filePath.toAbsolutePath().toString())
+                .lastModified(lastModifiedEpochSeconds)
+                .fileSizeBytes(fileSize)
+                .eventTimestamp(Instant.now())
+                .build();
+        chunkedDocumentService.indexHistorical(parent, filePath);
+        if (parent.getChunkCount() == null || parent.getChunkCount() == 0) {
+            logger.warn("文件 {} 解析结果为空或内容为空，已跳过。", filePath);
+            return null;
+        }
+        logger.info("文件 {} 处理成功。文档 ID: {}, 标题: '{}', 分块数: {}",
+                filePath, parent.getFileId(), parent.getTitle(), parent.getChunkCount());
+        return parent;
+    }
 }
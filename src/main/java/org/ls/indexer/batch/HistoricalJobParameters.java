@@ -0,0 +1,109 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/HistoricalJobParameters.java
+ * 文件名称: HistoricalJobParameters.java
+ * 开发时间: 2025-06-23 14:10:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 历史索引作业的参数名称定义与校验器。
+ *
+ * 功能说明：
+ * subPath       (String): 相对于 targetBaseDir 的子目录，只扫描该子目录
+ * modifiedSince (Long)  : epoch 毫秒，只读取最后修改时间不早于该时间的文件
+ * extensions    (String): 逗号分隔的扩展名子集，必须是 dms.indexer.supported-extensions 的子集
+ * order         (String): 处理顺序 (HistoricalScanOrder)，未指定时使用 dms.indexer.batch.historical.order
+ * reindexTarget (String): 蓝绿重建的新索引 (BlueGreenReindexService)，作业写入该索引；必须是全量扫描，不能与前三个过滤参数同时使用
+ * 校验器在作业启动前检查参数，参数无效时抛出 JobParametersInvalidException。
+ */
+package org.ls.indexer.batch;
+
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersInvalidException;
+import org.springframework.batch.core.JobParametersValidator;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Set;
+
+public class HistoricalJobParameters implements JobParametersValidator {
+
+    public static final String LAUNCH_DATE = "launchDate";
+    public static final String SUB_PATH = "subPath";
+    public static final String MODIFIED_SINCE = "modifiedSince";
+    public static final String EXTENSIONS = "extensions";
+    public static final String ORDER = "order";
+    public static final String REINDEX_TARGET = "reindexTarget";
+
+    private final Set<String> supportedExtensions;
+
+    public HistoricalJobParameters(Set<String> supportedExtensions) {
+        this.supportedExtensions = supportedExtensions;
+    }
+
+    @Override
+    public void validate(JobParameters parameters) throws JobParametersInvalidException {
+        if (parameters == null) {
+            return;
+        }
+        validateSubPath(parameters.getString(SUB_PATH));
+        validateOrder(parameters.getString(ORDER));
+        if (parameters.getString(REINDEX_TARGET) != null
+                && (parameters.getString(SUB_PATH) != null || parameters.getLong(MODIFIED_SINCE) != null
+                || parameters.getString(EXTENSIONS) != null)) {
+            throw new JobParametersInvalidException("蓝绿重建必须是全量扫描，不能指定 subPath / modifiedSince / extensions");
+        }
+        Set<String> extensions = HistoricalScanFilter.parseExtensions(parameters.getString(EXTENSIONS));
+        for (String extension : extensions) {
+            if (!supportedExtensions.contains(extension)) {
+                throw new JobParametersInvalidException("扩展名 " + extension + " 不在支持的扩展名列表中: " + supportedExtensions);
+            }
+        }
+    }
+
+    /**
+     * 校验子目录参数: 必须是相对路径，且规范化后不能跳出基础目录。
+     */
+    public static void validateSubPath(String subPath) throws JobParametersInvalidException {
+        if (subPath == null || subPath.isBlank()) {
+            return;
+        }
+        Path path;
+        try {
+            path = Paths.get(subPath).normalize();
+        } catch (InvalidPathException e) {
+            throw new JobParametersInvalidException("子目录参数无效: " + subPath);
+        }
+        if (path.isAbsolute() || path.startsWith("..")) {
+            throw new JobParametersInvalidException("子目录必须是基础目录内的相对路径: " + subPath);
+        }
+    }
+
+    /**
+     * 校验处理顺序参数，必须是 HistoricalScanOrder 中定义的值。
+     */
+    public static void validateOrder(String order) throws JobParametersInvalidException {
+        if (order == null || order.isBlank()) {
+            return;
+        }
+        try {
+            HistoricalScanOrder.valueOf(order.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new JobParametersInvalidException("处理顺序参数无效: " + order + "，可选值: PATH, NEWEST_FIRST");
+        }
+    }
+
+    /**
+     * 根据作业参数构建目录扫描过滤条件。
+     *
+     * @param subPath          子目录参数，可以为 null
+     * @param modifiedSinceMs  修改时间下限 (epoch 毫秒)，可以为 null
+     * @param extensions       逗号分隔的扩展名，可以为 null
+     * @return 目录扫描过滤条件
+     */
+    public static HistoricalScanFilter toScanFilter(String subPath, Long modifiedSinceMs, String extensions) {
+        return new HistoricalScanFilter(
+                subPath == null || subPath.isBlank() ? null : subPath.trim(),
+                modifiedSinceMs == null ? null : Instant.ofEpochMilli(modifiedSinceMs),
+                HistoricalScanFilter.parseExtensions(extensions));
+    }
+}
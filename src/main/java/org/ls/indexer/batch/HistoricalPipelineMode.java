@@ -0,0 +1,29 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/HistoricalPipelineMode.java
+ * 文件名称: HistoricalPipelineMode.java
+ * 开发时间: 2025-06-21 09:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 历史文件索引步骤的处理流水线模式。
+ * 对应配置文件中的 dms.indexer.batch.historical.pipeline-mode
+ */
+package org.ls.indexer.batch;
+
+public enum HistoricalPipelineMode {
+
+    /**
+     * 同步模式: ItemProcessor 串行解析整个块，然后 ItemWriter 同步发送 bulk 请求。
+     */
+    SYNC,
+
+    /**
+     * 异步模式: ItemProcessor 在线程池中并发解析并返回 Future，ItemWriter 按顺序解包结果并在后台提交 bulk 请求，
+     * 使块内剩余文件的解析与已解析文件的 bulk 写入重叠进行；块提交前等待本块的 bulk 全部完成。
+     */
+    ASYNC,
+
+    /**
+     * 流式模式: 解析后的文档进入缓冲区，按字节数上限随时发送 bulk 请求；块按检查点间隔 (时间 / 文件数) 关闭，
+     * 块结束时写入剩余文档后再提交 JobRepository 检查点。元数据提交次数与 bulk 次数解耦，适合大规模的历史索引。
+     */
+    STREAMING
+}
@@ -0,0 +1,76 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/HistoricalScanFilter.java
+ * 文件名称: HistoricalScanFilter.java
+ * 开发时间: 2025-06-23 14:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 历史索引作业的目录扫描过滤条件 (子目录、修改时间下限、扩展名子集)，
+ *          由作业参数构建并下推到 DirectoryScanningItemReader 的目录遍历中。
+ */
+package org.ls.indexer.batch;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class HistoricalScanFilter {
+
+    private static final HistoricalScanFilter NONE = new HistoricalScanFilter(null, null, Collections.emptySet());
+
+    private final String subPath;
+    private final Instant modifiedSince;
+    private final Set<String> extensions;
+
+    /**
+     * @param subPath       相对于 targetBaseDir 的子目录，null 表示扫描整个基础目录
+     * @param modifiedSince 只读取最后修改时间不早于该时间的文件，null 表示不限制
+     * @param extensions    只读取这些扩展名的文件 (小写，带 "."), 为空表示使用全部支持的扩展名
+     */
+    public HistoricalScanFilter(String subPath, Instant modifiedSince, Set<String> extensions) {
+        this.subPath = subPath;
+        this.modifiedSince = modifiedSince;
+        this.extensions = extensions == null ? Collections.emptySet() : Collections.unmodifiableSet(extensions);
+    }
+
+    public static HistoricalScanFilter none() {
+        return NONE;
+    }
+
+    public String getSubPath() {
+        return subPath;
+    }
+
+    public Instant getModifiedSince() {
+        return modifiedSince;
+    }
+
+    public Set<String> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * 将逗号分隔的扩展名列表规范化为小写、带 "." 前缀的集合。例如 "vsd, .VSDX" -> [".vsd", ".vsdx"]。
+     *
+     * @param csv 逗号分隔的扩展名，可以为 null
+     * @return 规范化后的扩展名集合，保持输入顺序
+     */
+    public static Set<String> parseExtensions(String csv) {
+        Set<String> result = new LinkedHashSet<>();
+        if (csv == null || csv.isBlank()) {
+            return result;
+        }
+        for (String ext : csv.split(",")) {
+            String trimmed = ext.trim().toLowerCase();
+            if (!trimmed.isEmpty()) {
+                result.add(trimmed.startsWith(".") ? trimmed : "." + trimmed);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoricalScanFilter{subPath='" + subPath + "', modifiedSince=" + modifiedSince
+                + ", extensions=" + extensions + '}';
+    }
+}
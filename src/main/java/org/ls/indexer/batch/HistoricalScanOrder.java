@@ -0,0 +1,22 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/HistoricalScanOrder.java
+ * 文件名称: HistoricalScanOrder.java
+ * 开发时间: 2025-06-24 09:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 历史索引作业处理文件的顺序。
+ * 对应配置文件中的 dms.indexer.batch.historical.order，也可以通过作业参数 order 为单次作业指定。
+ */
+package org.ls.indexer.batch;
+
+public enum HistoricalScanOrder {
+
+    /**
+     * 按路径顺序: 按文件名排序的深度优先遍历，边扫描边处理。
+     */
+    PATH,
+
+    /**
+     * 最新优先: 先扫描整个目录树并按最后修改时间降序外部排序，再依次处理，使最近的文档最先可被搜索。
+     */
+    NEWEST_FIRST
+}
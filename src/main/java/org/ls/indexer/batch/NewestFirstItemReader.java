@@ -0,0 +1,322 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/NewestFirstItemReader.java
+ * 文件名称: NewestFirstItemReader.java
+ * 开发时间: 2025-06-24 10:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 最新优先模式的 ItemReader。先通过 DirectoryScanningItemReader 扫描整个目录树，
+ *          按最后修改时间降序 (相同时间按路径升序) 外部排序后，再依次返回文件路径。
+ *
+ * 功能说明：
+ * 外部排序: 扫描结果每 runSize 条在内存中排序后写入一个临时分段文件，扫描结束后对所有分段做 k 路归并，
+ *          生成一个有序文件。内存占用只与 runSize 有关，与文件总数无关。
+ * 检查点: ExecutionContext 中保存有序文件路径、已读取条数、最后读取的 (修改时间, 路径) 以及扫描开始时间。
+ *         重启时如果有序文件仍存在，则顺序跳过已读取的条数；否则重新扫描排序，并跳过排在检查点之前、
+ *         且修改时间不晚于上次扫描开始时间的文件 (扫描开始后才修改的文件会被重新处理)。
+ * 有序文件在全部读取完成后删除；工作目录中超过 7 天的遗留文件会在打开时清理。
+ */
+package org.ls.indexer.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+public class NewestFirstItemReader implements ItemStreamReader<Path> {
+
+    private static final Logger logger = LoggerFactory.getLogger(NewestFirstItemReader.class);
+
+    private static final String SORTED_FILE_KEY = "newest.first.sorted.file";
+    private static final String POSITION_KEY = "newest.first.position";
+    private static final String LAST_MTIME_KEY = "newest.first.last.mtime";
+    private static final String LAST_PATH_KEY = "newest.first.last.path";
+    private static final String SCAN_START_KEY = "newest.first.scan.start";
+
+    private static final Duration STALE_FILE_AGE = Duration.ofDays(7);
+    private static final int IO_BUFFER_SIZE = 256 * 1024;
+
+    // 修改时间降序，相同时间按路径升序
+    private static final Comparator<SortEntry> NEWEST_FIRST = Comparator
+            .comparingLong((SortEntry e) -> e.modifiedMillis).reversed()
+            .thenComparing(e -> e.path);
+
+    private final DirectoryScanningItemReader scanner;
+    private final Path workDir;
+    private final int runSize;
+
+    private Path sortedFile;
+    private DataInputStream input;
+    private long position;
+    private SortEntry lastEntry;
+    private long scanStartMillis;
+    // 重新扫描后用于跳过已处理文件的检查点 (仅在有序文件丢失时使用)
+    private SortEntry resumeAfter;
+    private long resumeScanStartMillis;
+    private boolean exhausted;
+
+    public NewestFirstItemReader(DirectoryScanningItemReader scanner, Path workDir, int runSize) {
+        this.scanner = scanner;
+        this.workDir = workDir;
+        this.runSize = Math.max(1000, runSize);
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        this.exhausted = false;
+        this.resumeAfter = null;
+        this.position = 0L;
+        this.lastEntry = executionContext.containsKey(LAST_PATH_KEY)
+                ? new SortEntry(executionContext.getLong(LAST_MTIME_KEY), executionContext.getString(LAST_PATH_KEY))
+                : null;
+        try {
+            Files.createDirectories(workDir);
+            deleteStaleFiles();
+
+            String previousFile = executionContext.containsKey(SORTED_FILE_KEY) ? executionContext.getString(SORTED_FILE_KEY) : null;
+            if (previousFile != null && Files.exists(Paths.get(previousFile))) {
+                this.sortedFile = Paths.get(previousFile);
+                this.scanStartMillis = executionContext.getLong(SCAN_START_KEY);
+                this.input = openInput(sortedFile);
+                long skip = executionContext.getLong(POSITION_KEY, 0L);
+                for (long i = 0; i < skip && readEntry() != null; i++) {
+                    position++;
+                }
+                logger.info("最新优先模式: 复用已排序文件 {}，跳过已读取的 {} 个文件。", sortedFile, position);
+                return;
+            }
+
+            if (lastEntry != null) {
+                // 有序文件已丢失，重新扫描后按检查点跳过
+                this.resumeAfter = lastEntry;
+                this.resumeScanStartMillis = executionContext.getLong(SCAN_START_KEY, System.currentTimeMillis());
+                logger.info("最新优先模式: 未找到上次的已排序文件，将重新扫描并从检查点 {} ({}) 之后继续。",
+                        lastEntry.path, Instant.ofEpochMilli(lastEntry.modifiedMillis));
+            }
+            this.scanStartMillis = System.currentTimeMillis();
+            this.sortedFile = scanAndSort();
+            this.input = openInput(sortedFile);
+        } catch (IOException e) {
+            throw new ItemStreamException("最新优先模式下扫描排序文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 扫描整个目录树，分段排序后归并为一个有序文件。
+     */
+    private Path scanAndSort() throws IOException {
+        long start = System.nanoTime();
+        List<Path> runs = new ArrayList<>();
+        List<SortEntry> buffer = new ArrayList<>(runSize);
+        long total = 0L;
+
+        scanner.open(new ExecutionContext()); // 总是完整扫描，不使用路径顺序的检查点
+        try {
+            Path path;
+            while ((path = scanner.read()) != null) {
+                buffer.add(new SortEntry(scanner.getLastReadModifiedMillis(), path.toString()));
+                total++;
+                if (buffer.size() >= runSize) {
+                    runs.add(writeRun(buffer));
+                    buffer.clear();
+                }
+            }
+        } catch (Exception e) {
+            throw e instanceof IOException ? (IOException) e : new IOException("扫描目录失败: " + e.getMessage(), e);
+        } finally {
+            scanner.close();
+        }
+        if (!buffer.isEmpty() || runs.isEmpty()) {
+            runs.add(writeRun(buffer));
+        }
+
+        Path sorted = Files.createTempFile(workDir, "newest-first-", ".sorted");
+        if (runs.size() == 1) {
+            Files.move(runs.get(0), sorted, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            mergeRuns(runs, sorted);
+        }
+        logger.info("最新优先模式: 扫描并排序 {} 个文件完成 (分段数: {})，耗时 {}ms。",
+                total, runs.size(), (System.nanoTime() - start) / 1_000_000L);
+        return sorted;
+    }
+
+    private Path writeRun(List<SortEntry> entries) throws IOException {
+        entries.sort(NEWEST_FIRST);
+        Path run = Files.createTempFile(workDir, "newest-first-", ".run");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_SIZE))) {
+            for (SortEntry entry : entries) {
+                out.writeLong(entry.modifiedMillis);
+                out.writeUTF(entry.path);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * k 路归并多个已排序的分段文件。
+     */
+    private void mergeRuns(List<Path> runs, Path target) throws IOException {
+        List<DataInputStream> inputs = new ArrayList<>(runs.size());
+        PriorityQueue<RunHead> heads = new PriorityQueue<>((a, b) -> NEWEST_FIRST.compare(a.entry, b.entry));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target), IO_BUFFER_SIZE))) {
+            for (Path run : runs) {
+                DataInputStream in = openInput(run);
+                inputs.add(in);
+                SortEntry first = readEntry(in);
+                if (first != null) {
+                    heads.add(new RunHead(first, in));
+                }
+            }
+            while (!heads.isEmpty()) {
+                RunHead head = heads.poll();
+                out.writeLong(head.entry.modifiedMillis);
+                out.writeUTF(head.entry.path);
+                SortEntry next = readEntry(head.input);
+                if (next != null) {
+                    heads.add(new RunHead(next, head.input));
+                }
+            }
+        } finally {
+            for (DataInputStream in : inputs) {
+                in.close();
+            }
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    @Override
+    public Path read() throws Exception {
+        if (input == null || exhausted) {
+            return null;
+        }
+        SortEntry entry;
+        while ((entry = readEntry()) != null) {
+            position++;
+            if (resumeAfter != null) {
+                if (entry.modifiedMillis <= resumeScanStartMillis && NEWEST_FIRST.compare(entry, resumeAfter) <= 0) {
+                    continue; // 上次运行中已处理过且之后未修改
+                }
+                if (entry.modifiedMillis <= resumeScanStartMillis) {
+                    resumeAfter = null; // 已越过检查点
+                }
+            }
+            lastEntry = entry;
+            return Paths.get(entry.path);
+        }
+        exhausted = true;
+        logger.info("最新优先模式: 已读取全部 {} 个文件。", position);
+        return null;
+    }
+
+    private SortEntry readEntry() throws IOException {
+        return readEntry(input);
+    }
+
+    private static SortEntry readEntry(DataInputStream in) throws IOException {
+        long modifiedMillis;
+        try {
+            modifiedMillis = in.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        return new SortEntry(modifiedMillis, in.readUTF());
+    }
+
+    private static DataInputStream openInput(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_SIZE));
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (sortedFile != null) {
+            executionContext.putString(SORTED_FILE_KEY, sortedFile.toString());
+        }
+        executionContext.putLong(POSITION_KEY, position);
+        executionContext.putLong(SCAN_START_KEY, resumeAfter != null ? resumeScanStartMillis : scanStartMillis);
+        if (lastEntry != null) {
+            executionContext.putLong(LAST_MTIME_KEY, lastEntry.modifiedMillis);
+            executionContext.putString(LAST_PATH_KEY, lastEntry.path);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        try {
+            if (input != null) {
+                input.close();
+            }
+            // 只有全部读取完成时才删除有序文件，未完成时保留以便重启复用
+            if (exhausted && sortedFile != null) {
+                Files.deleteIfExists(sortedFile);
+            }
+        } catch (IOException e) {
+            logger.warn("关闭最新优先模式的排序文件时出错: {}", e.getMessage());
+        } finally {
+            input = null;
+        }
+    }
+
+    private void deleteStaleFiles() {
+        Instant threshold = Instant.now().minus(STALE_FILE_AGE);
+        try (Stream<Path> files = Files.list(workDir)) {
+            files.filter(f -> f.getFileName().toString().startsWith("newest-first-"))
+                    .filter(f -> {
+                        try {
+                            return Files.getLastModifiedTime(f).toInstant().isBefore(threshold);
+                        } catch (IOException e) {
+                            return false;
+                        }
+                    })
+                    .forEach(f -> {
+                        try {
+                            Files.deleteIfExists(f);
+                            logger.info("已清理遗留的排序文件: {}", f);
+                        } catch (IOException e) {
+                            logger.warn("清理遗留的排序文件 {} 失败: {}", f, e.getMessage());
+                        }
+                    });
+        } catch (IOException e) {
+            logger.warn("清理排序工作目录 {} 失败: {}", workDir, e.getMessage());
+        }
+    }
+
+    private static class SortEntry {
+        private final long modifiedMillis;
+        private final String path;
+
+        SortEntry(long modifiedMillis, String path) {
+            this.modifiedMillis = modifiedMillis;
+            this.path = path;
+        }
+    }
+
+    private static class RunHead {
+        private final SortEntry entry;
+        private final DataInputStream input;
+
+        RunHead(SortEntry entry, DataInputStream input) {
+            this.entry = entry;
+            this.input = input;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/OrphanReconciliationTasklet.java
+ * 文件名称: OrphanReconciliationTasklet.java
+ * 开发时间: 2025-06-25 15:50:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 孤儿文档对账作业 (orphanReconciliationJob) 的 Tasklet。调用 OrphanReconciliationService 执行一次对账，
+ *          把统计信息写入步骤的 ExecutionContext，并以读取数 / 写入数记录遍历的文档数和删除的文档数。
+ */
+package org.ls.indexer.batch;
+
+import org.ls.indexer.service.OrphanReconciliationService;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import java.util.Map;
+
+public class OrphanReconciliationTasklet implements Tasklet {
+
+    /**
+     * 作业参数: 为 "true" 时只统计孤儿文档，不删除。
+     */
+    public static final String DRY_RUN = "dryRun";
+
+    private final OrphanReconciliationService orphanReconciliationService;
+
+    public OrphanReconciliationTasklet(OrphanReconciliationService orphanReconciliationService) {
+        this.orphanReconciliationService = orphanReconciliationService;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+        Object dryRunParameter = chunkContext.getStepContext().getJobParameters().get(DRY_RUN);
+        boolean dryRun = dryRunParameter != null && Boolean.parseBoolean(dryRunParameter.toString());
+
+        Map<String, Object> stats = orphanReconciliationService.reconcile(dryRun);
+
+        ExecutionContext executionContext = contribution.getStepExecution().getExecutionContext();
+        stats.forEach((key, value) -> executionContext.put("reconciliation." + key, value));
+        contribution.incrementReadCount(((Number) stats.get("scannedDocuments")).longValue());
+        contribution.incrementWriteCount(((Number) stats.get("deletedDocuments")).longValue());
+        return RepeatStatus.FINISHED;
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/PipelineStageMetrics.java
+ * 文件名称: PipelineStageMetrics.java
+ * 开发时间: 2025-06-21 09:40:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 记录异步流水线中解析阶段与 bulk 写入阶段的忙碌/等待时间，用于计算各阶段利用率。
+ */
+package org.ls.indexer.batch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PipelineStageMetrics {
+
+    private final LongAdder parseBusyNanos = new LongAdder();
+    private final LongAdder bulkBusyNanos = new LongAdder();
+    private final LongAdder parseWaitNanos = new LongAdder(); // Writer 等待解析结果的时间
+    private final LongAdder bulkWaitNanos = new LongAdder();  // Writer 等待上一个 bulk 完成的时间 (背压)
+
+    private volatile long startNanos = System.nanoTime();
+
+    public void reset() {
+        parseBusyNanos.reset();
+        bulkBusyNanos.reset();
+        parseWaitNanos.reset();
+        bulkWaitNanos.reset();
+        startNanos = System.nanoTime();
+    }
+
+    public void addParseBusy(long nanos) {
+        parseBusyNanos.add(nanos);
+    }
+
+    public void addBulkBusy(long nanos) {
+        bulkBusyNanos.add(nanos);
+    }
+
+    public void addParseWait(long nanos) {
+        parseWaitNanos.add(nanos);
+    }
+
+    public void addBulkWait(long nanos) {
+        bulkWaitNanos.add(nanos);
+    }
+
+    /**
+     * 计算自 reset() 以来各阶段的利用率。
+     *
+     * @param parseThreads 解析线程池大小，用于归一化解析阶段利用率
+     * @return 指标名称到值的映射 (利用率为 0~1 之间的小数，等待时间单位为毫秒)
+     */
+    public Map<String, Object> snapshot(int parseThreads) {
+        long elapsed = Math.max(1L, System.nanoTime() - startNanos);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("pipeline.elapsed.ms", elapsed / 1_000_000L);
+        result.put("pipeline.parse.utilization", (double) parseBusyNanos.sum() / ((double) elapsed * Math.max(1, parseThreads)));
+        result.put("pipeline.bulk.utilization", (double) bulkBusyNanos.sum() / (double) elapsed);
+        result.put("pipeline.parse.wait.ms", parseWaitNanos.sum() / 1_000_000L);
+        result.put("pipeline.bulk.wait.ms", bulkWaitNanos.sum() / 1_000_000L);
+        return result;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/StreamingBulkItemProcessor.java
+ * 文件名称: StreamingBulkItemProcessor.java
+ * 开发时间: 2025-06-25 11:20:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 流式流水线模式 (STREAMING) 下的 ItemProcessor。委托 FileToEsDocumentProcessor 解析文件，
+ *          把完整文档交给 StreamingBulkItemWriter 的缓冲区按字节数分批写入，
+ *          返回给块的是去掉正文的文档副本，使块可以跨越较长的检查点间隔而不在内存中累积正文。
+ */
+package org.ls.indexer.batch;
+
+import org.ls.indexer.dto.EsDocumentDto;
+import org.springframework.batch.item.ItemProcessor;
+
+import java.nio.file.Path;
+
+public class StreamingBulkItemProcessor implements ItemProcessor<Path, EsDocumentDto> {
+
+    private final ItemProcessor<Path, EsDocumentDto> delegate;
+    private final StreamingBulkItemWriter writer;
+
+    public StreamingBulkItemProcessor(ItemProcessor<Path, EsDocumentDto> delegate, StreamingBulkItemWriter writer) {
+        this.delegate = delegate;
+        this.writer = writer;
+    }
+
+    @Override
+    public EsDocumentDto process(Path filePath) throws Exception {
+        EsDocumentDto document = delegate.process(filePath);
+        if (document == null) {
+            return null; // 被过滤的文件，保持 filterCount 统计不变
+        }
+        writer.append(document);
+        return EsDocumentDto.builder()
+                .fileId(document.getFileId())
+                .filename(document.getFilename())
+                .sourcePath(document.getSourcePath())
+                .lastModified(document.getLastModified())
+                .fileSizeBytes(document.getFileSizeBytes())
+                .build();
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/StreamingBulkItemWriter.java
+ * 文件名称: StreamingBulkItemWriter.java
+ * 开发时间: 2025-06-25 11:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 流式流水线模式 (STREAMING) 下的 bulk 缓冲区与 ItemWriter。
+ *
+ * 功能说明：
+ * StreamingBulkItemProcessor 在每个文档解析完成后调用 append 将其加入缓冲区，缓冲区的估算字节数达到 maxBulkBytes 时
+ * 立即发送一个 bulk 请求，因此 bulk 的大小只由字节数决定，与块 (检查点) 的大小无关。
+ * 块结束时 write 把缓冲区中剩余的文档全部写入 ES，之后 Spring Batch 才提交 JobRepository 检查点，
+ * 保证检查点之前读取的文件都已写入 ES。块本身按检查点间隔 (时间 / 文件数) 关闭，元数据提交次数与 bulk 次数解耦。
+ * 失败处理与 ElasticsearchBulkItemWriter、AsyncBulkItemWriter 一致: 传输异常或可重试的失败在重试耗尽后仍然存在时
+ * ElasticsearchPersistenceService 抛出 IndexingException 使步骤失败，检查点不会越过未写入的文件，重启后从上一个检查点重新处理；
+ * 不可重试的文档错误 (mapper_parsing、序列化失败等) 已发送到失败 Topic，只计数，作业不会卡在一个坏文档上。
+ * 步骤开始时清空缓冲区，避免上一次失败的执行遗留的文档被写入。
+ * 注意: 缓冲区不是线程安全的，只适用于单线程执行的步骤。
+ */
+package org.ls.indexer.batch;
+
+import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.exception.IndexingException;
+import org.ls.indexer.service.ElasticsearchPersistenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StreamingBulkItemWriter implements ItemWriter<EsDocumentDto>, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingBulkItemWriter.class);
+
+    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+    private final long maxBulkBytes;
+
+    private final List<EsDocumentDto> buffer = new ArrayList<>();
+    private long bufferedBytes;
+    private long bulkRequests;
+    private long failedBulkRequests; // 有文档因不可重试的错误失败 (已记录到失败 Topic) 的 bulk 请求数
+
+    public StreamingBulkItemWriter(ElasticsearchPersistenceService elasticsearchPersistenceService, long maxBulkBytes) {
+        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+        this.maxBulkBytes = Math.max(1L, maxBulkBytes);
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        if (!buffer.isEmpty()) {
+            logger.warn("丢弃上一次执行遗留在缓冲区中的 {} 个文档 (对应的文件会从检查点重新处理)。", buffer.size());
+        }
+        buffer.clear();
+        bufferedBytes = 0L;
+        bulkRequests = 0L;
+        failedBulkRequests = 0L;
+    }
+
+    /**
+     * 将一个已解析的文档加入缓冲区，估算字节数达到上限时立即发送 bulk 请求。
+     *
+     * @param document 已解析的文档
+     * @throws IndexingException 如果 bulk 请求在重试耗尽后仍然失败
+     */
+    public void append(EsDocumentDto document) throws IndexingException {
+        buffer.add(document);
+        bufferedBytes += BulkRequestPartitioner.estimateSerializedBytes(document);
+        if (bufferedBytes >= maxBulkBytes) {
+            flush("达到字节上限");
+        }
+    }
+
+    /**
+     * 块结束时写入缓冲区中剩余的文档。块中的条目是去掉正文后的文档副本，只用于计数，不再重复写入。
+     */
+    @Override
+    public void write(Chunk<? extends EsDocumentDto> chunk) throws Exception {
+        flush("检查点");
+        logger.info("检查点: 本块 {} 个文档均已写入 Elasticsearch (累计 bulk 请求 {} 个)。", chunk.size(), bulkRequests);
+    }
+
+    private void flush(String reason) throws IndexingException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        List<EsDocumentDto> batch = new ArrayList<>(buffer);
+        long batchBytes = bufferedBytes;
+        buffer.clear();
+        bufferedBytes = 0L;
+        boolean success = elasticsearchPersistenceService.bulkIndexHistoricalDocuments(batch);
+        bulkRequests++;
+        if (!success) {
+            failedBulkRequests++;
+            logger.warn("bulk 写入 {} 个文档时部分文档因不可重试的错误失败，已记录到失败 Topic (原因: {})。", batch.size(), reason);
+        }
+        logger.debug("bulk 写入 {} 个文档 (估算 {} 字节，原因: {})。", batch.size(), batchBytes, reason);
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        stepExecution.getExecutionContext().putLong("streaming.bulk.requests", bulkRequests);
+        stepExecution.getExecutionContext().putLong("streaming.bulk.failed.requests", failedBulkRequests);
+        logger.info("流式流水线: 共发送 bulk 请求 {} 个，其中失败 {} 个。", bulkRequests, failedBulkRequests);
+        return stepExecution.getExitStatus();
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/batch/UnchangedFileFilteringItemReader.java
+ * 文件名称: UnchangedFileFilteringItemReader.java
+ * 开发时间: 2025-06-20 10:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 解析前过滤阶段。包装目录扫描 ItemReader，按批计算文档 ID 并通过一次 _mget 查询 Elasticsearch，
+ *          跳过 last_modified / file_size_bytes 与文件系统属性一致的 (未变化的) 文件，避免重复解析。
+ *
+ * 功能说明：
+ * 每次缓冲区为空时，从委托 Reader 读取最多 lookupBatchSize 个路径，使用 ElasticsearchIdGenerator 生成 ID，
+ * 调用 ElasticsearchPersistenceService.fetchIndexedVersionFields 发起一次 _mget (只取回两个版本字段)。
+ * 已索引且版本一致的文件被计为命中 (hit) 并丢弃，其余文件计为未命中 (miss) 并交给后续的 ItemProcessor 解析。
+ * 命中/未命中计数写入步骤的 ExecutionContext。
+ * 已从委托 Reader 读出但尚未返回的路径也会写入 ExecutionContext，保证作业重启时不会丢失这部分文件。
+ * 如果 _mget 失败 (例如 ES 不可用或索引不存在)，该批文件全部按未命中处理，不会因为过滤阶段导致漏索引。
+ * 每次返回路径时，会把缓冲区中接下来 prefetchLookahead 个待解析文件提交给 FilePrefetchService 预读。
+ */
+package org.ls.indexer.batch;
+
+import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.exception.IndexingException;
+import org.ls.indexer.service.ElasticsearchPersistenceService;
+import org.ls.indexer.service.FilePrefetchService;
+import org.ls.indexer.util.ElasticsearchIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class UnchangedFileFilteringItemReader implements ItemStreamReader<Path> {
+
+    private static final Logger logger = LoggerFactory.getLogger(UnchangedFileFilteringItemReader.class);
+
+    private static final String PENDING_PATHS_KEY = "unchanged.filter.pending.paths";
+    public static final String HIT_COUNT_KEY = "unchanged.filter.hit.count";
+    public static final String MISS_COUNT_KEY = "unchanged.filter.miss.count";
+
+    private final ItemStreamReader<Path> delegate;
+    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+    private final ElasticsearchIdGenerator elasticsearchIdGenerator;
+    private final boolean skipUnchangedEnabled;
+    private final int lookupBatchSize;
+    private final FilePrefetchService filePrefetchService;
+    private final int prefetchLookahead;
+
+    private final Deque<Path> pendingPaths = new ArrayDeque<>();
+    private boolean delegateExhausted;
+    private long hitCount;
+    private long missCount;
+
+    public UnchangedFileFilteringItemReader(ItemStreamReader<Path> delegate,
+                                            ElasticsearchPersistenceService elasticsearchPersistenceService,
+                                            ElasticsearchIdGenerator elasticsearchIdGenerator,
+                                            boolean skipUnchangedEnabled,
+                                            int lookupBatchSize,
+                                            FilePrefetchService filePrefetchService,
+                                            int prefetchLookahead) {
+        this.delegate = delegate;
+        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+        this.elasticsearchIdGenerator = elasticsearchIdGenerator;
+        this.skipUnchangedEnabled = skipUnchangedEnabled;
+        this.lookupBatchSize = Math.max(1, lookupBatchSize);
+        this.filePrefetchService = filePrefetchService;
+        this.prefetchLookahead = Math.max(0, prefetchLookahead);
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        delegate.open(executionContext);
+        this.pendingPaths.clear();
+        this.delegateExhausted = false;
+        this.hitCount = executionContext.getLong(HIT_COUNT_KEY, 0L);
+        this.missCount = executionContext.getLong(MISS_COUNT_KEY, 0L);
+
+        if (executionContext.containsKey(PENDING_PATHS_KEY)) {
+            @SuppressWarnings("unchecked")
+            List<String> restored = (List<String>) executionContext.get(PENDING_PATHS_KEY);
+            if (restored != null) {
+                restored.forEach(p -> pendingPaths.add(Paths.get(p)));
+                logger.info("从 ExecutionContext 恢复 {} 个待处理文件路径。", restored.size());
+            }
+        }
+        logger.info("解析前过滤阶段已打开。跳过未变化文件: {}, 每批 _mget 数量: {}", skipUnchangedEnabled, lookupBatchSize);
+    }
+
+    @Override
+    public Path read() throws Exception {
+        while (pendingPaths.isEmpty()) {
+            if (delegateExhausted) {
+                return null;
+            }
+            fillPendingPaths();
+        }
+        Path next = pendingPaths.poll();
+        prefetchUpcoming();
+        return next;
+    }
+
+    /**
+     * 将缓冲区中接下来的若干个待解析文件提交预读，已在预读中的文件会被 FilePrefetchService 忽略。
+     */
+    private void prefetchUpcoming() {
+        if (prefetchLookahead == 0 || pendingPaths.isEmpty() || !filePrefetchService.isEnabled()) {
+            return;
+        }
+        List<Path> upcoming = new ArrayList<>(Math.min(prefetchLookahead, pendingPaths.size()));
+        Iterator<Path> iterator = pendingPaths.iterator();
+        while (iterator.hasNext() && upcoming.size() < prefetchLookahead) {
+            upcoming.add(iterator.next());
+        }
+        filePrefetchService.prefetch(upcoming);
+    }
+
+    /**
+     * 从委托 Reader 读取下一批路径，并通过 _mget 过滤掉未变化的文件。
+     */
+    private void fillPendingPaths() throws Exception {
+        List<Path> batch = new ArrayList<>(lookupBatchSize);
+        while (batch.size() < lookupBatchSize) {
+            Path path = delegate.read();
+            if (path == null) {
+                delegateExhausted = true;
+                break;
+            }
+            batch.add(path);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (!skipUnchangedEnabled) {
+            pendingPaths.addAll(batch);
+            return;
+        }
+
+        List<String> documentIds = new ArrayList<>(batch.size());
+        for (Path path : batch) {
+            documentIds.add(elasticsearchIdGenerator.generateIdFromFilePath(path));
+        }
+
+        Map<String, EsDocumentDto> storedVersions;
+        try {
+            storedVersions = elasticsearchPersistenceService.fetchIndexedVersionFields(documentIds);
+        } catch (IndexingException e) {
+            logger.warn("_mget 查询失败，本批 {} 个文件将全部重新解析: {}", batch.size(), e.getMessage());
+            storedVersions = Collections.emptyMap();
+        }
+
+        int batchHits = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Path path = batch.get(i);
+            if (isUnchanged(path, storedVersions.get(documentIds.get(i)))) {
+                batchHits++;
+                logger.debug("文件 {} 未变化 (ES 中版本一致)，跳过解析。", path);
+            } else {
+                pendingPaths.add(path);
+            }
+        }
+        hitCount += batchHits;
+        missCount += batch.size() - batchHits;
+        logger.debug("解析前过滤: 本批 {} 个文件，命中(跳过) {} 个，需解析 {} 个。",
+                batch.size(), batchHits, batch.size() - batchHits);
+    }
+
+    private boolean isUnchanged(Path path, EsDocumentDto stored) {
+        if (stored == null || stored.getLastModified() == null || stored.getFileSizeBytes() == null) {
+            return false;
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return attrs.size() == stored.getFileSizeBytes()
+                    && attrs.lastModifiedTime().toInstant().getEpochSecond() == stored.getLastModified();
+        } catch (IOException e) {
+            logger.warn("读取文件 {} 的属性失败，将交由解析阶段处理: {}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        delegate.update(executionContext);
+        // 已从委托 Reader 读出但尚未返回的路径，重启时需要恢复
+        ArrayList<String> pending = new ArrayList<>(pendingPaths.size());
+        pendingPaths.forEach(p -> pending.add(p.toString()));
+        executionContext.put(PENDING_PATHS_KEY, pending);
+        executionContext.putLong(HIT_COUNT_KEY, hitCount);
+        executionContext.putLong(MISS_COUNT_KEY, missCount);
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        logger.info("解析前过滤阶段结束。命中(跳过未变化文件): {}, 未命中(需解析): {}", hitCount, missCount);
+        pendingPaths.clear();
+        delegate.close();
+    }
+}
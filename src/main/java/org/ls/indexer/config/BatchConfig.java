@@ -7,20 +7,45 @@
  */
 package org.ls.indexer.config;
 
+import org.ls.indexer.batch.AsyncBulkItemWriter;
+import org.ls.indexer.batch.ByteAwareChunkCompletionPolicy;
+import org.ls.indexer.batch.ConcurrentFileProcessor;
 import org.ls.indexer.batch.DirectoryScanningItemReader;
 import org.ls.indexer.batch.ElasticsearchBulkItemWriter;
 import org.ls.indexer.batch.FileToEsDocumentProcessor;
+import org.ls.indexer.batch.HistoricalJobParameters;
+import org.ls.indexer.batch.HistoricalPipelineMode;
+import org.ls.indexer.batch.HistoricalScanOrder;
 import org.ls.indexer.batch.JobCompletionNotificationListener;
+import org.ls.indexer.batch.NewestFirstItemReader;
+import org.ls.indexer.batch.OrphanReconciliationTasklet;
+import org.ls.indexer.batch.PipelineStageMetrics;
+import org.ls.indexer.batch.StreamingBulkItemProcessor;
+import org.ls.indexer.batch.StreamingBulkItemWriter;
+import org.ls.indexer.batch.UnchangedFileFilteringItemReader;
 import org.ls.indexer.config.properties.IndexerProperties; // 新增导入
 import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.service.BlueGreenReindexService;
+import org.ls.indexer.service.BulkIngestionService;
+import org.ls.indexer.service.ChunkedDocumentService;
 import org.ls.indexer.service.ElasticsearchPersistenceService;
 import org.ls.indexer.service.FileParserService;
+import org.ls.indexer.service.FilePrefetchService;
+import org.ls.indexer.service.HistoricalJobLeaseService;
+import org.ls.indexer.service.HistoricalJobThrottle;
+import org.ls.indexer.service.IndexBulkLoadModeService;
+import org.ls.indexer.service.OrphanReconciliationService;
 import org.ls.indexer.util.ElasticsearchIdGenerator; // 确保导入
 import org.ls.indexer.config.properties.AppProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemReadListener;
 import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecutionListener;
 import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.batch.core.job.builder.JobBuilder;
 import org.springframework.batch.core.launch.support.RunIdIncrementer;
 import org.springframework.batch.core.repository.JobRepository;
@@ -29,15 +54,19 @@ import org.springframework.batch.item.ItemProcessor;
 import org.springframework.batch.item.ItemReader;
 import org.springframework.batch.item.ItemStreamReader; // 修改为 ItemStreamReader
 import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Future;
 
 @Configuration
 // @EnableBatchProcessing // Spring Boot 3.x 中, 如果 spring-boot-starter-batch 在类路径中，则此注解通常不再是必需的，
@@ -50,9 +79,56 @@ public class BatchConfig {
     @Value("${dms.indexer.batch.historical.chunk-size:100}")
     private int chunkSize;
 
+    // 每个块的目标序列化字节数，同时作为单个 bulk 请求的字节上限 (默认 10MB)
+    @Value("${dms.indexer.batch.historical.chunk.max-bytes:10485760}")
+    private long chunkMaxBytes;
+
+    // 每个块的最大持续时间 (毫秒)，小于等于 0 表示不限制
+    @Value("${dms.indexer.batch.historical.chunk.max-time-ms:60000}")
+    private long chunkMaxTimeMillis;
+
+    @Value("${dms.indexer.tika.write-limit:-1}")
+    private int tikaWriteLimit;
+
     @Value("${dms.indexer.batch.task-executor.max-pool-size:10}")
     private int maxPoolSize;
 
+    @Value("${dms.indexer.batch.historical.skip-unchanged.enabled:true}")
+    private boolean skipUnchangedEnabled;
+
+    // 每次 _mget 查询的文件数量，未配置时与 chunk-size 一致
+    @Value("${dms.indexer.batch.historical.skip-unchanged.lookup-batch-size:${dms.indexer.batch.historical.chunk-size:100}}")
+    private int skipUnchangedLookupBatchSize;
+
+    // SYNC: 串行解析 + 同步 bulk; ASYNC: 并发解析 + 后台 bulk，使解析与 bulk 写入重叠
+    @Value("${dms.indexer.batch.historical.pipeline-mode:SYNC}")
+    private HistoricalPipelineMode pipelineMode;
+
+    @Value("${dms.indexer.batch.historical.async.parse-threads:4}")
+    private int asyncParseThreads;
+
+    // STREAMING 模式的检查点间隔: 时间 (毫秒) 与文件数任一达到即提交 JobRepository 检查点，小于等于 0 表示不按该条件
+    @Value("${dms.indexer.batch.historical.checkpoint.interval-ms:30000}")
+    private long checkpointIntervalMillis;
+
+    @Value("${dms.indexer.batch.historical.checkpoint.interval-items:0}")
+    private int checkpointIntervalItems;
+
+    // 默认的文件处理顺序: PATH (按路径边扫描边处理) 或 NEWEST_FIRST (先扫描排序，按修改时间降序处理)
+    @Value("${dms.indexer.batch.historical.order:PATH}")
+    private HistoricalScanOrder defaultScanOrder;
+
+    // NEWEST_FIRST 模式外部排序的工作目录与每个内存分段的条数
+    @Value("${dms.indexer.batch.historical.sort.work-dir:${java.io.tmpdir}/dms-indexer-sort}")
+    private String sortWorkDir;
+
+    @Value("${dms.indexer.batch.historical.sort.run-size:200000}")
+    private int sortRunSize;
+
+    // 每读出一个文件时，提前预读缓冲区中接下来的文件数量 (需开启 dms.indexer.prefetch.enabled)
+    @Value("${dms.indexer.prefetch.lookahead:8}")
+    private int prefetchLookahead;
+
     private final JobRepository jobRepository;
 
     // 依赖的服务和配置
@@ -62,6 +138,9 @@ public class BatchConfig {
     private final FileParserService fileParserService;
     private final ElasticsearchPersistenceService elasticsearchPersistenceService;
     private final ElasticsearchIdGenerator elasticsearchIdGenerator; // 新增注入
+    private final FilePrefetchService filePrefetchService;
+    private final HistoricalJobThrottle historicalJobThrottle;
+    private final HistoricalJobLeaseService historicalJobLeaseService; // 多实例部署时的单实例租约
 
     @Autowired
     public BatchConfig(JobRepository jobRepository,
@@ -70,7 +149,10 @@ public class BatchConfig {
                        IndexerProperties indexerProperties, // 新增参数
                        FileParserService fileParserService,
                        ElasticsearchPersistenceService elasticsearchPersistenceService,
-                       ElasticsearchIdGenerator elasticsearchIdGenerator) { // 新增参数
+                       ElasticsearchIdGenerator elasticsearchIdGenerator, // 新增参数
+                       FilePrefetchService filePrefetchService,
+                       HistoricalJobThrottle historicalJobThrottle,
+                       HistoricalJobLeaseService historicalJobLeaseService) {
         this.jobRepository = jobRepository;
         this.transactionManager = transactionManager;
         this.appProperties = appProperties;
@@ -78,45 +160,73 @@ public class BatchConfig {
         this.fileParserService = fileParserService;
         this.elasticsearchPersistenceService = elasticsearchPersistenceService;
         this.elasticsearchIdGenerator = elasticsearchIdGenerator; // 赋值
+        this.filePrefetchService = filePrefetchService;
+        this.historicalJobThrottle = historicalJobThrottle;
+        this.historicalJobLeaseService = historicalJobLeaseService;
         logger.info("BatchConfig 初始化完成。Chunk size: {}", chunkSize);
     }
 
     /**
      * 定义历史文件索引作业的 ItemReader。
-     * 负责扫描目录并读取文件路径。
+     * 由 DirectoryScanningItemReader 扫描目录读取文件路径，再经过解析前过滤阶段
+     * (UnchangedFileFilteringItemReader) 跳过 ES 中已存在且未变化的文件。
+     * 作业参数中的子目录、修改时间下限和扩展名子集会下推到目录遍历中 (见 HistoricalJobParameters)。
      *
-     * @return DirectoryScanningItemReader 实例
+     * @param subPath       作业参数 subPath，可以为 null
+     * @param modifiedSince 作业参数 modifiedSince (epoch 毫秒)，可以为 null
+     * @param extensions    作业参数 extensions，可以为 null
+     * @param order         作业参数 order，可以为 null (使用 dms.indexer.batch.historical.order)
+     * @return UnchangedFileFilteringItemReader 实例 (包装 DirectoryScanningItemReader 或 NewestFirstItemReader)
      */
     @Bean
-    public ItemStreamReader<Path> directoryScanningItemReader() { // 返回类型改为 ItemStreamReader
-        logger.debug("创建 DirectoryScanningItemReader Bean...");
+    @StepScope
+    public ItemStreamReader<Path> directoryScanningItemReader( // 返回类型改为 ItemStreamReader
+            @Value("#{jobParameters['" + HistoricalJobParameters.SUB_PATH + "']}") String subPath,
+            @Value("#{jobParameters['" + HistoricalJobParameters.MODIFIED_SINCE + "']}") Long modifiedSince,
+            @Value("#{jobParameters['" + HistoricalJobParameters.EXTENSIONS + "']}") String extensions,
+            @Value("#{jobParameters['" + HistoricalJobParameters.ORDER + "']}") String order) {
+        logger.debug("创建 DirectoryScanningItemReader Bean (跳过未变化文件: {})...", skipUnchangedEnabled);
         // 传递 indexerProperties
-        return new DirectoryScanningItemReader(appProperties, indexerProperties);
+        DirectoryScanningItemReader scanningReader = new DirectoryScanningItemReader(appProperties, indexerProperties,
+                HistoricalJobParameters.toScanFilter(subPath, modifiedSince, extensions));
+        HistoricalScanOrder scanOrder = order == null || order.isBlank()
+                ? defaultScanOrder : HistoricalScanOrder.valueOf(order.trim().toUpperCase());
+        ItemStreamReader<Path> pathReader = scanningReader;
+        if (scanOrder == HistoricalScanOrder.NEWEST_FIRST) {
+            logger.info("历史索引按最新优先顺序处理，排序工作目录: {}", sortWorkDir);
+            pathReader = new NewestFirstItemReader(scanningReader, Paths.get(sortWorkDir), sortRunSize);
+        }
+        return new UnchangedFileFilteringItemReader(pathReader, elasticsearchPersistenceService,
+                elasticsearchIdGenerator, skipUnchangedEnabled, skipUnchangedLookupBatchSize,
+                filePrefetchService, prefetchLookahead);
     }
 
     /**
      * 定义历史文件索引作业的 ItemProcessor。
-     * 负责将文件路径转换为 EsDocumentDto。
+     * 负责将文件路径转换为 EsDocumentDto，并在解析前按 HistoricalJobThrottle 的吞吐量上限限流。
      *
+     * @param chunkedDocumentService 分块文档模式下写入分块文档
      * @return FileToEsDocumentProcessor 实例
      */
     @Bean
-    public ItemProcessor<Path, EsDocumentDto> fileToEsDocumentProcessor() {
+    public ItemProcessor<Path, EsDocumentDto> fileToEsDocumentProcessor(ChunkedDocumentService chunkedDocumentService) {
         logger.debug("创建 FileToEsDocumentProcessor Bean...");
         // 注入 elasticsearchIdGenerator
-        return new FileToEsDocumentProcessor(fileParserService, elasticsearchIdGenerator);
+        return new FileToEsDocumentProcessor(fileParserService, elasticsearchIdGenerator, historicalJobThrottle,
+                chunkedDocumentService);
     }
 
     /**
      * 定义历史文件索引作业的 ItemWriter。
-     * 负责将 EsDocumentDto 批量写入 Elasticsearch。
+     * 负责将 EsDocumentDto 提交到共享的 bulk 写入组件，与 Kafka 监听器的写入合并发送。
      *
+     * @param bulkIngestionService 共享的 bulk 写入组件
      * @return ElasticsearchBulkItemWriter 实例
      */
     @Bean
-    public ItemWriter<EsDocumentDto> elasticsearchBulkItemWriter() {
+    public ItemWriter<EsDocumentDto> elasticsearchBulkItemWriter(BulkIngestionService bulkIngestionService) {
         logger.debug("创建 ElasticsearchBulkItemWriter Bean...");
-        return new ElasticsearchBulkItemWriter(elasticsearchPersistenceService);
+        return new ElasticsearchBulkItemWriter(bulkIngestionService);
     }
 
     /**
@@ -133,22 +243,35 @@ public class BatchConfig {
     /**
      * 定义历史文件索引的步骤 (indexHistoricalFilesStep)。
      * 配置 ItemReader, ItemProcessor, ItemWriter 以及事务和分块大小。
+     * 当 pipeline-mode 为 ASYNC 时，使用并发解析的 ConcurrentFileProcessor 和后台提交 bulk 的 AsyncBulkItemWriter；
+     * 为 STREAMING 时，bulk 按字节数随时发送，检查点按 checkpoint.interval-* 提交。
      *
      * @param reader    ItemReader 实例
      * @param processor ItemProcessor 实例
      * @param writer    ItemWriter 实例
+     * @param historicalParseTaskExecutor ASYNC 模式下并发解析文件的线程池
      * @return Step 实例
      */
     @Bean
     public Step indexHistoricalFilesStep(ItemStreamReader<Path> reader, // 参数类型改为 ItemStreamReader
                                          ItemProcessor<Path, EsDocumentDto> processor,
-                                         ItemWriter<EsDocumentDto> writer) {
-        logger.debug("构建 indexHistoricalFilesStep Bean...");
+                                         ItemWriter<EsDocumentDto> writer,
+                                         ThreadPoolTaskExecutor historicalParseTaskExecutor) {
+        logger.debug("构建 indexHistoricalFilesStep Bean... 流水线模式: {}", pipelineMode);
+        if (pipelineMode == HistoricalPipelineMode.ASYNC) {
+            return buildAsyncIndexHistoricalFilesStep(reader, processor, historicalParseTaskExecutor);
+        }
+        if (pipelineMode == HistoricalPipelineMode.STREAMING) {
+            return buildStreamingIndexHistoricalFilesStep(reader, processor);
+        }
+        ByteAwareChunkCompletionPolicy completionPolicy = chunkCompletionPolicy();
         return new StepBuilder("indexHistoricalFilesStep", jobRepository)
-                .<Path, EsDocumentDto>chunk(chunkSize, transactionManager)
+                .<Path, EsDocumentDto>chunk(completionPolicy, transactionManager)
                 .reader(reader)
                 .processor(processor)
                 .writer(writer)
+                .listener((ItemReadListener<Path>) completionPolicy) // 读取后累计块的估算字节数
+                .listener((ChunkListener) historicalJobLeaseService) // 每个块开始前校验租约 (防护令牌)
                 // .faultTolerant() // 可选: 配置容错，如跳过某些异常
                 // .skipLimit(10)
                 // .skip(RuntimeException.class) // 跳过特定类型的异常
@@ -157,25 +280,117 @@ public class BatchConfig {
                 .build();
     }
 
+    /**
+     * 构建异步流水线模式的 indexHistoricalFilesStep。
+     * ItemProcessor 返回解析结果的 Future，ItemWriter 解包后在后台提交 bulk 请求，并在块提交前等待 bulk 完成。
+     */
+    private Step buildAsyncIndexHistoricalFilesStep(ItemStreamReader<Path> reader,
+                                                    ItemProcessor<Path, EsDocumentDto> processor,
+                                                    ThreadPoolTaskExecutor historicalParseTaskExecutor) {
+        PipelineStageMetrics metrics = new PipelineStageMetrics();
+        ConcurrentFileProcessor asyncProcessor = new ConcurrentFileProcessor(processor, historicalParseTaskExecutor, metrics);
+        AsyncBulkItemWriter asyncWriter = new AsyncBulkItemWriter(elasticsearchPersistenceService, metrics,
+                asyncParseThreads, chunkMaxBytes);
+        ByteAwareChunkCompletionPolicy completionPolicy = chunkCompletionPolicy();
+        return new StepBuilder("indexHistoricalFilesStep", jobRepository)
+                .<Path, Future<EsDocumentDto>>chunk(completionPolicy, transactionManager)
+                .reader(reader)
+                .processor(asyncProcessor)
+                .writer(asyncWriter)
+                .listener((ItemReadListener<Path>) completionPolicy)
+                .listener((StepExecutionListener) asyncWriter) // 步骤结束时等待最后一个 bulk 并记录阶段利用率
+                .listener((ChunkListener) historicalJobLeaseService)
+                .build();
+    }
+
+    /**
+     * 构建流式流水线模式的 indexHistoricalFilesStep。
+     * 块 (即 JobRepository 检查点) 只按检查点间隔关闭，bulk 请求由 StreamingBulkItemWriter 按字节数上限随时发送。
+     */
+    private Step buildStreamingIndexHistoricalFilesStep(ItemStreamReader<Path> reader,
+                                                        ItemProcessor<Path, EsDocumentDto> processor) {
+        StreamingBulkItemWriter streamingWriter = new StreamingBulkItemWriter(elasticsearchPersistenceService, chunkMaxBytes);
+        int maxItems = checkpointIntervalItems > 0 ? checkpointIntervalItems : Integer.MAX_VALUE;
+        long maxTimeMillis = checkpointIntervalMillis > 0 ? checkpointIntervalMillis : 0L;
+        if (checkpointIntervalItems <= 0 && checkpointIntervalMillis <= 0) {
+            logger.warn("STREAMING 模式未配置检查点间隔，改为每 {} 个文件提交一次检查点。", chunkSize);
+            maxItems = chunkSize;
+        }
+        logger.info("历史索引流式流水线: 检查点间隔 {} 个文件 / {}ms，bulk 字节上限 {}",
+                maxItems == Integer.MAX_VALUE ? "不限" : maxItems, maxTimeMillis, chunkMaxBytes);
+        ByteAwareChunkCompletionPolicy completionPolicy =
+                new ByteAwareChunkCompletionPolicy(maxItems, Long.MAX_VALUE, maxTimeMillis, tikaWriteLimit);
+        return new StepBuilder("indexHistoricalFilesStep", jobRepository)
+                .<Path, EsDocumentDto>chunk(completionPolicy, transactionManager)
+                .reader(reader)
+                .processor(new StreamingBulkItemProcessor(processor, streamingWriter))
+                .writer(streamingWriter)
+                .listener((ItemReadListener<Path>) completionPolicy)
+                .listener((StepExecutionListener) streamingWriter) // 步骤开始时清空缓冲区，结束时记录 bulk 统计
+                .listener((ChunkListener) historicalJobLeaseService)
+                .build();
+    }
+
+    /**
+     * 创建历史索引步骤的块完成策略: 文件数 (chunk-size)、估算字节数、持续时间任一达到上限即关闭当前块。
+     */
+    private ByteAwareChunkCompletionPolicy chunkCompletionPolicy() {
+        logger.info("历史索引块大小策略: 最多 {} 个文件 / {} 字节 / {}ms", chunkSize, chunkMaxBytes, chunkMaxTimeMillis);
+        return new ByteAwareChunkCompletionPolicy(chunkSize, chunkMaxBytes, chunkMaxTimeMillis, tikaWriteLimit);
+    }
+
     /**
      * 定义历史文件批量索引作业 (historicalFileIndexerJob)。
      *
      * @param indexHistoricalFilesStep      作业要执行的步骤
      * @param listener  作业完成监听器
+     * @param blueGreenReindexService  蓝绿重建 (作业写入新索引，成功完成后切换别名)
+     * @param indexBulkLoadModeService 批量导入模式 (作业期间放宽索引设置，结束时恢复)
      * @return Job 实例
      */
     @Bean
     public Job historicalFileIndexerJob(Step indexHistoricalFilesStep,
-                                        JobCompletionNotificationListener listener) {
+                                        JobCompletionNotificationListener listener,
+                                        BlueGreenReindexService blueGreenReindexService,
+                                        IndexBulkLoadModeService indexBulkLoadModeService) {
         logger.debug("构建 historicalFileIndexerJob Bean...");
         return new JobBuilder("historicalFileIndexerJob", jobRepository)
                 .incrementer(new RunIdIncrementer())
+                .validator(new HistoricalJobParameters(indexerProperties.getSupportedExtensionsSet()))
                 .listener(listener)
+                .listener((JobExecutionListener) historicalJobLeaseService) // 作业开始时登记执行ID，结束时释放租约
+                // afterJob 按注册的相反顺序调用: 先恢复新索引的设置，再切换别名
+                .listener(blueGreenReindexService) // 作业开始时确定写入的索引，成功完成后切换别名
+                .listener(indexBulkLoadModeService) // 作业开始时放宽索引设置，结束时 (包括失败) 恢复
                 .flow(indexHistoricalFilesStep)
                 .end()
                 .build();
     }
 
+    /**
+     * 定义孤儿文档对账作业 (orphanReconciliationJob)。
+     * 单个 Tasklet 步骤: 扫描 targetBaseDir 构建紧凑路径集合，再通过 point-in-time 遍历索引，删除文件已不存在的文档。
+     * 作业参数 dryRun=true 时只统计不删除。
+     *
+     * @param orphanReconciliationService 对账服务
+     * @param listener                    作业完成监听器
+     * @return Job 实例
+     */
+    @Bean
+    public Job orphanReconciliationJob(OrphanReconciliationService orphanReconciliationService,
+                                       JobCompletionNotificationListener listener) {
+        logger.debug("构建 orphanReconciliationJob Bean...");
+        Step reconcileOrphansStep = new StepBuilder("reconcileOrphansStep", jobRepository)
+                // 对账不写数据库，使用 ResourcelessTransactionManager 避免在整个对账期间占用一个数据库事务
+                .tasklet(new OrphanReconciliationTasklet(orphanReconciliationService), new ResourcelessTransactionManager())
+                .build();
+        return new JobBuilder("orphanReconciliationJob", jobRepository)
+                .incrementer(new RunIdIncrementer())
+                .listener(listener)
+                .start(reconcileOrphansStep)
+                .build();
+    }
+
     /**
      * 可选: 为批处理步骤配置一个任务执行器，以实现多线程处理。
      * 注意: 如果启用，需要确保 ItemReader, ItemProcessor, ItemWriter 是线程安全的，
@@ -193,4 +408,23 @@ public class BatchConfig {
         logger.info("配置批处理任务执行器 (SimpleAsyncTaskExecutor) 并发限制为: {}", asyncTaskExecutor.getConcurrencyLimit());
         return asyncTaskExecutor;
     }
+
+    /**
+     * 定义异步流水线模式下用于并发解析文件的线程池。
+     * 作为 Bean 由容器初始化，并在应用关闭时关闭 (等待正在解析的文件完成)。
+     * 注意: 应用中没有 @Async 方法，存在多个 TaskExecutor Bean 不影响其他组件；BatchJobService 按名称注入 batchTaskExecutor。
+     *
+     * @return ThreadPoolTaskExecutor 实例
+     */
+    @Bean
+    public ThreadPoolTaskExecutor historicalParseTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(asyncParseThreads);
+        executor.setMaxPoolSize(asyncParseThreads);
+        executor.setThreadNamePrefix("historical-parse-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        logger.info("配置历史索引解析线程池，线程数: {}", asyncParseThreads);
+        return executor;
+    }
 }
@@ -9,6 +9,9 @@
 //   1.1 (2024-05-28): 增强日志输出。
 //   1.2 (2024-05-28): 解决 Lambda 表达式中变量非 final 的编译错误。
 //   2.0 (2025-06-16): [关键修复] 修改 elasticsearchTransport Bean，注入并使用 Spring 配置的 ObjectMapper，以解决 Jackson 序列化问题。
+//   2.1 (2025-06-25): RestClient 按配置启用请求体 gzip 压缩 (compression-enabled)。
+//   2.2 (2025-06-25): 支持多个节点 (hosts)、只请求 data/ingest 节点、节点嗅探 (Sniffer)、连接池与 keep-alive 配置，
+//                     并按节点统计请求分布 (ElasticsearchNodeRequestStats)。
 // -----------------------------------------------------------------------------------------
 package org.ls.indexer.config;
 
@@ -18,18 +21,27 @@ import co.elastic.clients.transport.ElasticsearchTransport;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
 import com.fasterxml.jackson.databind.ObjectMapper; // 1. 确保导入 ObjectMapper
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.protocol.HttpCoreContext;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.ssl.SSLContexts;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.NodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
 import org.ls.indexer.config.properties.ElasticsearchProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -42,6 +54,9 @@ import java.io.InputStream;
 import java.security.KeyStore;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 @Configuration
 @EnableConfigurationProperties(ElasticsearchProperties.class)
@@ -50,21 +65,39 @@ public class ElasticsearchClientConfig {
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchClientConfig.class);
     private final ElasticsearchProperties elasticsearchProperties;
     private final ResourceLoader resourceLoader;
+    private final ElasticsearchNodeRequestStats nodeRequestStats;
+
+    // 节点请求失败时触发提前嗅探；Sniffer 创建后才关联 (见 elasticsearchSniffer)
+    private final SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
+    private volatile boolean snifferAttached;
+
+    /**
+     * 只保留 data 或 ingest 节点；角色未知 (配置的节点，尚未嗅探) 的节点保留。
+     */
+    private static final NodeSelector DATA_OR_INGEST_NODES = nodes -> {
+        Iterator<Node> iterator = nodes.iterator();
+        while (iterator.hasNext()) {
+            Node.Roles roles = iterator.next().getRoles();
+            if (roles != null && !roles.isData() && !roles.isIngest()) {
+                iterator.remove();
+            }
+        }
+    };
 
     @Autowired
-    public ElasticsearchClientConfig(ElasticsearchProperties elasticsearchProperties, ResourceLoader resourceLoader) {
+    public ElasticsearchClientConfig(ElasticsearchProperties elasticsearchProperties, ResourceLoader resourceLoader,
+                                     ElasticsearchNodeRequestStats nodeRequestStats) {
         this.elasticsearchProperties = elasticsearchProperties;
         this.resourceLoader = resourceLoader;
+        this.nodeRequestStats = nodeRequestStats;
         logger.info("ElasticsearchClientConfig 初始化完成，Elasticsearch 属性已加载。");
     }
 
     @Bean
     public RestClient restClient() throws Exception {
         logger.info("开始配置 Elasticsearch RestClient...");
-        logger.info("Elasticsearch 主机: {}, 端口: {}, Scheme: {}",
-                elasticsearchProperties.getHost(),
-                elasticsearchProperties.getPort(),
-                elasticsearchProperties.getScheme());
+        HttpHost[] httpHosts = resolveHosts();
+        logger.info("Elasticsearch 节点: {}", Arrays.toString(httpHosts));
 
         final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
         if (StringUtils.hasText(elasticsearchProperties.getUsername()) && StringUtils.hasText(elasticsearchProperties.getPassword())) {
@@ -85,11 +118,16 @@ public class ElasticsearchClientConfig {
 
         final SSLContext finalSslContext = tempSslContext;
 
-        RestClientBuilder builder = RestClient.builder(
-                        new HttpHost(elasticsearchProperties.getHost(), elasticsearchProperties.getPort(), elasticsearchProperties.getScheme()))
+        RestClientBuilder builder = RestClient.builder(httpHosts)
                 .setHttpClientConfigCallback(httpClientBuilder -> {
                     logger.debug("配置 HttpClient: 设置默认凭据提供者。");
                     httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+                    httpClientBuilder.setMaxConnTotal(elasticsearchProperties.getMaxConnTotal());
+                    httpClientBuilder.setMaxConnPerRoute(elasticsearchProperties.getMaxConnPerRoute());
+                    httpClientBuilder.setKeepAliveStrategy((response, context) -> elasticsearchProperties.getKeepAliveMs());
+                    // 按目标节点统计请求数
+                    httpClientBuilder.addInterceptorLast((HttpRequestInterceptor) (request, context) ->
+                            nodeRequestStats.recordRequest(HttpCoreContext.adapt(context).getTargetHost()));
                     if (finalSslContext != null) {
                         httpClientBuilder.setSSLContext(finalSslContext);
                         logger.info("已为 HttpClient 配置自定义 SSLContext。");
@@ -98,12 +136,72 @@ public class ElasticsearchClientConfig {
                     }
                     logger.debug("HttpClient 配置回调完成。");
                     return httpClientBuilder;
+                })
+                // 请求体 gzip 压缩 (JDK 默认压缩级别)，bulk 请求体主要是文本，可显著减少网络传输量
+                .setCompressionEnabled(elasticsearchProperties.isCompressionEnabled())
+                .setFailureListener(new RestClient.FailureListener() {
+                    @Override
+                    public void onFailure(Node node) {
+                        // RestClient 把失败的节点按指数退避 (1 分钟起，最长 30 分钟) 暂时移出轮询，并在其他节点上重试
+                        logger.warn("Elasticsearch 节点 {} 请求失败，已暂时标记为不可用。", node.getHost());
+                        nodeRequestStats.recordFailure(node);
+                        if (snifferAttached) {
+                            sniffOnFailureListener.onFailure(node);
+                        }
+                    }
                 });
+        if (elasticsearchProperties.isDataIngestNodesOnly()) {
+            builder.setNodeSelector(DATA_OR_INGEST_NODES);
+        }
+        logger.info("Elasticsearch 请求体 gzip 压缩: {}", elasticsearchProperties.isCompressionEnabled() ? "已启用" : "未启用");
 
         logger.info("Elasticsearch RestClient 构建完成。");
         return builder.build();
     }
 
+    /**
+     * 解析节点列表。hosts 为空时使用 host:port；省略协议或端口的条目使用 scheme 和 port。
+     */
+    private HttpHost[] resolveHosts() {
+        List<String> hosts = elasticsearchProperties.getHosts();
+        if (hosts == null || hosts.stream().noneMatch(StringUtils::hasText)) {
+            return new HttpHost[]{new HttpHost(elasticsearchProperties.getHost(), elasticsearchProperties.getPort(), elasticsearchProperties.getScheme())};
+        }
+        return hosts.stream()
+                .filter(StringUtils::hasText)
+                .map(String::trim)
+                .map(entry -> HttpHost.create(entry.contains("://") ? entry : elasticsearchProperties.getScheme() + "://" + entry))
+                .map(host -> host.getPort() > 0 ? host
+                        : new HttpHost(host.getHostName(), elasticsearchProperties.getPort(), host.getSchemeName()))
+                .toArray(HttpHost[]::new);
+    }
+
+    /**
+     * 节点嗅探: 定期通过 _nodes/http 获取集群中的节点并替换 RestClient 的节点列表，节点请求失败时提前嗅探。
+     * 注意: 嗅探到的是节点的 publish_address (通常是 IP)，使用 HTTPS 时证书需要包含对应的 IP。
+     *
+     * @param restClient Spring管理的RestClient Bean
+     * @return Sniffer，应用关闭时先于 RestClient 关闭
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "dms.indexer.elasticsearch", name = "sniff-enabled", havingValue = "true")
+    public Sniffer elasticsearchSniffer(RestClient restClient) {
+        ElasticsearchNodesSniffer.Scheme scheme = "https".equalsIgnoreCase(elasticsearchProperties.getScheme())
+                ? ElasticsearchNodesSniffer.Scheme.HTTPS : ElasticsearchNodesSniffer.Scheme.HTTP;
+        NodesSniffer nodesSniffer = new ElasticsearchNodesSniffer(restClient,
+                ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT, scheme);
+        Sniffer sniffer = Sniffer.builder(restClient)
+                .setNodesSniffer(nodesSniffer)
+                .setSniffIntervalMillis(elasticsearchProperties.getSniffIntervalMs())
+                .setSniffAfterFailureDelayMillis(elasticsearchProperties.getSniffAfterFailureDelayMs())
+                .build();
+        sniffOnFailureListener.setSniffer(sniffer);
+        snifferAttached = true;
+        logger.info("已启用 Elasticsearch 节点嗅探，间隔 {}ms，失败后 {}ms 再次嗅探。",
+                elasticsearchProperties.getSniffIntervalMs(), elasticsearchProperties.getSniffAfterFailureDelayMs());
+        return sniffer;
+    }
+
     private SSLContext buildSslContext() throws Exception {
         String caCertPath = elasticsearchProperties.getCaCertPath();
         if (!StringUtils.hasText(caCertPath)) {
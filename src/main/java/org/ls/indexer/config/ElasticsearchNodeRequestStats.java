@@ -0,0 +1,70 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/config/ElasticsearchNodeRequestStats.java
+ * 文件名称: ElasticsearchNodeRequestStats.java
+ * 开发时间: 2025-06-25 20:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 统计 RestClient 发往每个 Elasticsearch 节点的请求数和失败次数，用于观察多节点间的负载分布。
+ *
+ * 功能说明：
+ * 请求数由 HttpClient 的请求拦截器按目标主机记录 (包括 RestClient 切换节点后的重试)，
+ * 失败次数由 RestClient.FailureListener 记录 (节点被标记为不可用时)。
+ */
+package org.ls.indexer.config;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component
+public class ElasticsearchNodeRequestStats {
+
+    private final Map<String, LongAdder> requestsByNode = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failuresByNode = new ConcurrentHashMap<>();
+
+    public void recordRequest(HttpHost host) {
+        if (host != null) {
+            requestsByNode.computeIfAbsent(host.toURI(), key -> new LongAdder()).increment();
+        }
+    }
+
+    public void recordFailure(Node node) {
+        if (node != null && node.getHost() != null) {
+            failuresByNode.computeIfAbsent(node.getHost().toURI(), key -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * 获取当前节点列表及每个节点的请求分布。
+     *
+     * @param currentNodes RestClient 当前使用的节点 (配置的或嗅探到的)
+     * @return 统计信息 (nodes, requestsByNode, failuresByNode)
+     */
+    public Map<String, Object> getStats(List<Node> currentNodes) {
+        Map<String, Object> nodes = new LinkedHashMap<>();
+        for (Node node : currentNodes) {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("name", node.getName());
+            info.put("version", node.getVersion());
+            info.put("roles", node.getRoles() == null ? null : node.getRoles().toString());
+            nodes.put(node.getHost().toURI(), info);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("nodes", nodes);
+        stats.put("requestsByNode", snapshot(requestsByNode));
+        stats.put("failuresByNode", snapshot(failuresByNode));
+        return stats;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((node, counter) -> snapshot.put(node, counter.sum()));
+        return snapshot;
+    }
+}
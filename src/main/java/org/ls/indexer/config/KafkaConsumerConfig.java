@@ -7,10 +7,18 @@
  */
 package org.ls.indexer.config;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.header.internals.RecordHeader;
+import org.ls.indexer.config.properties.AppProperties;
 import org.ls.indexer.config.properties.KafkaTopicProperties;
+import org.ls.indexer.kafka.FilePrefetchConsumerInterceptor;
+import org.ls.indexer.service.FilePrefetchService;
+import org.ls.indexer.service.WriteAheadSpoolService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,12 +34,16 @@ import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
 import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
 import org.springframework.kafka.listener.ContainerProperties.AckMode;
 import org.springframework.kafka.KafkaException.Level;  //修改日志引用
 import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
 import org.springframework.util.backoff.FixedBackOff; // 或者 ExponentialBackOff
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.BiFunction;
 
 @Configuration
@@ -41,6 +53,10 @@ public class KafkaConsumerConfig {
 
     private final KafkaTopicProperties kafkaTopicProperties;
     private final KafkaTemplate<String, String> kafkaTemplate; // 用于DLQ
+    private final FilePrefetchService filePrefetchService;
+    private final ObjectMapper objectMapper;
+    private final AppProperties appProperties;
+    private final WriteAheadSpoolService writeAheadSpoolService;
 
     @Value("${dms.indexer.kafka.consumer.retry.max-attempts:3}") // 从配置文件读取，默认3次
     private int maxRetryAttempts;
@@ -54,9 +70,17 @@ public class KafkaConsumerConfig {
 
     @Autowired
     public KafkaConsumerConfig(KafkaTopicProperties kafkaTopicProperties,
-                               KafkaTemplate<String, String> kafkaTemplate) {
+                               KafkaTemplate<String, String> kafkaTemplate,
+                               FilePrefetchService filePrefetchService,
+                               ObjectMapper objectMapper,
+                               AppProperties appProperties,
+                               WriteAheadSpoolService writeAheadSpoolService) {
         this.kafkaTopicProperties = kafkaTopicProperties;
         this.kafkaTemplate = kafkaTemplate;
+        this.filePrefetchService = filePrefetchService;
+        this.objectMapper = objectMapper;
+        this.appProperties = appProperties;
+        this.writeAheadSpoolService = writeAheadSpoolService;
     }
 
     /**
@@ -72,7 +96,7 @@ public class KafkaConsumerConfig {
 
         ConcurrentKafkaListenerContainerFactory<String, String> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(consumerFactory);
+        factory.setConsumerFactory(withPrefetchInterceptor(consumerFactory));
 
         // 1. 配置错误处理器 (包括重试和DLQ)
         factory.setCommonErrorHandler(kafkaErrorHandler());
@@ -80,7 +104,18 @@ public class KafkaConsumerConfig {
         // 2. 配置手动提交偏移量
         // FileEventListener 中使用了 Acknowledgment 参数，因此这里需要设置为手动提交模式。
         factory.getContainerProperties().setAckMode(AckMode.MANUAL_IMMEDIATE);
-        logger.info("Kafka消费者偏移量提交模式设置为: MANUAL_IMMEDIATE");
+        // FileEventListener 把写入提交到共享的 BulkIngestionService 后立即返回，在写入完成的回调线程中确认消息，
+        // 需要允许异步 (乱序) 确认: 容器会等到较小的偏移量都确认后再提交
+        factory.getContainerProperties().setAsyncAcks(true);
+        logger.info("Kafka消费者偏移量提交模式设置为: MANUAL_IMMEDIATE (异步确认)");
+
+        // 分区被收回时先回放本地预写暂存，避免暂存中较早的操作在新的分区所有者写入之后才回放
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                writeAheadSpoolService.drainBeforeRevoke();
+            }
+        });
 
         // 3. 配置并发消费者数量
         factory.setConcurrency(consumerConcurrency);
@@ -96,6 +131,27 @@ public class KafkaConsumerConfig {
         return factory;
     }
 
+    /**
+     * 如果启用了文件预读，则在消费者配置中注册 FilePrefetchConsumerInterceptor，
+     * 使每次 poll 返回的 Upsert 事件在被逐条处理之前就开始预读目标文件。
+     *
+     * @param consumerFactory Spring Boot 自动配置的消费者工厂
+     * @return 注册了预读拦截器的消费者工厂；未启用预读时返回原工厂
+     */
+    private ConsumerFactory<String, String> withPrefetchInterceptor(ConsumerFactory<String, String> consumerFactory) {
+        if (!filePrefetchService.isEnabled()) {
+            return consumerFactory;
+        }
+        Map<String, Object> props = new HashMap<>(consumerFactory.getConfigurationProperties());
+        props.put(ConsumerConfig.INTERCEPTOR_CLASSES_CONFIG, FilePrefetchConsumerInterceptor.class.getName());
+        props.put(FilePrefetchConsumerInterceptor.PREFETCH_SERVICE_CONFIG, filePrefetchService);
+        props.put(FilePrefetchConsumerInterceptor.OBJECT_MAPPER_CONFIG, objectMapper);
+        props.put(FilePrefetchConsumerInterceptor.APP_PROPERTIES_CONFIG, appProperties);
+        props.put(FilePrefetchConsumerInterceptor.UPSERT_TOPIC_CONFIG, kafkaTopicProperties.getUpsertTopicName());
+        logger.info("已为 Kafka 消费者注册文件预读拦截器。");
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
     /**
      * 创建并配置 Kafka 错误处理器。
      * 使用 DefaultErrorHandler 实现重试逻辑，并在重试耗尽后将消息发送到DLQ。
@@ -152,6 +208,12 @@ public class KafkaConsumerConfig {
         // 如果 ConsumerFactory 中配置了 ErrorHandlingDeserializer，它可以将反序列化错误包装起来，
         // 使得 DefaultErrorHandler 可以根据包装的异常类型来决定是否重试。
 
+        // 消息格式错误重试也不会成功，直接发送到DLQ
+        errorHandler.addNotRetryableExceptions(JsonProcessingException.class);
+        // 发送到DLQ后提交该消息的偏移量 (要求 MANUAL_IMMEDIATE)。FileEventListener 处理失败时抛出异常而不确认，
+        // 异步确认模式下未确认的偏移量会阻塞该分区后续所有偏移量的提交，必须由错误处理器提交
+        errorHandler.setCommitRecovered(true);
+
         errorHandler.setLogLevel(Level.WARN);  // 设置重试时的日志级别
         logger.info("Kafka错误处理器配置完成: 重试次数 {}, 退避间隔 {}ms", maxRetryAttempts, backoffInterval);
         return errorHandler;
@@ -107,4 +107,22 @@ public class KafkaTopicConfig {
     //     // configs.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, "override_server_if_needed");
     //     return new KafkaAdmin(configs);
     // }
+
+    /**
+     * 定义 bulk 写入最终失败的文档记录 Topic (失败出口，见 BulkFailureHandler)。
+     *
+     * @return NewTopic bean for dms-es-index-failures
+     */
+    @Bean
+    public NewTopic indexFailuresTopic() {
+        logger.info("定义 Kafka 失败记录 Topic: {}, 分区数: {}, 副本数: {}",
+                kafkaTopicProperties.getIndexFailureTopicName(),
+                kafkaTopicProperties.getDlqPartitions(),
+                kafkaTopicProperties.getDefaultReplicas());
+        return TopicBuilder.name(kafkaTopicProperties.getIndexFailureTopicName())
+                .partitions(kafkaTopicProperties.getDlqPartitions())
+                .replicas(kafkaTopicProperties.getDefaultReplicas())
+                .build();
+    }
+
 }
@@ -11,6 +11,9 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component; // 或者在主类 @ConfigurationPropertiesScan("org.ls.indexer.config.properties")
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Elasticsearch 相关配置属性。
  * 通过 {@link ConfigurationProperties} 注解将配置文件中以 "dms.indexer.elasticsearch" 为前缀的属性映射到此类成员。
@@ -38,6 +41,55 @@ public class ElasticsearchProperties {
      */
     private String scheme = "https";
 
+    /**
+     * Elasticsearch 节点列表，例如 https://es1:9200,https://es2:9200。省略协议或端口时使用 scheme 和 port。
+     * 为空时只连接 host:port。
+     * 对应配置文件中的 dms.indexer.elasticsearch.hosts
+     */
+    private List<String> hosts = new ArrayList<>();
+
+    /**
+     * 是否只把请求发往 data 或 ingest 节点 (跳过专用 master 等节点；角色未知的节点，例如配置的节点，不跳过)。
+     * 对应配置文件中的 dms.indexer.elasticsearch.data-ingest-nodes-only
+     */
+    private boolean dataIngestNodesOnly = true;
+
+    /**
+     * 是否定期嗅探集群节点 (通过 _nodes/http)，并在节点请求失败时提前嗅探。
+     * 对应配置文件中的 dms.indexer.elasticsearch.sniff-enabled
+     */
+    private boolean sniffEnabled = false;
+
+    /**
+     * 定期嗅探间隔 (毫秒)。
+     * 对应配置文件中的 dms.indexer.elasticsearch.sniff-interval-ms
+     */
+    private int sniffIntervalMs = 300000;
+
+    /**
+     * 节点请求失败后触发嗅探，之后下一次嗅探的延迟 (毫秒)。
+     * 对应配置文件中的 dms.indexer.elasticsearch.sniff-after-failure-delay-ms
+     */
+    private int sniffAfterFailureDelayMs = 60000;
+
+    /**
+     * 连接池最大连接数。
+     * 对应配置文件中的 dms.indexer.elasticsearch.max-conn-total
+     */
+    private int maxConnTotal = 30;
+
+    /**
+     * 每个节点的最大连接数。
+     * 对应配置文件中的 dms.indexer.elasticsearch.max-conn-per-route
+     */
+    private int maxConnPerRoute = 10;
+
+    /**
+     * 空闲连接保持时间 (毫秒)，应小于中间网络设备 (负载均衡、防火墙) 的空闲超时。
+     * 对应配置文件中的 dms.indexer.elasticsearch.keep-alive-ms
+     */
+    private long keepAliveMs = 60000;
+
     /**
      * Elasticsearch 用户名 (如果启用了安全认证)。
      * 对应配置文件中的 dms.indexer.elasticsearch.username
@@ -62,6 +114,12 @@ public class ElasticsearchProperties {
      */
     private boolean ifSeqNoEnabled = true;
 
+    /**
+     * 是否对请求体进行 gzip 压缩 (同时接受 gzip 压缩的响应)。bulk 请求体主要是提取的文本，压缩后通常只有原来的 1/5 左右。
+     * 对应配置文件中的 dms.indexer.elasticsearch.compression-enabled
+     */
+    private boolean compressionEnabled = true;
+
     // 可根据需要添加更多ES相关配置，例如连接超时、socket超时等
     // private int connectTimeout = 5000; // ms
     // private int socketTimeout = 30000; // ms
@@ -40,6 +40,12 @@ public class KafkaTopicProperties {
      */
     private String deleteDlqTopicName = "dms-file-delete-events-dlq";
 
+    /**
+     * bulk 写入最终失败 (重试耗尽或不可重试) 的文档记录 Topic 名称。
+     * 对应配置文件中的 dms.indexer.kafka.index-failure-topic-name
+     */
+    private String indexFailureTopicName = "dms-es-index-failures";
+
     /**
      * Kafka Topic 的默认分区数。
      * 对应配置文件中的 dms.indexer.kafka.partitions
@@ -0,0 +1,115 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/config/properties/ScheduleProperties.java
+ * 文件名称: ScheduleProperties.java
+ * 开发时间: 2025-06-24 16:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 批量任务时间窗口调度配置属性类。
+ *
+ * 功能说明：
+ * 每个时间窗口由 cron 表达式 (窗口开始时间) 和持续时间定义，窗口内使用各自的吞吐量上限，
+ * 并可在进入窗口时自动启动/恢复或暂停历史索引作业。不在任何窗口内时使用默认吞吐量上限。
+ * 配置示例 (夜间全速，白天限速):
+ * dms.indexer.schedule.enabled=true
+ * dms.indexer.schedule.windows[0].name=night
+ * dms.indexer.schedule.windows[0].cron=0 0 22 * * *
+ * dms.indexer.schedule.windows[0].duration=8h
+ * dms.indexer.schedule.windows[0].action=START_OR_RESUME
+ * dms.indexer.schedule.windows[1].name=business-hours
+ * dms.indexer.schedule.windows[1].cron=0 0 8 * * MON-FRI
+ * dms.indexer.schedule.windows[1].duration=10h
+ * dms.indexer.schedule.windows[1].docs-per-second=5
+ * dms.indexer.schedule.windows[1].mb-per-second=2
+ */
+package org.ls.indexer.config.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dms.indexer.schedule")
+public class ScheduleProperties {
+
+    /**
+     * 是否启用时间窗口调度。
+     * 对应配置文件中的 dms.indexer.schedule.enabled
+     */
+    private boolean enabled = false;
+
+    /**
+     * 计算 cron 表达式使用的时区，为空表示使用系统默认时区。
+     * 对应配置文件中的 dms.indexer.schedule.zone
+     */
+    private String zone;
+
+    /**
+     * 不在任何窗口内时的每秒文档数上限，0 表示不限制。
+     * 对应配置文件中的 dms.indexer.schedule.default-docs-per-second
+     */
+    private double defaultDocsPerSecond = 0;
+
+    /**
+     * 不在任何窗口内时的每秒 MB 上限，0 表示不限制。
+     * 对应配置文件中的 dms.indexer.schedule.default-mb-per-second
+     */
+    private double defaultMbPerSecond = 0;
+
+    /**
+     * 时间窗口列表。多个窗口重叠时，列表中靠前的窗口优先。
+     */
+    private List<Window> windows = new ArrayList<>();
+
+    @Data
+    public static class Window {
+
+        /**
+         * 窗口名称，用于日志和监控页面显示。
+         */
+        private String name;
+
+        /**
+         * 窗口开始时间的 cron 表达式 (Spring 6 字段格式: 秒 分 时 日 月 周)。
+         */
+        private String cron;
+
+        /**
+         * 窗口持续时间，例如 8h、PT30M。
+         */
+        private Duration duration = Duration.ofHours(1);
+
+        /**
+         * 窗口内的每秒文档数上限，0 表示不限制。
+         */
+        private double docsPerSecond = 0;
+
+        /**
+         * 窗口内的每秒 MB 上限，0 表示不限制。
+         */
+        private double mbPerSecond = 0;
+
+        /**
+         * 进入窗口时对历史索引作业执行的操作。
+         */
+        private WindowAction action = WindowAction.NONE;
+    }
+
+    public enum WindowAction {
+        /**
+         * 只调整吞吐量上限。
+         */
+        NONE,
+        /**
+         * 如果有已暂停或失败的作业则从检查点恢复，否则在没有运行中的作业时启动一个新作业。
+         */
+        START_OR_RESUME,
+        /**
+         * 暂停运行中的作业 (当前块提交后停止，之后可由其他窗口恢复)。
+         */
+        PAUSE
+    }
+}
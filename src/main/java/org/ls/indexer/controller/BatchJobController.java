@@ -7,12 +7,20 @@
  */
 package org.ls.indexer.controller;
 
+import org.ls.indexer.batch.HistoricalJobParameters;
+import org.ls.indexer.exception.HistoricalJobAlreadyRunningException;
 import org.ls.indexer.service.BatchJobService;
+import org.ls.indexer.service.BatchMetadataRetentionService;
+import org.ls.indexer.service.BlueGreenReindexService;
+import org.ls.indexer.service.IndexingWindowScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersInvalidException;
+import org.springframework.batch.core.launch.JobExecutionNotRunningException;
+import org.springframework.batch.core.launch.NoSuchJobExecutionException;
 import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
 import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
 import org.springframework.batch.core.repository.JobRestartException;
@@ -23,8 +31,10 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,24 +47,43 @@ public class BatchJobController {
     private static final Logger logger = LoggerFactory.getLogger(BatchJobController.class);
 
     private final BatchJobService batchJobService;
+    private final IndexingWindowScheduler indexingWindowScheduler;
+    private final BatchMetadataRetentionService batchMetadataRetentionService;
+    private final BlueGreenReindexService blueGreenReindexService;
 
     @Autowired
-    public BatchJobController(BatchJobService batchJobService) {
+    public BatchJobController(BatchJobService batchJobService, IndexingWindowScheduler indexingWindowScheduler,
+                              BatchMetadataRetentionService batchMetadataRetentionService,
+                              BlueGreenReindexService blueGreenReindexService) {
         this.batchJobService = batchJobService;
+        this.indexingWindowScheduler = indexingWindowScheduler;
+        this.batchMetadataRetentionService = batchMetadataRetentionService;
+        this.blueGreenReindexService = blueGreenReindexService;
     }
 
     /**
      * POST /api/batch/historical-index/start
-     * 启动历史数据批量索引作业。
+     * 启动历史数据批量索引作业。可选参数用于只重新索引部分文件，例如:
+     * /start?subPath=departmentA&extensions=.vsd,.vsdx&modifiedSince=2025-01-01T00:00:00Z&order=NEWEST_FIRST
      *
+     * @param subPath       相对于 targetBaseDir 的子目录 (可选)
+     * @param modifiedSince ISO-8601 时间，只索引此后修改过的文件 (可选)
+     * @param extensions    逗号分隔的扩展名子集 (可选)
+     * @param order         处理顺序 PATH / NEWEST_FIRST (可选)
      * @return ResponseEntity 包含作业启动信息或错误信息。
      */
     @PostMapping("/start")
-    public ResponseEntity<Map<String, Object>> startHistoricalIndexJob() {
-        logger.info("接收到启动历史数据索引作业的API请求。");
+    public ResponseEntity<Map<String, Object>> startHistoricalIndexJob(
+            @RequestParam(required = false) String subPath,
+            @RequestParam(required = false) Instant modifiedSince,
+            @RequestParam(required = false) String extensions,
+            @RequestParam(required = false) String order) {
+        logger.info("接收到启动历史数据索引作业的API请求。子目录: {}, 修改时间下限: {}, 扩展名: {}, 顺序: {}",
+                subPath, modifiedSince, extensions, order);
         Map<String, Object> response = new HashMap<>();
         try {
-            JobExecution jobExecution = batchJobService.startHistoricalFileIndexerJob();
+            JobParameters jobParameters = batchJobService.buildHistoricalJobParameters(subPath, modifiedSince, extensions, order);
+            JobExecution jobExecution = batchJobService.startHistoricalFileIndexerJob(jobParameters);
             response.put("message", "历史数据索引作业已成功请求启动。");
             response.put("jobExecutionId", jobExecution.getId());
             response.put("status", jobExecution.getStatus().toString());
@@ -62,10 +91,8 @@ public class BatchJobController {
             // 客户端需要后续轮询状态。
             return ResponseEntity.ok(response);
         } catch (JobExecutionAlreadyRunningException e) {
-            logger.warn("作业启动失败: 作业已在运行。", e);
-            response.put("error", "作业已在运行。");
-            response.put("message", e.getMessage());
-            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+            logger.warn("作业启动失败: 作业已在运行。{}", e.getMessage());
+            return alreadyRunning(response, e);
         } catch (JobInstanceAlreadyCompleteException e) {
             logger.warn("作业启动失败: 作业实例已成功完成。", e);
             response.put("error", "作业实例已成功完成且不允许重启。");
@@ -89,6 +116,323 @@ public class BatchJobController {
         }
     }
 
+    /**
+     * POST /api/batch/historical-index/{jobExecutionId}/pause
+     * 暂停正在运行的历史数据索引作业。作业在当前块提交后停止 (STOPPED)，检查点保留，可通过 resume 继续。
+     *
+     * @param jobExecutionId 正在运行的作业执行ID。
+     * @return ResponseEntity 包含操作结果或错误信息。
+     */
+    @PostMapping("/{jobExecutionId}/pause")
+    public ResponseEntity<Map<String, Object>> pauseHistoricalIndexJob(@PathVariable Long jobExecutionId) {
+        logger.info("接收到暂停历史数据索引作业的API请求，JobExecutionId: {}", jobExecutionId);
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobExecutionId", jobExecutionId);
+        try {
+            batchJobService.pauseHistoricalFileIndexerJob(jobExecutionId);
+            response.put("message", "已请求暂停作业，当前块提交后作业将停止。");
+            return ResponseEntity.ok(response);
+        } catch (NoSuchJobExecutionException e) {
+            response.put("error", "未找到指定的作业执行。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        } catch (JobExecutionNotRunningException e) {
+            logger.warn("暂停作业失败: 作业执行 {} 不在运行中。", jobExecutionId);
+            response.put("error", "作业执行不在运行中。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (Exception e) {
+            logger.error("暂停历史数据索引作业时发生未知错误。", e);
+            response.put("error", "暂停作业时发生内部服务器错误。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * POST /api/batch/historical-index/{jobExecutionId}/resume
+     * 恢复已暂停 (STOPPED) 或失败 (FAILED) 的历史数据索引作业，使用原参数重启同一作业实例并从检查点继续。
+     *
+     * @param jobExecutionId 已暂停的作业执行ID。
+     * @return ResponseEntity 包含操作结果或错误信息。
+     */
+    @PostMapping("/{jobExecutionId}/resume")
+    public ResponseEntity<Map<String, Object>> resumeHistoricalIndexJob(@PathVariable Long jobExecutionId) {
+        logger.info("接收到恢复历史数据索引作业的API请求，JobExecutionId: {}", jobExecutionId);
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobExecutionId", jobExecutionId);
+        try {
+            JobParameters jobParameters = batchJobService.prepareResume(jobExecutionId);
+            JobExecution jobExecution = batchJobService.startHistoricalFileIndexerJob(jobParameters);
+            response.put("message", "已请求恢复作业，作业将从上次的检查点继续。");
+            response.put("newJobExecutionId", jobExecution.getId());
+            response.put("status", jobExecution.getStatus().toString());
+            return ResponseEntity.ok(response);
+        } catch (JobExecutionAlreadyRunningException e) {
+            logger.warn("恢复作业失败: 作业已在运行。{}", e.getMessage());
+            return alreadyRunning(response, e);
+        } catch (NoSuchJobExecutionException e) {
+            response.put("error", "未找到指定的作业执行。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        } catch (JobRestartException e) {
+            logger.warn("恢复作业失败: {}", e.getMessage());
+            response.put("error", "作业当前状态不允许恢复。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (Exception e) {
+            logger.error("恢复历史数据索引作业时发生未知错误。", e);
+            response.put("error", "恢复作业时发生内部服务器错误。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * 作业已在运行 (本实例或其他实例持有租约) 时的 409 响应，附带正在运行的作业执行ID。
+     */
+    private ResponseEntity<Map<String, Object>> alreadyRunning(Map<String, Object> response,
+                                                               JobExecutionAlreadyRunningException e) {
+        response.put("error", "作业已在运行。");
+        response.put("message", e.getMessage());
+        if (e instanceof HistoricalJobAlreadyRunningException running) {
+            response.put("runningJobExecutionId", running.getRunningExecutionId());
+        }
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+    }
+
+    /**
+     * GET /api/batch/historical-index/lease
+     * 查询历史数据索引作业的单实例租约 (持有者、防护令牌、心跳时间)。
+     *
+     * @return ResponseEntity 包含租约信息。
+     */
+    @GetMapping("/lease")
+    public ResponseEntity<Map<String, Object>> getHistoricalIndexLease() {
+        return ResponseEntity.ok(batchJobService.getLeaseStatus());
+    }
+
+    /**
+     * GET /api/batch/historical-index/throttle
+     * 查询历史数据索引作业当前的吞吐量上限。
+     *
+     * @return ResponseEntity 包含 docsPerSecond、mbPerSecond (0 表示不限制) 以及累计限流等待秒数。
+     */
+    @GetMapping("/throttle")
+    public ResponseEntity<Map<String, Object>> getThrottle() {
+        return ResponseEntity.ok(batchJobService.getThrottle());
+    }
+
+    /**
+     * POST /api/batch/historical-index/throttle?docsPerSecond=50&mbPerSecond=20
+     * 调整历史数据索引作业的吞吐量上限，对正在运行的作业立即生效，无需重启。未提供的参数保持不变，0 表示不限制。
+     *
+     * @param docsPerSecond 每秒文档数上限 (可选)
+     * @param mbPerSecond   每秒 MB 上限 (可选)
+     * @return ResponseEntity 包含调整后的吞吐量上限或错误信息。
+     */
+    @PostMapping("/throttle")
+    public ResponseEntity<Map<String, Object>> updateThrottle(
+            @RequestParam(required = false) Double docsPerSecond,
+            @RequestParam(required = false) Double mbPerSecond) {
+        logger.info("接收到调整吞吐量上限的API请求。文档/秒: {}, MB/秒: {}", docsPerSecond, mbPerSecond);
+        if ((docsPerSecond != null && (docsPerSecond.isNaN() || docsPerSecond.isInfinite()))
+                || (mbPerSecond != null && (mbPerSecond.isNaN() || mbPerSecond.isInfinite()))) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", "吞吐量上限参数无效。");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        }
+        return ResponseEntity.ok(batchJobService.updateThrottle(docsPerSecond, mbPerSecond));
+    }
+
+    /**
+     * POST /api/batch/historical-index/metadata/purge
+     * 立即执行一次批处理元数据清理 (按 dms.indexer.batch.metadata.retention.* 配置的保留天数与归档目录)，
+     * 不受 retention.enabled 开关限制。同步执行，返回本次清理的统计信息。
+     * 已暂停或失败、仍可恢复的作业实例不会被清理。清理已在运行时返回 409，清理失败时返回 500 (统计中包含 failure)。
+     *
+     * @return ResponseEntity 包含清理统计信息。
+     */
+    @PostMapping("/metadata/purge")
+    public ResponseEntity<Map<String, Object>> purgeBatchMetadata() {
+        logger.info("接收到立即清理批处理元数据的API请求。");
+        Map<String, Object> result = batchMetadataRetentionService.purgeExpiredMetadata();
+        if (result.containsKey("error")) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(result);
+        }
+        if (result.containsKey("failure")) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result);
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * POST /api/batch/historical-index/reconciliation/start
+     * 启动孤儿文档对账作业: 删除 ES 中对应文件已不存在的文档。作业异步执行，通过 reconciliation/latest 查询结果。
+     *
+     * @param dryRun 为 true 时只统计孤儿文档，不删除 (默认 false)
+     * @return ResponseEntity 包含作业执行ID或错误信息。
+     */
+    @PostMapping("/reconciliation/start")
+    public ResponseEntity<Map<String, Object>> startOrphanReconciliation(@RequestParam(defaultValue = "false") boolean dryRun) {
+        logger.info("接收到启动孤儿文档对账作业的API请求，dryRun: {}", dryRun);
+        Map<String, Object> response = new HashMap<>();
+        try {
+            JobExecution jobExecution = batchJobService.startOrphanReconciliationJob(dryRun);
+            response.put("message", "孤儿文档对账作业已成功请求启动。");
+            response.put("jobExecutionId", jobExecution.getId());
+            response.put("status", jobExecution.getStatus().toString());
+            response.put("dryRun", dryRun);
+            return ResponseEntity.ok(response);
+        } catch (JobExecutionAlreadyRunningException e) {
+            response.put("error", "对账作业已在运行。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (Exception e) {
+            logger.error("启动孤儿文档对账作业时发生未知错误。", e);
+            response.put("error", "启动对账作业时发生内部服务器错误。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * GET /api/batch/historical-index/reconciliation/latest
+     * 查询最近一次孤儿文档对账作业的执行状态，reconciliation 字段为对账统计 (作业完成后才有)。
+     *
+     * @return ResponseEntity 包含作业执行信息；没有执行记录时返回 404。
+     */
+    @GetMapping("/reconciliation/latest")
+    public ResponseEntity<Map<String, Object>> getLatestOrphanReconciliation() {
+        JobExecution jobExecution = batchJobService.getLatestOrphanReconciliationExecution();
+        if (jobExecution == null) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", "还没有对账作业的执行记录。");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        Map<String, Object> execDetails = formatJobExecution(jobExecution);
+        Map<String, Object> stats = new HashMap<>();
+        jobExecution.getStepExecutions().forEach(stepExecution -> stepExecution.getExecutionContext().entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith("reconciliation."))
+                .forEach(entry -> stats.put(entry.getKey().substring("reconciliation.".length()), entry.getValue())));
+        execDetails.put("reconciliation", stats);
+        return ResponseEntity.ok(execDetails);
+    }
+
+    /**
+     * POST /api/batch/historical-index/reindex/start?order=NEWEST_FIRST
+     * 启动蓝绿全量重建: 创建带版本号的新索引，实时写入开始双写，历史索引作业全量写入新索引，
+     * 作业成功完成后别名原子地切换到新索引，旧索引保留用于回滚。作业暂停或失败时可通过 resume 继续。
+     *
+     * @param order 处理顺序 PATH / NEWEST_FIRST (可选)
+     * @return ResponseEntity 包含作业执行ID和新索引名称或错误信息。
+     */
+    @PostMapping("/reindex/start")
+    public ResponseEntity<Map<String, Object>> startBlueGreenReindex(@RequestParam(required = false) String order) {
+        logger.info("接收到启动蓝绿全量重建的API请求，顺序: {}", order);
+        Map<String, Object> response = new HashMap<>();
+        try {
+            JobExecution jobExecution = batchJobService.startBlueGreenReindex(order);
+            response.put("message", "蓝绿全量重建已成功请求启动。");
+            response.put("jobExecutionId", jobExecution.getId());
+            response.put("status", jobExecution.getStatus().toString());
+            response.put("reindexTarget", jobExecution.getJobParameters().getString(HistoricalJobParameters.REINDEX_TARGET));
+            return ResponseEntity.ok(response);
+        } catch (JobExecutionAlreadyRunningException e) {
+            logger.warn("蓝绿重建启动失败: 作业已在运行。{}", e.getMessage());
+            return alreadyRunning(response, e);
+        } catch (IllegalStateException e) {
+            response.put("error", "已有进行中的蓝绿重建。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (JobParametersInvalidException e) {
+            response.put("error", "作业参数无效。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        } catch (Exception e) {
+            logger.error("启动蓝绿全量重建时发生未知错误。", e);
+            response.put("error", "启动蓝绿重建时发生内部服务器错误。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * POST /api/batch/historical-index/reindex/abort?deleteIndex=true
+     * 放弃进行中的蓝绿重建: 实时写入不再双写，可同时删除新索引。重建作业正在运行时需先暂停。
+     *
+     * @param deleteIndex 是否删除新索引 (默认 true)
+     * @return ResponseEntity 包含被放弃的新索引或错误信息。
+     */
+    @PostMapping("/reindex/abort")
+    public ResponseEntity<Map<String, Object>> abortBlueGreenReindex(@RequestParam(defaultValue = "true") boolean deleteIndex) {
+        logger.info("接收到放弃蓝绿重建的API请求，删除新索引: {}", deleteIndex);
+        Map<String, Object> response = new HashMap<>();
+        try {
+            String index = blueGreenReindexService.abort(deleteIndex);
+            if (index == null) {
+                response.put("error", "没有进行中的蓝绿重建。");
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+            }
+            response.put("message", "蓝绿重建已放弃。");
+            response.put("reindexTarget", index);
+            response.put("deleted", deleteIndex);
+            return ResponseEntity.ok(response);
+        } catch (IllegalStateException e) {
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (Exception e) {
+            logger.error("放弃蓝绿重建时发生错误。", e);
+            response.put("error", "放弃蓝绿重建时发生内部服务器错误。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * POST /api/batch/historical-index/reindex/rollback?index=dms_files_v20250601120000
+     * 回滚: 把别名原子地切换回指定的旧索引 (切换后保留的索引)。
+     *
+     * @param index 要切换到的索引
+     * @return ResponseEntity 包含回滚结果或错误信息。
+     */
+    @PostMapping("/reindex/rollback")
+    public ResponseEntity<Map<String, Object>> rollbackBlueGreenReindex(@RequestParam String index) {
+        logger.warn("接收到回滚别名的API请求，目标索引: {}", index);
+        try {
+            return ResponseEntity.ok(blueGreenReindexService.rollback(index));
+        } catch (IllegalStateException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        } catch (Exception e) {
+            logger.error("回滚别名时发生错误。", e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", "回滚别名时发生内部服务器错误。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * GET /api/batch/historical-index/reindex
+     * 查询蓝绿重建状态: 别名当前指向的索引、进行中的重建、实时写入的目标索引和所有带版本号的索引。
+     *
+     * @return ResponseEntity 包含状态信息。
+     */
+    @GetMapping("/reindex")
+    public ResponseEntity<Map<String, Object>> getBlueGreenReindexStatus() {
+        try {
+            return ResponseEntity.ok(blueGreenReindexService.getStatus());
+        } catch (Exception e) {
+            logger.error("查询蓝绿重建状态时发生错误。", e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", "查询蓝绿重建状态失败。");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
     /**
      * GET /api/batch/historical-index/status/{jobExecutionId}
      * 查询特定作业执行的状态。
@@ -113,6 +457,7 @@ public class BatchJobController {
     /**
      * GET /api/batch/historical-index/latest-status
      * 查询最新（或正在运行）的历史数据索引作业的执行状态列表。
+     * 启用时间窗口调度时，每个执行都带有 activeWindow 字段，表示当前所在的调度窗口 (不在任何窗口内时为 null)。
      *
      * @return ResponseEntity 包含作业执行列表。
      */
@@ -120,12 +465,28 @@ public class BatchJobController {
     public ResponseEntity<List<Map<String, Object>>> getLatestJobStatuses() {
         logger.debug("接收到查询最新作业执行状态列表的API请求。");
         List<JobExecution> jobExecutions = batchJobService.getLatestJobExecutions();
+        Map<String, Object> activeWindow = indexingWindowScheduler.getActiveWindow();
         List<Map<String, Object>> responseList = jobExecutions.stream()
                 .map(this::formatJobExecution)
+                .peek(execDetails -> execDetails.put("activeWindow", activeWindow))
                 .collect(Collectors.toList());
         return ResponseEntity.ok(responseList);
     }
 
+    /**
+     * GET /api/batch/historical-index/window
+     * 查询当前所在的调度时间窗口。
+     *
+     * @return ResponseEntity 包含窗口信息与当前吞吐量上限。
+     */
+    @GetMapping("/window")
+    public ResponseEntity<Map<String, Object>> getActiveWindow() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("activeWindow", indexingWindowScheduler.getActiveWindow());
+        response.put("throttle", batchJobService.getThrottle());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 辅助方法，将 JobExecution 对象格式化为 Map 以便API响应。
      * @param jobExecution JobExecution 对象
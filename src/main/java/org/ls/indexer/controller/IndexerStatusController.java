@@ -15,8 +15,16 @@ import co.elastic.clients.elasticsearch.core.CountResponse;
 import org.apache.kafka.clients.admin.*;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.elasticsearch.client.RestClient;
+import org.ls.indexer.config.ElasticsearchNodeRequestStats;
 import org.ls.indexer.config.properties.ElasticsearchProperties;
 import org.ls.indexer.config.properties.KafkaTopicProperties;
+import org.ls.indexer.service.AdaptiveWriteRateService;
+import org.ls.indexer.service.BatchMetadataRetentionService;
+import org.ls.indexer.service.BulkIngestionService;
+import org.ls.indexer.service.FileChangeClassifier;
+import org.ls.indexer.service.FileWatchIngestionService;
+import org.ls.indexer.service.WriteAheadSpoolService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -45,6 +53,14 @@ public class IndexerStatusController {
     private final KafkaAdmin kafkaAdmin;
     private final KafkaTopicProperties kafkaTopicProperties;
     private final KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+    private final BatchMetadataRetentionService batchMetadataRetentionService;
+    private final FileWatchIngestionService fileWatchIngestionService;
+    private final BulkIngestionService bulkIngestionService;
+    private final AdaptiveWriteRateService adaptiveWriteRateService;
+    private final RestClient restClient;
+    private final ElasticsearchNodeRequestStats elasticsearchNodeRequestStats;
+    private final FileChangeClassifier fileChangeClassifier;
+    private final WriteAheadSpoolService writeAheadSpoolService;
 
     @Autowired
     public IndexerStatusController(HealthEndpoint healthEndpoint,
@@ -52,13 +68,29 @@ public class IndexerStatusController {
                                    ElasticsearchProperties elasticsearchProperties,
                                    KafkaAdmin kafkaAdmin,
                                    KafkaTopicProperties kafkaTopicProperties,
-                                   KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry) {
+                                   KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry,
+                                   BatchMetadataRetentionService batchMetadataRetentionService,
+                                   FileWatchIngestionService fileWatchIngestionService,
+                                   BulkIngestionService bulkIngestionService,
+                                   AdaptiveWriteRateService adaptiveWriteRateService,
+                                   RestClient restClient,
+                                   ElasticsearchNodeRequestStats elasticsearchNodeRequestStats,
+                                   FileChangeClassifier fileChangeClassifier,
+                                   WriteAheadSpoolService writeAheadSpoolService) {
         this.healthEndpoint = healthEndpoint;
         this.elasticsearchClient = elasticsearchClient;
         this.elasticsearchProperties = elasticsearchProperties;
         this.kafkaAdmin = kafkaAdmin;
         this.kafkaTopicProperties = kafkaTopicProperties;
         this.kafkaListenerEndpointRegistry = kafkaListenerEndpointRegistry;
+        this.batchMetadataRetentionService = batchMetadataRetentionService;
+        this.fileWatchIngestionService = fileWatchIngestionService;
+        this.bulkIngestionService = bulkIngestionService;
+        this.adaptiveWriteRateService = adaptiveWriteRateService;
+        this.restClient = restClient;
+        this.elasticsearchNodeRequestStats = elasticsearchNodeRequestStats;
+        this.fileChangeClassifier = fileChangeClassifier;
+        this.writeAheadSpoolService = writeAheadSpoolService;
     }
 
     @GetMapping("/health")
@@ -260,4 +292,52 @@ public class IndexerStatusController {
                     .body(Map.of("error", "获取消费者 Lag 失败", "message", e.getMessage()));
         }
     }
-}
\ No newline at end of file
+
+    @GetMapping("/batch-metadata")
+    public ResponseEntity<?> getBatchMetadataStats() {
+        logger.debug("请求批处理元数据表统计信息。");
+        try {
+            return ResponseEntity.ok(batchMetadataRetentionService.getMetadataStats());
+        } catch (Exception e) {
+            logger.error("获取批处理元数据表统计信息失败: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "获取批处理元数据表统计信息失败", "message", String.valueOf(e.getMessage())));
+        }
+    }
+
+    @GetMapping("/file-watch")
+    public ResponseEntity<Map<String, Object>> getFileWatchStatus() {
+        logger.debug("请求文件监听模式状态。");
+        return ResponseEntity.ok(fileWatchIngestionService.getStatus());
+    }
+
+    @GetMapping("/bulk")
+    public ResponseEntity<Map<String, Object>> getBulkIngestionStats() {
+        logger.debug("请求共享 bulk 写入组件统计信息。");
+        return ResponseEntity.ok(bulkIngestionService.getStats());
+    }
+
+    @GetMapping("/adaptive-write")
+    public ResponseEntity<Map<String, Object>> getAdaptiveWriteStatus() {
+        logger.debug("请求自适应写入控制器状态。");
+        return ResponseEntity.ok(adaptiveWriteRateService.getStatus());
+    }
+
+    @GetMapping("/elasticsearch/nodes")
+    public ResponseEntity<Map<String, Object>> getElasticsearchNodeDistribution() {
+        logger.debug("请求 Elasticsearch 节点请求分布。");
+        return ResponseEntity.ok(elasticsearchNodeRequestStats.getStats(restClient.getNodes()));
+    }
+
+    @GetMapping("/change-classification")
+    public ResponseEntity<Map<String, Object>> getChangeClassificationStats() {
+        logger.debug("请求 Upsert 事件变更分类统计。");
+        return ResponseEntity.ok(fileChangeClassifier.getStats());
+    }
+
+    @GetMapping("/spool")
+    public ResponseEntity<Map<String, Object>> getSpoolStats() {
+        logger.debug("请求本地预写暂存统计。");
+        return ResponseEntity.ok(writeAheadSpoolService.getStats());
+    }
+}
@@ -92,6 +92,29 @@ public class EsDocumentDto {
     @JsonProperty("file_size_bytes")
     private Long fileSizeBytes;
 
+    /**
+     * 文件内容的 SHA-256 (小写十六进制)，与 file_size_bytes、last_modified 一起作为内容指纹，
+     * 用于判断重命名/移动事件是否只改变了元数据 (见 FileChangeClassifier)。
+     * 在 ES Mapping 中定义为 "content_sha256"。
+     */
+    @JsonProperty("content_sha256")
+    private String contentSha256;
+
+    /**
+     * 分块文档模式 (dms.indexer.chunking.enabled) 下分块文档的序号 (从 0 开始)。
+     * 分块文档的 file_id 为父文档的 file_id，_id 为 "file_id#序号" (见 esDocumentId)，只包含 content。
+     * 在 ES Mapping 中定义为 "chunk_ordinal"。
+     */
+    @JsonProperty("chunk_ordinal")
+    private Integer chunkOrdinal;
+
+    /**
+     * 分块文档模式下父文档的分块数。父文档包含元数据字段，不包含 content。
+     * 在 ES Mapping 中定义为 "chunk_count"。
+     */
+    @JsonProperty("chunk_count")
+    private Integer chunkCount;
+
     /**
      * Kafka 事件时间戳。
      * 可以是 Kafka 消息中的 eventTimestamp。
@@ -116,4 +139,23 @@ public class EsDocumentDto {
      * private Map<String, Object> customMetadata;
      */
 
+    /**
+     * 获取写入 Elasticsearch 时使用的 _id: 普通文档和父文档为 fileId，分块文档为 "fileId#序号"。
+     *
+     * @return 文档 _id
+     */
+    public String esDocumentId() {
+        return chunkOrdinal == null ? fileId : chunkDocumentId(fileId, chunkOrdinal);
+    }
+
+    /**
+     * 生成分块文档的 _id。
+     *
+     * @param fileId  父文档的 file_id
+     * @param ordinal 分块序号
+     * @return 分块文档 _id
+     */
+    public static String chunkDocumentId(String fileId, int ordinal) {
+        return fileId + "#" + ordinal;
+    }
 }
@@ -33,6 +33,16 @@ public class FileParseResult {
      */
     private String author;
 
+    /**
+     * 文件内容 (原始字节) 的 SHA-256 (小写十六进制)，在解析时计算，用于判断文件内容是否变化。
+     */
+    private String contentSha256;
+
+    /**
+     * 分块解析 (FileParserService.parseFileInChunks) 时产生的分块数，此时 content 为 null。普通解析时为 null。
+     */
+    private Integer chunkCount;
+
     // 移除了与 @AllArgsConstructor 冲突的自定义构造函数
 
     /**
@@ -44,6 +54,6 @@ public class FileParseResult {
     // 建议在使用时创建: new FileParseResult() 并依赖字段的默认null值，或 new FileParseResult(null, null, null)
     // 或者定义一个静态工厂方法：
     public static FileParseResult emptyResult() {
-        return new FileParseResult(null, null, null);
+        return new FileParseResult(null, null, null, null, null);
     }
 }
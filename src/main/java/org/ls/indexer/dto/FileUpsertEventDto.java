@@ -73,6 +73,15 @@ public class FileUpsertEventDto {
     @JsonProperty("targetFileSizeBytes")
     private long targetFileSizeBytes;
 
+    /**
+     * 目标文件内容的 SHA-256 (可选, 小写十六进制)。
+     * 生产者提供时用于判断文件内容是否变化: 与 ES 中的指纹一致时只更新元数据，不重新解析文件。
+     * 未提供时默认总是完整解析 (dms.indexer.change-classification.require-hash=true)；
+     * 关闭 require-hash 后只比较大小和最后修改时间，可能把保留修改时间的同大小内容替换误判为未变化。
+     */
+    @JsonProperty("targetFileSha256")
+    private String targetFileSha256;
+
     /**
      * Kafka 事件的时间戳 (可选, Epoch millis or nanoseconds as string, depending on producer)。
      * 用于审计。
@@ -12,6 +12,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.scheduling.annotation.EnableAsync; // 新增导入
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Elasticsearch索引服务主应用程序类。
@@ -28,6 +29,7 @@ import org.springframework.scheduling.annotation.EnableAsync; // 新增导入
 @SpringBootApplication
 @ConfigurationPropertiesScan("org.ls.indexer.config.properties") // 指定扫描 @ConfigurationProperties 注解的包路径
 @EnableAsync // <--- 添加此注解以启用异步方法执行
+@EnableScheduling // 启用批量任务时间窗口调度 (IndexingWindowScheduler)
 @EnableKafka
 public class elasticsearchIndexServiceApplication {
 
@@ -0,0 +1,28 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/exception/HistoricalJobAlreadyRunningException.java
+ * 文件名称: HistoricalJobAlreadyRunningException.java
+ * 开发时间: 2025-06-25 14:20:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 历史索引作业的租约已被持有 (本实例或其他实例正在运行该作业) 时抛出，携带正在运行的作业执行ID。
+ */
+package org.ls.indexer.exception;
+
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+
+public class HistoricalJobAlreadyRunningException extends JobExecutionAlreadyRunningException {
+
+    private final Long runningExecutionId;
+
+    /**
+     * @param message            详细消息
+     * @param runningExecutionId 正在运行的作业执行ID，未知时为 null
+     */
+    public HistoricalJobAlreadyRunningException(String message, Long runningExecutionId) {
+        super(message);
+        this.runningExecutionId = runningExecutionId;
+    }
+
+    public Long getRunningExecutionId() {
+        return runningExecutionId;
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/exception/TransientIndexingException.java
+ * 文件名称: TransientIndexingException.java
+ * 开发时间: 2025-06-25 23:10:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 写入因传输异常或可重试的条目失败 (429/503 等) 在重试耗尽后仍然失败时使用。
+ *          这类失败没有发送到失败 Topic，批处理的 ItemWriter 遇到时必须使块失败，不能提交检查点；
+ *          其他 IndexingException (不可重试的文档错误) 已发送到失败 Topic，ItemWriter 只计数。
+ */
+package org.ls.indexer.exception;
+
+public class TransientIndexingException extends IndexingException {
+
+    public TransientIndexingException(String message) {
+        super(message);
+    }
+
+    public TransientIndexingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
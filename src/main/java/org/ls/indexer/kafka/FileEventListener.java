@@ -7,6 +7,7 @@
  */
 package org.ls.indexer.kafka;
 
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.ls.indexer.config.properties.AppProperties;
@@ -16,8 +17,11 @@ import org.ls.indexer.dto.FileDeleteEventDto;
 import org.ls.indexer.dto.FileParseResult;
 import org.ls.indexer.dto.FileUpsertEventDto;
 import org.ls.indexer.exception.IndexingException;
-import org.ls.indexer.service.ElasticsearchPersistenceService;
+import org.ls.indexer.service.BulkIngestionService;
+import org.ls.indexer.service.ChunkedDocumentService;
+import org.ls.indexer.service.FileChangeClassifier;
 import org.ls.indexer.service.FileParserService;
+import org.ls.indexer.service.WriteAheadSpoolService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,6 +40,7 @@ import java.time.ZoneOffset;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
 import org.springframework.util.StringUtils;
 
 @Component
@@ -45,21 +50,30 @@ public class FileEventListener {
 
     private final ObjectMapper objectMapper;
     private final FileParserService fileParserService;
-    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+    private final BulkIngestionService bulkIngestionService; // 共享的 bulk 写入组件
     private final KafkaTopicProperties kafkaTopicProperties;
     private final AppProperties appProperties;
+    private final FileChangeClassifier fileChangeClassifier; // 判断重命名/移动是否只改变了元数据
+    private final ChunkedDocumentService chunkedDocumentService; // 分块文档模式下流式写入分块
+    private final WriteAheadSpoolService writeAheadSpoolService; // ES 不可用时的本地预写暂存
 
     @Autowired
     public FileEventListener(ObjectMapper objectMapper,
                              FileParserService fileParserService,
-                             ElasticsearchPersistenceService elasticsearchPersistenceService,
+                             BulkIngestionService bulkIngestionService,
                              KafkaTopicProperties kafkaTopicProperties,
-                             AppProperties appProperties) {
+                             AppProperties appProperties,
+                             FileChangeClassifier fileChangeClassifier,
+                             ChunkedDocumentService chunkedDocumentService,
+                             WriteAheadSpoolService writeAheadSpoolService) {
         this.objectMapper = objectMapper; // Spring Boot 会自动配置一个 ObjectMapper bean
         this.fileParserService = fileParserService;
-        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+        this.bulkIngestionService = bulkIngestionService;
         this.kafkaTopicProperties = kafkaTopicProperties;
         this.appProperties = appProperties;
+        this.fileChangeClassifier = fileChangeClassifier;
+        this.chunkedDocumentService = chunkedDocumentService;
+        this.writeAheadSpoolService = writeAheadSpoolService;
     }
 
     /**
@@ -70,6 +84,8 @@ public class FileEventListener {
      * @param partition  消息来源分区
      * @param offset     消息偏移量
      * @param ack        Acknowledgment 对象，用于手动提交偏移量 (如果配置为手动提交)
+     * @throws Exception 如果消息无法处理 (格式错误、文件解析失败等)。由 DefaultErrorHandler 重试，
+     *                   重试耗尽后发送到DLQ并提交偏移量；不能只记录日志后返回，否则该偏移量永远不会被确认。
      */
     @KafkaListener(
             topics = "#{__listener.kafkaTopicProperties.upsertTopicName}", // 使用SpEL表达式动态获取Topic名称
@@ -80,7 +96,7 @@ public class FileEventListener {
                                       @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
                                       @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
                                       @Header(KafkaHeaders.OFFSET) long offset,
-                                      Acknowledgment ack) { // 如果是手动ack，需要这个参数
+                                      Acknowledgment ack) throws Exception { // 如果是手动ack，需要这个参数
         logger.info("接收到 Upsert 事件 - Topic: {}, Partition: {}, Offset: {}, Message: {}",
                 topic, partition, offset, message);
 
@@ -101,10 +117,19 @@ public class FileEventListener {
             ).normalize(); // normalize() 用于处理路径中的 ".." 等
             logger.info("目标文件物理路径: {}", targetFilePath);
 
+            // 内容指纹与 ES 中一致 (重命名/移动)，只部分更新元数据字段，不打开文件
+            if (fileChangeClassifier.classify(eventDto) == FileChangeClassifier.ChangeType.METADATA_ONLY) {
+                submitMetadataUpdate(eventDto, topic, partition, offset, ack);
+                return;
+            }
+
             // 2. 调用 FileParserService 解析文件
             // 在实际场景中，还需要检查文件扩展名是否支持，设计文档中提到过
             // dms.indexer.supported-extensions，这部分逻辑可以在这里或FileParserService前置判断
-            FileParseResult parseResult = fileParserService.parseFile(targetFilePath);
+            // 分块文档模式下在写入时流式解析 (见步骤 4)，父文档的 title / author / content_sha256 由 ChunkedDocumentService 填充
+            FileParseResult parseResult = chunkedDocumentService.isEnabled()
+                    ? FileParseResult.emptyResult()
+                    : fileParserService.parseFile(targetFilePath);
 
             // 3. 构建 EsDocumentDto
             EsDocumentDto esDoc = EsDocumentDto.builder()
@@ -116,6 +141,7 @@ public class FileEventListener {
                     .title(parseResult.getTitle())
                     .author(parseResult.getAuthor())
                     .fileSizeBytes(eventDto.getTargetFileSizeBytes())
+                    .contentSha256(parseResult.getContentSha256())
                     .build();
 
             // 原始代码 - 处理 eventTimestamp
@@ -160,44 +186,94 @@ public class FileEventListener {
 //            }
 
             // 直接解析 ISO 8601 格式（推荐） 处理 eventTimestamp
-            if (StringUtils.hasText(eventDto.getEventTimestamp())) {
-                try {
-                    // 直接解析 ISO 8601 格式的字符串
-                    Instant timestamp = Instant.parse(eventDto.getEventTimestamp());
-                    esDoc.setEventTimestamp(timestamp);
-                } catch (DateTimeParseException e) {
-                    // 捕获正确的异常类型 DateTimeParseException
-                    logger.warn("无法将 eventTimestamp '{}' 解析为 Instant 对象。请检查格式。",
-                            eventDto.getEventTimestamp(), e);
-                    // 可以添加其他格式的解析尝试，或忽略
-                }
-            }
+            esDoc.setEventTimestamp(parseEventTimestamp(eventDto));
 
 
             logger.debug("构建的 ES 文档: {}", esDoc);
 
-            // 4. 调用 ElasticsearchPersistenceService 索引文档
-            elasticsearchPersistenceService.indexDocument(esDoc);
-            logger.info("文档 ID: {} (来自文件: {}) 已成功处理并发送到 Elasticsearch。",
-                    eventDto.getElasticsearchDocumentId(), targetFilePath);
-
-            // 如果配置了手动提交偏移量，则在此处提交
-            if (ack != null) {
-                ack.acknowledge();
-                logger.debug("Kafka 消息偏移量已提交 (Upsert): Topic {}, Partition {}, Offset {}", topic, partition, offset);
+            // ES 不可用 (或暂存中还有未回放的记录) 时写入本地暂存，刷盘后直接提交偏移量，ES 恢复后由后台回放
+            // 分块文档模式下分块在解析时已直接写入 ES，不使用暂存
+            if (!chunkedDocumentService.isEnabled() && writeAheadSpoolService.offerIndex(esDoc)) {
+                logger.info("文档 ID: {} (来自文件: {}) 已写入本地暂存，等待 Elasticsearch 恢复后回放。",
+                        eventDto.getElasticsearchDocumentId(), targetFilePath);
+                acknowledge(ack, topic, partition, offset, "Upsert");
+                return;
             }
 
+            // 4. 提交到共享的 bulk 写入组件，与其他消息合并为 bulk 请求；写入完成后在回调中提交偏移量
+            //    分块文档模式下先写入全部分块，再写入父文档并删除多余的旧分块
+            CompletableFuture<BulkResponseItem> future = chunkedDocumentService.isEnabled()
+                    ? chunkedDocumentService.indexLive(esDoc, targetFilePath)
+                    : bulkIngestionService.submitIndex(esDoc);
+            future.whenComplete((item, failure) -> {
+                if (failure == null) {
+                    logger.info("文档 ID: {} (来自文件: {}) 已成功写入 Elasticsearch。",
+                            eventDto.getElasticsearchDocumentId(), targetFilePath);
+                } else {
+                    logger.error("文档 ID: {} (来自文件: {}) 写入 Elasticsearch 失败: {}",
+                            eventDto.getElasticsearchDocumentId(), targetFilePath, failure.getMessage());
+                    writeAheadSpoolService.reportWriteFailure();
+                }
+                // 失败时同样确认: 异步确认模式下未确认的偏移量会阻塞后续所有偏移量的提交
+                acknowledge(ack, topic, partition, offset, "Upsert");
+            });
+
         } catch (JsonProcessingException e) {
             logger.error("反序列化 Upsert 事件消息失败: '{}'. 错误: {}", message, e.getMessage(), e);
-            // 此处通常意味着消息格式错误，应发送到DLQ。后续通过配置ErrorHandler实现。
-            // 如果是手动ack，可以选择不提交，让消息被重新消费或进入DLQ。
+            throw e; // 消息格式错误，由 ErrorHandler 直接发送到DLQ (不重试)
         } catch (IndexingException e) {
             logger.error("处理 Upsert 事件 (文件: {}) 失败: {}. 消息: {}",
                     message, e.getMessage(), e.getCause() != null ? e.getCause().getMessage() : "", e);
-            // 业务逻辑异常，也应考虑发送到DLQ。
+            throw e; // 业务逻辑异常，由 ErrorHandler 重试后发送到DLQ
         } catch (Exception e) { // 捕获其他所有意外异常
             logger.error("处理 Upsert 事件消息: '{}' 时发生未知错误: {}", message, e.getMessage(), e);
-            // 未知异常，发送到DLQ。
+            throw e; // 未知异常，由 ErrorHandler 重试后发送到DLQ
+        }
+    }
+
+    /**
+     * 只有元数据变化时提交部分更新 (filename / source_path / event_timestamp)，完成后在回调中提交偏移量。
+     */
+    private void submitMetadataUpdate(FileUpsertEventDto eventDto, String topic, int partition, long offset,
+                                      Acknowledgment ack) {
+        EsDocumentDto partialDoc = EsDocumentDto.builder()
+                .fileId(eventDto.getElasticsearchDocumentId())
+                .filename(eventDto.getSourceFilename())
+                .sourcePath(Paths.get(eventDto.getSourceRelativePath(), eventDto.getSourceFilename()).toString())
+                .eventTimestamp(parseEventTimestamp(eventDto))
+                .build();
+        logger.debug("文档 ID: {} 内容未变化，只更新元数据: {}", partialDoc.getFileId(), partialDoc);
+        if (writeAheadSpoolService.offerMetadataUpdate(partialDoc)) {
+            logger.info("文档 ID: {} 的元数据更新已写入本地暂存，等待 Elasticsearch 恢复后回放。", partialDoc.getFileId());
+            acknowledge(ack, topic, partition, offset, "Upsert");
+            return;
+        }
+        bulkIngestionService.submitMetadataUpdate(partialDoc).whenComplete((item, failure) -> {
+            if (failure == null) {
+                logger.info("文档 ID: {} 的元数据已更新 (内容未变化，未重新解析)，新路径: {}",
+                        partialDoc.getFileId(), partialDoc.getSourcePath());
+            } else {
+                logger.error("文档 ID: {} 更新元数据失败: {}", partialDoc.getFileId(), failure.getMessage());
+                writeAheadSpoolService.reportWriteFailure();
+            }
+            acknowledge(ack, topic, partition, offset, "Upsert");
+        });
+    }
+
+    /**
+     * 直接解析 ISO 8601 格式的 eventTimestamp，为空或格式错误时返回 null。
+     */
+    private Instant parseEventTimestamp(FileUpsertEventDto eventDto) {
+        if (!StringUtils.hasText(eventDto.getEventTimestamp())) {
+            return null;
+        }
+        try {
+            return Instant.parse(eventDto.getEventTimestamp());
+        } catch (DateTimeParseException e) {
+            // 捕获正确的异常类型 DateTimeParseException
+            logger.warn("无法将 eventTimestamp '{}' 解析为 Instant 对象。请检查格式。",
+                    eventDto.getEventTimestamp(), e);
+            return null;
         }
     }
 
@@ -209,6 +285,7 @@ public class FileEventListener {
      * @param partition  消息来源分区
      * @param offset     消息偏移量
      * @param ack        Acknowledgment 对象
+     * @throws Exception 如果消息无法处理。由 DefaultErrorHandler 重试，重试耗尽后发送到DLQ并提交偏移量。
      */
     @KafkaListener(
             topics = "#{__listener.kafkaTopicProperties.deleteTopicName}",
@@ -219,7 +296,7 @@ public class FileEventListener {
                                       @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
                                       @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
                                       @Header(KafkaHeaders.OFFSET) long offset,
-                                      Acknowledgment ack) {
+                                      Acknowledgment ack) throws Exception {
         logger.info("接收到 Delete 事件 - Topic: {}, Partition: {}, Offset: {}, Message: {}",
                 topic, partition, offset, message);
 
@@ -236,31 +313,48 @@ public class FileEventListener {
                 return;
             }
 
-            // 调用 ElasticsearchPersistenceService 删除文档
-            boolean deleted = elasticsearchPersistenceService.deleteDocument(eventDto.getElasticsearchDocumentId());
-
-            if (deleted) {
-                logger.info("文档 ID: {} 已成功从 Elasticsearch 删除 (或未找到)。", eventDto.getElasticsearchDocumentId());
-            } else {
-                // deleteDocument 方法内部已记录详细日志，这里可以简单记录或根据返回值做进一步处理
-                logger.warn("尝试删除文档 ID: {} 可能未完全成功 (详见先前日志)。", eventDto.getElasticsearchDocumentId());
+            // ES 不可用 (或暂存中还有未回放的记录) 时写入本地暂存；分块文档模式下需要查询分块数，不使用暂存
+            if (!chunkedDocumentService.isEnabled()
+                    && writeAheadSpoolService.offerDelete(eventDto.getElasticsearchDocumentId())) {
+                logger.info("文档 ID: {} 的删除已写入本地暂存，等待 Elasticsearch 恢复后回放。", eventDto.getElasticsearchDocumentId());
+                acknowledge(ack, topic, partition, offset, "Delete");
+                return;
             }
 
-            if (ack != null) {
-                ack.acknowledge();
-                logger.debug("Kafka 消息偏移量已提交 (Delete): Topic {}, Partition {}, Offset {}", topic, partition, offset);
-            }
+            // 提交到共享的 bulk 写入组件删除文档 (分块文档模式下同时删除全部分块)，完成后在回调中提交偏移量
+            CompletableFuture<BulkResponseItem> future = chunkedDocumentService.isEnabled()
+                    ? chunkedDocumentService.deleteLive(eventDto.getElasticsearchDocumentId())
+                    : bulkIngestionService.submitDelete(eventDto.getElasticsearchDocumentId());
+            future.whenComplete((item, failure) -> {
+                if (failure == null) {
+                    logger.info("文档 ID: {} 已成功从 Elasticsearch 删除 (或未找到)。", eventDto.getElasticsearchDocumentId());
+                } else {
+                    logger.warn("删除文档 ID: {} 失败: {}", eventDto.getElasticsearchDocumentId(), failure.getMessage());
+                    writeAheadSpoolService.reportWriteFailure();
+                }
+                acknowledge(ack, topic, partition, offset, "Delete");
+            });
 
         } catch (JsonProcessingException e) {
             logger.error("反序列化 Delete 事件消息失败: '{}'. 错误: {}", message, e.getMessage(), e);
-            // 发送到DLQ
+            throw e; // 发送到DLQ (不重试)
         } catch (IndexingException e) {
             logger.error("处理 Delete 事件 (文档ID: {}) 失败: {}. 消息: {}",
                     message, e.getMessage(), e.getCause() != null ? e.getCause().getMessage() : "", e);
-            // 发送到DLQ
+            throw e; // 重试后发送到DLQ
         } catch (Exception e) {
             logger.error("处理 Delete 事件消息: '{}' 时发生未知错误: {}", message, e.getMessage(), e);
-            // 发送到DLQ
+            throw e; // 重试后发送到DLQ
+        }
+    }
+
+    /**
+     * 提交 Kafka 消息偏移量 (在 bulk 写入完成的回调线程中调用，依赖容器的异步确认)。
+     */
+    private void acknowledge(Acknowledgment ack, String topic, int partition, long offset, String eventType) {
+        if (ack != null) {
+            ack.acknowledge();
+            logger.debug("Kafka 消息偏移量已提交 ({}): Topic {}, Partition {}, Offset {}", eventType, topic, partition, offset);
         }
     }
 
@@ -0,0 +1,112 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/kafka/FilePrefetchConsumerInterceptor.java
+ * 文件名称: FilePrefetchConsumerInterceptor.java
+ * 开发时间: 2025-06-22 14:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: Kafka 消费者拦截器。每次 poll 返回一批消息时，在 FileEventListener 逐条处理之前，
+ *          解析其中 Upsert 事件的目标文件路径并提交给 FilePrefetchService 预读，
+ *          使后续消息的文件 IO 与当前消息的解析重叠。
+ *
+ * 功能说明：
+ * 拦截器由 Kafka 客户端通过反射创建，协作对象通过消费者配置传入 (见 KafkaConsumerConfig)。
+ * 拦截器内的任何异常都会被忽略，不影响消息的正常消费。
+ */
+package org.ls.indexer.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerInterceptor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.ls.indexer.config.properties.AppProperties;
+import org.ls.indexer.dto.FileUpsertEventDto;
+import org.ls.indexer.service.FilePrefetchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class FilePrefetchConsumerInterceptor implements ConsumerInterceptor<String, String> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilePrefetchConsumerInterceptor.class);
+
+    // 通过消费者配置传入协作对象的键名
+    public static final String PREFETCH_SERVICE_CONFIG = "dms.indexer.prefetch.service";
+    public static final String OBJECT_MAPPER_CONFIG = "dms.indexer.prefetch.object-mapper";
+    public static final String APP_PROPERTIES_CONFIG = "dms.indexer.prefetch.app-properties";
+    public static final String UPSERT_TOPIC_CONFIG = "dms.indexer.prefetch.upsert-topic";
+
+    private FilePrefetchService filePrefetchService;
+    private ObjectMapper objectMapper;
+    private AppProperties appProperties;
+    private String upsertTopic;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        this.filePrefetchService = (FilePrefetchService) configs.get(PREFETCH_SERVICE_CONFIG);
+        this.objectMapper = (ObjectMapper) configs.get(OBJECT_MAPPER_CONFIG);
+        this.appProperties = (AppProperties) configs.get(APP_PROPERTIES_CONFIG);
+        this.upsertTopic = (String) configs.get(UPSERT_TOPIC_CONFIG);
+        if (filePrefetchService == null || objectMapper == null || appProperties == null || upsertTopic == null) {
+            logger.warn("FilePrefetchConsumerInterceptor 缺少必要的配置，Kafka 消息将不会触发文件预读。");
+        }
+    }
+
+    @Override
+    public ConsumerRecords<String, String> onConsume(ConsumerRecords<String, String> records) {
+        if (filePrefetchService == null || objectMapper == null || appProperties == null || upsertTopic == null
+                || records.isEmpty() || !filePrefetchService.isEnabled()) {
+            return records;
+        }
+        try {
+            String baseDir = appProperties.getTargetBaseDir();
+            if (baseDir == null || baseDir.isBlank()) {
+                return records;
+            }
+            List<Path> paths = new ArrayList<>(records.count());
+            for (ConsumerRecord<String, String> record : records.records(upsertTopic)) {
+                Path path = resolveTargetPath(baseDir, record.value());
+                if (path != null) {
+                    paths.add(path);
+                }
+            }
+            filePrefetchService.prefetch(paths);
+        } catch (Exception e) {
+            logger.debug("根据 Kafka 消息提交文件预读失败: {}", e.getMessage());
+        }
+        return records;
+    }
+
+    /**
+     * 与 FileEventListener 使用相同的规则定位目标文件。消息无法解析时返回 null (交由监听器按原逻辑处理)。
+     */
+    private Path resolveTargetPath(String baseDir, String message) {
+        if (message == null) {
+            return null;
+        }
+        try {
+            FileUpsertEventDto eventDto = objectMapper.readValue(message, FileUpsertEventDto.class);
+            if (eventDto.getTargetRelativePath() == null || eventDto.getTargetFilename() == null) {
+                return null;
+            }
+            return Paths.get(baseDir, eventDto.getTargetRelativePath(), eventDto.getTargetFilename()).normalize();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void onCommit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        // 无需处理
+    }
+
+    @Override
+    public void close() {
+        // 无需处理
+    }
+}
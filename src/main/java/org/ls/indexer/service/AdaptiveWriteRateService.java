@@ -0,0 +1,364 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/AdaptiveWriteRateService.java
+ * 文件名称: AdaptiveWriteRateService.java
+ * 开发时间: 2025-06-25 19:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 根据 ES 集群的背压信号自适应调整写入并发和 bulk 请求大小 (AIMD: 加性增、乘性减)。
+ *
+ * 功能说明：
+ * 1. 信号: 每个 bulk 请求的耗时、429 拒绝条目数、整个请求失败次数 (由 BulkIngestionService 和
+ *    ElasticsearchPersistenceService 上报)，以及定时从 _nodes/stats/thread_pool 读取的 write 线程池队列长度和拒绝次数。
+ * 2. 调整: 每个控制周期 (control-interval-ms) 判断一次是否拥塞 (有 429 拒绝、请求失败、平均耗时超过 target-latency-ms
+ *    或 write 队列超过 write-queue-threshold)。拥塞时在途请求上限和 bulk 字节上限减半，否则分别加 1 和 bytes-increase-step，
+ *    上限为 dms.indexer.bulk.max-concurrent-requests 和 dms.indexer.bulk.max-bytes。
+ * 3. 背压: 在途请求数达到上限时，提交写入的线程 (Kafka 监听器、批处理 ItemWriter、文件监听) 在 awaitCapacity/acquire 中等待，
+ *    批处理步骤的读取也随之暂停。等待最多 max-wait-ms，超时后暂停所有 Kafka 监听容器并继续提交；此后直到拥塞解除
+ *    (或 Kafka 消费恢复) 之前不再等待，同一次 poll 中的后续记录不会各自再等待 max-wait-ms，监听线程不会超过
+ *    max.poll.interval.ms 而触发再均衡；严重拥塞 (有拒绝/失败或队列超过阈值两倍) 连续持续 severe-windows 个控制周期时
+ *    同样暂停 Kafka 监听容器 (单个失败请求不会暂停消费)，恢复正常后再继续消费。
+ * enabled=false 时不限流，上限固定为配置的最大值。
+ */
+package org.ls.indexer.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.nodes.NodesStatsResponse;
+import co.elastic.clients.elasticsearch.nodes.Stats;
+import co.elastic.clients.elasticsearch.nodes.ThreadCount;
+import jakarta.annotation.PostConstruct;
+import org.ls.indexer.exception.IndexingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+@Service
+public class AdaptiveWriteRateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveWriteRateService.class);
+
+    private static final String WRITE_THREAD_POOL = "write";
+
+    @Value("${dms.indexer.adaptive.enabled:true}")
+    private boolean enabled;
+
+    // 平均 bulk 耗时超过该值视为拥塞
+    @Value("${dms.indexer.adaptive.target-latency-ms:2000}")
+    private long targetLatencyMillis;
+
+    // 任一节点 write 线程池队列长度超过该值视为拥塞
+    @Value("${dms.indexer.adaptive.write-queue-threshold:200}")
+    private long writeQueueThreshold;
+
+    @Value("${dms.indexer.adaptive.min-concurrent-requests:1}")
+    private int minConcurrentRequests;
+
+    @Value("${dms.indexer.adaptive.min-bulk-bytes:1048576}")
+    private long minBulkBytes;
+
+    @Value("${dms.indexer.adaptive.bytes-increase-step:1048576}")
+    private long bytesIncreaseStep;
+
+    // 严重拥塞时是否暂停 Kafka 监听容器
+    @Value("${dms.indexer.adaptive.pause-kafka:true}")
+    private boolean pauseKafka;
+
+    // 严重拥塞连续持续多少个控制周期后暂停 Kafka 监听容器
+    @Value("${dms.indexer.adaptive.severe-windows:2}")
+    private int severeWindows;
+
+    // 等待在途名额的最长时间，超时后暂停 Kafka 消费并继续提交
+    @Value("${dms.indexer.adaptive.max-wait-ms:30000}")
+    private long maxWaitMillis;
+
+    @Value("${dms.indexer.bulk.max-concurrent-requests:2}")
+    private int maxConcurrentRequests;
+
+    @Value("${dms.indexer.bulk.max-bytes:10485760}")
+    private long maxBulkBytes;
+
+    private final ElasticsearchClient elasticsearchClient;
+    private final KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    private final Object monitor = new Object();
+    private int concurrencyLimit;
+    private int inFlightRequests;
+    private volatile long bulkBytesLimit;
+
+    // 当前控制周期内的信号
+    private final LongAdder windowRequests = new LongAdder();
+    private final LongAdder windowItems = new LongAdder();
+    private final LongAdder windowRejectedItems = new LongAdder();
+    private final LongAdder windowFailedRequests = new LongAdder();
+    private final LongAdder windowLatencyMillis = new LongAdder();
+
+    private volatile long lastAverageLatencyMillis;
+    private volatile long lastWriteQueue = -1;
+    private volatile long lastNodeRejectedTotal = -1;
+    private volatile long lastNodeRejectedDelta;
+    private volatile boolean lastCongested;
+    private volatile boolean kafkaPausedByController;
+    // 等待名额超时后置位，直到控制周期判断不再拥塞时清除；置位期间不再等待 (超出上限继续提交)
+    private volatile boolean waitBudgetExhausted;
+    private int consecutiveSevereWindows; // 只在控制周期线程中修改
+    private final AtomicLong waitTimeouts = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+    private final AtomicLong increases = new AtomicLong();
+
+    @Autowired
+    public AdaptiveWriteRateService(ElasticsearchClient elasticsearchClient,
+                                    KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.kafkaListenerEndpointRegistry = kafkaListenerEndpointRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        minConcurrentRequests = Math.max(1, Math.min(minConcurrentRequests, maxConcurrentRequests));
+        minBulkBytes = Math.max(1, Math.min(minBulkBytes, maxBulkBytes));
+        severeWindows = Math.max(1, severeWindows);
+        concurrencyLimit = maxConcurrentRequests;
+        bulkBytesLimit = maxBulkBytes;
+        logger.info("自适应写入控制 {}: 在途请求 {}~{}，bulk 字节 {}~{}",
+                enabled ? "已启用" : "未启用", minConcurrentRequests, maxConcurrentRequests, minBulkBytes, maxBulkBytes);
+    }
+
+    /**
+     * 等待在途 bulk 请求数低于当前上限 (最多 max-wait-ms)。用于把操作交给 BulkIngester 之前
+     * (请求由 BulkIngester 发送并通过 onBulkStart 计数)。
+     *
+     * @throws IndexingException 如果等待时线程被中断
+     */
+    public void awaitCapacity() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (monitor) {
+            waitForCapacity();
+        }
+    }
+
+    /**
+     * 等待在途 bulk 请求数低于当前上限 (最多 max-wait-ms) 并占用一个名额。用于调用方自己发送 bulk 请求的场景，
+     * 完成后必须调用 onBulkComplete。
+     *
+     * @throws IndexingException 如果等待时线程被中断
+     */
+    public void acquire() {
+        synchronized (monitor) {
+            if (enabled) {
+                waitForCapacity();
+            }
+            inFlightRequests++;
+        }
+    }
+
+    /**
+     * 记录一个由 BulkIngester 发送的 bulk 请求开始。
+     */
+    public void onBulkStart() {
+        synchronized (monitor) {
+            inFlightRequests++;
+        }
+    }
+
+    /**
+     * 记录一个 bulk 请求完成，释放在途名额。
+     *
+     * @param latencyNanos  请求耗时
+     * @param items         请求中的操作数
+     * @param rejectedItems 被 429 拒绝的操作数
+     * @param failed        整个请求是否失败
+     */
+    public void onBulkComplete(long latencyNanos, int items, int rejectedItems, boolean failed) {
+        windowRequests.increment();
+        windowItems.add(items);
+        windowRejectedItems.add(rejectedItems);
+        windowLatencyMillis.add(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        if (failed) {
+            windowFailedRequests.increment();
+        }
+        synchronized (monitor) {
+            inFlightRequests = Math.max(0, inFlightRequests - 1);
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * 当前 bulk 请求的字节上限。BulkIngestionService 缓冲的操作达到该大小时立即发送。
+     */
+    public long getBulkBytesLimit() {
+        return enabled ? bulkBytesLimit : maxBulkBytes;
+    }
+
+    /**
+     * 在 monitor 上等待名额，超过 max-wait-ms 后暂停 Kafka 消费并返回 (调用方超出上限继续提交)，
+     * 避免 Kafka 监听线程无限阻塞而超过 max.poll.interval.ms。超时后直到拥塞解除之前直接返回 (waitBudgetExhausted)。
+     */
+    private void waitForCapacity() {
+        if (waitBudgetExhausted) {
+            return; // 已经超时一次: 不让同一次 poll 的每条记录都再等待 max-wait-ms
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        try {
+            while (inFlightRequests >= concurrencyLimit) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    waitTimeouts.incrementAndGet();
+                    waitBudgetExhausted = true;
+                    logger.warn("等待 ES 写入名额超过 {}ms (在途请求 {}，上限 {})，暂停 Kafka 消费后继续提交。",
+                            maxWaitMillis, inFlightRequests, concurrencyLimit);
+                    if (pauseKafka && !kafkaPausedByController) {
+                        setKafkaPaused(true); // 只设置暂停标志，容器在下一次 poll 时暂停，可以在监听线程中调用
+                    }
+                    return;
+                }
+                monitor.wait(Math.min(100, remainingMillis)); // 定时醒来，避免上限调整时漏掉通知
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexingException("等待 ES 写入名额时被中断", e);
+        }
+    }
+
+    /**
+     * 控制周期: 汇总本周期信号，读取节点 write 线程池状态，按 AIMD 调整上限并决定是否暂停 Kafka 消费。
+     */
+    @Scheduled(fixedDelayString = "${dms.indexer.adaptive.control-interval-ms:5000}")
+    public void adjust() {
+        if (!enabled) {
+            return;
+        }
+        long requests = windowRequests.sumThenReset();
+        long items = windowItems.sumThenReset();
+        long rejectedItems = windowRejectedItems.sumThenReset();
+        long failedRequests = windowFailedRequests.sumThenReset();
+        long latencyMillis = windowLatencyMillis.sumThenReset();
+        lastAverageLatencyMillis = requests > 0 ? latencyMillis / requests : 0;
+        pollWriteThreadPool();
+
+        boolean queueCongested = lastWriteQueue > writeQueueThreshold;
+        boolean congested = rejectedItems > 0 || failedRequests > 0 || lastNodeRejectedDelta > 0
+                || lastAverageLatencyMillis > targetLatencyMillis || queueCongested;
+        boolean severe = rejectedItems > 0 || failedRequests > 0 || lastNodeRejectedDelta > 0
+                || lastWriteQueue > writeQueueThreshold * 2;
+
+        synchronized (monitor) {
+            if (congested) {
+                concurrencyLimit = Math.max(minConcurrentRequests, concurrencyLimit / 2);
+                bulkBytesLimit = Math.max(minBulkBytes, bulkBytesLimit / 2);
+                decreases.incrementAndGet();
+                logger.warn("ES 写入拥塞 (请求 {} 个/操作 {} 个，429 拒绝 {}，失败请求 {}，平均耗时 {}ms，write 队列 {}，节点拒绝增量 {})，"
+                                + "在途请求上限降为 {}，bulk 字节上限降为 {}",
+                        requests, items, rejectedItems, failedRequests, lastAverageLatencyMillis, lastWriteQueue,
+                        lastNodeRejectedDelta, concurrencyLimit, bulkBytesLimit);
+            } else if (concurrencyLimit < maxConcurrentRequests || bulkBytesLimit < maxBulkBytes) {
+                concurrencyLimit = Math.min(maxConcurrentRequests, concurrencyLimit + 1);
+                bulkBytesLimit = Math.min(maxBulkBytes, bulkBytesLimit + bytesIncreaseStep);
+                increases.incrementAndGet();
+                logger.info("ES 写入恢复正常，在途请求上限升为 {}，bulk 字节上限升为 {}", concurrencyLimit, bulkBytesLimit);
+            }
+            monitor.notifyAll();
+        }
+        lastCongested = congested;
+        if (!congested) {
+            waitBudgetExhausted = false;
+        }
+        consecutiveSevereWindows = severe ? consecutiveSevereWindows + 1 : 0;
+
+        if (pauseKafka) {
+            if (consecutiveSevereWindows >= severeWindows && !kafkaPausedByController) {
+                setKafkaPaused(true);
+            } else if (!congested && kafkaPausedByController) {
+                setKafkaPaused(false);
+            }
+        }
+    }
+
+    /**
+     * 读取所有节点 write 线程池的最大队列长度和累计拒绝次数。失败时保持未知 (-1)，不影响控制。
+     */
+    private void pollWriteThreadPool() {
+        try {
+            NodesStatsResponse response = elasticsearchClient.nodes().stats(s -> s.metric("thread_pool"));
+            long maxQueue = 0;
+            long rejectedTotal = 0;
+            for (Stats node : response.nodes().values()) {
+                ThreadCount write = node.threadPool() == null ? null : node.threadPool().get(WRITE_THREAD_POOL);
+                if (write == null) {
+                    continue;
+                }
+                if (write.queue() != null) {
+                    maxQueue = Math.max(maxQueue, write.queue());
+                }
+                if (write.rejected() != null) {
+                    rejectedTotal += write.rejected();
+                }
+            }
+            lastNodeRejectedDelta = lastNodeRejectedTotal < 0 ? 0 : Math.max(0, rejectedTotal - lastNodeRejectedTotal);
+            lastNodeRejectedTotal = rejectedTotal;
+            lastWriteQueue = maxQueue;
+        } catch (Exception e) {
+            logger.debug("读取 ES 节点 write 线程池状态失败: {}", e.getMessage());
+            lastWriteQueue = -1;
+            lastNodeRejectedDelta = 0;
+        }
+    }
+
+    private synchronized void setKafkaPaused(boolean pause) {
+        if (pause == kafkaPausedByController) {
+            return; // 控制周期与等待超时可能同时请求暂停
+        }
+        for (MessageListenerContainer container : kafkaListenerEndpointRegistry.getListenerContainers()) {
+            if (pause) {
+                container.pause();
+            } else {
+                container.resume();
+            }
+        }
+        kafkaPausedByController = pause;
+        if (pause) {
+            logger.warn("ES 写入严重拥塞或等待写入名额超时，已暂停 Kafka 消费。");
+        } else {
+            logger.info("ES 写入恢复正常，已恢复 Kafka 消费。");
+        }
+    }
+
+    /**
+     * 获取控制器状态，供监控接口显示。
+     *
+     * @return 状态信息
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        synchronized (monitor) {
+            status.put("concurrencyLimit", enabled ? concurrencyLimit : maxConcurrentRequests);
+            status.put("inFlightRequests", inFlightRequests);
+        }
+        status.put("bulkBytesLimit", getBulkBytesLimit());
+        status.put("maxConcurrentRequests", maxConcurrentRequests);
+        status.put("maxBulkBytes", maxBulkBytes);
+        status.put("congested", lastCongested);
+        status.put("averageLatencyMs", lastAverageLatencyMillis);
+        status.put("writeQueue", lastWriteQueue);
+        status.put("nodeRejectedDelta", lastNodeRejectedDelta);
+        status.put("kafkaPaused", kafkaPausedByController);
+        status.put("waitBudgetExhausted", waitBudgetExhausted);
+        status.put("consecutiveSevereWindows", consecutiveSevereWindows);
+        status.put("waitTimeouts", waitTimeouts.get());
+        status.put("decreases", decreases.get());
+        status.put("increases", increases.get());
+        return status;
+    }
+}
@@ -7,26 +7,37 @@
  */
 package org.ls.indexer.service;
 
+import org.ls.indexer.batch.HistoricalJobParameters;
+import org.ls.indexer.batch.HistoricalScanFilter;
+import org.ls.indexer.batch.OrphanReconciliationTasklet;
+import org.ls.indexer.exception.HistoricalJobAlreadyRunningException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersBuilder;
 import org.springframework.batch.core.JobParametersInvalidException;
 import org.springframework.batch.core.explore.JobExplorer;
-import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.launch.JobExecutionNotRunningException;
+import org.springframework.batch.core.launch.JobOperator;
 import org.springframework.batch.core.launch.NoSuchJobException;
+import org.springframework.batch.core.launch.NoSuchJobExecutionException;
+import org.springframework.batch.core.launch.support.TaskExecutorJobLauncher;
 import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
 import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.repository.JobRestartException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.annotation.Async; // 用于异步执行作业
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -35,43 +46,120 @@ public class BatchJobService {
 
     private static final Logger logger = LoggerFactory.getLogger(BatchJobService.class);
 
-    private final JobLauncher jobLauncher;
+    private static final int LATEST_EXECUTIONS_LIMIT = 10;
+
+    private final TaskExecutorJobLauncher asyncJobLauncher; // 在 batchTaskExecutor 中执行作业，run 立即返回 JobExecution
     private final JobExplorer jobExplorer; // 用于查询作业执行历史和状态
     private final Job historicalFileIndexerJob; // 注入在BatchConfig中定义的作业Bean
+    private final Job orphanReconciliationJob; // 孤儿文档对账作业
+    private final JobOperator jobOperator; // 用于停止 (暂停) 正在运行的作业
+    private final HistoricalJobThrottle historicalJobThrottle;
+    private final JobExecutionHistoryService jobExecutionHistoryService; // 作业历史的单条 SQL 查询
+    private final HistoricalJobLeaseService historicalJobLeaseService; // 多实例部署时的单实例租约
+    private final BlueGreenReindexService blueGreenReindexService; // 蓝绿重建 (新索引与别名切换)
 
     @Autowired
-    public BatchJobService(JobLauncher jobLauncher,
+    public BatchJobService(JobRepository jobRepository,
+                           @Qualifier("batchTaskExecutor") TaskExecutor batchTaskExecutor,
                            JobExplorer jobExplorer,
-                           @Qualifier("historicalFileIndexerJob") Job historicalFileIndexerJob) {
-        this.jobLauncher = jobLauncher;
+                           @Qualifier("historicalFileIndexerJob") Job historicalFileIndexerJob,
+                           @Qualifier("orphanReconciliationJob") Job orphanReconciliationJob,
+                           JobOperator jobOperator,
+                           HistoricalJobThrottle historicalJobThrottle,
+                           JobExecutionHistoryService jobExecutionHistoryService,
+                           HistoricalJobLeaseService historicalJobLeaseService,
+                           BlueGreenReindexService blueGreenReindexService) throws Exception {
+        this.asyncJobLauncher = new TaskExecutorJobLauncher();
+        this.asyncJobLauncher.setJobRepository(jobRepository);
+        this.asyncJobLauncher.setTaskExecutor(batchTaskExecutor);
+        this.asyncJobLauncher.afterPropertiesSet();
         this.jobExplorer = jobExplorer;
         this.historicalFileIndexerJob = historicalFileIndexerJob;
+        this.orphanReconciliationJob = orphanReconciliationJob;
+        this.jobOperator = jobOperator;
+        this.historicalJobThrottle = historicalJobThrottle;
+        this.jobExecutionHistoryService = jobExecutionHistoryService;
+        this.historicalJobLeaseService = historicalJobLeaseService;
+        this.blueGreenReindexService = blueGreenReindexService;
     }
 
     /**
-     * 异步启动历史文件索引作业。
+     * 构建历史文件索引作业的参数。
      * 使用当前时间戳作为作业参数，以确保每次启动都是一个新的作业实例 (结合RunIdIncrementer)。
+     * 该方法同步执行，参数无效时在启动作业前抛出异常。
      *
-     * @return 启动的 JobExecution 对象，如果启动失败则可能返回null或抛出异常。
+     * @param subPath       相对于 targetBaseDir 的子目录，为空表示整个基础目录
+     * @param modifiedSince 只索引最后修改时间不早于该时间的文件，为 null 表示不限制
+     * @param extensions    逗号分隔的扩展名子集，为空表示全部支持的扩展名
+     * @param order         处理顺序 (PATH / NEWEST_FIRST)，为空表示使用配置的默认顺序
+     * @return 作业参数
+     * @throws JobParametersInvalidException 如果参数无效。
+     */
+    public JobParameters buildHistoricalJobParameters(String subPath, Instant modifiedSince, String extensions,
+                                                      String order) throws JobParametersInvalidException {
+        JobParametersBuilder builder = new JobParametersBuilder()
+                .addDate(HistoricalJobParameters.LAUNCH_DATE, new Date()); // 添加时间戳参数确保作业实例唯一性
+        if (subPath != null && !subPath.isBlank()) {
+            HistoricalJobParameters.validateSubPath(subPath);
+            builder.addString(HistoricalJobParameters.SUB_PATH, subPath.trim());
+        }
+        if (modifiedSince != null) {
+            builder.addLong(HistoricalJobParameters.MODIFIED_SINCE, modifiedSince.toEpochMilli());
+        }
+        if (extensions != null && !extensions.isBlank()) {
+            builder.addString(HistoricalJobParameters.EXTENSIONS,
+                    String.join(",", HistoricalScanFilter.parseExtensions(extensions)));
+        }
+        if (order != null && !order.isBlank()) {
+            HistoricalJobParameters.validateOrder(order);
+            builder.addString(HistoricalJobParameters.ORDER, order.trim().toUpperCase());
+        }
+        JobParameters jobParameters = builder.toJobParameters();
+        if (historicalFileIndexerJob.getJobParametersValidator() != null) {
+            historicalFileIndexerJob.getJobParametersValidator().validate(jobParameters);
+        }
+        return jobParameters;
+    }
+
+    /**
+     * 启动历史文件索引作业。
+     * 先获取单实例租约 (见 HistoricalJobLeaseService)，租约已被持有时不启动作业，而是抛出携带正在运行的执行ID的异常；
+     * 获取成功后由 asyncJobLauncher 创建 JobExecution 并在 batchTaskExecutor 中执行，方法立即返回，
+     * 租约在作业结束时由作业监听器释放。
+     *
+     * @param jobParameters 由 buildHistoricalJobParameters 构建的作业参数
+     * @return 已创建的 JobExecution 对象 (状态通常为 STARTING)。
      * @throws JobInstanceAlreadyCompleteException 如果具有相同参数的作业实例已成功完成且不允许重启。
-     * @throws JobExecutionAlreadyRunningException 如果具有相同参数的作业实例已在运行。
+     * @throws JobExecutionAlreadyRunningException 如果作业已在运行 (本实例或其他实例)，
+     *                                             租约冲突时为 HistoricalJobAlreadyRunningException。
      * @throws JobParametersInvalidException 如果提供的参数无效。
      * @throws JobRestartException 如果作业已成功完成且不允许重启。
      */
-    @Async // 使用@Async注解使作业启动在单独的线程中异步执行
-    public JobExecution startHistoricalFileIndexerJob() throws JobInstanceAlreadyCompleteException,
+    public JobExecution startHistoricalFileIndexerJob(JobParameters jobParameters) throws JobInstanceAlreadyCompleteException,
             JobExecutionAlreadyRunningException, JobParametersInvalidException, JobRestartException {
 
-        logger.info("请求启动历史文件索引作业 (historicalFileIndexerJob)...");
-        JobParameters jobParameters = new JobParametersBuilder()
-                .addDate("launchDate", new Date()) // 添加时间戳参数确保作业实例唯一性
-                // .addString("targetDirectoryOverride", "/custom/path") // 可选：允许覆盖目标目录
-                .toJobParameters();
+        logger.info("请求启动历史文件索引作业 (historicalFileIndexerJob)，参数: {}", jobParameters);
 
+        long leaseToken;
         try {
-            JobExecution jobExecution = jobLauncher.run(historicalFileIndexerJob, jobParameters);
+            leaseToken = historicalJobLeaseService.tryAcquire();
+        } catch (Exception e) {
+            logger.error("获取历史文件索引作业租约失败: {}", e.getMessage(), e);
+            throw new RuntimeException("获取作业租约失败", e);
+        }
+        if (leaseToken == 0) {
+            Long runningExecutionId = findRunningExecutionId();
+            logger.warn("历史文件索引作业已在运行 (JobExecution ID: {})，不重复启动。", runningExecutionId);
+            throw new HistoricalJobAlreadyRunningException(
+                    "历史文件索引作业已在运行，JobExecution ID: " + runningExecutionId, runningExecutionId);
+        }
+
+        boolean launched = false;
+        try {
+            JobExecution jobExecution = asyncJobLauncher.run(historicalFileIndexerJob, jobParameters);
             logger.info("历史文件索引作业已启动。JobExecution ID: {}, Status: {}",
                     jobExecution.getId(), jobExecution.getStatus());
+            launched = jobExecution.isRunning();
             return jobExecution;
         } catch (JobExecutionAlreadyRunningException e) {
             logger.warn("历史文件索引作业已在运行: {}", e.getMessage());
@@ -88,9 +176,106 @@ public class BatchJobService {
         } catch (Exception e) { // 捕获其他可能的启动时异常
             logger.error("启动历史文件索引作业时发生未知错误: {}", e.getMessage(), e);
             throw new RuntimeException("启动批处理作业失败", e);
+        } finally {
+            if (!launched) {
+                // 启动失败或作业已经结束时作业监听器可能不会被调用，这里释放租约 (按令牌释放，重复释放无副作用)
+                historicalJobLeaseService.release(leaseToken);
+            }
+        }
+    }
+
+    /**
+     * 启动蓝绿全量重建: 创建新索引 (实时写入开始双写)，然后以 reindexTarget 参数启动全量的历史文件索引作业。
+     * 作业成功完成后由作业监听器把别名切换到新索引；作业失败或暂停时重建保持进行中，可通过 resume 继续。
+     * 作业没有启动时放弃重建并删除新索引。作业在新索引创建后等待一个重建状态刷新周期才开始写入，
+     * 使其他实例先开始双写 (见 BlueGreenReindexService)。
+     *
+     * @param order 处理顺序 (PATH / NEWEST_FIRST)，为空表示使用配置的默认顺序
+     * @return 已创建的 JobExecution 对象
+     * @throws IllegalStateException 如果已有进行中的重建
+     * @throws Exception             创建新索引或启动作业失败时，与 startHistoricalFileIndexerJob 相同
+     */
+    public JobExecution startBlueGreenReindex(String order) throws Exception {
+        String newIndex = blueGreenReindexService.prepareReindex();
+        try {
+            JobParameters jobParameters = new JobParametersBuilder(buildHistoricalJobParameters(null, null, null, order))
+                    .addString(HistoricalJobParameters.REINDEX_TARGET, newIndex)
+                    .toJobParameters();
+            return startHistoricalFileIndexerJob(jobParameters);
+        } catch (Exception e) {
+            logger.warn("蓝绿重建作业没有启动，放弃新索引 {}: {}", newIndex, e.getMessage());
+            try {
+                blueGreenReindexService.abort(true);
+            } catch (Exception abortError) {
+                logger.error("放弃蓝绿重建失败，请手动删除新索引 {}: {}", newIndex, abortError.getMessage());
+            }
+            throw e;
         }
     }
 
+    /**
+     * 暂停正在运行的历史文件索引作业。
+     * 通过 JobOperator 发送停止信号，当前块提交后步骤以 STOPPED 状态结束，读取器的检查点保存在 ExecutionContext 中，
+     * 之后可以通过 prepareResume + startHistoricalFileIndexerJob 从检查点继续。
+     *
+     * @param jobExecutionId 作业执行ID
+     * @throws NoSuchJobExecutionException     如果作业执行不存在。
+     * @throws JobExecutionNotRunningException 如果作业执行不在运行中。
+     */
+    public void pauseHistoricalFileIndexerJob(Long jobExecutionId)
+            throws NoSuchJobExecutionException, JobExecutionNotRunningException {
+        logger.info("请求暂停历史文件索引作业，JobExecution ID: {}", jobExecutionId);
+        jobOperator.stop(jobExecutionId);
+        historicalJobThrottle.releaseWaiters(); // 不等待限流的剩余等待时间
+        logger.info("已向作业执行 {} 发送停止信号，当前块提交后作业将暂停。", jobExecutionId);
+    }
+
+    /**
+     * 准备恢复一个已暂停 (STOPPED) 或失败 (FAILED) 的历史文件索引作业。
+     * 返回原作业执行的参数，使用相同参数再次启动时 Spring Batch 会重启同一个作业实例，并从检查点继续。
+     *
+     * @param jobExecutionId 已暂停的作业执行ID
+     * @return 原作业执行的作业参数
+     * @throws NoSuchJobExecutionException 如果作业执行不存在。
+     * @throws JobRestartException         如果作业执行的状态不允许恢复。
+     */
+    public JobParameters prepareResume(Long jobExecutionId) throws NoSuchJobExecutionException, JobRestartException {
+        JobExecution jobExecution = jobExplorer.getJobExecution(jobExecutionId);
+        if (jobExecution == null) {
+            throw new NoSuchJobExecutionException("未找到作业执行: " + jobExecutionId);
+        }
+        if (!historicalFileIndexerJob.getName().equals(jobExecution.getJobInstance().getJobName())) {
+            throw new JobRestartException("作业执行 " + jobExecutionId + " 不属于历史文件索引作业。");
+        }
+        BatchStatus status = jobExecution.getStatus();
+        if (status != BatchStatus.STOPPED && status != BatchStatus.FAILED) {
+            throw new JobRestartException("作业执行 " + jobExecutionId + " 的状态为 " + status + "，只有 STOPPED 或 FAILED 的作业可以恢复。");
+        }
+        logger.info("准备恢复历史文件索引作业，JobExecution ID: {}，参数: {}", jobExecutionId, jobExecution.getJobParameters());
+        return jobExecution.getJobParameters();
+    }
+
+    /**
+     * 调整历史文件索引作业的吞吐量上限，对正在运行的作业立即生效。
+     *
+     * @param docsPerSecond 每秒文档数上限，null 表示不修改，小于等于 0 表示不限制
+     * @param mbPerSecond   每秒 MB 上限，null 表示不修改，小于等于 0 表示不限制
+     * @return 调整后的吞吐量上限
+     */
+    public Map<String, Object> updateThrottle(Double docsPerSecond, Double mbPerSecond) {
+        historicalJobThrottle.updateLimits(docsPerSecond, mbPerSecond);
+        return historicalJobThrottle.getLimits();
+    }
+
+    /**
+     * 获取历史文件索引作业当前的吞吐量上限。
+     *
+     * @return 吞吐量上限 (docsPerSecond, mbPerSecond, throttledSeconds)
+     */
+    public Map<String, Object> getThrottle() {
+        return historicalJobThrottle.getLimits();
+    }
+
     /**
      * 根据作业执行ID获取作业执行状态。
      *
@@ -106,30 +291,15 @@ public class BatchJobService {
     }
 
     /**
-     * 获取名为 "historicalFileIndexerJob" 的作业的最新（或正在运行的）的10个作业实例的执行情况。
+     * 获取名为 "historicalFileIndexerJob" 的作业的最新（或正在运行的）的10个作业执行情况。
+     * 通过 JobExecutionHistoryService 的单条 SQL 查询获取 (含步骤执行)，查询次数与历史数量无关。
      *
      * @return JobExecution 列表，按创建时间降序排列。
      */
     public List<JobExecution> getLatestJobExecutions() {
         String jobName = historicalFileIndexerJob.getName();
         logger.debug("查询作业 '{}' 的最新执行情况...", jobName);
-
-        // 获取此作业的所有实例ID
-        List<Long> jobInstanceIds = jobExplorer.getJobInstances(jobName, 0, 100) // 获取最近100个实例
-                .stream()
-                .map(jobInstance -> jobInstance.getInstanceId())
-                .collect(Collectors.toList());
-
-        if (jobInstanceIds.isEmpty()) {
-            return List.of();
-        }
-
-        // 对于每个实例，获取其所有的执行
-        return jobInstanceIds.stream()
-                .flatMap(instanceId -> jobExplorer.getJobExecutions(jobExplorer.getJobInstance(instanceId)).stream())
-                .sorted((je1, je2) -> je2.getCreateTime().compareTo(je1.getCreateTime())) // 按创建时间降序
-                .limit(10) // 获取最新的10个执行
-                .collect(Collectors.toList());
+        return jobExecutionHistoryService.findLatestExecutions(jobName, LATEST_EXECUTIONS_LIMIT);
     }
 
     /**
@@ -141,6 +311,61 @@ public class BatchJobService {
         return jobExplorer.getJobNames().stream().collect(Collectors.toSet());
     }
 
-    // 注意: 为了使 @Async 注解生效，需要在应用主类或一个配置类上添加 @EnableAsync 注解。
-    // 例如，在 ElasticsearchIndexServiceApplication.java 上添加 @EnableAsync。
+    /**
+     * 启动孤儿文档对账作业。作业在 batchTaskExecutor 中执行，方法立即返回。
+     *
+     * @param dryRun 为 true 时只统计孤儿文档，不删除
+     * @return 已创建的 JobExecution 对象
+     * @throws JobExecutionAlreadyRunningException 如果本实例已有对账作业在运行。
+     * @throws Exception 其他启动失败。
+     */
+    public JobExecution startOrphanReconciliationJob(boolean dryRun) throws Exception {
+        Set<JobExecution> running = jobExplorer.findRunningJobExecutions(orphanReconciliationJob.getName());
+        if (!running.isEmpty()) {
+            throw new JobExecutionAlreadyRunningException("孤儿文档对账作业已在运行，JobExecution ID: "
+                    + running.iterator().next().getId());
+        }
+        JobParameters jobParameters = new JobParametersBuilder()
+                .addDate(HistoricalJobParameters.LAUNCH_DATE, new Date())
+                .addString(OrphanReconciliationTasklet.DRY_RUN, Boolean.toString(dryRun))
+                .toJobParameters();
+        logger.info("请求启动孤儿文档对账作业，dryRun: {}", dryRun);
+        JobExecution jobExecution = asyncJobLauncher.run(orphanReconciliationJob, jobParameters);
+        logger.info("孤儿文档对账作业已启动。JobExecution ID: {}, Status: {}", jobExecution.getId(), jobExecution.getStatus());
+        return jobExecution;
+    }
+
+    /**
+     * 获取最近一次孤儿文档对账作业的执行信息。
+     *
+     * @return 最近的 JobExecution (含步骤的 ExecutionContext，其中有对账统计)，没有执行记录时返回 null。
+     */
+    public JobExecution getLatestOrphanReconciliationExecution() {
+        List<JobExecution> executions = jobExecutionHistoryService.findLatestExecutions(orphanReconciliationJob.getName(), 1);
+        return executions.isEmpty() ? null : jobExplorer.getJobExecution(executions.get(0).getId());
+    }
+
+    /**
+     * 查找正在运行的历史索引作业执行ID: 优先使用租约中登记的执行ID，其次查询最近的运行中执行。
+     */
+    private Long findRunningExecutionId() {
+        Long executionId = historicalJobLeaseService.findRunningExecutionId();
+        if (executionId != null) {
+            return executionId;
+        }
+        return getLatestJobExecutions().stream()
+                .filter(JobExecution::isRunning)
+                .map(JobExecution::getId)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * 获取历史索引作业租约的状态。
+     *
+     * @return 租约信息
+     */
+    public Map<String, Object> getLeaseStatus() {
+        return historicalJobLeaseService.getLeaseStatus();
+    }
 }
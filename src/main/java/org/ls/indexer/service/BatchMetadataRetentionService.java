@@ -0,0 +1,337 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/BatchMetadataRetentionService.java
+ * 文件名称: BatchMetadataRetentionService.java
+ * 开发时间: 2025-06-25 09:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: Spring Batch 元数据表的保留与归档。定时删除 (可选先归档) 超过保留天数的作业元数据，
+ *          为元数据表补充查询所需的索引，并统计各元数据表的行数与占用空间。
+ *
+ * 功能说明：
+ * 清理以作业实例为单位: 只有一个实例的所有执行都在截止时间之前结束 (以 END_TIME，未结束时以 LAST_UPDATED 判断) 时
+ * 才删除该实例及其全部执行、步骤执行、上下文和参数，避免删除可重启作业的部分执行。
+ * 最后一次执行为 STOPPED (已暂停) 或 FAILED 的实例仍可从检查点恢复，无论多久都不清理
+ * (不再需要恢复时先将其执行标记为 ABANDONED)。
+ * 每批最多处理 batch-size 个实例，每批一个独立事务，避免长事务和大量行锁影响正在运行的作业。
+ * 配置 archive-dir 时，删除前将每个执行 (含参数和步骤统计) 以 JSON Lines 追加写入归档文件。
+ * 索引在应用启动后以 CREATE INDEX IF NOT EXISTS 创建 (Postgres 不会为外键列自动创建索引)。
+ */
+package org.ls.indexer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+@Service
+public class BatchMetadataRetentionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchMetadataRetentionService.class);
+
+    private static final List<String> METADATA_TABLES = List.of(
+            "JOB_INSTANCE", "JOB_EXECUTION", "JOB_EXECUTION_PARAMS", "JOB_EXECUTION_CONTEXT",
+            "STEP_EXECUTION", "STEP_EXECUTION_CONTEXT");
+
+    @Value("${dms.indexer.batch.metadata.retention.enabled:false}")
+    private boolean retentionEnabled;
+
+    // 保留天数，最少 1 天
+    @Value("${dms.indexer.batch.metadata.retention.days:90}")
+    private int retentionDays;
+
+    // 每批 (每个事务) 清理的作业实例数
+    @Value("${dms.indexer.batch.metadata.retention.batch-size:200}")
+    private int batchSize;
+
+    // 单次运行最多处理的批数，避免一次清理积压过久
+    @Value("${dms.indexer.batch.metadata.retention.max-batches-per-run:500}")
+    private int maxBatchesPerRun;
+
+    // 归档目录，为空表示只删除不归档
+    @Value("${dms.indexer.batch.metadata.retention.archive-dir:}")
+    private String archiveDir;
+
+    @Value("${dms.indexer.batch.metadata.create-indexes:true}")
+    private boolean createIndexes;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final String tablePrefix;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile Map<String, Object> lastRun = Collections.emptyMap();
+
+    @Autowired
+    public BatchMetadataRetentionService(JdbcTemplate jdbcTemplate,
+                                         PlatformTransactionManager transactionManager,
+                                         ObjectMapper objectMapper,
+                                         @Value("${spring.batch.jdbc.table-prefix:BATCH_}") String tablePrefix) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.tablePrefix = tablePrefix;
+    }
+
+    /**
+     * 应用启动后为元数据表创建查询与清理所需的索引。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createMetadataIndexes() {
+        if (!createIndexes) {
+            return;
+        }
+        String indexPrefix = "idx_" + tablePrefix.toLowerCase();
+        List<String> statements = List.of(
+                "CREATE INDEX IF NOT EXISTS " + indexPrefix + "job_exec_inst ON " + table("JOB_EXECUTION") + " (JOB_INSTANCE_ID)",
+                "CREATE INDEX IF NOT EXISTS " + indexPrefix + "job_exec_create ON " + table("JOB_EXECUTION") + " (CREATE_TIME)",
+                "CREATE INDEX IF NOT EXISTS " + indexPrefix + "job_exec_params_exec ON " + table("JOB_EXECUTION_PARAMS") + " (JOB_EXECUTION_ID)",
+                "CREATE INDEX IF NOT EXISTS " + indexPrefix + "step_exec_job_exec ON " + table("STEP_EXECUTION") + " (JOB_EXECUTION_ID)");
+        for (String statement : statements) {
+            try {
+                jdbcTemplate.execute(statement);
+            } catch (Exception e) {
+                logger.warn("创建批处理元数据索引失败 ({}): {}", statement, e.getMessage());
+            }
+        }
+        logger.info("批处理元数据表索引检查完成。");
+    }
+
+    /**
+     * 定时清理过期的批处理元数据。
+     */
+    @Scheduled(cron = "${dms.indexer.batch.metadata.retention.cron:0 30 3 * * *}")
+    public void scheduledPurge() {
+        if (retentionEnabled) {
+            purgeExpiredMetadata();
+        }
+    }
+
+    /**
+     * 清理 (可选先归档) 所有执行都早于保留期、且不可恢复的作业实例。
+     *
+     * @return 本次运行的统计信息 (deletedInstances, deletedExecutions, archivedExecutions, batches, durationMs)；
+     *         清理失败时包含 failure (失败原因)
+     */
+    public Map<String, Object> purgeExpiredMetadata() {
+        if (!running.compareAndSet(false, true)) {
+            logger.warn("批处理元数据清理已在运行，忽略本次请求。");
+            return Map.of("error", "批处理元数据清理已在运行。");
+        }
+        long start = System.nanoTime();
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(Math.max(1, retentionDays));
+        int batches = 0;
+        long deletedInstances = 0;
+        long deletedExecutions = 0;
+        long archivedExecutions = 0;
+        String failure = null;
+        try {
+            logger.info("开始清理批处理元数据，截止时间: {}，每批实例数: {}", cutoff, batchSize);
+            while (batches < maxBatchesPerRun) {
+                List<Long> instanceIds = findExpiredInstances(cutoff);
+                if (instanceIds.isEmpty()) {
+                    break;
+                }
+                if (archiveDir != null && !archiveDir.isBlank()) {
+                    archivedExecutions += archive(instanceIds);
+                }
+                deletedExecutions += deleteInstances(instanceIds);
+                deletedInstances += instanceIds.size();
+                batches++;
+                if (instanceIds.size() < batchSize) {
+                    break;
+                }
+            }
+            logger.info("批处理元数据清理完成: 删除实例 {} 个、执行 {} 个，归档执行 {} 个，批数 {}，耗时 {}ms。",
+                    deletedInstances, deletedExecutions, archivedExecutions, batches, (System.nanoTime() - start) / 1_000_000L);
+        } catch (Exception e) {
+            failure = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+            logger.error("批处理元数据清理失败 (已完成 {} 批): {}", batches, e.getMessage(), e);
+        } finally {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("finishedAt", Instant.now().toString());
+            stats.put("cutoff", cutoff.toString());
+            stats.put("batches", batches);
+            stats.put("deletedInstances", deletedInstances);
+            stats.put("deletedExecutions", deletedExecutions);
+            stats.put("archivedExecutions", archivedExecutions);
+            stats.put("durationMs", (System.nanoTime() - start) / 1_000_000L);
+            if (failure != null) {
+                stats.put("failure", failure);
+            }
+            this.lastRun = stats;
+            running.set(false);
+        }
+        return lastRun;
+    }
+
+    private List<Long> findExpiredInstances(LocalDateTime cutoff) {
+        String sql = "SELECT I.JOB_INSTANCE_ID FROM " + table("JOB_INSTANCE") + " I "
+                + "WHERE NOT EXISTS (SELECT 1 FROM " + table("JOB_EXECUTION") + " E "
+                + "WHERE E.JOB_INSTANCE_ID = I.JOB_INSTANCE_ID "
+                + "AND COALESCE(E.END_TIME, E.LAST_UPDATED, E.CREATE_TIME) >= ?) "
+                // 最后一次执行为 STOPPED / FAILED 的实例可以重启，保留
+                + "AND NOT EXISTS (SELECT 1 FROM " + table("JOB_EXECUTION") + " L "
+                + "WHERE L.JOB_INSTANCE_ID = I.JOB_INSTANCE_ID AND L.STATUS IN ('STOPPED', 'FAILED') "
+                + "AND L.JOB_EXECUTION_ID = (SELECT MAX(M.JOB_EXECUTION_ID) FROM " + table("JOB_EXECUTION") + " M "
+                + "WHERE M.JOB_INSTANCE_ID = I.JOB_INSTANCE_ID)) "
+                + "ORDER BY I.JOB_INSTANCE_ID LIMIT ?";
+        return jdbcTemplate.queryForList(sql, Long.class, Timestamp.valueOf(cutoff), batchSize);
+    }
+
+    /**
+     * 在一个事务中删除一批作业实例及其全部关联数据，按外键依赖顺序删除。
+     *
+     * @return 删除的作业执行数
+     */
+    private int deleteInstances(List<Long> instanceIds) {
+        String inInstances = placeholders(instanceIds.size());
+        String executionIds = "SELECT JOB_EXECUTION_ID FROM " + table("JOB_EXECUTION") + " WHERE JOB_INSTANCE_ID IN (" + inInstances + ")";
+        String stepExecutionIds = "SELECT STEP_EXECUTION_ID FROM " + table("STEP_EXECUTION") + " WHERE JOB_EXECUTION_ID IN (" + executionIds + ")";
+        Object[] args = instanceIds.toArray();
+        Integer deleted = transactionTemplate.execute(status -> {
+            jdbcTemplate.update("DELETE FROM " + table("STEP_EXECUTION_CONTEXT") + " WHERE STEP_EXECUTION_ID IN (" + stepExecutionIds + ")", args);
+            jdbcTemplate.update("DELETE FROM " + table("STEP_EXECUTION") + " WHERE JOB_EXECUTION_ID IN (" + executionIds + ")", args);
+            jdbcTemplate.update("DELETE FROM " + table("JOB_EXECUTION_CONTEXT") + " WHERE JOB_EXECUTION_ID IN (" + executionIds + ")", args);
+            jdbcTemplate.update("DELETE FROM " + table("JOB_EXECUTION_PARAMS") + " WHERE JOB_EXECUTION_ID IN (" + executionIds + ")", args);
+            int executions = jdbcTemplate.update("DELETE FROM " + table("JOB_EXECUTION") + " WHERE JOB_INSTANCE_ID IN (" + inInstances + ")", args);
+            jdbcTemplate.update("DELETE FROM " + table("JOB_INSTANCE") + " WHERE JOB_INSTANCE_ID IN (" + inInstances + ")", args);
+            return executions;
+        });
+        return deleted == null ? 0 : deleted;
+    }
+
+    /**
+     * 将一批作业实例的执行 (含参数和步骤统计) 以 JSON Lines 追加写入当天的归档文件。
+     *
+     * @return 归档的作业执行数
+     */
+    private int archive(List<Long> instanceIds) throws IOException {
+        String inInstances = placeholders(instanceIds.size());
+        Object[] args = instanceIds.toArray();
+        List<Map<String, Object>> executions = jdbcTemplate.queryForList(
+                "SELECT I.JOB_NAME, E.JOB_INSTANCE_ID, E.JOB_EXECUTION_ID, E.STATUS, E.EXIT_CODE, E.EXIT_MESSAGE, "
+                        + "E.CREATE_TIME, E.START_TIME, E.END_TIME, E.LAST_UPDATED FROM " + table("JOB_EXECUTION") + " E "
+                        + "JOIN " + table("JOB_INSTANCE") + " I ON I.JOB_INSTANCE_ID = E.JOB_INSTANCE_ID "
+                        + "WHERE E.JOB_INSTANCE_ID IN (" + inInstances + ") ORDER BY E.JOB_EXECUTION_ID", args);
+        if (executions.isEmpty()) {
+            return 0;
+        }
+        String executionIds = "SELECT JOB_EXECUTION_ID FROM " + table("JOB_EXECUTION") + " WHERE JOB_INSTANCE_ID IN (" + inInstances + ")";
+        Map<Object, List<Map<String, Object>>> parameters = groupByExecution(jdbcTemplate.queryForList(
+                "SELECT JOB_EXECUTION_ID, PARAMETER_NAME, PARAMETER_TYPE, PARAMETER_VALUE, IDENTIFYING FROM "
+                        + table("JOB_EXECUTION_PARAMS") + " WHERE JOB_EXECUTION_ID IN (" + executionIds + ")", args));
+        Map<Object, List<Map<String, Object>>> steps = groupByExecution(jdbcTemplate.queryForList(
+                "SELECT JOB_EXECUTION_ID, STEP_EXECUTION_ID, STEP_NAME, STATUS, READ_COUNT, WRITE_COUNT, FILTER_COUNT, "
+                        + "COMMIT_COUNT, ROLLBACK_COUNT, READ_SKIP_COUNT, PROCESS_SKIP_COUNT, WRITE_SKIP_COUNT, "
+                        + "START_TIME, END_TIME, EXIT_CODE FROM " + table("STEP_EXECUTION")
+                        + " WHERE JOB_EXECUTION_ID IN (" + executionIds + ")", args));
+
+        Path dir = Paths.get(archiveDir);
+        Files.createDirectories(dir);
+        Path file = dir.resolve("batch-metadata-" + LocalDate.now() + ".jsonl");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Map<String, Object> execution : executions) {
+                Map<String, Object> record = new LinkedHashMap<>(execution);
+                Object executionId = execution.get("JOB_EXECUTION_ID");
+                record.put("PARAMETERS", parameters.getOrDefault(executionId, List.of()));
+                record.put("STEPS", steps.getOrDefault(executionId, List.of()));
+                writer.write(objectMapper.writeValueAsString(record));
+                writer.newLine();
+            }
+        }
+        return executions.size();
+    }
+
+    private static Map<Object, List<Map<String, Object>>> groupByExecution(List<Map<String, Object>> rows) {
+        return rows.stream().collect(Collectors.groupingBy(row -> row.get("JOB_EXECUTION_ID"), LinkedHashMap::new, Collectors.toList()));
+    }
+
+    /**
+     * 统计各批处理元数据表的行数与占用空间。
+     * Postgres 使用 pg_class 的行数估计值与 pg_total_relation_size (含索引和 TOAST)，其他数据库使用 COUNT(*)，不提供占用空间。
+     *
+     * @return 元数据表统计与最近一次清理的结果
+     */
+    public Map<String, Object> getMetadataStats() {
+        boolean postgres = isPostgres();
+        List<Map<String, Object>> tables = new ArrayList<>();
+        for (String name : METADATA_TABLES) {
+            String tableName = table(name);
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("table", tableName);
+            try {
+                Long rows = null;
+                if (postgres) {
+                    Map<String, Object> pgStats = jdbcTemplate.queryForMap(
+                            "SELECT pg_total_relation_size(to_regclass(?)) AS size_bytes, "
+                                    + "(SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)) AS row_estimate",
+                            tableName, tableName);
+                    stats.put("sizeBytes", pgStats.get("size_bytes"));
+                    Number estimate = (Number) pgStats.get("row_estimate");
+                    rows = estimate != null && estimate.longValue() >= 0 ? estimate.longValue() : null; // 从未 ANALYZE 时为 -1
+                    stats.put("rowsEstimated", rows != null);
+                }
+                if (rows == null) {
+                    rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + tableName, Long.class);
+                }
+                stats.put("rows", rows);
+            } catch (Exception e) {
+                logger.warn("统计批处理元数据表 {} 失败: {}", tableName, e.getMessage());
+                stats.put("error", e.getMessage());
+            }
+            tables.add(stats);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("tables", tables);
+        result.put("retentionEnabled", retentionEnabled);
+        result.put("retentionDays", retentionDays);
+        result.put("lastPurge", lastRun);
+        return result;
+    }
+
+    private boolean isPostgres() {
+        try {
+            String product = jdbcTemplate.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            return product != null && product.toLowerCase().contains("postgres");
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private String table(String name) {
+        return tablePrefix + name;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+}
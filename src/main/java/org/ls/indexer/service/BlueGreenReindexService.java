@@ -0,0 +1,425 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/BlueGreenReindexService.java
+ * 文件名称: BlueGreenReindexService.java
+ * 开发时间: 2025-06-25 21:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 蓝绿方式的全量重建索引。历史索引作业写入一个新的带版本号的索引，期间实时写入 (Kafka、文件监听) 同时写入
+ *          当前索引和新索引，作业成功完成后原子地把别名切换到新索引，旧索引保留用于回滚。
+ *
+ * 功能说明：
+ * 1. 准备 (prepareReindex): 按 classpath 中的索引模板 (elasticsearch/dms_files_template.json) 安装/更新索引模板，
+ *    创建新索引 <index-name>_v<yyyyMMddHHmmss>，并把重建别名 <index-name>_reindex 指向它。
+ *    进行中的重建以重建别名的形式保存在 ES 中，应用重启或多实例部署时都能得到同一个目标 (定时刷新，state-refresh-ms)。
+ * 2. 写入路由:
+ *    - 历史索引作业: 作业参数 reindexTarget 指定的新索引 (没有该参数时为 index-name)，由本监听器在作业开始时记录。
+ *      新索引创建后至少经过一个刷新周期 (state-refresh-ms + 余量) 作业才开始写入，保证所有实例都已开始双写，
+ *      作业读取文件之后发生的实时写入和删除不会在新索引中丢失。
+ *    - 实时写入和删除: index-name，重建进行中时同时写入新索引 (双写)。
+ * 3. 切换 (swap): 带 reindexTarget 参数的作业成功完成 (COMPLETED) 后，refresh 新索引，然后在一个 _aliases 请求中
+ *    把 index-name 别名加到新索引、从旧索引移除，并移除重建别名。
+ *    index-name 目前是实际索引 (不是别名) 时无法原子地保留旧索引，只有 replace-concrete-index=true 时才在同一请求中
+ *    删除旧索引 (remove_index) 完成切换，否则切换失败，新索引和重建别名保留，可手动迁移后再次切换。
+ * 4. 放弃 (abort) 与回滚 (rollback): 放弃时移除重建别名并可删除新索引；回滚时把 index-name 别名原子地切换到指定的旧索引。
+ * 作业失败或暂停 (STOPPED) 时重建保持进行中，可以通过 resume 继续填充新索引。
+ */
+package org.ls.indexer.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.ls.indexer.batch.HistoricalJobParameters;
+import org.ls.indexer.config.properties.ElasticsearchProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class BlueGreenReindexService implements JobExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlueGreenReindexService.class);
+
+    private static final String TEMPLATE_RESOURCE = "elasticsearch/dms_files_template.json";
+    private static final String REINDEX_ALIAS_SUFFIX = "_reindex";
+    private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    // 等待其他实例开始双写时在刷新间隔之外增加的余量 (刷新本身的耗时、实例间时钟偏差)
+    private static final long DUAL_WRITE_GRACE_MILLIS = 5000L;
+
+    @Value("${dms.indexer.reindex.template-name:dms_files_template}")
+    private String templateName;
+
+    // 其他实例刷新重建状态的间隔，作业开始写入新索引前至少等待这么久
+    @Value("${dms.indexer.reindex.state-refresh-ms:30000}")
+    private long stateRefreshMillis;
+
+    // index-name 是实际索引时，是否允许切换时删除它 (无法保留用于回滚)
+    @Value("${dms.indexer.reindex.replace-concrete-index:false}")
+    private boolean replaceConcreteIndex;
+
+    private final RestClient restClient;
+    private final ElasticsearchProperties elasticsearchProperties;
+    private final ObjectMapper objectMapper;
+
+    // 进行中的重建的新索引 (来自重建别名)，没有时为 null
+    private volatile String reindexTarget;
+    // 正在运行的历史索引作业写入的索引，没有作业或不是重建作业时为 null
+    private volatile String historicalTargetIndex;
+
+    @Autowired
+    public BlueGreenReindexService(RestClient restClient,
+                                   ElasticsearchProperties elasticsearchProperties,
+                                   ObjectMapper objectMapper) {
+        this.restClient = restClient;
+        this.elasticsearchProperties = elasticsearchProperties;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 历史索引作业写入 (以及增量比较读取) 的索引。
+     */
+    public String getHistoricalTargetIndex() {
+        String target = historicalTargetIndex;
+        return target != null ? target : elasticsearchProperties.getIndexName();
+    }
+
+    /**
+     * 实时写入和删除的目标索引: index-name，重建进行中时加上新索引。
+     */
+    public List<String> getLiveWriteIndices() {
+        String liveIndex = elasticsearchProperties.getIndexName();
+        String target = reindexTarget;
+        return target == null || target.equals(liveIndex) ? List.of(liveIndex) : List.of(liveIndex, target);
+    }
+
+    /**
+     * 从重建别名刷新进行中的重建状态 (其他实例发起的重建或放弃在一个周期内生效)。
+     */
+    @Scheduled(fixedDelayString = "${dms.indexer.reindex.state-refresh-ms:30000}")
+    public void refreshState() {
+        try {
+            String target = findReindexTarget();
+            if (target == null ? reindexTarget != null : !target.equals(reindexTarget)) {
+                logger.info("蓝绿重建状态变化: 新索引 {} -> {}", reindexTarget, target);
+            }
+            reindexTarget = target;
+        } catch (Exception e) {
+            logger.debug("读取重建别名失败，保持当前状态 ({}): {}", reindexTarget, e.getMessage());
+        }
+    }
+
+    /**
+     * 准备一次蓝绿重建: 安装索引模板，创建新索引并把重建别名指向它。
+     *
+     * @return 新索引名称
+     * @throws IllegalStateException 如果已有进行中的重建
+     * @throws IOException           如果 ES 请求失败
+     */
+    public synchronized String prepareReindex() throws IOException {
+        String existing = findReindexTarget();
+        if (existing != null) {
+            reindexTarget = existing;
+            throw new IllegalStateException("已有进行中的蓝绿重建，新索引: " + existing + "。请先完成、继续或放弃该重建。");
+        }
+        String liveIndex = elasticsearchProperties.getIndexName();
+        installTemplate(liveIndex);
+        String newIndex = liveIndex + "_v" + LocalDateTime.now().format(VERSION_FORMAT);
+        restClient.performRequest(new Request("PUT", "/" + newIndex)); // 设置和映射来自索引模板
+
+        ObjectNode body = objectMapper.createObjectNode();
+        ObjectNode add = body.putArray("actions").addObject().putObject("add");
+        add.put("index", newIndex);
+        add.put("alias", reindexAlias());
+        postAliases(body);
+        reindexTarget = newIndex;
+        logger.info("蓝绿重建已准备: 新索引 {}，实时写入开始双写到 {} 和 {}", newIndex, liveIndex, newIndex);
+        return newIndex;
+    }
+
+    /**
+     * 把 index-name 别名原子地切换到新索引并结束重建。
+     *
+     * @param newIndex 重建的新索引
+     * @return 切换结果 (newIndex, previousIndices, removedConcreteIndex)
+     * @throws IllegalStateException 如果 newIndex 不是进行中的重建，或 index-name 是实际索引且不允许删除
+     * @throws IOException           如果 ES 请求失败
+     */
+    public synchronized Map<String, Object> swap(String newIndex) throws IOException {
+        String target = findReindexTarget();
+        if (target == null || !target.equals(newIndex)) {
+            throw new IllegalStateException("索引 " + newIndex + " 不是进行中的蓝绿重建 (当前: " + target + ")");
+        }
+        String liveIndex = elasticsearchProperties.getIndexName();
+        restClient.performRequest(new Request("POST", "/" + newIndex + "/_refresh"));
+
+        ObjectNode body = objectMapper.createObjectNode();
+        ArrayNode actions = body.putArray("actions");
+        ObjectNode add = actions.addObject().putObject("add");
+        add.put("index", newIndex);
+        add.put("alias", liveIndex);
+        List<String> previousIndices = findAliasIndices(liveIndex);
+        boolean concrete = previousIndices.isEmpty() && indexExists(liveIndex);
+        if (concrete) {
+            if (!replaceConcreteIndex) {
+                throw new IllegalStateException(liveIndex + " 是实际索引而不是别名，无法在保留它的同时切换。"
+                        + "请设置 dms.indexer.reindex.replace-concrete-index=true (切换时删除该索引) 或手动迁移后再切换。");
+            }
+            actions.addObject().putObject("remove_index").put("index", liveIndex);
+        }
+        for (String previous : previousIndices) {
+            if (!previous.equals(newIndex)) {
+                ObjectNode remove = actions.addObject().putObject("remove");
+                remove.put("index", previous);
+                remove.put("alias", liveIndex);
+            }
+        }
+        ObjectNode removeReindexAlias = actions.addObject().putObject("remove");
+        removeReindexAlias.put("index", newIndex);
+        removeReindexAlias.put("alias", reindexAlias());
+        postAliases(body);
+        reindexTarget = null;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("newIndex", newIndex);
+        result.put("previousIndices", previousIndices);
+        result.put("removedConcreteIndex", concrete);
+        logger.info("蓝绿重建完成: 别名 {} 已切换到 {} (之前: {}，删除实际索引: {})", liveIndex, newIndex, previousIndices, concrete);
+        return result;
+    }
+
+    /**
+     * 放弃进行中的重建: 移除重建别名，实时写入不再双写。
+     *
+     * @param deleteIndex 是否同时删除新索引
+     * @return 被放弃的新索引，没有进行中的重建时为 null
+     * @throws IllegalStateException 如果历史索引作业正在写入该索引
+     * @throws IOException           如果 ES 请求失败
+     */
+    public synchronized String abort(boolean deleteIndex) throws IOException {
+        String target = findReindexTarget();
+        if (target == null) {
+            reindexTarget = null;
+            return null;
+        }
+        if (target.equals(historicalTargetIndex)) {
+            throw new IllegalStateException("历史索引作业正在写入 " + target + "，请先暂停作业再放弃重建。");
+        }
+        ObjectNode body = objectMapper.createObjectNode();
+        ObjectNode remove = body.putArray("actions").addObject().putObject("remove");
+        remove.put("index", target);
+        remove.put("alias", reindexAlias());
+        postAliases(body);
+        reindexTarget = null;
+        if (deleteIndex) {
+            restClient.performRequest(new Request("DELETE", "/" + target));
+        }
+        logger.info("已放弃蓝绿重建，新索引 {}{}", target, deleteIndex ? " 已删除" : " 已保留");
+        return target;
+    }
+
+    /**
+     * 回滚: 把 index-name 别名原子地切换到指定的旧索引。
+     *
+     * @param index 要切换到的索引 (通常是上一次切换前的索引)
+     * @return 回滚结果 (index, previousIndices)
+     * @throws IllegalStateException 如果索引不存在或 index-name 不是别名
+     * @throws IOException           如果 ES 请求失败
+     */
+    public synchronized Map<String, Object> rollback(String index) throws IOException {
+        String liveIndex = elasticsearchProperties.getIndexName();
+        if (index == null || index.isBlank() || !indexExists(index) || index.equals(liveIndex)) {
+            throw new IllegalStateException("要回滚到的索引不存在: " + index);
+        }
+        List<String> previousIndices = findAliasIndices(liveIndex);
+        if (previousIndices.isEmpty()) {
+            throw new IllegalStateException(liveIndex + " 不是别名，无法回滚。");
+        }
+        ObjectNode body = objectMapper.createObjectNode();
+        ArrayNode actions = body.putArray("actions");
+        ObjectNode add = actions.addObject().putObject("add");
+        add.put("index", index);
+        add.put("alias", liveIndex);
+        for (String previous : previousIndices) {
+            if (!previous.equals(index)) {
+                ObjectNode remove = actions.addObject().putObject("remove");
+                remove.put("index", previous);
+                remove.put("alias", liveIndex);
+            }
+        }
+        postAliases(body);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", index);
+        result.put("previousIndices", previousIndices);
+        logger.warn("已回滚: 别名 {} 切换到 {} (之前: {})", liveIndex, index, previousIndices);
+        return result;
+    }
+
+    /**
+     * 获取蓝绿重建状态: 别名指向、进行中的重建和所有带版本号的索引。
+     *
+     * @return 状态信息
+     * @throws IOException 如果 ES 请求失败
+     */
+    public Map<String, Object> getStatus() throws IOException {
+        String liveIndex = elasticsearchProperties.getIndexName();
+        Map<String, Object> status = new LinkedHashMap<>();
+        List<String> aliasIndices = findAliasIndices(liveIndex);
+        status.put("indexName", liveIndex);
+        status.put("aliasIndices", aliasIndices);
+        status.put("concreteIndex", aliasIndices.isEmpty() && indexExists(liveIndex));
+        status.put("reindexTarget", findReindexTarget());
+        status.put("historicalTargetIndex", historicalTargetIndex);
+        status.put("liveWriteIndices", getLiveWriteIndices());
+        Request request = new Request("GET", "/_cat/indices/" + liveIndex + "_v*");
+        request.addParameter("format", "json");
+        request.addParameter("h", "index,health,docs.count,store.size,creation.date.string");
+        request.addParameter("s", "index:desc");
+        status.put("versionedIndices", objectMapper.convertValue(read(restClient.performRequest(request)), List.class));
+        return status;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        String target = jobExecution.getJobParameters().getString(HistoricalJobParameters.REINDEX_TARGET);
+        if (target == null) {
+            historicalTargetIndex = null;
+            return;
+        }
+        refreshState();
+        if (!target.equals(reindexTarget)) {
+            // 抛出异常使作业失败，避免写入已放弃或已切换的索引
+            throw new IllegalStateException("作业参数中的重建索引 " + target + " 不是进行中的蓝绿重建 (当前: " + reindexTarget + ")");
+        }
+        awaitDualWrites(target);
+        historicalTargetIndex = target;
+        logger.info("历史索引作业 (JobExecution ID: {}) 写入蓝绿重建的新索引 {}", jobExecution.getId(), target);
+    }
+
+    /**
+     * 新索引创建后等待至少一个刷新周期，使其他实例在作业开始读取文件之前都已开始双写。
+     * 恢复 (resume) 较早创建的重建时不等待。
+     */
+    private void awaitDualWrites(String target) {
+        long waitMillis;
+        try {
+            Request request = new Request("GET", "/" + target + "/_settings/index.creation_date");
+            request.addParameter("flat_settings", "true");
+            long createdAt = read(restClient.performRequest(request)).path(target).path("settings")
+                    .path("index.creation_date").asLong(0L);
+            waitMillis = createdAt <= 0 ? stateRefreshMillis + DUAL_WRITE_GRACE_MILLIS
+                    : createdAt + stateRefreshMillis + DUAL_WRITE_GRACE_MILLIS - System.currentTimeMillis();
+        } catch (IOException e) {
+            logger.warn("读取新索引 {} 的创建时间失败，按完整的刷新周期等待: {}", target, e.getMessage());
+            waitMillis = stateRefreshMillis + DUAL_WRITE_GRACE_MILLIS;
+        }
+        if (waitMillis <= 0) {
+            return;
+        }
+        logger.info("等待 {}ms，使所有实例开始双写到新索引 {} 后再开始写入。", waitMillis, target);
+        try {
+            Thread.sleep(waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待其他实例开始双写到新索引 " + target + " 时被中断", e);
+        }
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        String target = historicalTargetIndex;
+        historicalTargetIndex = null;
+        if (target == null) {
+            return;
+        }
+        if (jobExecution.getStatus() != BatchStatus.COMPLETED) {
+            logger.warn("重建作业 (JobExecution ID: {}) 以 {} 状态结束，新索引 {} 保留，可继续 (resume) 或放弃。",
+                    jobExecution.getId(), jobExecution.getStatus(), target);
+            return;
+        }
+        try {
+            Map<String, Object> result = swap(target);
+            jobExecution.getExecutionContext().putString("reindex.swap", objectMapper.writeValueAsString(result));
+        } catch (Exception e) {
+            logger.error("重建作业已完成，但切换别名到 {} 失败: {}。新索引保留，可修正后通过接口再次切换。", target, e.getMessage(), e);
+        }
+    }
+
+    private String reindexAlias() {
+        return elasticsearchProperties.getIndexName() + REINDEX_ALIAS_SUFFIX;
+    }
+
+    private String findReindexTarget() throws IOException {
+        List<String> indices = findAliasIndices(reindexAlias());
+        return indices.isEmpty() ? null : indices.get(0);
+    }
+
+    /**
+     * 查询别名指向的索引，别名不存在时返回空列表。
+     */
+    private List<String> findAliasIndices(String alias) throws IOException {
+        List<String> indices = new ArrayList<>();
+        try {
+            JsonNode root = read(restClient.performRequest(new Request("GET", "/_alias/" + alias)));
+            root.fieldNames().forEachRemaining(indices::add);
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() != 404) {
+                throw e;
+            }
+        }
+        return indices;
+    }
+
+    private boolean indexExists(String index) throws IOException {
+        Response response = restClient.performRequest(new Request("HEAD", "/" + index));
+        return response.getStatusLine().getStatusCode() == 200;
+    }
+
+    /**
+     * 按 classpath 中的模板安装/更新索引模板，index_patterns 按 index-name 生成。
+     */
+    private void installTemplate(String liveIndex) throws IOException {
+        JsonNode template;
+        try (InputStream input = new ClassPathResource(TEMPLATE_RESOURCE).getInputStream()) {
+            template = objectMapper.readTree(input);
+        }
+        ObjectNode body = (ObjectNode) template;
+        ArrayNode patterns = body.putArray("index_patterns");
+        patterns.add(liveIndex + "*");
+        Request request = new Request("PUT", "/_index_template/" + templateName);
+        request.setJsonEntity(objectMapper.writeValueAsString(body));
+        restClient.performRequest(request);
+        logger.info("已安装索引模板 {} (index_patterns: {}*)", templateName, liveIndex);
+    }
+
+    private void postAliases(ObjectNode body) throws IOException {
+        Request request = new Request("POST", "/_aliases");
+        request.setJsonEntity(objectMapper.writeValueAsString(body));
+        restClient.performRequest(request);
+    }
+
+    private JsonNode read(Response response) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return objectMapper.readTree(content);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/BulkDocumentSerializer.java
+ * 文件名称: BulkDocumentSerializer.java
+ * 开发时间: 2025-06-25 19:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 把 EsDocumentDto 预先序列化为 JSON 字节 (BinaryData)，bulk 请求直接写入这些字节，不再在每次发送 (包括重试)
+ *          时通过 JacksonJsonpMapper 重新序列化文档对象，并统计序列化耗时与 bulk 请求体字节数。
+ *
+ * 功能说明：
+ * 1. 每个线程复用一个可增长的字节缓冲区 (ReusableBuffer) 进行序列化，序列化完成后按实际长度复制出字节数组；
+ *    缓冲区超过 max-pooled-buffer-bytes 时丢弃，避免个别大文档长期占用内存。
+ * 2. 使用与 ElasticsearchTransport 相同的 Spring ObjectMapper，输出与原来的对象序列化完全一致。
+ * 3. 请求体的 gzip 压缩由 RestClient 完成 (dms.indexer.elasticsearch.compression-enabled)，这里统计的是压缩前的字节数。
+ */
+package org.ls.indexer.service;
+
+import co.elastic.clients.util.BinaryData;
+import co.elastic.clients.util.ContentType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ls.indexer.config.properties.ElasticsearchProperties;
+import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.exception.IndexingException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+@Service
+public class BulkDocumentSerializer {
+
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    // 线程缓冲区超过该大小后不再复用
+    @Value("${dms.indexer.bulk.max-pooled-buffer-bytes:4194304}")
+    private int maxPooledBufferBytes;
+
+    private final ObjectMapper objectMapper;
+    private final ElasticsearchProperties elasticsearchProperties;
+
+    private final ThreadLocal<ReusableBuffer> buffers = ThreadLocal.withInitial(() -> new ReusableBuffer(INITIAL_BUFFER_BYTES));
+
+    private final LongAdder serializedDocuments = new LongAdder();
+    private final LongAdder serializedBytes = new LongAdder();
+    private final LongAdder serializationNanos = new LongAdder();
+    private final LongAdder bulkRequests = new LongAdder();
+    private final LongAdder bulkPayloadBytes = new LongAdder();
+
+    @Autowired
+    public BulkDocumentSerializer(ObjectMapper objectMapper, ElasticsearchProperties elasticsearchProperties) {
+        this.objectMapper = objectMapper;
+        this.elasticsearchProperties = elasticsearchProperties;
+    }
+
+    /**
+     * 把文档序列化为 JSON 字节。
+     *
+     * @param document 要写入的文档
+     * @return 可直接作为 bulk 操作文档的 BinaryData
+     * @throws IndexingException 如果序列化失败
+     */
+    public BinaryData serialize(EsDocumentDto document) {
+        long startNanos = System.nanoTime();
+        ReusableBuffer buffer = buffers.get();
+        buffer.reset();
+        try {
+            objectMapper.writeValue(buffer, document);
+        } catch (IOException e) {
+            throw new IndexingException("序列化文档 " + document.getFileId() + " 失败", e);
+        }
+        byte[] bytes = buffer.toByteArray();
+        if (buffer.capacity() > maxPooledBufferBytes) {
+            buffers.remove();
+        }
+        serializedDocuments.increment();
+        serializedBytes.add(bytes.length);
+        serializationNanos.add(System.nanoTime() - startNanos);
+        return BinaryData.of(bytes, ContentType.APPLICATION_JSON);
+    }
+
+    /**
+     * 记录一个 bulk 请求的请求体字节数 (压缩前的估算值)。
+     *
+     * @param bytes 请求体字节数
+     */
+    public void recordBulkPayload(long bytes) {
+        bulkRequests.increment();
+        bulkPayloadBytes.add(bytes);
+    }
+
+    /**
+     * 获取序列化与请求体统计，供监控接口显示。
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getStats() {
+        long documents = serializedDocuments.sum();
+        long requests = bulkRequests.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("serializedDocuments", documents);
+        stats.put("serializedBytes", serializedBytes.sum());
+        stats.put("serializationMs", TimeUnit.NANOSECONDS.toMillis(serializationNanos.sum()));
+        stats.put("avgSerializationMicros", documents > 0 ? TimeUnit.NANOSECONDS.toMicros(serializationNanos.sum()) / documents : 0);
+        stats.put("bulkPayloadBytes", bulkPayloadBytes.sum());
+        stats.put("avgBulkPayloadBytes", requests > 0 ? bulkPayloadBytes.sum() / requests : 0);
+        stats.put("gzipEnabled", elasticsearchProperties.isCompressionEnabled());
+        return stats;
+    }
+
+    /**
+     * 可复用的字节缓冲区，reset 后保留已分配的容量。
+     */
+    private static final class ReusableBuffer extends ByteArrayOutputStream {
+        ReusableBuffer(int size) {
+            super(size);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
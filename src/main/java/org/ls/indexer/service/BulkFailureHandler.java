@@ -0,0 +1,242 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/BulkFailureHandler.java
+ * 文件名称: BulkFailureHandler.java
+ * 开发时间: 2025-06-25 18:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: bulk 写入失败条目的重试策略与失败出口。判断失败条目是否可重试、计算带抖动的指数退避时间，
+ *          把重试耗尽或不可重试的条目发送到失败 Topic (dms-es-index-failures)，并按失败原因统计次数。
+ *
+ * 功能说明：
+ * 可重试: HTTP 429 (es_rejected_execution_exception，写入线程池队列已满，常见于段合并压力大时)、502/503/504
+ *        以及 unavailable_shards_exception；整个请求的传输异常 (IOException 等) 也按可重试处理。
+ * 不可重试: mapper_parsing_exception 等文档本身的问题，重试不会成功，直接进入失败出口。
+ * 退避: 第 n 次重试等待 min(max-backoff, initial-backoff * 2^(n-1)) 的 50%~100% (随机抖动，避免多个调用方同时重试)。
+ * 失败出口: 以 JSON 发送到失败 Topic，记录中包含写入的文档 (document 字段)，便于排查后重新投递；
+ *          记录超过 max-record-bytes 时省略文档的 content 字段 (contentOmitted = true，重新投递时需重新解析文件)。
+ *          recordPermanentFailure 返回发送完成的 Future，实时写入在发送完成后才提交 Kafka 偏移量；
+ *          发送失败时把完整的失败记录写入错误日志并计数，失败记录不会无声丢失。
+ */
+package org.ls.indexer.service;
+
+import co.elastic.clients.util.BinaryData;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.ls.indexer.config.properties.KafkaTopicProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+@Service
+public class BulkFailureHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkFailureHandler.class);
+
+    /**
+     * 整个 bulk 请求失败 (网络异常、超时等) 时使用的失败原因。
+     */
+    public static final String TRANSPORT_ERROR = "transport_error";
+
+    private static final Set<Integer> RETRYABLE_STATUS = Set.of(429, 502, 503, 504);
+    private static final Set<String> RETRYABLE_TYPES = Set.of("es_rejected_execution_exception", "unavailable_shards_exception");
+
+    // 每个操作的最大尝试次数 (含第一次)
+    @Value("${dms.indexer.bulk.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${dms.indexer.bulk.retry.initial-backoff-ms:200}")
+    private long initialBackoffMillis;
+
+    @Value("${dms.indexer.bulk.retry.max-backoff-ms:30000}")
+    private long maxBackoffMillis;
+
+    @Value("${dms.indexer.bulk.failure-sink.enabled:true}")
+    private boolean failureSinkEnabled;
+
+    // 失败记录的最大字节数，超过时省略文档的 content 字段 (需小于 Topic 的 max.message.bytes)
+    @Value("${dms.indexer.bulk.failure-sink.max-record-bytes:900000}")
+    private int maxRecordBytes;
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final KafkaTopicProperties kafkaTopicProperties;
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, LongAdder> retriesByCause = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> permanentFailuresByCause = new ConcurrentHashMap<>();
+    private final LongAdder sinkPublished = new LongAdder();
+    private final LongAdder sinkFailed = new LongAdder();
+
+    @Autowired
+    public BulkFailureHandler(KafkaTemplate<String, String> kafkaTemplate,
+                              KafkaTopicProperties kafkaTopicProperties,
+                              ObjectMapper objectMapper) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.kafkaTopicProperties = kafkaTopicProperties;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 判断失败条目是否可以重试。
+     *
+     * @param status    条目的 HTTP 状态码，可能为 null
+     * @param errorType ES 错误类型，例如 es_rejected_execution_exception
+     * @return 是否可重试
+     */
+    public boolean isRetryable(Integer status, String errorType) {
+        return (status != null && RETRYABLE_STATUS.contains(status))
+                || (errorType != null && RETRYABLE_TYPES.contains(errorType));
+    }
+
+    /**
+     * 判断已经尝试 attempts 次的操作是否还可以再次尝试。
+     */
+    public boolean canRetry(int attempts) {
+        return attempts < Math.max(1, maxAttempts);
+    }
+
+    /**
+     * 计算第 attempt 次重试前的等待时间 (带随机抖动的指数退避)。
+     *
+     * @param attempt 重试序号，从 1 开始
+     * @return 等待毫秒数
+     */
+    public long backoffMillis(int attempt) {
+        int shift = Math.min(Math.max(0, attempt - 1), 30);
+        long cap = Math.min(maxBackoffMillis, initialBackoffMillis << shift);
+        long half = Math.max(1L, cap / 2);
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * 记录一次 (或一批) 重试。
+     *
+     * @param cause 失败原因 (ES 错误类型或 TRANSPORT_ERROR)
+     * @param count 重试的操作数
+     */
+    public void recordRetry(String cause, int count) {
+        retriesByCause.computeIfAbsent(cause(cause), key -> new LongAdder()).add(count);
+    }
+
+    /**
+     * 记录一个最终失败的操作，并发送到失败 Topic。
+     *
+     * @param operation  操作类型 (index / update / delete)
+     * @param documentId 文档 ID
+     * @param sourcePath 文件源路径，可能为 null
+     * @param status     HTTP 状态码，可能为 null
+     * @param cause      失败原因 (ES 错误类型或 TRANSPORT_ERROR)
+     * @param reason     失败详情
+     * @param attempts   已尝试次数
+     * @param document   写入的文档 (EsDocumentDto 或已序列化的 BinaryData)，删除操作为 null
+     * @return 失败记录发送完成 (成功或失败) 后完成的 Future，从不以异常完成；未启用失败出口时已完成
+     */
+    public CompletableFuture<Void> recordPermanentFailure(String operation, String documentId, String sourcePath,
+                                                          Integer status, String cause, String reason, int attempts,
+                                                          Object document) {
+        String normalizedCause = cause(cause);
+        permanentFailuresByCause.computeIfAbsent(normalizedCause, key -> new LongAdder()).increment();
+        logger.error("文档 ID [{}] 的 {} 操作最终失败 (尝试 {} 次): {} - {}", documentId, operation, attempts, normalizedCause, reason);
+        if (!failureSinkEnabled) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("documentId", documentId);
+        record.put("operation", operation);
+        record.put("sourcePath", sourcePath);
+        record.put("status", status);
+        record.put("cause", normalizedCause);
+        record.put("reason", reason);
+        record.put("attempts", attempts);
+        record.put("failedAt", Instant.now().toString());
+        String topic = kafkaTopicProperties.getIndexFailureTopicName();
+        String value = null;
+        try {
+            value = serialize(record, document);
+            final String sentValue = value;
+            CompletableFuture<Void> published = new CompletableFuture<>();
+            kafkaTemplate.send(topic, documentId, value)
+                    .whenComplete((result, ex) -> {
+                        if (ex == null) {
+                            sinkPublished.increment();
+                        } else {
+                            sinkFailed.increment();
+                            logger.error("发送失败记录到 Topic {} 失败 (文档 ID: {}): {}。失败记录: {}",
+                                    topic, documentId, ex.getMessage(), sentValue);
+                        }
+                        published.complete(null);
+                    });
+            return published;
+        } catch (Exception e) {
+            sinkFailed.increment();
+            logger.error("发送失败记录到 Topic {} 失败 (文档 ID: {}): {}。失败记录: {}",
+                    topic, documentId, e.getMessage(), value != null ? value : record);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * 序列化失败记录，记录过大时省略文档的 content 字段。
+     */
+    private String serialize(ObjectNode record, Object document) throws IOException {
+        if (document == null) {
+            return objectMapper.writeValueAsString(record);
+        }
+        JsonNode documentNode;
+        if (document instanceof BinaryData binaryData) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, binaryData.size()));
+            binaryData.writeTo(out);
+            documentNode = objectMapper.readTree(out.toByteArray());
+        } else {
+            documentNode = objectMapper.valueToTree(document);
+        }
+        record.set("document", documentNode);
+        String value = objectMapper.writeValueAsString(record);
+        if (documentNode instanceof ObjectNode objectNode && objectNode.has("content")
+                && value.getBytes(StandardCharsets.UTF_8).length > maxRecordBytes) {
+            objectNode.remove("content");
+            record.put("contentOmitted", true);
+            value = objectMapper.writeValueAsString(record);
+        }
+        return value;
+    }
+
+    /**
+     * 获取按失败原因统计的重试与最终失败次数。
+     *
+     * @return 统计信息 (retriesByCause, permanentFailuresByCause, sinkPublished, sinkFailed)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("retriesByCause", snapshot(retriesByCause));
+        stats.put("permanentFailuresByCause", snapshot(permanentFailuresByCause));
+        stats.put("sinkPublished", sinkPublished.sum());
+        stats.put("sinkFailed", sinkFailed.sum());
+        return stats;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((cause, counter) -> snapshot.put(cause, counter.sum()));
+        return snapshot;
+    }
+
+    private static String cause(String cause) {
+        return cause == null || cause.isBlank() ? "unknown" : cause;
+    }
+}
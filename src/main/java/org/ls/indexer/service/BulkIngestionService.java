@@ -0,0 +1,448 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/BulkIngestionService.java
+ * 文件名称: BulkIngestionService.java
+ * 开发时间: 2025-06-25 17:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 共享的长生命周期 bulk 写入组件。Kafka 监听器、批处理 ItemWriter 等调用方把单个写入/删除操作提交到同一个
+ *          BulkIngester，由它按操作数、字节数和时间间隔合并为 bulk 请求，使不同来源的写入可以合并发送。
+ *
+ * 功能说明：
+ * 1. 阈值: 缓冲区达到 max-operations 个操作或 max-bytes 字节，或距上次发送超过 flush-interval-ms 时发送一个 bulk 请求。
+ * 2. 并发: 同时最多 max-concurrent-requests 个 bulk 请求在途，达到上限且缓冲区已满时 submit 阻塞调用方 (背压)。
+ * 3. 回调: 每个操作对应一个 CompletableFuture，bulk 响应返回后按该操作在请求中的位置完成:
+ *    成功时返回 BulkResponseItem，最终失败时以 IndexingException 异常完成。
+ *    Future 在 ES 的传输线程中完成，调用方在回调中不要执行耗时操作。
+ * 4. 重试: 可重试的条目失败 (429/503 等，见 BulkFailureHandler) 和整个请求失败时，只把失败的操作按退避时间
+ *    重新加入 BulkIngester，不重发已成功的操作；重试耗尽或不可重试的操作交给 BulkFailureHandler 发送到失败 Topic。
+ *    历史索引作业的操作重试耗尽时不发送到失败 Topic，以 TransientIndexingException 完成，由 ItemWriter 使块失败
+ *    (作业重启后重新写入)；不可重试的失败 (包括序列化失败) 发送到失败 Topic 后以 IndexingException 完成。
+ * 5. 自适应: 提交前等待 AdaptiveWriteRateService 的在途请求名额 (背压)，缓冲的操作达到其当前 bulk 字节上限时立即发送；
+ *    max-concurrent-requests 和 max-bytes 是自适应调整的上限。
+ * 6. 序列化: 文档在提交时通过 BulkDocumentSerializer 序列化一次为 JSON 字节，发送和重试时直接写入这些字节。
+ * 7. 目标索引: 实时写入和删除 (submitIndex / submitDelete) 在蓝绿重建进行中时同时写入当前索引和新索引，
+ *    历史索引作业的写入 (submitHistoricalIndex) 只写入作业的目标索引 (见 BlueGreenReindexService)。
+ * 8. 部分更新: submitMetadataUpdate 以 update 操作只写入元数据字段 (重命名/移动)，文档不存在 (404) 时视为完成，
+ *    不会创建缺少内容的文档 (蓝绿重建的新索引中还没有该文档时由历史索引作业写入)。
+ * 应用关闭时 (close) 会等待已安排的重试、发送缓冲区中剩余的操作并等待在途请求完成。
+ */
+package org.ls.indexer.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.util.BinaryData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.ls.indexer.batch.BulkRequestPartitioner;
+import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.exception.IndexingException;
+import org.ls.indexer.exception.TransientIndexingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class BulkIngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkIngestionService.class);
+
+    // 每个操作的 action 行 (索引名、_id) 的估算字节数
+    private static final long OPERATION_OVERHEAD_BYTES = 128;
+
+    @Value("${dms.indexer.bulk.max-operations:1000}")
+    private int maxOperations;
+
+    @Value("${dms.indexer.bulk.max-bytes:10485760}")
+    private long maxBytes;
+
+    @Value("${dms.indexer.bulk.flush-interval-ms:500}")
+    private long flushIntervalMillis;
+
+    @Value("${dms.indexer.bulk.max-concurrent-requests:2}")
+    private int maxConcurrentRequests;
+
+    private final ElasticsearchClient elasticsearchClient;
+    private final BulkFailureHandler bulkFailureHandler;
+    private final AdaptiveWriteRateService adaptiveWriteRateService;
+    private final BulkDocumentSerializer bulkDocumentSerializer;
+    private final BlueGreenReindexService blueGreenReindexService;
+
+    private final AtomicLong submittedOperations = new AtomicLong();
+    private final AtomicLong succeededOperations = new AtomicLong();
+    private final AtomicLong failedOperations = new AtomicLong();
+    private final AtomicLong retriedOperations = new AtomicLong();
+    private final AtomicLong bulkRequests = new AtomicLong();
+    private final AtomicLong failedBulkRequests = new AtomicLong();
+    private final AtomicLong inFlightRequests = new AtomicLong();
+    // 已加入 BulkIngester 但还未发送的操作的估算字节数
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final Map<Long, Long> requestStartNanos = new ConcurrentHashMap<>();
+
+    private BulkIngester<PendingOperation> bulkIngester;
+
+    // 按退避时间把失败的操作重新加入 BulkIngester (不能在 ES 传输线程的回调中直接 add，add 可能阻塞)
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bulk-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public BulkIngestionService(ElasticsearchClient elasticsearchClient,
+                                BulkFailureHandler bulkFailureHandler,
+                                AdaptiveWriteRateService adaptiveWriteRateService,
+                                BulkDocumentSerializer bulkDocumentSerializer,
+                                BlueGreenReindexService blueGreenReindexService) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.bulkFailureHandler = bulkFailureHandler;
+        this.adaptiveWriteRateService = adaptiveWriteRateService;
+        this.bulkDocumentSerializer = bulkDocumentSerializer;
+        this.blueGreenReindexService = blueGreenReindexService;
+    }
+
+    @PostConstruct
+    public void init() {
+        this.bulkIngester = BulkIngester.of(b -> b
+                .client(elasticsearchClient)
+                .maxOperations(maxOperations)
+                .maxSize(maxBytes)
+                .maxConcurrentRequests(maxConcurrentRequests)
+                .flushInterval(flushIntervalMillis, TimeUnit.MILLISECONDS)
+                .listener(new CompletionListener()));
+        logger.info("共享 bulk 写入组件已初始化: 最多 {} 个操作 / {} 字节 / {}ms 发送一次，最多 {} 个在途请求",
+                maxOperations, maxBytes, flushIntervalMillis, maxConcurrentRequests);
+    }
+
+    /**
+     * 提交一个实时变更的文档写入 (index) 操作，蓝绿重建进行中时同时写入新索引。
+     *
+     * @param document 要写入的文档，fileId 作为文档 _id
+     * @return 文档写入所有目标索引后完成的 Future；任一索引失败时以 IndexingException 异常完成
+     */
+    public CompletableFuture<BulkResponseItem> submitIndex(EsDocumentDto document) {
+        return submitIndex(document, blueGreenReindexService.getLiveWriteIndices(), false);
+    }
+
+    /**
+     * 提交一个历史索引作业的文档写入操作，写入作业的目标索引 (蓝绿重建时为新索引)。
+     *
+     * @param document 要写入的文档，fileId 作为文档 _id
+     * @return 文档写入 ES 后完成的 Future；失败时以 IndexingException 异常完成
+     */
+    public CompletableFuture<BulkResponseItem> submitHistoricalIndex(EsDocumentDto document) {
+        return submitIndex(document, List.of(blueGreenReindexService.getHistoricalTargetIndex()), true);
+    }
+
+    private CompletableFuture<BulkResponseItem> submitIndex(EsDocumentDto document, List<String> indexNames, boolean historical) {
+        if (document == null || document.getFileId() == null) {
+            return CompletableFuture.failedFuture(new IndexingException("要写入的文档或其FileId为空。"));
+        }
+        BinaryData source;
+        try {
+            source = bulkDocumentSerializer.serialize(document);
+        } catch (IndexingException e) {
+            failedOperations.incrementAndGet();
+            return bulkFailureHandler.recordPermanentFailure("index", document.esDocumentId(), document.getSourcePath(),
+                            null, "serialization_error", e.getMessage(), 1, document)
+                    .thenCompose(ignored -> CompletableFuture.<BulkResponseItem>failedFuture(e));
+        }
+        String documentId = document.esDocumentId(); // 分块文档为 fileId#序号
+        List<CompletableFuture<BulkResponseItem>> futures = new ArrayList<>(indexNames.size());
+        for (String indexName : indexNames) {
+            futures.add(submit(new PendingOperation(BulkOperation.of(op -> op.index(idx -> idx
+                    .index(indexName)
+                    .id(documentId)
+                    .document(source))), "index", documentId, document.getSourcePath(), source,
+                    OPERATION_OVERHEAD_BYTES + source.size(), historical)));
+        }
+        return allOf(futures);
+    }
+
+    /**
+     * 提交一个文档删除操作。文档不存在 (404) 视为成功。
+     *
+     * @param documentId 要删除的文档 ID
+     * @return 删除完成后完成的 Future；失败时以 IndexingException 异常完成
+     */
+    public CompletableFuture<BulkResponseItem> submitDelete(String documentId) {
+        if (documentId == null || documentId.isBlank()) {
+            return CompletableFuture.failedFuture(new IndexingException("要删除的文档ID不能为空。"));
+        }
+        List<CompletableFuture<BulkResponseItem>> futures = new ArrayList<>();
+        for (String indexName : blueGreenReindexService.getLiveWriteIndices()) {
+            futures.add(submit(new PendingOperation(BulkOperation.of(op -> op.delete(d -> d.index(indexName).id(documentId))),
+                    "delete", documentId, null, null, OPERATION_OVERHEAD_BYTES, false)));
+        }
+        return allOf(futures);
+    }
+
+    /**
+     * 提交一个只更新元数据字段的部分更新 (update) 操作，蓝绿重建进行中时同时更新新索引。
+     *
+     * @param partialDocument 只填充了 fileId 和要更新字段的文档 (null 字段不会被序列化，因此不会覆盖)
+     * @return 更新完成 (或文档不存在) 后完成的 Future；失败时以 IndexingException 异常完成
+     */
+    public CompletableFuture<BulkResponseItem> submitMetadataUpdate(EsDocumentDto partialDocument) {
+        if (partialDocument == null || partialDocument.getFileId() == null) {
+            return CompletableFuture.failedFuture(new IndexingException("要更新的文档或其FileId为空。"));
+        }
+        String documentId = partialDocument.getFileId();
+        long estimatedBytes = OPERATION_OVERHEAD_BYTES + BulkRequestPartitioner.estimateSerializedBytes(partialDocument);
+        List<CompletableFuture<BulkResponseItem>> futures = new ArrayList<>();
+        for (String indexName : blueGreenReindexService.getLiveWriteIndices()) {
+            futures.add(submit(new PendingOperation(BulkOperation.of(op -> op.update(u -> u
+                    .index(indexName)
+                    .id(documentId)
+                    .action(a -> a.doc(partialDocument)))), "update", documentId, partialDocument.getSourcePath(),
+                    partialDocument, estimatedBytes, false)));
+        }
+        return allOf(futures);
+    }
+
+    /**
+     * 合并同一文档在多个索引上的操作: 全部成功时以第一个索引的结果完成，任一失败时以该失败完成 (不包装为 CompletionException)。
+     */
+    private static CompletableFuture<BulkResponseItem> allOf(List<CompletableFuture<BulkResponseItem>> futures) {
+        if (futures.size() == 1) {
+            return futures.get(0);
+        }
+        CompletableFuture<BulkResponseItem> combined = new CompletableFuture<>();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((ignored, failure) -> {
+            for (CompletableFuture<BulkResponseItem> future : futures) {
+                if (future.isCompletedExceptionally()) {
+                    future.whenComplete((item, cause) -> combined.completeExceptionally(cause));
+                    return;
+                }
+            }
+            combined.complete(futures.get(0).join());
+        });
+        return combined;
+    }
+
+    /**
+     * 立即发送缓冲区中的操作，不等待 flush-interval。用于调用方需要尽快得到结果的场景 (例如块提交前)。
+     */
+    public void flush() {
+        bulkIngester.flush();
+    }
+
+    private CompletableFuture<BulkResponseItem> submit(PendingOperation pending) {
+        submittedOperations.incrementAndGet();
+        pending.attempts = 1;
+        adaptiveWriteRateService.awaitCapacity(); // ES 拥塞时阻塞调用方 (背压)
+        enqueue(pending);
+        return pending.future;
+    }
+
+    private void enqueue(PendingOperation pending) {
+        bufferedBytes.addAndGet(pending.estimatedBytes);
+        bulkIngester.add(pending.operation, pending); // 达到在途请求上限且缓冲区已满时阻塞
+        if (bufferedBytes.get() >= adaptiveWriteRateService.getBulkBytesLimit()) {
+            bulkIngester.flush();
+        }
+    }
+
+    /**
+     * 处理一个失败的操作: 可以重试时按退避时间重新加入 BulkIngester，否则交给失败出口并以异常完成 Future。
+     *
+     * @return 是否已安排重试
+     */
+    private boolean retryOrFail(PendingOperation pending, Integer status, String cause, String reason, boolean retryable) {
+        if (retryable && bulkFailureHandler.canRetry(pending.attempts) && !retryScheduler.isShutdown()) {
+            long delay = bulkFailureHandler.backoffMillis(pending.attempts);
+            bulkFailureHandler.recordRetry(cause, 1);
+            retriedOperations.incrementAndGet();
+            try {
+                retryScheduler.schedule(() -> {
+                    pending.attempts++;
+                    try {
+                        enqueue(pending);
+                    } catch (Exception e) { // BulkIngester 已关闭
+                        fail(pending, status, cause, e.getMessage(), true);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (RejectedExecutionException e) {
+                // 应用正在关闭，按最终失败处理
+            }
+        }
+        fail(pending, status, cause, reason, retryable);
+        return false;
+    }
+
+    /**
+     * 最终失败: 失败记录发送到失败 Topic 之后才以异常完成 Future，调用方 (Kafka 监听器) 在此之后才提交偏移量。
+     * 历史索引作业的操作重试耗尽时不发送到失败 Topic，直接以 TransientIndexingException 完成。
+     */
+    private void fail(PendingOperation pending, Integer status, String cause, String reason, boolean retryable) {
+        failedOperations.incrementAndGet();
+        String message = "文档 " + pending.documentId + " 写入失败: " + cause + " - " + reason;
+        if (retryable && pending.historical) {
+            logger.error("历史索引作业的文档 {} 重试 {} 次后仍然失败: {} - {}", pending.documentId, pending.attempts, cause, reason);
+            pending.future.completeExceptionally(new TransientIndexingException(message));
+            return;
+        }
+        IndexingException failure = new IndexingException(message);
+        bulkFailureHandler.recordPermanentFailure(pending.operationType, pending.documentId, pending.sourcePath,
+                        status, cause, reason, pending.attempts, pending.document)
+                .whenComplete((ignored, sinkFailure) -> pending.future.completeExceptionally(failure));
+    }
+
+    /**
+     * 获取 bulk 写入统计，供监控接口显示。
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("submittedOperations", submittedOperations.get());
+        stats.put("succeededOperations", succeededOperations.get());
+        stats.put("failedOperations", failedOperations.get());
+        stats.put("retriedOperations", retriedOperations.get());
+        stats.put("bulkRequests", bulkRequests.get());
+        stats.put("failedBulkRequests", failedBulkRequests.get());
+        stats.put("inFlightRequests", inFlightRequests.get());
+        stats.put("bufferedBytes", bufferedBytes.get());
+        stats.put("failures", bulkFailureHandler.getStats());
+        stats.put("serialization", bulkDocumentSerializer.getStats());
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        retryScheduler.shutdown(); // 不再接受新的重试，已安排的重试仍会执行
+        try {
+            if (!retryScheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("等待已安排的 bulk 重试超时，剩余重试将被丢弃。");
+                retryScheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            retryScheduler.shutdownNow();
+        }
+        if (bulkIngester != null) {
+            logger.info("关闭共享 bulk 写入组件，发送剩余操作...");
+            bulkIngester.close();
+        }
+    }
+
+    /**
+     * 一个提交到 BulkIngester 的操作及其 Future。attempts 只在重试线程和 bulk 回调中顺序修改。
+     */
+    private static final class PendingOperation {
+        private final BulkOperation operation;
+        private final String operationType;
+        private final String documentId;
+        private final String sourcePath;
+        private final Object document; // 写入的文档 (已序列化的 BinaryData 或部分更新的文档)，删除时为 null，用于失败记录
+        private final long estimatedBytes;
+        private final boolean historical; // 历史索引作业的写入: 重试耗尽时不发送到失败 Topic，由 ItemWriter 使块失败
+        private final CompletableFuture<BulkResponseItem> future = new CompletableFuture<>();
+        private volatile int attempts;
+
+        PendingOperation(BulkOperation operation, String operationType, String documentId, String sourcePath,
+                         Object document, long estimatedBytes, boolean historical) {
+            this.operation = operation;
+            this.operationType = operationType;
+            this.documentId = documentId;
+            this.sourcePath = sourcePath;
+            this.document = document;
+            this.estimatedBytes = estimatedBytes;
+            this.historical = historical;
+        }
+    }
+
+    /**
+     * bulk 请求完成后按操作在请求中的位置完成对应的 Future，失败的操作重试或交给失败出口。
+     */
+    private class CompletionListener implements BulkListener<PendingOperation> {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request, List<PendingOperation> contexts) {
+            inFlightRequests.incrementAndGet();
+            bulkRequests.incrementAndGet();
+            long requestBytes = contexts.stream().mapToLong(pending -> pending.estimatedBytes).sum();
+            bufferedBytes.addAndGet(-requestBytes);
+            bulkDocumentSerializer.recordBulkPayload(requestBytes);
+            requestStartNanos.put(executionId, System.nanoTime());
+            adaptiveWriteRateService.onBulkStart();
+            logger.debug("发送 bulk 请求 #{}: {} 个操作", executionId, contexts.size());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<PendingOperation> contexts,
+                              BulkResponse response) {
+            inFlightRequests.decrementAndGet();
+            List<BulkResponseItem> items = response.items();
+            int failed = 0;
+            int retried = 0;
+            int rejected = 0;
+            for (int i = 0; i < contexts.size(); i++) {
+                PendingOperation pending = contexts.get(i);
+                BulkResponseItem item = i < items.size() ? items.get(i) : null;
+                if (item == null) {
+                    failed++;
+                    fail(pending, null, "missing_response_item", "bulk 响应中缺少对应的条目。", true);
+                } else if (item.error() != null && item.status() == 404 && "update".equals(pending.operationType)) {
+                    // 部分更新的文档不存在 (已被删除，或尚未写入重建的新索引): 不创建缺少内容的文档，视为完成
+                    logger.debug("部分更新的文档 {} 在索引 {} 中不存在，已忽略。", pending.documentId, item.index());
+                    succeededOperations.incrementAndGet();
+                    pending.future.complete(item);
+                } else if (item.error() != null) { // 删除不存在的文档返回 404 但没有 error，视为成功
+                    String type = item.error().type();
+                    if (item.status() == 429) {
+                        rejected++;
+                    }
+                    boolean retryable = bulkFailureHandler.isRetryable(item.status(), type);
+                    if (retryOrFail(pending, item.status(), type, item.error().reason(), retryable)) {
+                        retried++;
+                    } else {
+                        failed++;
+                    }
+                } else {
+                    succeededOperations.incrementAndGet();
+                    pending.future.complete(item);
+                }
+            }
+            adaptiveWriteRateService.onBulkComplete(elapsedNanos(executionId), contexts.size(), rejected, false);
+            if (failed > 0 || retried > 0) {
+                logger.warn("bulk 请求 #{}: {} 个操作中 {} 个将重试，{} 个最终失败。", executionId, contexts.size(), retried, failed);
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<PendingOperation> contexts,
+                              Throwable failure) {
+            inFlightRequests.decrementAndGet();
+            failedBulkRequests.incrementAndGet();
+            adaptiveWriteRateService.onBulkComplete(elapsedNanos(executionId), contexts.size(), 0, true);
+            logger.error("bulk 请求 #{} ({} 个操作) 失败，将按退避时间重试: {}", executionId, contexts.size(), failure.getMessage(), failure);
+            for (PendingOperation pending : contexts) {
+                retryOrFail(pending, null, BulkFailureHandler.TRANSPORT_ERROR, String.valueOf(failure.getMessage()), true);
+            }
+        }
+
+        private long elapsedNanos(long executionId) {
+            Long startNanos = requestStartNanos.remove(executionId);
+            return startNanos == null ? 0 : System.nanoTime() - startNanos;
+        }
+    }
+}
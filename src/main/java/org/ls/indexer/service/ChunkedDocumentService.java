@@ -0,0 +1,226 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/ChunkedDocumentService.java
+ * 文件名称: ChunkedDocumentService.java
+ * 开发时间: 2025-06-25 22:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 分块文档模式 (dms.indexer.chunking.enabled)。大文档的 content 不再写入单个字段，而是在段落边界切分为
+ *          固定大小的分块文档，避免 bulk 请求过大、查询时高亮变慢以及超过提取上限的文本被截断。
+ *
+ * 功能说明：
+ * 1. 文档结构: 父文档 (_id = file_id) 包含元数据字段和 chunk_count，不包含 content；
+ *    分块文档 (_id = file_id#序号) 包含 file_id (父文档)、chunk_ordinal 和 content。查询时可按 file_id 折叠 (collapse)。
+ * 2. 流式写入: FileParserService.parseFileInChunks 每产生一个分块就提交到共享的 BulkIngestionService，
+ *    完整文本不会同时存在于内存中。所有分块写入成功后才写入父文档，父文档存在即表示分块完整。
+ *    实时写入不等待分块写入完成: 解析和提交分块后立即返回，分块全部写入后在专用线程 (chunk-parent-writer) 中提交父文档，
+ *    Kafka 监听线程不会被阻塞 (最长 write-timeout-ms) 而超过 max.poll.interval.ms；偏移量在返回的 Future 完成后提交。
+ * 3. 替换: 写入前读取父文档原来的 chunk_count，新分块数更少时以 bulk 删除多余的分块；
+ *    删除文档时按 chunk_count 以 bulk 删除父文档和全部分块。
+ * 4. 实时写入 (Kafka) 写入当前索引 (重建进行中时双写)，历史索引作业写入作业的目标索引 (见 BlueGreenReindexService)。
+ */
+package org.ls.indexer.service;
+
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import jakarta.annotation.PreDestroy;
+import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.dto.FileParseResult;
+import org.ls.indexer.exception.IndexingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+@Service
+public class ChunkedDocumentService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedDocumentService.class);
+
+    @Value("${dms.indexer.chunking.enabled:false}")
+    private boolean enabled;
+
+    // 每个分块的目标字符数 (在段落边界切分)
+    @Value("${dms.indexer.chunking.chunk-chars:32768}")
+    private int chunkChars;
+
+    // 每个文件最多的分块数，超过部分的文本不索引
+    @Value("${dms.indexer.chunking.max-chunks:1000}")
+    private int maxChunks;
+
+    // 等待一个文件的全部分块写入完成的最长时间 (毫秒)。实时写入不阻塞 Kafka 监听线程，但偏移量在此之后才提交
+    @Value("${dms.indexer.chunking.write-timeout-ms:120000}")
+    private long writeTimeoutMillis;
+
+    private final FileParserService fileParserService;
+    private final BulkIngestionService bulkIngestionService;
+    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+    private final BlueGreenReindexService blueGreenReindexService;
+
+    // 分块写入完成后提交父文档的线程。不在 ES 回调线程中提交: BulkIngester.add 和背压等待可能阻塞
+    private final ExecutorService parentWriteExecutor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "chunk-parent-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public ChunkedDocumentService(FileParserService fileParserService,
+                                  BulkIngestionService bulkIngestionService,
+                                  ElasticsearchPersistenceService elasticsearchPersistenceService,
+                                  BlueGreenReindexService blueGreenReindexService) {
+        this.fileParserService = fileParserService;
+        this.bulkIngestionService = bulkIngestionService;
+        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+        this.blueGreenReindexService = blueGreenReindexService;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        parentWriteExecutor.shutdown();
+    }
+
+    /**
+     * 实时写入一个文件: 流式解析并提交分块后立即返回，不等待写入完成。分块全部写入后再提交父文档和多余分块的删除。
+     *
+     * @param parent   父文档 (fileId 和元数据字段，title / author / content_sha256 / chunk_count 由解析结果填充)
+     * @param filePath 要解析的文件
+     * @return 父文档写入 (以及多余分块删除) 完成后完成的 Future；分块写入失败或超时时以 IndexingException 异常完成
+     * @throws IndexingException 如果解析失败或查询原来的分块数失败
+     */
+    public CompletableFuture<BulkResponseItem> indexLive(EsDocumentDto parent, Path filePath) throws IndexingException {
+        List<String> indexNames = blueGreenReindexService.getLiveWriteIndices();
+        List<CompletableFuture<BulkResponseItem>> chunkFutures = new ArrayList<>();
+        FileParseResult parseResult = submitChunks(parent, filePath, bulkIngestionService::submitIndex, chunkFutures);
+        // 在写入父文档之前读取原来的分块数
+        List<String> staleChunkIds = staleChunkIds(parent.getFileId(), parseResult.getChunkCount(), indexNames);
+
+        return allChunksWritten(parent.getFileId(), chunkFutures).thenComposeAsync(written -> {
+            CompletableFuture<BulkResponseItem> parentFuture = bulkIngestionService.submitIndex(parent);
+            List<CompletableFuture<BulkResponseItem>> futures = new ArrayList<>();
+            futures.add(parentFuture);
+            for (String chunkId : staleChunkIds) {
+                futures.add(bulkIngestionService.submitDelete(chunkId));
+            }
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(ignored -> parentFuture.join());
+        }, parentWriteExecutor);
+    }
+
+    /**
+     * 历史索引作业写入一个文件: 流式解析并写入分块到作业的目标索引，删除多余的分块，返回填充后的父文档由 ItemWriter 写入。
+     *
+     * @param parent   父文档 (fileId 和元数据字段)
+     * @param filePath 要解析的文件
+     * @return 填充了解析结果的父文档 (不含 content)
+     * @throws IndexingException 如果解析失败或分块写入失败
+     */
+    public EsDocumentDto indexHistorical(EsDocumentDto parent, Path filePath) throws IndexingException {
+        List<String> indexNames = List.of(blueGreenReindexService.getHistoricalTargetIndex());
+        List<CompletableFuture<BulkResponseItem>> chunkFutures = new ArrayList<>();
+        FileParseResult parseResult = submitChunks(parent, filePath, bulkIngestionService::submitHistoricalIndex, chunkFutures);
+        try {
+            allChunksWritten(parent.getFileId(), chunkFutures).get(); // 批处理线程等待，超时由 allChunksWritten 控制
+        } catch (ExecutionException e) {
+            throw (IndexingException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexingException("等待文档 " + parent.getFileId() + " 的分块写入时被中断", e);
+        }
+        List<String> staleChunkIds = staleChunkIds(parent.getFileId(), parseResult.getChunkCount(), indexNames);
+        if (!staleChunkIds.isEmpty()) {
+            elasticsearchPersistenceService.bulkDeleteHistoricalDocuments(staleChunkIds);
+        }
+        return parent;
+    }
+
+    /**
+     * 实时删除一个文档的父文档和全部分块。
+     *
+     * @param documentId 父文档 ID
+     * @return 父文档删除完成 (或不存在) 后完成的 Future
+     * @throws IndexingException 如果查询分块数失败
+     */
+    public CompletableFuture<BulkResponseItem> deleteLive(String documentId) throws IndexingException {
+        Integer chunkCount = elasticsearchPersistenceService
+                .fetchChunkCounts(List.of(documentId), blueGreenReindexService.getLiveWriteIndices()).get(documentId);
+        CompletableFuture<BulkResponseItem> parentFuture = bulkIngestionService.submitDelete(documentId);
+        List<CompletableFuture<BulkResponseItem>> futures = new ArrayList<>();
+        futures.add(parentFuture);
+        for (int ordinal = 0; chunkCount != null && ordinal < chunkCount; ordinal++) {
+            futures.add(bulkIngestionService.submitDelete(EsDocumentDto.chunkDocumentId(documentId, ordinal)));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(ignored -> parentFuture.join());
+    }
+
+    /**
+     * 流式解析文件并提交分块 (不等待写入完成)，用解析结果填充父文档。
+     */
+    private FileParseResult submitChunks(EsDocumentDto parent, Path filePath,
+                                         Function<EsDocumentDto, CompletableFuture<BulkResponseItem>> submitter,
+                                         List<CompletableFuture<BulkResponseItem>> futures)
+            throws IndexingException {
+        String fileId = parent.getFileId();
+        FileParseResult parseResult = fileParserService.parseFileInChunks(filePath, chunkChars, maxChunks,
+                (text, ordinal) -> futures.add(submitter.apply(EsDocumentDto.builder()
+                        .fileId(fileId)
+                        .chunkOrdinal(ordinal)
+                        .content(text)
+                        .build())));
+        bulkIngestionService.flush(); // 不等待 flush-interval
+
+        parent.setContent(null);
+        parent.setTitle(parseResult.getTitle());
+        parent.setAuthor(parseResult.getAuthor());
+        parent.setContentSha256(parseResult.getContentSha256());
+        parent.setChunkCount(parseResult.getChunkCount());
+        logger.debug("文档 {} 已提交 {} 个分块 (文件: {})", fileId, parseResult.getChunkCount(), filePath);
+        return parseResult;
+    }
+
+    /**
+     * 全部分块写入成功后完成的 Future。任一分块失败或超过 write-timeout-ms 时以 IndexingException 异常完成。
+     */
+    private CompletableFuture<Void> allChunksWritten(String fileId, List<CompletableFuture<BulkResponseItem>> futures) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .orTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((ignored, failure) -> {
+                    if (failure == null) {
+                        written.complete(null);
+                        return;
+                    }
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause() : failure;
+                    written.completeExceptionally(cause instanceof TimeoutException
+                            ? new IndexingException("等待文档 " + fileId + " 的分块写入超时", cause)
+                            : new IndexingException("文档 " + fileId + " 的分块写入失败: " + cause.getMessage(), cause));
+                });
+        return written;
+    }
+
+    /**
+     * 原来的分块数多于新的分块数时，返回多余分块的 ID。
+     */
+    private List<String> staleChunkIds(String fileId, int chunkCount, List<String> indexNames) throws IndexingException {
+        Integer previous = elasticsearchPersistenceService.fetchChunkCounts(List.of(fileId), indexNames).get(fileId);
+        List<String> staleChunkIds = new ArrayList<>();
+        for (int ordinal = chunkCount; previous != null && ordinal < previous; ordinal++) {
+            staleChunkIds.add(EsDocumentDto.chunkDocumentId(fileId, ordinal));
+        }
+        return staleChunkIds;
+    }
+}
@@ -8,37 +8,79 @@
 package org.ls.indexer.service;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.FieldValue;
 import co.elastic.clients.elasticsearch.core.BulkRequest;
 import co.elastic.clients.elasticsearch.core.BulkResponse;
 import co.elastic.clients.elasticsearch.core.DeleteRequest;
 import co.elastic.clients.elasticsearch.core.DeleteResponse;
 import co.elastic.clients.elasticsearch.core.IndexRequest;
 import co.elastic.clients.elasticsearch.core.IndexResponse;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.util.BinaryData;
 import org.ls.indexer.config.properties.ElasticsearchProperties;
 import org.ls.indexer.dto.EsDocumentDto;
 import org.ls.indexer.exception.IndexingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 @Service
 public class ElasticsearchPersistenceService {
 
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchPersistenceService.class);
 
+    /**
+     * 判断文件是否已被索引且未变化时所需的 _source 字段 (multi-get 时只取回这些字段)。
+     */
+    private static final List<String> VERSION_SOURCE_FIELDS = List.of("last_modified", "file_size_bytes");
+
+    /**
+     * 判断实时变更是否只改变了元数据时所需的 _source 字段 (内容指纹和可能被重命名/移动改变的字段)。
+     */
+    private static final List<String> FINGERPRINT_SOURCE_FIELDS =
+            List.of("last_modified", "file_size_bytes", "content_sha256", "filename", "source_path");
+
+    // 分块文档模式: 删除文档时同时删除其分块
+    @Value("${dms.indexer.chunking.enabled:false}")
+    private boolean chunkingEnabled;
+
     private final ElasticsearchClient elasticsearchClient;
     private final ElasticsearchProperties elasticsearchProperties;
+    private final BulkFailureHandler bulkFailureHandler;
+    private final AdaptiveWriteRateService adaptiveWriteRateService;
+    private final BulkDocumentSerializer bulkDocumentSerializer;
+    private final BlueGreenReindexService blueGreenReindexService;
 
     @Autowired
     public ElasticsearchPersistenceService(ElasticsearchClient elasticsearchClient,
-                                           ElasticsearchProperties elasticsearchProperties) {
+                                           ElasticsearchProperties elasticsearchProperties,
+                                           BulkFailureHandler bulkFailureHandler,
+                                           AdaptiveWriteRateService adaptiveWriteRateService,
+                                           BulkDocumentSerializer bulkDocumentSerializer,
+                                           BlueGreenReindexService blueGreenReindexService) {
         this.elasticsearchClient = elasticsearchClient;
         this.elasticsearchProperties = elasticsearchProperties;
+        this.bulkFailureHandler = bulkFailureHandler;
+        this.adaptiveWriteRateService = adaptiveWriteRateService;
+        this.bulkDocumentSerializer = bulkDocumentSerializer;
+        this.blueGreenReindexService = blueGreenReindexService;
     }
 
     /**
@@ -145,79 +187,482 @@ public class ElasticsearchPersistenceService {
     }
 
     /**
-     * 批量将文档索引（新增或更新）到 Elasticsearch。
+     * 批量将实时变更的文档索引（新增或更新）到 Elasticsearch。
+     * 蓝绿重建进行中时在同一个 bulk 请求中同时写入当前索引和新索引 (见 BlueGreenReindexService)。
      *
      * @param documents 要批量索引的 EsDocumentDto 对象列表。
-     * @return 如果所有操作都成功，则返回 true；如果任何操作失败，则返回 false。
-     * @throws IndexingException 如果批量操作因IO或其他ES异常失败。
+     * @return 如果所有文档最终都写入成功，则返回 true；如果有文档因不可重试的错误失败 (已发送到失败 Topic)，则返回 false。
+     * @throws IndexingException 如果重试耗尽后仍有传输异常或可重试的条目失败 (这些文档不发送到失败 Topic)。
      */
     public boolean bulkIndexDocuments(List<EsDocumentDto> documents) throws IndexingException {
+        return bulkIndexDocuments(documents, blueGreenReindexService.getLiveWriteIndices());
+    }
+
+    /**
+     * 批量将历史索引作业的文档写入作业的目标索引 (蓝绿重建时为新索引，否则为当前索引)。
+     *
+     * @param documents 要批量索引的 EsDocumentDto 对象列表。
+     * @return 如果所有文档最终都写入成功，则返回 true；如果有文档因不可重试的错误失败 (已发送到失败 Topic)，则返回 false。
+     * @throws IndexingException 如果重试耗尽后仍有传输异常或可重试的条目失败 (这些文档不发送到失败 Topic)。
+     */
+    public boolean bulkIndexHistoricalDocuments(List<EsDocumentDto> documents) throws IndexingException {
+        return bulkIndexDocuments(documents, List.of(blueGreenReindexService.getHistoricalTargetIndex()));
+    }
+
+    /**
+     * 批量将文档索引（新增或更新）到指定的索引，每个文档对每个索引各一个操作 (重试和失败出口见 executeBulk)。
+     *
+     * @param documents  要批量索引的 EsDocumentDto 对象列表。
+     * @param indexNames 目标索引
+     * @return 如果所有文档最终都写入成功，则返回 true；如果有文档因不可重试的错误失败 (已发送到失败 Topic)，则返回 false。
+     * @throws IndexingException 如果传输异常或可重试的条目失败在重试耗尽后仍然存在 (这些文档不发送到失败 Topic)。
+     */
+    private boolean bulkIndexDocuments(List<EsDocumentDto> documents, List<String> indexNames) throws IndexingException {
         if (documents == null || documents.isEmpty()) {
             logger.info("没有文档需要批量索引。");
             return true;
         }
 
-        String indexName = elasticsearchProperties.getIndexName();
+        String indexName = String.join(",", indexNames);
         logger.info("准备批量索引 {} 个文档到索引: {}", documents.size(), indexName);
 
-        BulkRequest.Builder br = new BulkRequest.Builder();
-
+        // 每个文档只序列化一次，重试时直接复用序列化后的字节
+        boolean allSucceeded = true;
+        List<BulkOp> operations = new ArrayList<>(documents.size() * indexNames.size());
         for (EsDocumentDto doc : documents) {
             if (doc == null || doc.getFileId() == null) {
                 logger.warn("批量索引中遇到一个文档或其FileId为空，已跳过。");
                 continue;
             }
-            br.operations(op -> op
-                    .index(idx -> idx
-                            .index(indexName)
-                            .id(doc.getFileId())
-                            .document(doc)
-                    )
-            );
+            try {
+                BinaryData source = bulkDocumentSerializer.serialize(doc);
+                for (String target : indexNames) {
+                    operations.add(new BulkOp("index", doc.esDocumentId(), doc.getSourcePath(), target, source));
+                }
+            } catch (IndexingException e) {
+                allSucceeded = false;
+                bulkFailureHandler.recordPermanentFailure("index", doc.esDocumentId(), doc.getSourcePath(), null,
+                        "serialization_error", e.getMessage(), 1, doc);
+            }
         }
-
-        if (br.build().operations().isEmpty()) {
+        if (operations.isEmpty()) {
             logger.info("经过滤后，没有有效文档需要批量索引。");
-            return true;
+            return allSucceeded;
         }
 
-        try {
-            BulkResponse result = elasticsearchClient.bulk(br.build());
-            boolean allSucceeded = true;
+        Set<String> failedIds = executeBulk(operations, indexName);
+        logger.info("批量索引操作: 成功 {} 个操作, 总共 {} 个有效文档 x {} 个索引。",
+                operations.stream().filter(op -> !failedIds.contains(op.documentId)).count(), documents.size(), indexNames.size());
+        return allSucceeded && failedIds.isEmpty();
+    }
 
-            if (result.errors()) {
-                logger.warn("批量索引操作中存在错误。");
-                allSucceeded = false;
-                for (BulkResponseItem item : result.items()) {
-                    if (item.error() != null) {
-                        logger.error("批量索引失败 - 文档ID [{}]: 操作类型 [{}], 原因: {}",
-                                item.id(), item.operationType(), item.error().reason());
-                    }
+    /**
+     * 执行一组 bulk 操作 (index 或 delete)。
+     * 可重试的条目失败 (429/503 等) 和传输异常只重发失败的操作，按带抖动的指数退避等待；
+     * 不可重试的失败交给 BulkFailureHandler 发送到失败 Topic。重试耗尽时抛出异常而不发送到失败 Topic，
+     * 由调用方重试或使作业失败，避免同一操作既被重新执行又留在失败 Topic 中 (之后重新投递可能覆盖较新的数据)。
+     *
+     * @param operations 要执行的操作
+     * @param indexName  目标索引 (用于日志)
+     * @return 因不可重试的错误失败 (已发送到失败 Topic) 的文档 ID
+     * @throws IndexingException 如果重试耗尽后仍有传输异常或可重试的条目失败
+     */
+    private Set<String> executeBulk(List<BulkOp> operations, String indexName) throws IndexingException {
+        Set<String> failedIds = new HashSet<>();
+        List<BulkOp> pending = operations;
+        int attempt = 1;
+        while (!pending.isEmpty()) {
+            BulkRequest.Builder br = new BulkRequest.Builder();
+            long payloadBytes = 0;
+            for (BulkOp pendingOp : pending) {
+                if (pendingOp.source != null) {
+                    payloadBytes += pendingOp.source.size();
+                    br.operations(op -> op.index(idx -> idx.index(pendingOp.index).id(pendingOp.documentId).document(pendingOp.source)));
+                } else {
+                    br.operations(op -> op.delete(d -> d.index(pendingOp.index).id(pendingOp.documentId)));
                 }
-            } else {
-                logger.info("批量索引 {} 个文档成功完成，没有报告错误。", documents.size());
             }
+            bulkDocumentSerializer.recordBulkPayload(payloadBytes);
 
-            // 即使 result.errors() 为 false，也建议检查每个 item 的状态
-            int successCount = 0;
-            for (BulkResponseItem item : result.items()) {
-                if (item.error() == null) {
-                    successCount++;
+            BulkResponse result;
+            adaptiveWriteRateService.acquire(); // ES 拥塞时等待在途名额 (背压)
+            long startNanos = System.nanoTime();
+            try {
+                result = elasticsearchClient.bulk(br.build()); // Builder 只能 build 一次
+            } catch (IOException | ElasticsearchException e) {
+                adaptiveWriteRateService.onBulkComplete(System.nanoTime() - startNanos, pending.size(), 0, true);
+                if (!bulkFailureHandler.canRetry(attempt)) {
+                    logger.error("对索引 {} 的 bulk 请求失败 (已尝试 {} 次，{} 个操作): {}", indexName, attempt, pending.size(), e.getMessage(), e);
+                    throw new IndexingException("bulk 请求在 " + attempt + " 次尝试后仍然失败", e);
+                }
+                logger.warn("bulk 请求失败 (第 {} 次)，{} 个操作将重试: {}", attempt, pending.size(), e.getMessage());
+                bulkFailureHandler.recordRetry(BulkFailureHandler.TRANSPORT_ERROR, pending.size());
+                sleepBeforeRetry(attempt++);
+                continue;
+            } catch (Exception e) {
+                adaptiveWriteRateService.onBulkComplete(System.nanoTime() - startNanos, pending.size(), 0, true);
+                logger.error("执行 bulk 请求时发生非IO异常: {}", e.getMessage(), e);
+                throw new IndexingException("执行 bulk 请求时发生ES客户端异常", e);
+            }
+
+            // 响应条目与请求中的操作按位置一一对应，只收集需要重试的操作
+            List<BulkOp> retry = new ArrayList<>();
+            int exhausted = 0;
+            List<BulkResponseItem> items = result.items();
+            adaptiveWriteRateService.onBulkComplete(System.nanoTime() - startNanos, items.size(),
+                    (int) items.stream().filter(item -> item.status() == 429).count(), false);
+            for (int i = 0; i < items.size() && i < pending.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                BulkOp op = pending.get(i);
+                if (item.error() == null) { // 删除不存在的文档返回 404 但没有 error，视为成功
                     logger.debug("批量操作成功 - 文档ID [{}], 操作类型 [{}], 状态 [{}]",
                             item.id(), item.operationType(), item.status());
+                    continue;
+                }
+                String type = item.error().type();
+                if (!bulkFailureHandler.isRetryable(item.status(), type)) {
+                    failedIds.add(op.documentId);
+                    bulkFailureHandler.recordPermanentFailure(op.operationType, op.documentId, op.sourcePath,
+                            item.status(), type, item.error().reason(), attempt, op.source);
+                } else if (bulkFailureHandler.canRetry(attempt)) {
+                    retry.add(op);
+                    bulkFailureHandler.recordRetry(type, 1);
+                } else {
+                    exhausted++;
+                    logger.error("批量操作重试耗尽 - 索引 [{}] 文档ID [{}]: {} - {}", item.index(), item.id(), type, item.error().reason());
                 }
             }
-            logger.info("批量索引操作: 成功 {} 个, 总共尝试 {} 个有效文档。", successCount, result.items().size());
+            if (exhausted > 0) {
+                throw new IndexingException("bulk 请求中 " + exhausted + " 个操作在 " + attempt + " 次尝试后仍被拒绝");
+            }
 
+            pending = retry;
+            if (!pending.isEmpty()) {
+                logger.warn("bulk 请求第 {} 次尝试中 {} 个操作被拒绝 (可重试)，等待后只重发这些操作。", attempt, pending.size());
+                sleepBeforeRetry(attempt++);
+            }
+        }
+        return failedIds;
+    }
 
-            return allSucceeded;
+    private void sleepBeforeRetry(int attempt) {
+        try {
+            Thread.sleep(bulkFailureHandler.backoffMillis(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexingException("等待批量索引重试时被中断", e);
+        }
+    }
+
+    /**
+     * 批量删除文档。文档不存在 (404) 也视为删除成功。
+     * 蓝绿重建进行中时同时从新索引删除，避免新索引在切换后保留已删除的文件。
+     * 分块文档模式下同时删除这些文档的全部分块 (按父文档的 chunk_count)。
+     *
+     * 与批量索引相同，可重试的失败按退避时间重试，不可重试的失败发送到失败 Topic (见 executeBulk)。
+     *
+     * @param documentIds 要删除的文档 ID 列表。
+     * @return 删除成功 (含不存在) 的文档数，重建进行中时要求在所有索引中都删除成功。
+     * @throws IndexingException 如果重试耗尽后仍有传输异常或可重试的条目失败。
+     */
+    public int bulkDeleteDocuments(List<String> documentIds) throws IndexingException {
+        List<String> indexNames = blueGreenReindexService.getLiveWriteIndices();
+        return bulkDeleteDocuments(documentIds, indexNames, chunkingEnabled);
+    }
+
+    /**
+     * 从历史索引作业的目标索引批量删除文档 (例如文件变小后多余的分块)，不展开分块。
+     *
+     * @param documentIds 要删除的文档 ID 列表。
+     * @return 删除成功 (含不存在) 的文档数。
+     * @throws IndexingException 如果重试耗尽后仍有传输异常或可重试的条目失败。
+     */
+    public int bulkDeleteHistoricalDocuments(List<String> documentIds) throws IndexingException {
+        return bulkDeleteDocuments(documentIds, List.of(blueGreenReindexService.getHistoricalTargetIndex()), false);
+    }
+
+    private int bulkDeleteDocuments(List<String> documentIds, List<String> indexNames, boolean includeChunks)
+            throws IndexingException {
+        if (documentIds == null || documentIds.isEmpty()) {
+            return 0;
+        }
+
+        String indexName = String.join(",", indexNames);
+        logger.info("准备从索引: {} 批量删除 {} 个文档", indexName, documentIds.size());
+
+        List<String> operationIds = new ArrayList<>(documentIds);
+        if (includeChunks) {
+            fetchChunkCounts(documentIds, indexNames).forEach((documentId, chunkCount) -> {
+                for (int ordinal = 0; ordinal < chunkCount; ordinal++) {
+                    operationIds.add(EsDocumentDto.chunkDocumentId(documentId, ordinal));
+                }
+            });
+        }
+
+        List<BulkOp> operations = new ArrayList<>(operationIds.size() * indexNames.size());
+        for (String documentId : operationIds) {
+            for (String target : indexNames) {
+                operations.add(new BulkOp("delete", documentId, null, target, null));
+            }
+        }
+
+        Set<String> failedIds = executeBulk(operations, indexName);
+        int deleted = (int) documentIds.stream().filter(documentId -> !failedIds.contains(documentId)).count();
+        logger.info("批量删除操作: 成功 {} 个, 总共尝试 {} 个文档 ({} 个删除操作)。", deleted, documentIds.size(), operationIds.size());
+        return deleted;
+    }
+
+    /**
+     * 使用 point-in-time + search_after 遍历索引中的全部文档 (不包括分块文档)，只取回 source_path 字段。
+     * 按 _shard_doc 排序 (PIT 下最廉价的稳定排序)，不统计总命中数，内存占用只与每页大小有关。
+     *
+     * @param pageSize  每页文档数
+     * @param keepAlive PIT 的保持时间，例如 "5m"，需要大于处理一页所需的时间
+     * @param consumer  对每个文档调用 (文档 ID, source_path)，source_path 可能为 null
+     * @return 遍历的文档总数
+     * @throws IndexingException 如果查询因IO或其他ES异常失败。
+     */
+    public long scanSourcePaths(int pageSize, String keepAlive, BiConsumer<String, String> consumer) throws IndexingException {
+        return scanSourcePaths(null, pageSize, keepAlive, consumer);
+    }
 
+    /**
+     * 同 scanSourcePaths，但只遍历 source_path 以指定前缀开头的文档 (例如某个目录下的全部文件)。
+     *
+     * @param sourcePathPrefix source_path 前缀，null 表示遍历全部文档
+     * @param pageSize         每页文档数
+     * @param keepAlive        PIT 的保持时间
+     * @param consumer         对每个文档调用 (文档 ID, source_path)
+     * @return 遍历的文档总数
+     * @throws IndexingException 如果查询因IO或其他ES异常失败。
+     */
+    public long scanSourcePaths(String sourcePathPrefix, int pageSize, String keepAlive, BiConsumer<String, String> consumer)
+            throws IndexingException {
+        String indexName = elasticsearchProperties.getIndexName();
+        String pitId = null;
+        long scanned = 0;
+        try {
+            pitId = elasticsearchClient.openPointInTime(o -> o.index(indexName).keepAlive(t -> t.time(keepAlive))).id();
+            logger.info("已在索引 {} 上打开 point-in-time，开始遍历文档 (每页 {} 个)。", indexName, pageSize);
+            List<FieldValue> searchAfter = null;
+            while (true) {
+                final String currentPitId = pitId;
+                final List<FieldValue> currentSearchAfter = searchAfter;
+                SearchResponse<EsDocumentDto> response = elasticsearchClient.search(s -> {
+                    s.size(pageSize)
+                            .pit(p -> p.id(currentPitId).keepAlive(t -> t.time(keepAlive)))
+                            .sort(so -> so.field(f -> f.field("_shard_doc")))
+                            .source(src -> src.filter(f -> f.includes("source_path")))
+                            .query(q -> q.bool(b -> {
+                                b.mustNot(mn -> mn.exists(e -> e.field("chunk_ordinal"))); // 分块随父文档删除
+                                if (sourcePathPrefix != null) {
+                                    b.filter(f -> f.prefix(pf -> pf.field("source_path").value(sourcePathPrefix)));
+                                }
+                                return b;
+                            }))
+                            .trackTotalHits(t -> t.enabled(false));
+                    if (currentSearchAfter != null) {
+                        s.searchAfter(currentSearchAfter);
+                    }
+                    return s;
+                }, EsDocumentDto.class);
+                if (response.pitId() != null) {
+                    pitId = response.pitId(); // PIT ID 可能在每次搜索后变化
+                }
+                List<Hit<EsDocumentDto>> hits = response.hits().hits();
+                if (hits.isEmpty()) {
+                    break;
+                }
+                for (Hit<EsDocumentDto> hit : hits) {
+                    consumer.accept(hit.id(), hit.source() != null ? hit.source().getSourcePath() : null);
+                }
+                scanned += hits.size();
+                searchAfter = hits.get(hits.size() - 1).sort();
+                if (hits.size() < pageSize) {
+                    break;
+                }
+            }
+            return scanned;
+        } catch (IOException e) {
+            logger.error("遍历索引 {} 失败 (已遍历 {} 个文档): {}", indexName, scanned, e.getMessage(), e);
+            throw new IndexingException("遍历索引文档失败", e);
+        } catch (IndexingException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("遍历索引时发生非IO异常 (已遍历 {} 个文档): {}", scanned, e.getMessage(), e);
+            throw new IndexingException("遍历索引文档时发生ES客户端异常", e);
+        } finally {
+            if (pitId != null) {
+                final String closingPitId = pitId;
+                try {
+                    elasticsearchClient.closePointInTime(c -> c.id(closingPitId));
+                } catch (Exception e) {
+                    logger.warn("关闭 point-in-time 失败 (将在保持时间到期后自动释放): {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 通过一次 _mget 请求批量获取已索引文档的版本字段 (last_modified / file_size_bytes)。
+     * 从历史索引作业的目标索引读取 (蓝绿重建时为新索引)。
+     * 返回的 EsDocumentDto 只填充了这两个字段，用于在解析前判断文件是否已变化。
+     *
+     * @param documentIds 要查询的文档 ID 列表。
+     * @return 文档 ID 到已存储版本字段的映射；索引中不存在的文档不会出现在结果中。
+     * @throws IndexingException 如果 multi-get 请求因IO或其他ES异常失败。
+     */
+    public Map<String, EsDocumentDto> fetchIndexedVersionFields(List<String> documentIds) throws IndexingException {
+        return fetchSourceFields(blueGreenReindexService.getHistoricalTargetIndex(), documentIds, VERSION_SOURCE_FIELDS);
+    }
+
+    /**
+     * 通过一次 _mget 请求从当前索引 (index-name) 批量获取已索引文档的内容指纹
+     * (last_modified / file_size_bytes / content_sha256) 以及 filename / source_path。
+     *
+     * @param documentIds 要查询的文档 ID 列表。
+     * @return 文档 ID 到已存储字段的映射；索引中不存在的文档不会出现在结果中。
+     * @throws IndexingException 如果 multi-get 请求因IO或其他ES异常失败。
+     */
+    public Map<String, EsDocumentDto> fetchIndexedFingerprints(List<String> documentIds) throws IndexingException {
+        return fetchSourceFields(elasticsearchProperties.getIndexName(), documentIds, FINGERPRINT_SOURCE_FIELDS);
+    }
+
+    /**
+     * 通过一次 _mget 请求获取分块文档模式下父文档的分块数 (chunk_count)，多个索引中取最大值。
+     *
+     * @param documentIds 父文档 ID 列表。
+     * @param indexNames  要查询的索引。
+     * @return 文档 ID 到分块数的映射；不存在或不是分块父文档的文档不会出现在结果中。
+     * @throws IndexingException 如果 multi-get 请求因IO或其他ES异常失败。
+     */
+    public Map<String, Integer> fetchChunkCounts(List<String> documentIds, List<String> indexNames) throws IndexingException {
+        if (documentIds == null || documentIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            MgetResponse<EsDocumentDto> response = elasticsearchClient.mget(m -> {
+                for (String target : indexNames) {
+                    for (String documentId : documentIds) {
+                        m.docs(d -> d.index(target).id(documentId).source(src -> src.filter(f -> f.includes("chunk_count"))));
+                    }
+                }
+                return m;
+            }, EsDocumentDto.class);
+
+            Map<String, Integer> chunkCounts = new HashMap<>();
+            for (MultiGetResponseItem<EsDocumentDto> item : response.docs()) {
+                if (item.isResult() && item.result().found() && item.result().source() != null
+                        && item.result().source().getChunkCount() != null) {
+                    chunkCounts.merge(item.result().id(), item.result().source().getChunkCount(), Math::max);
+                } else if (item.isFailure()) {
+                    logger.warn("_mget 查询文档 ID [{}] 的分块数失败: {}", item.failure().id(), item.failure().error().reason());
+                }
+            }
+            return chunkCounts;
         } catch (IOException e) {
-            logger.error("批量索引文档到索引 {} 失败: {}", indexName, e.getMessage(), e);
-            throw new IndexingException("批量索引文档失败", e);
+            logger.error("从索引 {} 查询分块数失败: {}", indexNames, e.getMessage(), e);
+            throw new IndexingException("查询文档分块数失败", e);
         } catch (Exception e) {
-            logger.error("批量索引文档时发生非IO异常: {}", e.getMessage(), e);
-            throw new IndexingException("批量索引文档时发生ES客户端异常", e);
+            logger.error("查询文档分块数时发生非IO异常: {}", e.getMessage(), e);
+            throw new IndexingException("查询文档分块数时发生ES客户端异常", e);
+        }
+    }
+
+    /**
+     * 通过一次 _mget 请求获取文档当前的 last_modified，多个索引中取最大值。
+     *
+     * @param documentIds 文档 ID 列表。
+     * @param indexNames  要查询的索引。
+     * @return 文档 ID 到 last_modified (epoch_second) 的映射；不存在或没有 last_modified 的文档不会出现在结果中。
+     * @throws IndexingException 如果 multi-get 请求因IO或其他ES异常失败。
+     */
+    public Map<String, Long> fetchLastModified(List<String> documentIds, List<String> indexNames) throws IndexingException {
+        if (documentIds == null || documentIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            MgetResponse<EsDocumentDto> response = elasticsearchClient.mget(m -> {
+                for (String target : indexNames) {
+                    for (String documentId : documentIds) {
+                        m.docs(d -> d.index(target).id(documentId).source(src -> src.filter(f -> f.includes("last_modified"))));
+                    }
+                }
+                return m;
+            }, EsDocumentDto.class);
+
+            Map<String, Long> lastModified = new HashMap<>();
+            for (MultiGetResponseItem<EsDocumentDto> item : response.docs()) {
+                if (item.isResult() && item.result().found() && item.result().source() != null
+                        && item.result().source().getLastModified() != null) {
+                    lastModified.merge(item.result().id(), item.result().source().getLastModified(), Math::max);
+                } else if (item.isFailure()) {
+                    logger.warn("_mget 查询文档 ID [{}] 的 last_modified 失败: {}", item.failure().id(), item.failure().error().reason());
+                }
+            }
+            return lastModified;
+        } catch (IOException e) {
+            logger.error("从索引 {} 查询 last_modified 失败: {}", indexNames, e.getMessage(), e);
+            throw new IndexingException("查询文档 last_modified 失败", e);
+        } catch (Exception e) {
+            logger.error("查询文档 last_modified 时发生非IO异常: {}", e.getMessage(), e);
+            throw new IndexingException("查询文档 last_modified 时发生ES客户端异常", e);
+        }
+    }
+
+    private Map<String, EsDocumentDto> fetchSourceFields(String indexName, List<String> documentIds,
+                                                         List<String> sourceFields) throws IndexingException {
+        if (documentIds == null || documentIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        logger.debug("准备通过 _mget 从索引: {} 查询 {} 个文档的字段 {}", indexName, documentIds.size(), sourceFields);
+
+        try {
+            MgetResponse<EsDocumentDto> response = elasticsearchClient.mget(m -> m
+                            .index(indexName)
+                            .ids(documentIds)
+                            .sourceIncludes(sourceFields),
+                    EsDocumentDto.class);
+
+            Map<String, EsDocumentDto> storedVersions = new HashMap<>();
+            for (MultiGetResponseItem<EsDocumentDto> item : response.docs()) {
+                if (item.isResult()) {
+                    if (item.result().found() && item.result().source() != null) {
+                        storedVersions.put(item.result().id(), item.result().source());
+                    }
+                } else if (item.isFailure()) {
+                    logger.warn("_mget 查询文档 ID [{}] 失败: {}", item.failure().id(), item.failure().error().reason());
+                }
+            }
+            logger.debug("_mget 完成: 请求 {} 个文档, 命中 {} 个已索引文档。", documentIds.size(), storedVersions.size());
+            return storedVersions;
+
+        } catch (IOException e) {
+            logger.error("从索引 {} 批量查询文档字段失败: {}", indexName, e.getMessage(), e);
+            throw new IndexingException("批量查询文档字段失败", e);
+        } catch (Exception e) {
+            logger.error("批量查询文档字段时发生非IO异常: {}", e.getMessage(), e);
+            throw new IndexingException("批量查询文档字段时发生ES客户端异常", e);
+        }
+    }
+
+    /**
+     * executeBulk 中的一个操作: source 为 null 时是删除操作。
+     */
+    private static final class BulkOp {
+        private final String operationType;
+        private final String documentId;
+        private final String sourcePath;
+        private final String index;
+        private final BinaryData source;
+
+        BulkOp(String operationType, String documentId, String sourcePath, String index, BinaryData source) {
+            this.operationType = operationType;
+            this.documentId = documentId;
+            this.sourcePath = sourcePath;
+            this.index = index;
+            this.source = source;
         }
     }
 }
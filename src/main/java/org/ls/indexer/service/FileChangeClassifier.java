@@ -0,0 +1,127 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/FileChangeClassifier.java
+ * 文件名称: FileChangeClassifier.java
+ * 开发时间: 2025-06-25 21:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 对 Kafka 新增/更新事件进行变更分类: 把事件中的文件大小、最后修改时间 (以及可选的 SHA-256) 与 ES 文档中
+ *          存储的内容指纹比较，判断是新文件、内容变化还是只有元数据变化 (重命名/移动)。
+ *
+ * 功能说明：
+ * 1. 内容指纹: file_size_bytes + last_modified + content_sha256，由完整解析时写入文档 (FileParserService 计算 SHA-256)。
+ * 2. 分类规则:
+ *    - ES 中没有该文档 (或缺少大小/修改时间): NEW，需要完整解析。
+ *    - 大小或最后修改时间不一致: CONTENT_CHANGED，需要完整解析。
+ *    - 事件和文档都有 SHA-256 且不一致: CONTENT_CHANGED。
+ *    - require-hash=true (默认) 时任一方缺少 SHA-256: CONTENT_CHANGED (只信任哈希一致)。
+ *    - 其他情况: METADATA_ONLY，只需部分更新 filename / source_path / event_timestamp，不打开文件。
+ *    注意: 生产者必须在事件中提供 targetFileSha256 才能跳过重新解析。require-hash=false 时只比较大小和最后修改时间，
+ *    同样大小且保留了修改时间的内容替换 (例如 cp -p、rsync -t) 会被误判为只有元数据变化，索引保留旧内容。
+ * 3. 查询 ES 失败时按 CONTENT_CHANGED 处理 (完整解析总是正确的)。
+ * 分类结果计数通过 getStats 提供给监控接口。
+ */
+package org.ls.indexer.service;
+
+import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.dto.FileUpsertEventDto;
+import org.ls.indexer.exception.IndexingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+@Service
+public class FileChangeClassifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileChangeClassifier.class);
+
+    /**
+     * 变更分类结果。
+     */
+    public enum ChangeType {
+        NEW,
+        CONTENT_CHANGED,
+        METADATA_ONLY
+    }
+
+    @Value("${dms.indexer.change-classification.enabled:true}")
+    private boolean enabled;
+
+    // 为 true 时只有 SHA-256 一致才判断为只有元数据变化 (生产者需要提供 targetFileSha256)
+    @Value("${dms.indexer.change-classification.require-hash:true}")
+    private boolean requireHash;
+
+    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+
+    private final Map<ChangeType, LongAdder> counters = new EnumMap<>(ChangeType.class);
+    private final LongAdder lookupFailures = new LongAdder();
+
+    @Autowired
+    public FileChangeClassifier(ElasticsearchPersistenceService elasticsearchPersistenceService) {
+        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+        for (ChangeType type : ChangeType.values()) {
+            counters.put(type, new LongAdder());
+        }
+    }
+
+    /**
+     * 对新增/更新事件进行变更分类。未启用时总是返回 CONTENT_CHANGED。
+     *
+     * @param event 新增/更新事件
+     * @return 变更分类
+     */
+    public ChangeType classify(FileUpsertEventDto event) {
+        if (!enabled) {
+            return ChangeType.CONTENT_CHANGED;
+        }
+        ChangeType type;
+        try {
+            EsDocumentDto stored = elasticsearchPersistenceService
+                    .fetchIndexedFingerprints(List.of(event.getElasticsearchDocumentId()))
+                    .get(event.getElasticsearchDocumentId());
+            type = compare(event, stored);
+        } catch (IndexingException e) {
+            lookupFailures.increment();
+            logger.warn("查询文档 {} 的内容指纹失败，将完整解析: {}", event.getElasticsearchDocumentId(), e.getMessage());
+            type = ChangeType.CONTENT_CHANGED;
+        }
+        counters.get(type).increment();
+        return type;
+    }
+
+    private ChangeType compare(FileUpsertEventDto event, EsDocumentDto stored) {
+        if (stored == null || stored.getFileSizeBytes() == null || stored.getLastModified() == null) {
+            return ChangeType.NEW;
+        }
+        if (stored.getFileSizeBytes() != event.getTargetFileSizeBytes()
+                || stored.getLastModified() != event.getTargetFileLastModifiedEpochSeconds()) {
+            return ChangeType.CONTENT_CHANGED;
+        }
+        String eventHash = event.getTargetFileSha256();
+        String storedHash = stored.getContentSha256();
+        if (eventHash != null && storedHash != null) {
+            return eventHash.equalsIgnoreCase(storedHash) ? ChangeType.METADATA_ONLY : ChangeType.CONTENT_CHANGED;
+        }
+        return requireHash ? ChangeType.CONTENT_CHANGED : ChangeType.METADATA_ONLY;
+    }
+
+    /**
+     * 获取分类统计，供监控接口显示。
+     *
+     * @return 统计信息 (各分类的事件数和查询失败次数)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("requireHash", requireHash);
+        counters.forEach((type, counter) -> stats.put(type.name(), counter.sum()));
+        stats.put("lookupFailures", lookupFailures.sum());
+        return stats;
+    }
+}
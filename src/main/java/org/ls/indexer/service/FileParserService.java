@@ -23,27 +23,45 @@ import org.ls.indexer.dto.FileParseResult;
 import org.ls.indexer.exception.IndexingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 import jakarta.annotation.PostConstruct;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
 
 @Service
 public class FileParserService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileParserService.class);
 
+    private final FilePrefetchService filePrefetchService;
+
     private Parser tikaParser;
     private Detector tikaDetector;
 
     @Value("${dms.indexer.tika.write-limit:-1}")
     private int tikaWriteLimit;
 
+    @Autowired
+    public FileParserService(FilePrefetchService filePrefetchService) {
+        this.filePrefetchService = filePrefetchService;
+    }
+
     @PostConstruct
     public void init() {
         logger.info("初始化 FileParserService...");
@@ -54,36 +72,92 @@ public class FileParserService {
                 tikaWriteLimit == -1 ? "无限制" : tikaWriteLimit + "字符");
     }
 
+    /**
+     * 解析文件的文本内容、标题和作者，同时计算文件内容的 SHA-256 (读取文件时顺便计算，不额外读取文件)。
+     *
+     * @param filePath 要解析的文件
+     * @return 解析结果
+     * @throws IndexingException 如果文件不可读或解析失败
+     */
     public FileParseResult parseFile(Path filePath) throws IndexingException {
         logger.debug("准备解析文件: {}", filePath);
+        Metadata metadata = new Metadata();
+        BodyContentHandler contentHandler = new BodyContentHandler(tikaWriteLimit);
+        String contentSha256 = parse(filePath, contentHandler, metadata);
+
+        String content = contentHandler.toString().trim();
+        String title = extractTitle(metadata);
+        String author = extractAuthor(metadata);
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("文件 {} 解析完成。标题: '{}', 作者: '{}', 内容长度: {} 字符",
+                    filePath, title, author, content.length());
+        }
+        // 使用静态工厂方法或直接构造
+        if (content.isEmpty() && title == null && author == null) {
+            // 确保 FileParseResult.java 中有 public static FileParseResult emptyResult() 方法
+            FileParseResult empty = FileParseResult.emptyResult();
+            empty.setContentSha256(contentSha256);
+            return empty;
+        }
+        return new FileParseResult(content, title, author, contentSha256, null);
+    }
+
+    /**
+     * 流式解析文件: 提取的文本在段落边界处切分为约 chunkChars 个字符的分块，每产生一个分块就交给 chunkConsumer，
+     * 完整文本不会同时存在于内存中。不受 tika.write-limit 限制，超过 maxChunks 个分块后停止提取 (其余文本丢弃)。
+     *
+     * @param filePath      要解析的文件
+     * @param chunkChars    每个分块的目标字符数 (段落过长时在 2 倍处强制切分)
+     * @param maxChunks     最多分块数
+     * @param chunkConsumer 接收 (分块文本, 分块序号)，在解析线程中调用
+     * @return 解析结果 (content 为 null，chunkCount 为分块数)
+     * @throws IndexingException 如果文件不可读、解析失败或 chunkConsumer 抛出异常
+     */
+    public FileParseResult parseFileInChunks(Path filePath, int chunkChars, int maxChunks,
+                                             ObjIntConsumer<String> chunkConsumer) throws IndexingException {
+        logger.debug("准备分块解析文件: {} (每块约 {} 字符)", filePath, chunkChars);
+        Metadata metadata = new Metadata();
+        ChunkingContentHandler chunkingHandler = new ChunkingContentHandler(chunkChars, maxChunks, chunkConsumer);
+        String contentSha256 = parse(filePath, new BodyContentHandler(chunkingHandler), metadata);
+        chunkingHandler.finish();
+        if (chunkingHandler.limitReached) {
+            logger.warn("文件 {} 的分块数达到上限 {}，其余文本未索引。", filePath, maxChunks);
+        }
+        return new FileParseResult(null, extractTitle(metadata), extractAuthor(metadata), contentSha256,
+                chunkingHandler.ordinal);
+    }
+
+    /**
+     * 用 Tika 解析文件，文本交给 contentHandler，元数据写入 metadata。
+     *
+     * @return 文件内容的 SHA-256 (小写十六进制)
+     */
+    private String parse(Path filePath, ContentHandler contentHandler, Metadata metadata) throws IndexingException {
         if (filePath == null || !Files.exists(filePath) || !Files.isReadable(filePath)) {
             logger.warn("文件不存在或不可读: {}", filePath);
             throw new IndexingException("文件不存在或不可读: " + filePath);
         }
 
-        Metadata metadata = new Metadata();
-        BodyContentHandler contentHandler = new BodyContentHandler(tikaWriteLimit);
         ParseContext context = new ParseContext();
         context.set(Parser.class, tikaParser);
 
-        try (InputStream stream = Files.newInputStream(filePath)) {
+        // 如果文件已被预读，则直接从内存缓冲区读取。
+        // Tika 检测类型时会 mark/reset 输入流: 在摘要之上加一层 BufferedInputStream，reset 只回退缓冲区，
+        // 摘要流中的每个字节只读取 (计算) 一次。否则预读命中时 ByteArrayInputStream 支持 mark，经 DigestInputStream
+        // 透传后 Tika 不再包装，reset 后开头的字节被重复计入摘要
+        try (DigestInputStream digestStream = new DigestInputStream(filePrefetchService.openStream(filePath), sha256());
+             InputStream stream = new BufferedInputStream(digestStream)) {
             metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, filePath.getFileName().toString());
-            tikaParser.parse(stream, contentHandler, metadata, context);
-
-            String content = contentHandler.toString().trim();
-            String title = extractTitle(metadata);
-            String author = extractAuthor(metadata);
-
-            if (logger.isTraceEnabled()) {
-                logger.trace("文件 {} 解析完成。标题: '{}', 作者: '{}', 内容长度: {} 字符",
-                        filePath, title, author, content.length());
-            }
-            // 使用静态工厂方法或直接构造
-            if (content.isEmpty() && title == null && author == null) {
-                // 确保 FileParseResult.java 中有 public static FileParseResult emptyResult() 方法
-                return FileParseResult.emptyResult();
+            try {
+                tikaParser.parse(stream, contentHandler, metadata, context);
+            } catch (SAXException | TikaException e) {
+                if (!isChunkLimitReached(e)) {
+                    throw e;
+                }
             }
-            return new FileParseResult(content, title, author);
+            stream.transferTo(OutputStream.nullOutputStream()); // 解析器可能没有读到末尾，读完剩余字节以得到完整的摘要
+            return HexFormat.of().formatHex(digestStream.getMessageDigest().digest());
 
         } catch (IOException e) {
             logger.error("读取文件 {} 失败: {}", filePath, e.getMessage(), e);
@@ -97,6 +171,24 @@ public class FileParserService {
         }
     }
 
+    // 部分解析器会把 ContentHandler 抛出的异常包装为 TikaException
+    private static boolean isChunkLimitReached(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ChunkLimitReachedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JVM 不支持 SHA-256", e); // 所有 Java 平台都必须支持 SHA-256
+        }
+    }
+
     private String extractTitle(Metadata metadata) {
         String title = metadata.get(TikaCoreProperties.TITLE);
         if (title == null || title.isEmpty()) {
@@ -125,4 +217,99 @@ public class FileParserService {
         // 移除了对 OfficeOpenXMLExtendedProperties.APPLICATION_VERSION 的引用
         return author != null ? author.trim() : null;
     }
+
+    /**
+     * 在段落边界切分文本的 ContentHandler。块级元素结束时如果缓冲区达到 chunkChars 就输出一个分块；
+     * 单个段落超过 2 倍 chunkChars 时在其中的换行或空白处 (没有时在 2 倍处) 强制切分。
+     */
+    private static final class ChunkingContentHandler extends DefaultHandler {
+        private static final Set<String> BLOCK_ELEMENTS = Set.of("p", "div", "li", "tr", "table", "pre", "blockquote",
+                "h1", "h2", "h3", "h4", "h5", "h6");
+
+        private final int chunkChars;
+        private final int hardLimit;
+        private final int maxChunks;
+        private final ObjIntConsumer<String> chunkConsumer;
+        private final StringBuilder buffer;
+        private int ordinal;
+        private boolean limitReached;
+
+        ChunkingContentHandler(int chunkChars, int maxChunks, ObjIntConsumer<String> chunkConsumer) {
+            this.chunkChars = Math.max(1, chunkChars);
+            this.hardLimit = this.chunkChars * 2;
+            this.maxChunks = maxChunks;
+            this.chunkConsumer = chunkConsumer;
+            this.buffer = new StringBuilder(this.hardLimit + 1024);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            buffer.append(ch, start, length);
+            while (buffer.length() >= hardLimit) {
+                emit(splitPoint());
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (buffer.length() >= chunkChars && BLOCK_ELEMENTS.contains(localName)) {
+                emit(buffer.length());
+            }
+        }
+
+        void finish() {
+            if (!limitReached && buffer.length() > 0) {
+                try {
+                    emit(buffer.length());
+                } catch (SAXException e) {
+                    // 最后一个分块超过上限，已记录 limitReached
+                }
+            }
+        }
+
+        /**
+         * 在 [chunkChars / 2, hardLimit) 内找最后一个换行，其次最后一个空白，都没有时在 hardLimit 处切分 (不拆开代理对)。
+         */
+        private int splitPoint() {
+            int min = chunkChars / 2;
+            int newline = buffer.lastIndexOf("\n", hardLimit - 1);
+            if (newline >= min) {
+                return newline + 1;
+            }
+            for (int i = hardLimit - 1; i >= min; i--) {
+                if (Character.isWhitespace(buffer.charAt(i))) {
+                    return i + 1;
+                }
+            }
+            return Character.isHighSurrogate(buffer.charAt(hardLimit - 1)) ? hardLimit - 1 : hardLimit;
+        }
+
+        private void emit(int end) throws SAXException {
+            String text = buffer.substring(0, end).trim();
+            buffer.delete(0, end);
+            if (text.isEmpty()) {
+                return;
+            }
+            if (ordinal >= maxChunks) {
+                limitReached = true;
+                buffer.setLength(0);
+                throw new ChunkLimitReachedException();
+            }
+            chunkConsumer.accept(text, ordinal++);
+        }
+    }
+
+    /**
+     * 分块数达到上限时中止解析 (文件的其余部分仍会被读完以计算 SHA-256)。
+     */
+    private static final class ChunkLimitReachedException extends SAXException {
+        ChunkLimitReachedException() {
+            super("分块数达到上限");
+        }
+    }
 }
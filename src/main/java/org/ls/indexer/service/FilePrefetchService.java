@@ -0,0 +1,296 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/FilePrefetchService.java
+ * 文件名称: FilePrefetchService.java
+ * 开发时间: 2025-06-22 14:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 文件预读服务。根据已知的即将处理的文件路径，在当前文件解析期间提前将后续文件读入内存缓冲区，
+ *          使 Tika 的小块读取不再直接等待网络存储 (如 SMB 挂载) 的 IO。
+ *
+ * 功能说明：
+ * prefetch(paths): 将文件提交到 IO 线程池，以大块顺序读取的方式读入内存。所有缓冲区的总大小受 max-buffer-bytes 限制，
+ *                  超出预算的文件不会被预读；超过 max-file-bytes 的大文件只做顺序读取预热 (利用操作系统页缓存)，不保留在内存中。
+ * openStream(path): 供 FileParserService 使用。如果文件已被预读则直接返回内存中的数据 (命中)，
+ *                   否则回退为普通的文件输入流 (未命中)。内存缓冲区在输入流关闭时归还预算。
+ * 长时间未被消费的预读数据 (例如文件在解析前被过滤) 会在 entry-ttl-seconds 后被清理。
+ * 命中率等指标通过 Micrometer 暴露 (dms.indexer.prefetch.requests{result=...}, dms.indexer.prefetch.buffered.bytes)。
+ */
+package org.ls.indexer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class FilePrefetchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilePrefetchService.class);
+
+    @Value("${dms.indexer.prefetch.enabled:false}")
+    private boolean enabled;
+
+    // 所有预读缓冲区的总字节预算
+    @Value("${dms.indexer.prefetch.max-buffer-bytes:268435456}")
+    private long maxBufferBytes;
+
+    // 单个文件允许缓存到内存的最大字节数，超过则只做顺序读取预热
+    @Value("${dms.indexer.prefetch.max-file-bytes:33554432}")
+    private long maxFileBytes;
+
+    // 顺序读取时每次读取的块大小
+    @Value("${dms.indexer.prefetch.read-block-size:1048576}")
+    private int readBlockSize;
+
+    @Value("${dms.indexer.prefetch.threads:2}")
+    private int ioThreads;
+
+    @Value("${dms.indexer.prefetch.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${dms.indexer.prefetch.entry-ttl-seconds:300}")
+    private long entryTtlSeconds;
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Path, PrefetchEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    private ThreadPoolExecutor ioExecutor;
+    private Counter hitCounter;
+    private Counter inflightHitCounter;
+    private Counter readAheadCounter;
+    private Counter missCounter;
+    private Counter budgetRejectedCounter;
+
+    @Autowired
+    public FilePrefetchService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.ioExecutor = new ThreadPoolExecutor(ioThreads, ioThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+            Thread t = new Thread(r, "file-prefetch-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.hitCounter = requestCounter("hit");
+        this.inflightHitCounter = requestCounter("inflight");
+        this.readAheadCounter = requestCounter("readahead");
+        this.missCounter = requestCounter("miss");
+        this.budgetRejectedCounter = Counter.builder("dms.indexer.prefetch.budget.rejected")
+                .description("因超出内存预算而未被预读的文件数")
+                .register(meterRegistry);
+        Gauge.builder("dms.indexer.prefetch.buffered.bytes", bufferedBytes, AtomicLong::get)
+                .description("当前预读缓冲区占用的字节数")
+                .register(meterRegistry);
+        logger.info("文件预读服务初始化完成。启用: {}, 内存预算: {} 字节, 单文件上限: {} 字节, IO线程数: {}",
+                enabled, maxBufferBytes, maxFileBytes, ioThreads);
+    }
+
+    private Counter requestCounter(String result) {
+        return Counter.builder("dms.indexer.prefetch.requests")
+                .description("解析时打开文件的次数，按预读结果分类")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ioExecutor != null) {
+            ioExecutor.shutdownNow();
+        }
+        entries.clear();
+        bufferedBytes.set(0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 提交即将处理的文件进行预读。已在预读中的文件会被忽略。
+     *
+     * @param paths 即将被解析的文件路径 (按处理顺序)
+     */
+    public void prefetch(Collection<Path> paths) {
+        if (!enabled || paths == null || paths.isEmpty()) {
+            return;
+        }
+        evictExpiredEntries();
+        for (Path path : paths) {
+            Path key = normalize(path);
+            PrefetchEntry entry = new PrefetchEntry();
+            if (entries.putIfAbsent(key, entry) != null) {
+                continue;
+            }
+            try {
+                ioExecutor.execute(() -> load(key, entry));
+            } catch (RejectedExecutionException e) {
+                // 预读队列已满，放弃剩余文件，不影响正常解析
+                entries.remove(key, entry);
+                entry.claimed.set(true);
+                entry.data.complete(null);
+                logger.trace("预读队列已满，跳过文件: {}", key);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 打开文件的输入流。如果文件已被预读，则返回内存中的数据，否则返回普通文件输入流。
+     *
+     * @param path 要打开的文件
+     * @return 文件内容的输入流，调用方负责关闭
+     * @throws IOException 如果打开文件失败
+     */
+    public InputStream openStream(Path path) throws IOException {
+        if (!enabled) {
+            return Files.newInputStream(path);
+        }
+        Path key = normalize(path);
+        PrefetchEntry entry = entries.remove(key);
+        if (entry == null || entry.claimed.compareAndSet(false, true)) {
+            // 未预读，或预读任务尚未开始 (已被本次调用取消)
+            if (entry != null) {
+                entry.data.complete(null);
+            }
+            missCounter.increment();
+            return Files.newInputStream(path);
+        }
+
+        boolean alreadyLoaded = entry.data.isDone();
+        byte[] data = entry.data.join();
+        if (data == null) {
+            // 大文件只做了顺序读取预热，或预读失败
+            readAheadCounter.increment();
+            return Files.newInputStream(path);
+        }
+        (alreadyLoaded ? hitCounter : inflightHitCounter).increment();
+        return new ByteArrayInputStream(data) {
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            @Override
+            public void close() throws IOException {
+                if (released.compareAndSet(false, true)) {
+                    bufferedBytes.addAndGet(-entry.reservedBytes);
+                }
+                super.close();
+            }
+        };
+    }
+
+    private void load(Path key, PrefetchEntry entry) {
+        if (!entry.claimed.compareAndSet(false, true)) {
+            return; // 已被 openStream 取消
+        }
+        try {
+            long size = Files.size(key);
+            if (size > maxFileBytes) {
+                readAhead(key);
+                entry.data.complete(null);
+                return;
+            }
+            if (!reserve(size)) {
+                budgetRejectedCounter.increment();
+                entries.remove(key, entry);
+                entry.data.complete(null);
+                return;
+            }
+            entry.reservedBytes = size;
+            byte[] data = Files.readAllBytes(key);
+            if (data.length != size) {
+                // 文件大小在预读期间发生变化，按实际大小修正预算
+                bufferedBytes.addAndGet(data.length - size);
+                entry.reservedBytes = data.length;
+            }
+            entry.data.complete(data);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("预读文件 {} 失败: {}", key, e.getMessage());
+            if (entry.reservedBytes > 0) {
+                bufferedBytes.addAndGet(-entry.reservedBytes);
+                entry.reservedBytes = 0;
+            }
+            entries.remove(key, entry);
+            entry.data.complete(null);
+        }
+    }
+
+    /**
+     * 以大块顺序读取整个文件并丢弃数据，使文件内容进入操作系统页缓存。
+     */
+    private void readAhead(Path key) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(readBlockSize);
+        try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ)) {
+            while (channel.read(buffer) > 0) {
+                buffer.clear();
+            }
+        }
+    }
+
+    private boolean reserve(long size) {
+        while (true) {
+            long current = bufferedBytes.get();
+            if (current + size > maxBufferBytes) {
+                return false;
+            }
+            if (bufferedBytes.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 清理超过 TTL 仍未被消费的预读数据，归还内存预算。
+     */
+    private void evictExpiredEntries() {
+        long expireBefore = System.nanoTime() - TimeUnit.SECONDS.toNanos(entryTtlSeconds);
+        entries.forEach((key, entry) -> {
+            if (entry.createdNanos < expireBefore && entry.data.isDone() && entries.remove(key, entry)) {
+                bufferedBytes.addAndGet(-entry.reservedBytes);
+                logger.trace("清理过期的预读数据: {}", key);
+            }
+        });
+    }
+
+    private Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * 单个文件的预读状态。claimed 用于在预读任务与 openStream 之间确定由谁读取文件。
+     */
+    private static class PrefetchEntry {
+        private final CompletableFuture<byte[]> data = new CompletableFuture<>();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final long createdNanos = System.nanoTime();
+        private volatile long reservedBytes;
+    }
+}
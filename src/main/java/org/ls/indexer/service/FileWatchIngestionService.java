@@ -0,0 +1,555 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/FileWatchIngestionService.java
+ * 文件名称: FileWatchIngestionService.java
+ * 开发时间: 2025-06-25 16:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 文件系统监听索引模式。没有上游同步服务 (dms-file-upsert-events) 的部署中，
+ *          直接监听 targetBaseDir 的文件变化并增量索引，使索引延迟从一次完整历史索引的数小时降到数秒。
+ *
+ * 功能说明：
+ * 1. 监听: 使用 WatchService 递归注册 targetBaseDir 下的所有目录 (不进入符号链接目录)，新建目录时自动注册，
+ *    并把新目录中已存在的文件加入待处理队列 (注册之前写入的文件不会产生事件)。
+ * 2. 合并与防抖: 事件按路径合并到待处理表，同一路径的后续事件覆盖之前的事件并重新计时，
+ *    路径在 debounce-ms 内没有新事件后才处理，正在写入的大文件只会在写完后被解析一次。
+ * 3. 处理: 定时 (flush-interval-ms) 取出到期的路径，新增/修改的文件交给与历史索引作业相同的
+ *    FileToEsDocumentProcessor 解析 (文档 ID、字段及吞吐量上限都与历史索引一致)，按字节数分批 bulk 写入；
+ *    已删除的文件按路径计算文档 ID 后批量删除。删除或移出的目录 (已注册的目录，或没有扩展名的路径) 按 source_path
+ *    前缀查出其下所有文件的文档后批量删除，并注销目录下的监听，移动的目录树不会在旧路径下留下重复的文档。
+ *    写入、删除或目录删除因 ES 不可用 (重试耗尽) 失败时，对应的路径重新加入待处理表，防抖时间后重试 (期间的新事件优先)。
+ * 4. 兜底扫描: 网络挂载 (NFS/SMB) 上 WatchService 通常收不到事件，定时 (sweep-interval-ms) 遍历目录，
+ *    把最后修改时间晚于上一次扫描开始时间的文件加入队列，同时补注册遗漏的目录；事件溢出 (OVERFLOW) 时立即扫描一次。
+ *    兜底扫描不保存文件状态，无法发现删除，网络挂载上的删除由孤儿文档对账作业处理。
+ */
+package org.ls.indexer.service;
+
+import jakarta.annotation.PreDestroy;
+import org.ls.indexer.batch.BulkRequestPartitioner;
+import org.ls.indexer.config.properties.AppProperties;
+import org.ls.indexer.config.properties.IndexerProperties;
+import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.exception.IndexingException;
+import org.ls.indexer.util.ElasticsearchIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class FileWatchIngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileWatchIngestionService.class);
+
+    @Value("${dms.indexer.watch.enabled:false}")
+    private boolean enabled;
+
+    // 路径在此时间内没有新事件后才处理
+    @Value("${dms.indexer.watch.debounce-ms:2000}")
+    private long debounceMillis;
+
+    // 检查到期路径的间隔
+    @Value("${dms.indexer.watch.flush-interval-ms:1000}")
+    private long flushIntervalMillis;
+
+    // 每次最多处理的路径数
+    @Value("${dms.indexer.watch.max-batch-size:500}")
+    private int maxBatchSize;
+
+    // 单个 bulk 请求的估算字节数上限
+    @Value("${dms.indexer.watch.bulk-max-bytes:10485760}")
+    private long bulkMaxBytes;
+
+    // 兜底扫描间隔，0 表示不扫描
+    @Value("${dms.indexer.watch.sweep-interval-ms:300000}")
+    private long sweepIntervalMillis;
+
+    // 兜底扫描比较最后修改时间时的容差，覆盖网络挂载与本机之间的时钟偏差
+    @Value("${dms.indexer.watch.sweep-mtime-slack-ms:60000}")
+    private long sweepMtimeSlackMillis;
+
+    private final AppProperties appProperties;
+    private final IndexerProperties indexerProperties;
+    private final ItemProcessor<Path, EsDocumentDto> fileToEsDocumentProcessor;
+    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+    private final ElasticsearchIdGenerator elasticsearchIdGenerator;
+
+    private final Map<Path, PendingChange> pendingChanges = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Set<Path> registeredDirectories = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean sweepRunning = new AtomicBoolean(false);
+
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong eventsCoalesced = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong registrationFailures = new AtomicLong();
+    private final AtomicLong indexedDocuments = new AtomicLong();
+    private final AtomicLong deletedDocuments = new AtomicLong();
+    private final AtomicLong deletedDirectories = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong sweepChanges = new AtomicLong();
+
+    private Path baseDir;
+    private Set<String> supportedExtensions;
+    private WatchService watchService;
+    private Thread watchThread;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+    private volatile long lastSweepStartMillis;
+
+    @Autowired
+    public FileWatchIngestionService(AppProperties appProperties,
+                                     IndexerProperties indexerProperties,
+                                     @Qualifier("fileToEsDocumentProcessor") ItemProcessor<Path, EsDocumentDto> fileToEsDocumentProcessor,
+                                     ElasticsearchPersistenceService elasticsearchPersistenceService,
+                                     ElasticsearchIdGenerator elasticsearchIdGenerator) {
+        this.appProperties = appProperties;
+        this.indexerProperties = indexerProperties;
+        this.fileToEsDocumentProcessor = fileToEsDocumentProcessor;
+        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+        this.elasticsearchIdGenerator = elasticsearchIdGenerator;
+    }
+
+    /**
+     * 应用启动后开始监听。启动之前发生的变化不会被处理，需要时请运行一次历史索引作业。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        String baseDirSetting = appProperties.getTargetBaseDir();
+        if (baseDirSetting == null || baseDirSetting.isBlank() || !Files.isDirectory(Paths.get(baseDirSetting))) {
+            logger.error("文件监听模式已启用，但 targetBaseDir 未配置或不是目录: {}，监听未启动。", baseDirSetting);
+            return;
+        }
+        this.baseDir = Paths.get(baseDirSetting).toAbsolutePath().normalize();
+        this.supportedExtensions = indexerProperties.getSupportedExtensionsSet();
+        this.lastSweepStartMillis = System.currentTimeMillis();
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            logger.error("创建 WatchService 失败: {}，只使用兜底扫描。", e.getMessage(), e);
+        }
+        this.running = true;
+
+        this.scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "file-watch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushSafely, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        if (sweepIntervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::sweepSafely, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (watchService != null) {
+            this.watchThread = new Thread(this::watchLoop, "file-watch-events");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+        logger.info("文件监听模式已启动，目录: {}，防抖: {}ms，兜底扫描间隔: {}ms", baseDir, debounceMillis, sweepIntervalMillis);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            logger.debug("关闭 WatchService 失败: {}", e.getMessage());
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        logger.info("文件监听模式已停止，未处理的路径 {} 个。", pendingChanges.size());
+    }
+
+    private void watchLoop() {
+        registerTree(baseDir, false);
+        logger.info("文件监听: 已注册 {} 个目录 (注册失败 {} 个)。", watchedDirectories.size(), registrationFailures.get());
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = watchedDirectories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                eventsReceived.incrementAndGet();
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflows.incrementAndGet();
+                    logger.warn("文件监听事件溢出，部分变化可能丢失，立即执行一次兜底扫描。");
+                    scheduler.execute(this::sweepSafely);
+                    continue;
+                }
+                if (directory == null) {
+                    continue;
+                }
+                Path child = directory.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    if (registeredDirectories.contains(child) || !hasExtension(child)) {
+                        unregisterTree(child);
+                        enqueueChange(child, ChangeKind.DELETE_TREE); // 目录已删除或移出，无法再判断是否为目录
+                    } else {
+                        enqueue(child, ChangeKind.DELETE);
+                    }
+                } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        registerTree(child, true);
+                    }
+                } else {
+                    enqueue(child, ChangeKind.UPSERT);
+                }
+            }
+            if (!key.reset()) {
+                Path removed = watchedDirectories.remove(key);
+                if (removed != null) {
+                    registeredDirectories.remove(removed); // 目录已删除或不可访问
+                }
+            }
+        }
+    }
+
+    /**
+     * 递归注册目录。enqueueFiles 为 true 时把目录中已存在的文件加入待处理队列 (用于新建的目录)。
+     */
+    private void registerTree(Path root, boolean enqueueFiles) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    register(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (enqueueFiles && attrs.isRegularFile()) {
+                        enqueue(file, ChangeKind.UPSERT);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("文件监听: 遍历目录 {} 失败: {}", root, e.getMessage());
+        }
+    }
+
+    private void register(Path directory) {
+        if (watchService == null || !registeredDirectories.add(directory)) {
+            return;
+        }
+        try {
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.put(key, directory);
+        } catch (IOException | ClosedWatchServiceException e) {
+            registeredDirectories.remove(directory);
+            // 常见原因是达到 inotify 监听数上限 (fs.inotify.max_user_watches)，这些目录只能依赖兜底扫描
+            if (registrationFailures.incrementAndGet() == 1) {
+                logger.warn("文件监听: 注册目录 {} 失败: {}，未注册的目录依赖兜底扫描。", directory, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 注销目录及其子目录的监听。移出的目录的 WatchKey 仍然有效，不注销会把之后的事件解析到旧路径下。
+     */
+    private void unregisterTree(Path root) {
+        watchedDirectories.entrySet().removeIf(entry -> {
+            if (!entry.getValue().startsWith(root)) {
+                return false;
+            }
+            entry.getKey().cancel();
+            registeredDirectories.remove(entry.getValue());
+            return true;
+        });
+    }
+
+    private void enqueue(Path path, ChangeKind kind) {
+        if (!isSupported(path)) {
+            return;
+        }
+        enqueueChange(path, kind);
+    }
+
+    private void enqueueChange(Path path, ChangeKind kind) {
+        PendingChange change = new PendingChange(kind, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis));
+        if (pendingChanges.put(path, change) != null) {
+            eventsCoalesced.incrementAndGet();
+        }
+    }
+
+    /**
+     * 写入 ES 失败的路径重新加入队列 (防抖时间后重试)。处理期间同一路径有新事件时保留新事件。
+     */
+    private void requeue(Path path, ChangeKind kind) {
+        pendingChanges.putIfAbsent(path, new PendingChange(kind, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis)));
+    }
+
+    private static boolean hasExtension(Path path) {
+        return path.getFileName() != null && path.getFileName().toString().lastIndexOf('.') > 0;
+    }
+
+    private boolean isSupported(Path path) {
+        String name = path.getFileName() == null ? "" : path.getFileName().toString().toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && supportedExtensions.contains(name.substring(dot));
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("文件监听: 处理待索引文件时发生错误: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 取出已到期 (防抖时间内没有新事件) 的路径，先删除已删除目录下的文档，再解析写入新增/修改的文件，删除的文件批量删除。
+     */
+    private void flush() {
+        long now = System.nanoTime();
+        List<Path> upserts = new ArrayList<>();
+        List<Path> deletes = new ArrayList<>();
+        List<Path> treeDeletes = new ArrayList<>();
+        for (Map.Entry<Path, PendingChange> entry : pendingChanges.entrySet()) {
+            if (upserts.size() + deletes.size() + treeDeletes.size() >= maxBatchSize) {
+                break;
+            }
+            PendingChange change = entry.getValue();
+            // 按值删除: 处理期间同一路径有新事件时保留新事件
+            if (change.dueNanos <= now && pendingChanges.remove(entry.getKey(), change)) {
+                switch (change.kind) {
+                    case DELETE -> deletes.add(entry.getKey());
+                    case DELETE_TREE -> treeDeletes.add(entry.getKey());
+                    default -> upserts.add(entry.getKey());
+                }
+            }
+        }
+        if (upserts.isEmpty() && deletes.isEmpty() && treeDeletes.isEmpty()) {
+            return;
+        }
+
+        // 先删除目录下的旧文档，目录被重新创建时其中的文件在之后写入
+        for (Path directory : treeDeletes) {
+            try {
+                deleteTree(directory);
+            } catch (IndexingException e) {
+                logger.error("文件监听: 删除目录 {} 下的文档失败，稍后重试: {}", directory, e.getMessage());
+                requeue(directory, ChangeKind.DELETE_TREE);
+            }
+        }
+
+        List<EsDocumentDto> documents = new ArrayList<>();
+        Map<EsDocumentDto, Path> documentPaths = new IdentityHashMap<>();
+        for (Path path : upserts) {
+            if (!Files.isRegularFile(path)) {
+                deletes.add(path); // 事件到期前文件已被删除或重命名
+                continue;
+            }
+            try {
+                EsDocumentDto document = fileToEsDocumentProcessor.process(path);
+                if (document != null) {
+                    documents.add(document);
+                    documentPaths.put(document, path);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failedFiles.incrementAndGet();
+                logger.error("文件监听: 解析文件 {} 失败: {}", path, e.getMessage());
+            }
+        }
+        // ES 写入失败 (重试耗尽) 的路径重新加入队列，不丢失: 兜底扫描只能发现修改过的文件，发现不了删除
+        for (List<EsDocumentDto> batch : BulkRequestPartitioner.partition(documents, bulkMaxBytes)) {
+            try {
+                if (elasticsearchPersistenceService.bulkIndexDocuments(batch)) {
+                    indexedDocuments.addAndGet(batch.size());
+                } else {
+                    failedFiles.addAndGet(batch.size()); // 不可重试的失败已发送到失败 Topic
+                }
+            } catch (IndexingException e) {
+                logger.error("文件监听: 写入 {} 个文档失败，稍后重试: {}", batch.size(), e.getMessage());
+                for (EsDocumentDto document : batch) {
+                    requeue(documentPaths.get(document), ChangeKind.UPSERT);
+                }
+            }
+        }
+        if (!deletes.isEmpty()) {
+            List<String> documentIds = new ArrayList<>(deletes.size());
+            for (Path path : deletes) {
+                documentIds.add(elasticsearchIdGenerator.generateIdFromFilePath(path));
+            }
+            try {
+                deletedDocuments.addAndGet(elasticsearchPersistenceService.bulkDeleteDocuments(documentIds));
+            } catch (IndexingException e) {
+                logger.error("文件监听: 删除 {} 个文档失败，稍后重试: {}", documentIds.size(), e.getMessage());
+                for (Path path : deletes) {
+                    requeue(path, ChangeKind.DELETE);
+                }
+            }
+        }
+        logger.info("文件监听: 本批索引 {} 个文件，删除 {} 个文档和 {} 个目录，待处理 {} 个路径。",
+                documents.size(), deletes.size(), treeDeletes.size(), pendingChanges.size());
+    }
+
+    /**
+     * 按 source_path 前缀查出目录下所有文件的文档并分批删除。路径不是目录 (没有扩展名的文件) 时查不到文档。
+     */
+    private void deleteTree(Path directory) {
+        List<String> documentIds = new ArrayList<>();
+        long[] deleted = {0L};
+        long found = elasticsearchPersistenceService.scanSourcePaths(directory + File.separator, maxBatchSize, "1m",
+                (documentId, sourcePath) -> {
+                    documentIds.add(documentId);
+                    if (documentIds.size() >= maxBatchSize) {
+                        deleted[0] += elasticsearchPersistenceService.bulkDeleteDocuments(new ArrayList<>(documentIds));
+                        documentIds.clear();
+                    }
+                });
+        if (!documentIds.isEmpty()) {
+            deleted[0] += elasticsearchPersistenceService.bulkDeleteDocuments(documentIds);
+        }
+        if (found > 0) {
+            deletedDirectories.incrementAndGet();
+            deletedDocuments.addAndGet(deleted[0]);
+            logger.info("文件监听: 目录 {} 已删除或移出，删除其下 {} 个文档 (共找到 {} 个)。", directory, deleted[0], found);
+        }
+    }
+
+    private void sweepSafely() {
+        if (!sweepRunning.compareAndSet(false, true)) {
+            return; // 上一次扫描尚未结束
+        }
+        try {
+            sweep();
+        } catch (Exception e) {
+            logger.error("文件监听: 兜底扫描失败: {}", e.getMessage(), e);
+        } finally {
+            sweepRunning.set(false);
+        }
+    }
+
+    /**
+     * 兜底扫描: 把上一次扫描开始之后 (减去时钟容差) 修改过的文件加入队列，并补注册遗漏的目录。
+     */
+    private void sweep() throws IOException {
+        long sweepStartMillis = System.currentTimeMillis();
+        long modifiedSinceMillis = lastSweepStartMillis - sweepMtimeSlackMillis;
+        long[] changed = {0L};
+        Files.walkFileTree(baseDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && attrs.lastModifiedTime().toMillis() >= modifiedSinceMillis
+                        && !pendingChanges.containsKey(file)) {
+                    enqueue(file, ChangeKind.UPSERT);
+                    changed[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        lastSweepStartMillis = sweepStartMillis;
+        sweeps.incrementAndGet();
+        sweepChanges.addAndGet(changed[0]);
+        logger.info("文件监听: 兜底扫描完成，发现 {} 个变化的文件，耗时 {}ms。", changed[0], System.currentTimeMillis() - sweepStartMillis);
+    }
+
+    /**
+     * 获取文件监听模式的运行状态，供监控接口显示。
+     *
+     * @return 状态信息
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("running", running);
+        status.put("baseDir", baseDir != null ? baseDir.toString() : null);
+        status.put("watchedDirectories", watchedDirectories.size());
+        status.put("registrationFailures", registrationFailures.get());
+        status.put("pendingPaths", pendingChanges.size());
+        status.put("eventsReceived", eventsReceived.get());
+        status.put("eventsCoalesced", eventsCoalesced.get());
+        status.put("overflows", overflows.get());
+        status.put("indexedDocuments", indexedDocuments.get());
+        status.put("deletedDocuments", deletedDocuments.get());
+        status.put("deletedDirectories", deletedDirectories.get());
+        status.put("failedFiles", failedFiles.get());
+        status.put("sweeps", sweeps.get());
+        status.put("sweepChanges", sweepChanges.get());
+        return status;
+    }
+
+    private enum ChangeKind {
+        UPSERT, DELETE, DELETE_TREE
+    }
+
+    private static final class PendingChange {
+        private final ChangeKind kind;
+        private final long dueNanos;
+
+        PendingChange(ChangeKind kind, long dueNanos) {
+            this.kind = kind;
+            this.dueNanos = dueNanos;
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/HistoricalJobLeaseService.java
+ * 文件名称: HistoricalJobLeaseService.java
+ * 开发时间: 2025-06-25 14:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 历史索引作业的分布式单实例租约。多个索引服务实例共用同一个 JobRepository 数据库时，
+ *          保证同一时间只有一个实例在运行 historicalFileIndexerJob。
+ *
+ * 功能说明：
+ * 1. 互斥: 启动作业前在一个专用数据库连接上获取 Postgres 会话级 advisory lock (pg_try_advisory_lock)，
+ *    连接一直持有到作业结束 (afterJob) 才释放锁并归还连接；实例崩溃或连接断开时 Postgres 自动释放锁。
+ * 2. 租约表: 获取锁后更新租约表 (前缀 + INDEXER_JOB_LEASE) 中的一行，记录持有者、作业执行ID和心跳时间，
+ *    并将防护令牌 (FENCING_TOKEN) 加一。其他实例启动失败时从租约表读取正在运行的作业执行ID。
+ * 3. 心跳与防护: 定时 (heartbeat-ms) 按“作业名 + 自己的令牌”更新心跳时间。更新不到行 (令牌已被新的持有者递增)
+ *    或连接失效时，说明锁已经丢失，立即标记租约失效并停止本实例的作业；
+ *    每个块开始前也会校验令牌 (assertLeaseValid)，租约失效后最多再处理当前块，不会与新的持有者长时间重复写入。
+ * 非 Postgres 数据库 (例如 ephemeral 配置的内存 H2) 无法跨实例共享，退化为进程内互斥。
+ * 数据库类型在启动时检测并缓存；检测失败 (数据库暂时不可用) 时获取租约失败并在下次获取时重新检测，
+ * 不会因为一次错误退化为进程内互斥。
+ */
+package org.ls.indexer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.launch.JobOperator;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class HistoricalJobLeaseService implements JobExecutionListener, ChunkListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoricalJobLeaseService.class);
+
+    public static final String JOB_NAME = "historicalFileIndexerJob";
+
+    // advisory lock 的两段式键: 第一段固定为本服务的命名空间 ("INDX")，第二段为作业名的哈希
+    private static final int LOCK_NAMESPACE = 0x494E4458;
+
+    @Value("${dms.indexer.batch.lease.enabled:true}")
+    private boolean enabled;
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final JobOperator jobOperator;
+    private final String leaseTable;
+    private final String owner;
+
+    private final Object monitor = new Object();
+    private volatile Boolean postgres; // 启动时检测，失败时在下次使用时重试
+    private Connection lockConnection; // 持有 advisory lock 的专用连接，非 Postgres 时为 null
+    private long fencingToken; // 当前持有的令牌，0 表示未持有
+    private long localTokenSequence; // 非 Postgres 时的进程内令牌
+    private volatile boolean leaseLost;
+    private volatile Long runningExecutionId;
+
+    @Autowired
+    public HistoricalJobLeaseService(DataSource dataSource,
+                                     JdbcTemplate jdbcTemplate,
+                                     @Lazy JobOperator jobOperator, // 延迟注入，避免与作业定义之间的循环依赖
+                                     @Value("${spring.batch.jdbc.table-prefix:BATCH_}") String tablePrefix) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.jobOperator = jobOperator;
+        this.leaseTable = tablePrefix + "INDEXER_JOB_LEASE";
+        this.owner = ManagementFactory.getRuntimeMXBean().getName(); // pid@hostname
+    }
+
+    /**
+     * 应用启动后检测数据库类型并创建租约表 (仅 Postgres)。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createLeaseTable() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (!isPostgres()) {
+                return;
+            }
+        } catch (SQLException e) {
+            logger.warn("检测 JobRepository 数据库类型失败 (获取租约时重试): {}", e.getMessage());
+            return;
+        }
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + leaseTable + " ("
+                    + "JOB_NAME VARCHAR(100) NOT NULL PRIMARY KEY, "
+                    + "FENCING_TOKEN BIGINT NOT NULL, "
+                    + "OWNER VARCHAR(255), "
+                    + "JOB_EXECUTION_ID BIGINT, "
+                    + "ACQUIRED_AT TIMESTAMP, "
+                    + "HEARTBEAT_AT TIMESTAMP)");
+            logger.info("历史索引作业租约表 {} 检查完成，实例标识: {}", leaseTable, owner);
+        } catch (Exception e) {
+            logger.warn("创建历史索引作业租约表 {} 失败: {}", leaseTable, e.getMessage());
+        }
+    }
+
+    /**
+     * 尝试获取历史索引作业的租约。
+     *
+     * @return 防护令牌 (大于 0)；租约已被其他实例或本实例的其他作业持有时返回 0。
+     * @throws SQLException 如果访问数据库失败 (包括无法检测数据库类型)，此时不会退化为进程内互斥。
+     */
+    public long tryAcquire() throws SQLException {
+        if (!enabled) {
+            return Long.MAX_VALUE; // 未启用租约时视为总是获取成功
+        }
+        synchronized (monitor) {
+            if (fencingToken != 0) {
+                return 0L;
+            }
+            if (!isPostgres()) {
+                fencingToken = ++localTokenSequence;
+            } else {
+                Connection connection = dataSource.getConnection();
+                try {
+                    connection.setAutoCommit(true);
+                    if (!tryAdvisoryLock(connection)) {
+                        connection.close();
+                        return 0L;
+                    }
+                    fencingToken = incrementFencingToken(connection);
+                    lockConnection = connection;
+                } catch (SQLException | RuntimeException e) {
+                    connection.close(); // 关闭连接同时释放已获取的 advisory lock
+                    throw e;
+                }
+            }
+            leaseLost = false;
+            runningExecutionId = null;
+            logger.info("已获取历史索引作业租约，防护令牌: {}，持有者: {}", fencingToken, owner);
+            return fencingToken;
+        }
+    }
+
+    /**
+     * 释放租约。只有令牌与当前持有的令牌一致时才释放，重复调用是安全的。
+     *
+     * @param token tryAcquire 返回的令牌
+     */
+    public void release(long token) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (monitor) {
+            if (token == 0 || token != fencingToken) {
+                return;
+            }
+            if (lockConnection != null) {
+                try (PreparedStatement ps = lockConnection.prepareStatement(
+                        "UPDATE " + leaseTable + " SET JOB_EXECUTION_ID = NULL, HEARTBEAT_AT = CURRENT_TIMESTAMP "
+                                + "WHERE JOB_NAME = ? AND FENCING_TOKEN = ?")) {
+                    ps.setString(1, JOB_NAME);
+                    ps.setLong(2, token);
+                    ps.executeUpdate();
+                    try (PreparedStatement unlock = lockConnection.prepareStatement("SELECT pg_advisory_unlock(?, ?)")) {
+                        unlock.setInt(1, LOCK_NAMESPACE);
+                        unlock.setInt(2, JOB_NAME.hashCode());
+                        unlock.execute();
+                    }
+                } catch (SQLException e) {
+                    logger.warn("释放历史索引作业租约时访问数据库失败 (关闭连接后锁会自动释放): {}", e.getMessage());
+                } finally {
+                    closeQuietly(lockConnection);
+                    lockConnection = null;
+                }
+            }
+            fencingToken = 0L;
+            runningExecutionId = null;
+            logger.info("已释放历史索引作业租约，防护令牌: {}", token);
+        }
+    }
+
+    /**
+     * 作业开始时记录作业执行ID，其他实例启动失败时据此返回正在运行的执行。
+     */
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        runningExecutionId = jobExecution.getId();
+        synchronized (monitor) {
+            if (lockConnection == null) {
+                return;
+            }
+            try (PreparedStatement ps = lockConnection.prepareStatement(
+                    "UPDATE " + leaseTable + " SET JOB_EXECUTION_ID = ?, HEARTBEAT_AT = CURRENT_TIMESTAMP "
+                            + "WHERE JOB_NAME = ? AND FENCING_TOKEN = ?")) {
+                ps.setLong(1, jobExecution.getId());
+                ps.setString(2, JOB_NAME);
+                ps.setLong(3, fencingToken);
+                ps.executeUpdate();
+            } catch (SQLException e) {
+                logger.warn("记录租约的作业执行ID失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 作业结束 (无论成功、失败或停止) 时释放租约。
+     */
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        long token;
+        synchronized (monitor) {
+            token = fencingToken;
+        }
+        release(token);
+    }
+
+    /**
+     * 定时续约: 按自己的令牌更新心跳时间，发现租约已丢失时停止本实例的作业。
+     */
+    @Scheduled(fixedDelayString = "${dms.indexer.batch.lease.heartbeat-ms:15000}")
+    public void heartbeat() {
+        Long executionId;
+        synchronized (monitor) {
+            if (lockConnection == null || leaseLost) {
+                return;
+            }
+            int updated;
+            try (PreparedStatement ps = lockConnection.prepareStatement(
+                    "UPDATE " + leaseTable + " SET HEARTBEAT_AT = CURRENT_TIMESTAMP WHERE JOB_NAME = ? AND FENCING_TOKEN = ?")) {
+                ps.setString(1, JOB_NAME);
+                ps.setLong(2, fencingToken);
+                updated = ps.executeUpdate();
+            } catch (SQLException e) {
+                logger.error("历史索引作业租约心跳失败 (持有锁的连接可能已断开): {}", e.getMessage());
+                updated = 0;
+            }
+            if (updated > 0) {
+                return;
+            }
+            leaseLost = true;
+            executionId = runningExecutionId;
+            logger.error("历史索引作业租约已丢失 (防护令牌 {} 已失效)，停止本实例的作业执行 {}。", fencingToken, executionId);
+        }
+        if (executionId != null) {
+            try {
+                jobOperator.stop(executionId);
+            } catch (Exception e) {
+                logger.warn("停止租约丢失的作业执行 {} 失败: {}", executionId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 每个块开始前校验租约，租约丢失后使步骤失败，不再继续写入。
+     */
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        assertLeaseValid();
+    }
+
+    /**
+     * 校验租约仍然有效。
+     *
+     * @throws IllegalStateException 如果租约已丢失。
+     */
+    public void assertLeaseValid() {
+        if (enabled && leaseLost) {
+            throw new IllegalStateException("历史索引作业租约已丢失，防护令牌失效，停止写入以避免与新的持有者重复处理。");
+        }
+    }
+
+    /**
+     * 查找持有租约的实例正在运行的作业执行ID。
+     *
+     * @return 作业执行ID；未知时返回 null (例如持有者尚未真正开始执行作业)。
+     */
+    public Long findRunningExecutionId() {
+        Long local = runningExecutionId;
+        if (local != null || !enabled) {
+            return local;
+        }
+        try {
+            if (!isPostgres()) {
+                return null;
+            }
+            List<Long> ids = jdbcTemplate.queryForList(
+                    "SELECT JOB_EXECUTION_ID FROM " + leaseTable + " WHERE JOB_NAME = ?", Long.class, JOB_NAME);
+            return ids.isEmpty() ? null : ids.get(0);
+        } catch (Exception e) {
+            logger.warn("读取历史索引作业租约失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 获取租约状态，供监控接口显示。
+     *
+     * @return 租约信息 (enabled, heldByThisInstance, fencingToken, leaseLost, owner, jobExecutionId, heartbeatAt)
+     */
+    public Map<String, Object> getLeaseStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        synchronized (monitor) {
+            status.put("heldByThisInstance", fencingToken != 0);
+            status.put("fencingToken", fencingToken);
+        }
+        status.put("leaseLost", leaseLost);
+        boolean shared;
+        try {
+            shared = enabled && isPostgres();
+        } catch (SQLException e) {
+            status.put("error", e.getMessage());
+            return status;
+        }
+        if (shared) {
+            try {
+                List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                        "SELECT OWNER, FENCING_TOKEN, JOB_EXECUTION_ID, ACQUIRED_AT, HEARTBEAT_AT FROM " + leaseTable
+                                + " WHERE JOB_NAME = ?", JOB_NAME);
+                if (!rows.isEmpty()) {
+                    Map<String, Object> row = rows.get(0);
+                    status.put("owner", row.get("OWNER"));
+                    status.put("lastFencingToken", row.get("FENCING_TOKEN"));
+                    status.put("jobExecutionId", row.get("JOB_EXECUTION_ID"));
+                    status.put("acquiredAt", row.get("ACQUIRED_AT"));
+                    status.put("heartbeatAt", row.get("HEARTBEAT_AT"));
+                }
+            } catch (Exception e) {
+                status.put("error", e.getMessage());
+            }
+        } else {
+            status.put("owner", owner);
+            status.put("jobExecutionId", runningExecutionId);
+        }
+        return status;
+    }
+
+    private boolean tryAdvisoryLock(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT pg_try_advisory_lock(?, ?)")) {
+            ps.setInt(1, LOCK_NAMESPACE);
+            ps.setInt(2, JOB_NAME.hashCode());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * 递增并返回防护令牌。只有 advisory lock 的持有者才会执行此语句，因此令牌严格递增。
+     */
+    private long incrementFencingToken(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO " + leaseTable + " AS l (JOB_NAME, FENCING_TOKEN, OWNER, JOB_EXECUTION_ID, ACQUIRED_AT, HEARTBEAT_AT) "
+                        + "VALUES (?, 1, ?, NULL, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP) "
+                        + "ON CONFLICT (JOB_NAME) DO UPDATE SET FENCING_TOKEN = l.FENCING_TOKEN + 1, OWNER = EXCLUDED.OWNER, "
+                        + "JOB_EXECUTION_ID = NULL, ACQUIRED_AT = CURRENT_TIMESTAMP, HEARTBEAT_AT = CURRENT_TIMESTAMP "
+                        + "RETURNING FENCING_TOKEN")) {
+            ps.setString(1, JOB_NAME);
+            ps.setString(2, owner);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * 检测 JobRepository 是否为 Postgres。检测成功后缓存结果；失败时抛出异常而不是按非 Postgres 处理，
+     * 避免数据库暂时不可用时退化为进程内互斥，与其他实例同时运行作业。
+     *
+     * @throws SQLException 如果无法读取数据库元数据。
+     */
+    private boolean isPostgres() throws SQLException {
+        Boolean detected = postgres;
+        if (detected == null) {
+            try (Connection connection = dataSource.getConnection()) {
+                String product = connection.getMetaData().getDatabaseProductName();
+                detected = product != null && product.toLowerCase().contains("postgres");
+            }
+            postgres = detected;
+            logger.info("JobRepository 数据库类型: {}", detected ? "Postgres (跨实例租约)" : "非 Postgres (进程内互斥)");
+        }
+        return detected;
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("关闭租约连接失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/HistoricalJobThrottle.java
+ * 文件名称: HistoricalJobThrottle.java
+ * 开发时间: 2025-06-24 14:20:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 历史索引作业的吞吐量上限 (文档数/秒 与 MB/秒)。由 FileToEsDocumentProcessor 在解析每个文件前调用，
+ *          上限可以通过 BatchJobController 在作业运行期间动态调整，无需重启作业。
+ */
+package org.ls.indexer.service;
+
+import org.ls.indexer.util.TokenBucketRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class HistoricalJobThrottle {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoricalJobThrottle.class);
+
+    private static final double BYTES_PER_MB = 1024d * 1024d;
+
+    private final TokenBucketRateLimiter documentLimiter;
+    private final TokenBucketRateLimiter byteLimiter;
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    public HistoricalJobThrottle(@Value("${dms.indexer.batch.historical.throttle.docs-per-second:0}") double docsPerSecond,
+                                 @Value("${dms.indexer.batch.historical.throttle.mb-per-second:0}") double mbPerSecond) {
+        this.documentLimiter = new TokenBucketRateLimiter(docsPerSecond);
+        this.byteLimiter = new TokenBucketRateLimiter(mbPerSecond * BYTES_PER_MB);
+        logger.info("历史索引吞吐量上限: {} 文档/秒, {} MB/秒 (0 表示不限制)", docsPerSecond, mbPerSecond);
+    }
+
+    /**
+     * 在处理一个文件前调用，超过上限时阻塞当前线程。
+     *
+     * @param fileSizeBytes 文件大小 (字节)
+     * @throws InterruptedException 如果等待期间线程被中断 (例如作业被停止)
+     */
+    public void acquire(long fileSizeBytes) throws InterruptedException {
+        long waited = documentLimiter.acquire(1);
+        waited += byteLimiter.acquire(fileSizeBytes);
+        if (waited > 0) {
+            throttledNanos.addAndGet(waited);
+        }
+    }
+
+    /**
+     * 调整吞吐量上限，对正在运行的作业立即生效。参数为 null 时保持原值不变，小于等于 0 表示不限制。
+     *
+     * @param docsPerSecond 每秒文档数上限
+     * @param mbPerSecond   每秒 MB 上限
+     */
+    public void updateLimits(Double docsPerSecond, Double mbPerSecond) {
+        if (docsPerSecond != null) {
+            documentLimiter.setRate(docsPerSecond);
+        }
+        if (mbPerSecond != null) {
+            byteLimiter.setRate(mbPerSecond * BYTES_PER_MB);
+        }
+        logger.info("历史索引吞吐量上限已调整为: {}", getLimits());
+    }
+
+    /**
+     * 使正在限流等待的解析线程立即返回，作业暂停或停止时调用，使步骤尽快在块边界结束。
+     */
+    public void releaseWaiters() {
+        documentLimiter.releaseWaiters();
+        byteLimiter.releaseWaiters();
+    }
+
+    public Map<String, Object> getLimits() {
+        Map<String, Object> limits = new LinkedHashMap<>();
+        limits.put("docsPerSecond", Math.max(0d, documentLimiter.getRate()));
+        limits.put("mbPerSecond", Math.max(0d, byteLimiter.getRate()) / BYTES_PER_MB);
+        limits.put("throttledSeconds", TimeUnit.NANOSECONDS.toSeconds(throttledNanos.get()));
+        return limits;
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/IndexBulkLoadModeService.java
+ * 文件名称: IndexBulkLoadModeService.java
+ * 开发时间: 2025-06-25 20:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 历史索引作业 (historicalFileIndexerJob) 的批量导入模式。作业开始时临时放宽目标索引的设置以提高写入吞吐量，
+ *          作业结束时 (无论成功、失败还是停止) 恢复原来的设置，并可在成功后触发段合并。
+ *
+ * 功能说明：
+ * 1. 开始 (beforeJob): 读取 index.refresh_interval、index.number_of_replicas、index.translog.durability 的当前值
+ *    (区分显式设置和默认值)，然后设置为 refresh_interval=-1、副本数 0、translog 异步刷盘。
+ * 2. 结束 (afterJob): 恢复原来的设置；原来未显式设置的项恢复为默认值 (设置为 null)。
+ *    作业成功完成且启用 force-merge 时，以不等待完成的方式提交 _forcemerge。
+ * 3. 修改前后的设置以 JSON 记录在作业执行上下文中 (bulkLoad.originalSettings / appliedSettings / restoredSettings)。
+ * 目标索引是历史索引作业写入的索引 (蓝绿重建时为新索引，见 BlueGreenReindexService)，记录在 bulkLoad.index 中。
+ * 默认未启用 (enabled=false)。启用后默认只在蓝绿重建作业 (有 reindexTarget 参数，写入尚未对外提供搜索的新索引) 时生效
+ * (reindex-only=true)；设为 false 时也会放宽正在提供搜索的 index-name，期间 Kafka 等实时写入的文档要等到恢复 refresh
+ * 后才能被搜索到，且没有副本，节点故障可能丢失数据。
+ * 如果开始时索引已经处于批量导入状态 (上一次执行因进程退出没有恢复)，从之前写入同一索引的执行的上下文中读取
+ * bulkLoad.originalSettings 作为原来的设置；找不到时才使用 fallback-* 配置的值。
+ */
+package org.ls.indexer.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.ls.indexer.batch.HistoricalJobParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class IndexBulkLoadModeService implements JobExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexBulkLoadModeService.class);
+
+    public static final String INDEX_KEY = "bulkLoad.index";
+    public static final String ORIGINAL_SETTINGS_KEY = "bulkLoad.originalSettings";
+    public static final String APPLIED_SETTINGS_KEY = "bulkLoad.appliedSettings";
+    public static final String RESTORED_SETTINGS_KEY = "bulkLoad.restoredSettings";
+    public static final String FORCE_MERGE_TASK_KEY = "bulkLoad.forceMergeTask";
+
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private static final String TRANSLOG_DURABILITY = "index.translog.durability";
+    private static final List<String> MANAGED_SETTINGS = List.of(REFRESH_INTERVAL, NUMBER_OF_REPLICAS, TRANSLOG_DURABILITY);
+
+    @Value("${dms.indexer.bulk-load.enabled:false}")
+    private boolean enabled;
+
+    // 只在蓝绿重建作业写入新索引时生效，不放宽正在提供搜索的索引
+    @Value("${dms.indexer.bulk-load.reindex-only:true}")
+    private boolean reindexOnly;
+
+    // 查找之前执行记录的原设置时最多检查的作业实例数
+    @Value("${dms.indexer.bulk-load.history-instances:20}")
+    private int historyInstances;
+
+    @Value("${dms.indexer.bulk-load.refresh-interval:-1}")
+    private String bulkLoadRefreshInterval;
+
+    @Value("${dms.indexer.bulk-load.replicas:0}")
+    private String bulkLoadReplicas;
+
+    @Value("${dms.indexer.bulk-load.translog-durability:async}")
+    private String bulkLoadTranslogDurability;
+
+    @Value("${dms.indexer.bulk-load.force-merge.enabled:false}")
+    private boolean forceMergeEnabled;
+
+    @Value("${dms.indexer.bulk-load.force-merge.max-num-segments:5}")
+    private int forceMergeMaxNumSegments;
+
+    // 开始时索引已处于批量导入状态 (原来的设置未知) 时恢复使用的值
+    @Value("${dms.indexer.bulk-load.fallback-refresh-interval:1s}")
+    private String fallbackRefreshInterval;
+
+    @Value("${dms.indexer.bulk-load.fallback-replicas:1}")
+    private String fallbackReplicas;
+
+    @Value("${dms.indexer.bulk-load.fallback-translog-durability:request}")
+    private String fallbackTranslogDurability;
+
+    private final RestClient restClient;
+    private final BlueGreenReindexService blueGreenReindexService;
+    private final ObjectMapper objectMapper;
+    private final JobRepository jobRepository;
+    private final JobExplorer jobExplorer;
+
+    @Autowired
+    public IndexBulkLoadModeService(RestClient restClient,
+                                    BlueGreenReindexService blueGreenReindexService,
+                                    ObjectMapper objectMapper,
+                                    @Lazy JobRepository jobRepository,
+                                    @Lazy JobExplorer jobExplorer) {
+        this.restClient = restClient;
+        this.blueGreenReindexService = blueGreenReindexService;
+        this.objectMapper = objectMapper;
+        this.jobRepository = jobRepository;
+        this.jobExplorer = jobExplorer;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        if (!enabled) {
+            return;
+        }
+        if (reindexOnly && jobExecution.getJobParameters().getString(HistoricalJobParameters.REINDEX_TARGET) == null) {
+            logger.info("历史索引作业写入正在提供搜索的索引，不进入批量导入模式 (bulk-load.reindex-only=true)。");
+            return;
+        }
+        String indexName = blueGreenReindexService.getHistoricalTargetIndex();
+        ExecutionContext context = jobExecution.getExecutionContext();
+        context.putString(INDEX_KEY, indexName);
+        try {
+            Map<String, String> original = readExplicitSettings(indexName);
+            if (bulkLoadRefreshInterval.equals(original.get(REFRESH_INTERVAL))) {
+                Map<String, String> previous = findPreviousOriginalSettings(jobExecution, indexName);
+                if (previous != null) {
+                    logger.warn("索引 {} 已处于批量导入状态 (上一次执行没有恢复设置)，结束时恢复为之前执行记录的原设置: {}",
+                            indexName, previous);
+                    original = previous;
+                } else {
+                    logger.warn("索引 {} 已处于批量导入状态，且找不到之前执行记录的原设置，结束时将恢复为 fallback 配置的值。", indexName);
+                    original.put(REFRESH_INTERVAL, fallbackRefreshInterval);
+                    original.put(NUMBER_OF_REPLICAS, fallbackReplicas);
+                    original.put(TRANSLOG_DURABILITY, fallbackTranslogDurability);
+                }
+            }
+            Map<String, String> applied = new LinkedHashMap<>();
+            applied.put(REFRESH_INTERVAL, bulkLoadRefreshInterval);
+            applied.put(NUMBER_OF_REPLICAS, bulkLoadReplicas);
+            applied.put(TRANSLOG_DURABILITY, bulkLoadTranslogDurability);
+            // 先记录原来的设置，即使修改失败也能在结束时恢复
+            context.putString(ORIGINAL_SETTINGS_KEY, objectMapper.writeValueAsString(original));
+            putSettings(indexName, applied);
+            context.putString(APPLIED_SETTINGS_KEY, objectMapper.writeValueAsString(applied));
+            logger.info("索引 {} 已进入批量导入模式: {} (原设置: {})", indexName, applied, original);
+        } catch (Exception e) {
+            // 放宽设置只影响吞吐量，失败时作业照常运行
+            logger.error("索引 {} 进入批量导入模式失败，作业将使用原设置运行: {}", indexName, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        ExecutionContext context = jobExecution.getExecutionContext();
+        if (!context.containsKey(ORIGINAL_SETTINGS_KEY)) {
+            return;
+        }
+        String indexName = context.getString(INDEX_KEY, blueGreenReindexService.getHistoricalTargetIndex());
+        try {
+            Map<String, String> original = objectMapper.readValue(context.getString(ORIGINAL_SETTINGS_KEY),
+                    objectMapper.getTypeFactory().constructMapType(LinkedHashMap.class, String.class, String.class));
+            Map<String, String> restore = new LinkedHashMap<>();
+            for (String setting : MANAGED_SETTINGS) {
+                restore.put(setting, original.get(setting)); // null 表示恢复为默认值
+            }
+            putSettings(indexName, restore);
+            context.putString(RESTORED_SETTINGS_KEY, objectMapper.writeValueAsString(restore));
+            logger.info("索引 {} 已退出批量导入模式，恢复设置: {}", indexName, restore);
+        } catch (Exception e) {
+            logger.error("恢复索引 {} 的设置失败，请手动检查 refresh_interval / number_of_replicas / translog.durability: {}",
+                    indexName, e.getMessage(), e);
+            return;
+        }
+        if (forceMergeEnabled && jobExecution.getStatus() == BatchStatus.COMPLETED) {
+            try {
+                String task = forceMerge(indexName);
+                context.putString(FORCE_MERGE_TASK_KEY, task);
+                logger.info("已提交索引 {} 的段合并 (max_num_segments={})，任务: {}", indexName, forceMergeMaxNumSegments, task);
+            } catch (Exception e) {
+                logger.warn("提交索引 {} 的段合并失败: {}", indexName, e.getMessage());
+            }
+        }
+        // afterJob 之后作业只更新执行记录本身，上下文需要单独保存
+        try {
+            jobRepository.updateExecutionContext(jobExecution);
+        } catch (Exception e) {
+            logger.warn("保存批量导入模式的恢复记录到作业执行上下文失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从之前写入同一索引的执行 (先查本作业实例，再查最近的作业实例，按执行 ID 倒序) 的上下文中读取原来的设置。
+     *
+     * @return 原来的设置；找不到时返回 null
+     */
+    private Map<String, String> findPreviousOriginalSettings(JobExecution current, String indexName) {
+        try {
+            List<JobExecution> executions = new ArrayList<>(jobExplorer.getJobExecutions(current.getJobInstance()));
+            for (JobInstance instance : jobExplorer.getJobInstances(current.getJobInstance().getJobName(), 0, historyInstances)) {
+                if (!instance.getId().equals(current.getJobInstance().getId())) {
+                    executions.addAll(jobExplorer.getJobExecutions(instance));
+                }
+            }
+            executions.sort(Comparator.comparing(JobExecution::getId).reversed());
+            for (JobExecution execution : executions) {
+                ExecutionContext context = execution.getExecutionContext();
+                if (execution.getId().equals(current.getId()) || !context.containsKey(ORIGINAL_SETTINGS_KEY)
+                        || !indexName.equals(context.getString(INDEX_KEY, null))) {
+                    continue;
+                }
+                return objectMapper.readValue(context.getString(ORIGINAL_SETTINGS_KEY),
+                        objectMapper.getTypeFactory().constructMapType(LinkedHashMap.class, String.class, String.class));
+            }
+        } catch (Exception e) {
+            logger.warn("读取之前执行记录的批量导入原设置失败: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 读取受管理的设置中显式设置过的值。未显式设置 (使用默认值) 的项不在返回结果中。
+     */
+    private Map<String, String> readExplicitSettings(String indexName) throws IOException {
+        Request request = new Request("GET", "/" + indexName + "/_settings/" + String.join(",", MANAGED_SETTINGS));
+        request.addParameter("flat_settings", "true");
+        JsonNode root = read(restClient.performRequest(request));
+        Map<String, String> settings = new LinkedHashMap<>();
+        JsonNode indexSettings = root.path(indexName).path("settings");
+        if (indexSettings.isMissingNode() && root.size() == 1) { // indexName 是别名时响应中是实际的索引名
+            indexSettings = root.elements().next().path("settings");
+        }
+        for (String setting : MANAGED_SETTINGS) {
+            JsonNode value = indexSettings.get(setting);
+            if (value != null && !value.isNull()) {
+                settings.put(setting, value.asText());
+            }
+        }
+        return settings;
+    }
+
+    private void putSettings(String indexName, Map<String, String> settings) throws IOException {
+        Request request = new Request("PUT", "/" + indexName + "/_settings");
+        request.setJsonEntity(objectMapper.writeValueAsString(settings));
+        restClient.performRequest(request);
+    }
+
+    private String forceMerge(String indexName) throws IOException {
+        Request request = new Request("POST", "/" + indexName + "/_forcemerge");
+        request.addParameter("max_num_segments", String.valueOf(forceMergeMaxNumSegments));
+        request.addParameter("wait_for_completion", "false");
+        return read(restClient.performRequest(request)).path("task").asText();
+    }
+
+    private JsonNode read(Response response) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return objectMapper.readTree(content);
+        }
+    }
+}
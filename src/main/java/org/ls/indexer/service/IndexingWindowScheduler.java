@@ -0,0 +1,213 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/IndexingWindowScheduler.java
+ * 文件名称: IndexingWindowScheduler.java
+ * 开发时间: 2025-06-24 16:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 批量任务时间窗口调度器。按 dms.indexer.schedule 中配置的 cron 时间窗口，
+ *          在窗口切换时调整历史索引作业的吞吐量上限，并按窗口配置自动启动/恢复或暂停历史索引作业。
+ *
+ * 功能说明：
+ * 定时检查 (dms.indexer.schedule.check-interval-ms) 当前所在的窗口，只在窗口切换时执行操作，
+ * 因此窗口内通过 API 手动调整的吞吐量上限会保留到下一次窗口切换。
+ * 窗口的判断: 最近一次 cron 触发时间不晚于当前时间，且当前时间早于触发时间 + 持续时间。
+ * 吞吐量上限作用于 HistoricalJobThrottle (解析前限流)，从而同时限制了下游的 ES bulk 写入。
+ */
+package org.ls.indexer.service;
+
+import jakarta.annotation.PostConstruct;
+import org.ls.indexer.config.properties.ScheduleProperties;
+import org.ls.indexer.config.properties.ScheduleProperties.Window;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Service;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class IndexingWindowScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexingWindowScheduler.class);
+
+    // 查找最近一次触发时间时的最大迭代次数，防止触发频率极高的 cron 表达式导致长时间循环
+    private static final int MAX_CRON_ITERATIONS = 10_000;
+
+    private final ScheduleProperties scheduleProperties;
+    private final BatchJobService batchJobService;
+
+    private final Map<Window, CronExpression> cronExpressions = new LinkedHashMap<>();
+    private ZoneId zoneId;
+
+    private volatile ActiveWindow activeWindow;
+    private volatile boolean initialized;
+
+    @Autowired
+    public IndexingWindowScheduler(ScheduleProperties scheduleProperties, BatchJobService batchJobService) {
+        this.scheduleProperties = scheduleProperties;
+        this.batchJobService = batchJobService;
+    }
+
+    @PostConstruct
+    public void init() {
+        this.zoneId = scheduleProperties.getZone() == null || scheduleProperties.getZone().isBlank()
+                ? ZoneId.systemDefault() : ZoneId.of(scheduleProperties.getZone().trim());
+        for (Window window : scheduleProperties.getWindows()) {
+            if (window.getCron() == null || window.getDuration() == null || window.getDuration().isNegative()
+                    || window.getDuration().isZero()) {
+                logger.error("时间窗口 '{}' 配置无效 (cron: {}, 持续时间: {})，已忽略。",
+                        window.getName(), window.getCron(), window.getDuration());
+                continue;
+            }
+            try {
+                cronExpressions.put(window, CronExpression.parse(window.getCron()));
+            } catch (IllegalArgumentException e) {
+                logger.error("时间窗口 '{}' 的 cron 表达式无效: {}，已忽略。", window.getName(), e.getMessage());
+            }
+        }
+        if (scheduleProperties.isEnabled()) {
+            logger.info("时间窗口调度已启用，时区: {}，有效窗口数: {}", zoneId, cronExpressions.size());
+        }
+    }
+
+    /**
+     * 定时检查当前所在的时间窗口，窗口切换时调整吞吐量上限并执行窗口操作。
+     */
+    @Scheduled(fixedDelayString = "${dms.indexer.schedule.check-interval-ms:30000}", initialDelayString = "${dms.indexer.schedule.initial-delay-ms:10000}")
+    public void checkWindows() {
+        if (!scheduleProperties.isEnabled()) {
+            return;
+        }
+        try {
+            ActiveWindow current = findActiveWindow(ZonedDateTime.now(zoneId));
+            ActiveWindow previous = this.activeWindow;
+            if (initialized && sameOccurrence(previous, current)) {
+                return;
+            }
+            this.activeWindow = current;
+            this.initialized = true;
+            if (current == null) {
+                logger.info("当前不在任何时间窗口内{}，使用默认吞吐量上限: {} 文档/秒, {} MB/秒",
+                        previous != null ? " (窗口 '" + previous.window.getName() + "' 已结束)" : "",
+                        scheduleProperties.getDefaultDocsPerSecond(), scheduleProperties.getDefaultMbPerSecond());
+                batchJobService.updateThrottle(scheduleProperties.getDefaultDocsPerSecond(), scheduleProperties.getDefaultMbPerSecond());
+                return;
+            }
+            Window window = current.window;
+            logger.info("进入时间窗口 '{}' ({} ~ {})，吞吐量上限: {} 文档/秒, {} MB/秒，操作: {}",
+                    window.getName(), current.start, current.end, window.getDocsPerSecond(), window.getMbPerSecond(), window.getAction());
+            batchJobService.updateThrottle(window.getDocsPerSecond(), window.getMbPerSecond());
+            applyAction(window);
+        } catch (Exception e) {
+            logger.error("时间窗口调度检查失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void applyAction(Window window) throws Exception {
+        switch (window.getAction()) {
+            case START_OR_RESUME -> startOrResume(window);
+            case PAUSE -> pauseRunning(window);
+            default -> {
+                // 只调整吞吐量上限
+            }
+        }
+    }
+
+    private void startOrResume(Window window) throws Exception {
+        List<JobExecution> executions = batchJobService.getLatestJobExecutions();
+        if (executions.stream().anyMatch(JobExecution::isRunning)) {
+            logger.info("时间窗口 '{}': 历史索引作业已在运行，无需启动。", window.getName());
+            return;
+        }
+        JobExecution latest = executions.isEmpty() ? null : executions.get(0);
+        if (latest != null && (latest.getStatus() == BatchStatus.STOPPED || latest.getStatus() == BatchStatus.FAILED)) {
+            logger.info("时间窗口 '{}': 恢复作业执行 {} (状态: {})。", window.getName(), latest.getId(), latest.getStatus());
+            batchJobService.startHistoricalFileIndexerJob(batchJobService.prepareResume(latest.getId()));
+        } else {
+            logger.info("时间窗口 '{}': 启动新的历史索引作业。", window.getName());
+            batchJobService.startHistoricalFileIndexerJob(batchJobService.buildHistoricalJobParameters(null, null, null, null));
+        }
+    }
+
+    private void pauseRunning(Window window) throws Exception {
+        for (JobExecution execution : batchJobService.getLatestJobExecutions()) {
+            if (execution.getStatus() == BatchStatus.STARTING || execution.getStatus() == BatchStatus.STARTED) {
+                logger.info("时间窗口 '{}': 暂停作业执行 {}。", window.getName(), execution.getId());
+                batchJobService.pauseHistoricalFileIndexerJob(execution.getId());
+            }
+        }
+    }
+
+    /**
+     * 查找指定时间所在的窗口，多个窗口重叠时返回配置中靠前的窗口。
+     */
+    private ActiveWindow findActiveWindow(ZonedDateTime now) {
+        for (Map.Entry<Window, CronExpression> entry : cronExpressions.entrySet()) {
+            Window window = entry.getKey();
+            ZonedDateTime start = lastFireTime(entry.getValue(), now.minus(window.getDuration()), now);
+            if (start != null) {
+                return new ActiveWindow(window, start, start.plus(window.getDuration()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 返回 (from, now] 区间内最近一次 cron 触发时间，没有则返回 null。
+     */
+    private static ZonedDateTime lastFireTime(CronExpression cron, ZonedDateTime from, ZonedDateTime now) {
+        ZonedDateTime last = null;
+        ZonedDateTime next = cron.next(from);
+        for (int i = 0; next != null && !next.isAfter(now) && i < MAX_CRON_ITERATIONS; i++) {
+            last = next;
+            next = cron.next(next);
+        }
+        return last;
+    }
+
+    private static boolean sameOccurrence(ActiveWindow a, ActiveWindow b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.window == b.window && a.start.equals(b.start);
+    }
+
+    /**
+     * 获取当前所在的时间窗口信息，供监控接口显示。
+     *
+     * @return 窗口信息 (name, start, end, docsPerSecond, mbPerSecond, action)；调度未启用或不在任何窗口内时返回 null。
+     */
+    public Map<String, Object> getActiveWindow() {
+        ActiveWindow current = this.activeWindow;
+        if (!scheduleProperties.isEnabled() || current == null) {
+            return null;
+        }
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("name", current.window.getName());
+        info.put("start", current.start.toOffsetDateTime().toString());
+        info.put("end", current.end.toOffsetDateTime().toString());
+        info.put("docsPerSecond", current.window.getDocsPerSecond());
+        info.put("mbPerSecond", current.window.getMbPerSecond());
+        info.put("action", current.window.getAction().name());
+        return info;
+    }
+
+    private static class ActiveWindow {
+        private final Window window;
+        private final ZonedDateTime start;
+        private final ZonedDateTime end;
+
+        ActiveWindow(Window window, ZonedDateTime start, ZonedDateTime end) {
+            this.window = window;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
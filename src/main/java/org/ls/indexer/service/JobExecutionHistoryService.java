@@ -0,0 +1,200 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/JobExecutionHistoryService.java
+ * 文件名称: JobExecutionHistoryService.java
+ * 开发时间: 2025-06-24 18:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 作业执行历史的快速查询。用一条 SQL 直接查询 Spring Batch 元数据表，
+ *          代替 JobExplorer 逐个实例、逐个执行的 N+1 查询，供监控页面轮询的 latest-status 接口使用。
+ *
+ * 功能说明：
+ * 先在子查询中按创建时间取指定作业最新的 N 个执行，再 LEFT JOIN 步骤执行表和参数表，一次查询返回全部数据，
+ * 在内存中按执行 ID 归并为 JobExecution / StepExecution 对象 (与 JobExplorer 返回的类型一致，调用方无需修改)。
+ * 表名前缀使用 spring.batch.jdbc.table-prefix (默认 BATCH_)。SQL 只使用标准语法，Postgres 与 H2 均可执行。
+ * 返回的 JobExecution 不包含 ExecutionContext，只用于展示；需要重启作业时请使用 JobExplorer 加载完整对象。
+ */
+package org.ls.indexer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameter;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.converter.DateToStringConverter;
+import org.springframework.batch.core.converter.LocalDateTimeToStringConverter;
+import org.springframework.batch.core.converter.LocalDateToStringConverter;
+import org.springframework.batch.core.converter.LocalTimeToStringConverter;
+import org.springframework.batch.core.converter.StringToDateConverter;
+import org.springframework.batch.core.converter.StringToLocalDateConverter;
+import org.springframework.batch.core.converter.StringToLocalDateTimeConverter;
+import org.springframework.batch.core.converter.StringToLocalTimeConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class JobExecutionHistoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobExecutionHistoryService.class);
+
+    private static final String LATEST_EXECUTIONS_SQL = """
+            SELECT E.JOB_EXECUTION_ID, E.VERSION AS E_VERSION, E.CREATE_TIME AS E_CREATE_TIME, E.START_TIME AS E_START_TIME,
+                   E.END_TIME AS E_END_TIME, E.STATUS AS E_STATUS, E.EXIT_CODE AS E_EXIT_CODE, E.EXIT_MESSAGE AS E_EXIT_MESSAGE,
+                   E.LAST_UPDATED AS E_LAST_UPDATED, E.JOB_INSTANCE_ID, E.JOB_NAME,
+                   S.STEP_EXECUTION_ID, S.STEP_NAME, S.START_TIME AS S_START_TIME, S.END_TIME AS S_END_TIME, S.STATUS AS S_STATUS,
+                   S.COMMIT_COUNT, S.READ_COUNT, S.FILTER_COUNT, S.WRITE_COUNT, S.READ_SKIP_COUNT, S.WRITE_SKIP_COUNT,
+                   S.PROCESS_SKIP_COUNT, S.ROLLBACK_COUNT, S.EXIT_CODE AS S_EXIT_CODE, S.EXIT_MESSAGE AS S_EXIT_MESSAGE,
+                   S.LAST_UPDATED AS S_LAST_UPDATED,
+                   P.PARAMETER_NAME, P.PARAMETER_TYPE, P.PARAMETER_VALUE, P.IDENTIFYING
+            FROM (
+                SELECT E.JOB_EXECUTION_ID, E.VERSION, E.CREATE_TIME, E.START_TIME, E.END_TIME, E.STATUS, E.EXIT_CODE,
+                       E.EXIT_MESSAGE, E.LAST_UPDATED, E.JOB_INSTANCE_ID, I.JOB_NAME
+                FROM %PREFIX%JOB_EXECUTION E
+                JOIN %PREFIX%JOB_INSTANCE I ON I.JOB_INSTANCE_ID = E.JOB_INSTANCE_ID
+                WHERE I.JOB_NAME = ?
+                ORDER BY E.CREATE_TIME DESC, E.JOB_EXECUTION_ID DESC
+                LIMIT ?
+            ) E
+            LEFT JOIN %PREFIX%STEP_EXECUTION S ON S.JOB_EXECUTION_ID = E.JOB_EXECUTION_ID
+            LEFT JOIN %PREFIX%JOB_EXECUTION_PARAMS P ON P.JOB_EXECUTION_ID = E.JOB_EXECUTION_ID
+            ORDER BY E.CREATE_TIME DESC, E.JOB_EXECUTION_ID DESC, S.STEP_EXECUTION_ID
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String latestExecutionsSql;
+    private final DefaultConversionService conversionService;
+
+    @Autowired
+    public JobExecutionHistoryService(JdbcTemplate jdbcTemplate,
+                                      @Value("${spring.batch.jdbc.table-prefix:BATCH_}") String tablePrefix) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.latestExecutionsSql = LATEST_EXECUTIONS_SQL.replace("%PREFIX%", tablePrefix);
+        // 与 JdbcJobExecutionDao 相同的参数类型转换规则
+        this.conversionService = new DefaultConversionService();
+        this.conversionService.addConverter(new DateToStringConverter());
+        this.conversionService.addConverter(new StringToDateConverter());
+        this.conversionService.addConverter(new LocalDateToStringConverter());
+        this.conversionService.addConverter(new StringToLocalDateConverter());
+        this.conversionService.addConverter(new LocalTimeToStringConverter());
+        this.conversionService.addConverter(new StringToLocalTimeConverter());
+        this.conversionService.addConverter(new LocalDateTimeToStringConverter());
+        this.conversionService.addConverter(new StringToLocalDateTimeConverter());
+    }
+
+    /**
+     * 查询指定作业最新的若干个执行 (含步骤执行和作业参数)，只执行一条 SQL。
+     *
+     * @param jobName 作业名称
+     * @param limit   返回的最大执行数
+     * @return JobExecution 列表，按创建时间降序排列
+     */
+    public List<JobExecution> findLatestExecutions(String jobName, int limit) {
+        long start = System.nanoTime();
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(latestExecutionsSql, jobName, limit);
+
+        // 结果集是 执行 x 步骤 x 参数 的展开，先按执行 ID 归并
+        Map<Long, Map<String, Object>> executionRows = new LinkedHashMap<>();
+        Map<Long, Map<Long, Map<String, Object>>> stepRows = new LinkedHashMap<>();
+        Map<Long, Map<String, JobParameter<?>>> parameters = new LinkedHashMap<>();
+        for (Map<String, Object> row : rows) {
+            Long executionId = toLong(row.get("JOB_EXECUTION_ID"));
+            executionRows.putIfAbsent(executionId, row);
+            Long stepExecutionId = toLong(row.get("STEP_EXECUTION_ID"));
+            if (stepExecutionId != null) {
+                stepRows.computeIfAbsent(executionId, id -> new LinkedHashMap<>()).putIfAbsent(stepExecutionId, row);
+            }
+            String parameterName = (String) row.get("PARAMETER_NAME");
+            Map<String, JobParameter<?>> executionParameters = parameters.computeIfAbsent(executionId, id -> new LinkedHashMap<>());
+            if (parameterName != null && !executionParameters.containsKey(parameterName)) {
+                executionParameters.put(parameterName, toJobParameter(row));
+            }
+        }
+
+        List<JobExecution> result = new ArrayList<>(executionRows.size());
+        executionRows.forEach((executionId, row) -> {
+            JobExecution jobExecution = toJobExecution(executionId, row, new JobParameters(parameters.get(executionId)));
+            stepRows.getOrDefault(executionId, Map.of())
+                    .forEach((stepExecutionId, stepRow) -> toStepExecution(stepExecutionId, stepRow, jobExecution));
+            result.add(jobExecution);
+        });
+        logger.debug("查询作业 '{}' 最新 {} 个执行完成 (1 次查询, {} 行)，耗时 {}ms。",
+                jobName, result.size(), rows.size(), (System.nanoTime() - start) / 1_000_000L);
+        return result;
+    }
+
+    private static JobExecution toJobExecution(Long executionId, Map<String, Object> row, JobParameters jobParameters) {
+        JobInstance jobInstance = new JobInstance(toLong(row.get("JOB_INSTANCE_ID")), (String) row.get("JOB_NAME"));
+        JobExecution jobExecution = new JobExecution(jobInstance, executionId, jobParameters);
+        Long version = toLong(row.get("E_VERSION"));
+        jobExecution.setVersion(version == null ? null : version.intValue());
+        jobExecution.setCreateTime(toLocalDateTime(row.get("E_CREATE_TIME")));
+        jobExecution.setStartTime(toLocalDateTime(row.get("E_START_TIME")));
+        jobExecution.setEndTime(toLocalDateTime(row.get("E_END_TIME")));
+        jobExecution.setLastUpdated(toLocalDateTime(row.get("E_LAST_UPDATED")));
+        jobExecution.setStatus(BatchStatus.valueOf((String) row.get("E_STATUS")));
+        jobExecution.setExitStatus(new ExitStatus((String) row.get("E_EXIT_CODE"), (String) row.get("E_EXIT_MESSAGE")));
+        return jobExecution;
+    }
+
+    private static void toStepExecution(Long stepExecutionId, Map<String, Object> row, JobExecution jobExecution) {
+        // 构造函数会把步骤执行加入 jobExecution 的步骤列表
+        StepExecution stepExecution = new StepExecution((String) row.get("STEP_NAME"), jobExecution, stepExecutionId);
+        stepExecution.setStartTime(toLocalDateTime(row.get("S_START_TIME")));
+        stepExecution.setEndTime(toLocalDateTime(row.get("S_END_TIME")));
+        stepExecution.setLastUpdated(toLocalDateTime(row.get("S_LAST_UPDATED")));
+        stepExecution.setStatus(BatchStatus.valueOf((String) row.get("S_STATUS")));
+        stepExecution.setCommitCount(toCount(row.get("COMMIT_COUNT")));
+        stepExecution.setReadCount(toCount(row.get("READ_COUNT")));
+        stepExecution.setFilterCount(toCount(row.get("FILTER_COUNT")));
+        stepExecution.setWriteCount(toCount(row.get("WRITE_COUNT")));
+        stepExecution.setReadSkipCount(toCount(row.get("READ_SKIP_COUNT")));
+        stepExecution.setWriteSkipCount(toCount(row.get("WRITE_SKIP_COUNT")));
+        stepExecution.setProcessSkipCount(toCount(row.get("PROCESS_SKIP_COUNT")));
+        stepExecution.setRollbackCount(toCount(row.get("ROLLBACK_COUNT")));
+        stepExecution.setExitStatus(new ExitStatus((String) row.get("S_EXIT_CODE"), (String) row.get("S_EXIT_MESSAGE")));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private JobParameter<?> toJobParameter(Map<String, Object> row) {
+        String value = (String) row.get("PARAMETER_VALUE");
+        boolean identifying = "Y".equalsIgnoreCase(String.valueOf(row.get("IDENTIFYING")));
+        Class<?> parameterType;
+        try {
+            parameterType = Class.forName((String) row.get("PARAMETER_TYPE"));
+        } catch (ClassNotFoundException | NullPointerException e) {
+            parameterType = String.class;
+        }
+        Object typedValue = value == null ? null : conversionService.convert(value, parameterType);
+        if (typedValue == null) {
+            return new JobParameter<>(String.valueOf(value), String.class, identifying);
+        }
+        return new JobParameter(typedValue, parameterType, identifying);
+    }
+
+    private static Long toLong(Object value) {
+        return value == null ? null : ((Number) value).longValue();
+    }
+
+    private static long toCount(Object value) {
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        return value instanceof LocalDateTime localDateTime ? localDateTime : null;
+    }
+}
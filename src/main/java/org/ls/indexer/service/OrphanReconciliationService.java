@@ -0,0 +1,267 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/OrphanReconciliationService.java
+ * 文件名称: OrphanReconciliationService.java
+ * 开发时间: 2025-06-25 15:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 孤儿文档对账。找出 ES 中对应文件已不存在的文档 (删除事件丢失、同步服务中断等原因造成) 并批量删除。
+ *
+ * 功能说明：
+ * 1. 并行扫描 targetBaseDir (ForkJoinPool，每个目录一个任务，不进入符号链接目录)，
+ *    用 ElasticsearchIdGenerator 为每个普通文件生成文档 ID，收集到 CompactPathHashSet (每个文件 8 字节)。
+ * 2. 在扫描完成后打开 point-in-time，按页遍历索引中所有文档的 ID 和 source_path (只取回该字段)。
+ *    只有 source_path 是 targetBaseDir 下的绝对路径、且文档 ID 正是由该路径生成的文档 (历史索引作业写入的文档)
+ *    才能对应到目标文件，参与对账；其他文档 (例如 Kafka 事件写入的文档，source_path 是加密源文件的路径，
+ *    ID 由生产者指定) 无法确定对应的目标文件，一律跳过，从不删除。
+ * 3. ID 不在集合中的文档是候选孤儿，再用 Files.exists 逐个确认 (覆盖扫描之后新建的文件)，
+ *    确认后按 delete-batch-size 批量删除。内存占用 = ID 集合 + 一页文档 + 一批待删除 ID，与文档总数基本无关。
+ * 安全措施: targetBaseDir 不存在或扫描不到任何文件时中止；扫描过程中有目录无法读取时只统计不删除。
+ */
+package org.ls.indexer.service;
+
+import org.ls.indexer.config.properties.AppProperties;
+import org.ls.indexer.util.CompactPathHashSet;
+import org.ls.indexer.util.ElasticsearchIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+@Service
+public class OrphanReconciliationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrphanReconciliationService.class);
+
+    // 并行扫描目录的线程数
+    @Value("${dms.indexer.reconciliation.scan-threads:8}")
+    private int scanThreads;
+
+    // 遍历索引时每页的文档数
+    @Value("${dms.indexer.reconciliation.page-size:5000}")
+    private int pageSize;
+
+    // point-in-time 的保持时间
+    @Value("${dms.indexer.reconciliation.pit-keep-alive:5m}")
+    private String pitKeepAlive;
+
+    // 每个 bulk 删除请求的文档数
+    @Value("${dms.indexer.reconciliation.delete-batch-size:1000}")
+    private int deleteBatchSize;
+
+    private final AppProperties appProperties;
+    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+    private final ElasticsearchIdGenerator elasticsearchIdGenerator;
+
+    @Autowired
+    public OrphanReconciliationService(AppProperties appProperties,
+                                       ElasticsearchPersistenceService elasticsearchPersistenceService,
+                                       ElasticsearchIdGenerator elasticsearchIdGenerator) {
+        this.appProperties = appProperties;
+        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+        this.elasticsearchIdGenerator = elasticsearchIdGenerator;
+    }
+
+    /**
+     * 执行一次对账。
+     *
+     * @param dryRun 为 true 时只统计孤儿文档，不删除
+     * @return 统计信息 (scannedFiles, unreadableDirectories, scannedDocuments, outOfScopeDocuments, unmappedDocuments,
+     *         candidateOrphans, confirmedOrphans, deletedDocuments, dryRun, scanMs, durationMs)
+     * @throws IllegalStateException 如果 targetBaseDir 未配置、不存在或扫描不到任何文件。
+     */
+    public Map<String, Object> reconcile(boolean dryRun) {
+        long startNanos = System.nanoTime();
+        String baseDirSetting = appProperties.getTargetBaseDir();
+        if (baseDirSetting == null || baseDirSetting.isBlank()) {
+            throw new IllegalStateException("未配置 targetBaseDir，无法对账。");
+        }
+        Path baseDir = Paths.get(baseDirSetting).toAbsolutePath().normalize();
+        if (!Files.isDirectory(baseDir)) {
+            throw new IllegalStateException("targetBaseDir 不存在或不是目录 (可能未挂载): " + baseDir);
+        }
+
+        LongAdder unreadableDirectories = new LongAdder();
+        CompactPathHashSet existingIds = scanFileIds(baseDir, unreadableDirectories);
+        long scanMs = (System.nanoTime() - startNanos) / 1_000_000;
+        logger.info("对账: 目录扫描完成，共 {} 个文件，无法读取的目录 {} 个，耗时 {}ms。",
+                existingIds.size(), unreadableDirectories.sum(), scanMs);
+        if (existingIds.size() == 0) {
+            throw new IllegalStateException("targetBaseDir 下没有扫描到任何文件，为避免误删全部文档已中止对账: " + baseDir);
+        }
+        boolean deleteEnabled = !dryRun && unreadableDirectories.sum() == 0;
+        if (!dryRun && !deleteEnabled) {
+            logger.warn("对账: 扫描时有目录无法读取，本次只统计孤儿文档，不删除。");
+        }
+
+        OrphanCollector collector = new OrphanCollector(baseDir, existingIds, deleteEnabled);
+        long scannedDocuments = elasticsearchPersistenceService.scanSourcePaths(pageSize, pitKeepAlive, collector::accept);
+        collector.flush();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("scannedFiles", existingIds.size());
+        stats.put("unreadableDirectories", unreadableDirectories.sum());
+        stats.put("scannedDocuments", scannedDocuments);
+        stats.put("outOfScopeDocuments", collector.outOfScope);
+        stats.put("unmappedDocuments", collector.unmapped);
+        stats.put("candidateOrphans", collector.candidates);
+        stats.put("confirmedOrphans", collector.confirmed);
+        stats.put("deletedDocuments", collector.deleted);
+        stats.put("dryRun", !deleteEnabled);
+        stats.put("scanMs", scanMs);
+        stats.put("durationMs", (System.nanoTime() - startNanos) / 1_000_000);
+        logger.info("对账完成: {}", stats);
+        return stats;
+    }
+
+    /**
+     * 并行扫描目录，收集所有普通文件的文档 ID (的哈希)。每个工作线程写入自己的 Builder，结束后合并。
+     */
+    private CompactPathHashSet scanFileIds(Path baseDir, LongAdder unreadableDirectories) {
+        Queue<CompactPathHashSet.Builder> builders = new ConcurrentLinkedQueue<>();
+        ThreadLocal<CompactPathHashSet.Builder> localBuilder = ThreadLocal.withInitial(() -> {
+            CompactPathHashSet.Builder builder = new CompactPathHashSet.Builder();
+            builders.add(builder);
+            return builder;
+        });
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, scanThreads));
+        try {
+            pool.invoke(new DirectoryScanTask(baseDir, localBuilder, elasticsearchIdGenerator, unreadableDirectories));
+        } finally {
+            pool.shutdown();
+        }
+        return CompactPathHashSet.merge(builders);
+    }
+
+    private static final class DirectoryScanTask extends RecursiveAction {
+        private final Path directory;
+        private final ThreadLocal<CompactPathHashSet.Builder> localBuilder;
+        private final ElasticsearchIdGenerator idGenerator;
+        private final LongAdder unreadableDirectories;
+
+        DirectoryScanTask(Path directory, ThreadLocal<CompactPathHashSet.Builder> localBuilder,
+                          ElasticsearchIdGenerator idGenerator, LongAdder unreadableDirectories) {
+            this.directory = directory;
+            this.localBuilder = localBuilder;
+            this.idGenerator = idGenerator;
+            this.unreadableDirectories = unreadableDirectories;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryScanTask> subdirectories = new ArrayList<>();
+            CompactPathHashSet.Builder builder = localBuilder.get();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue; // 文件在扫描过程中被删除
+                    }
+                    if (attrs.isDirectory()) {
+                        subdirectories.add(new DirectoryScanTask(entry, localBuilder, idGenerator, unreadableDirectories));
+                    } else if (attrs.isRegularFile()) {
+                        builder.add(idGenerator.generateIdFromFilePath(entry));
+                    }
+                }
+            } catch (IOException e) {
+                unreadableDirectories.increment();
+                logger.warn("对账: 无法读取目录 {}: {}", directory, e.getMessage());
+            }
+            invokeAll(subdirectories);
+        }
+    }
+
+    /**
+     * 逐个处理遍历到的文档: 判断是否为孤儿，确认后累积到待删除批次。只在遍历线程中使用。
+     */
+    private final class OrphanCollector {
+        private final Path baseDir;
+        private final CompactPathHashSet existingIds;
+        private final boolean deleteEnabled;
+        private final List<String> pendingDeletes = new ArrayList<>();
+        private long outOfScope;
+        private long unmapped;
+        private long candidates;
+        private long confirmed;
+        private long deleted;
+
+        OrphanCollector(Path baseDir, CompactPathHashSet existingIds, boolean deleteEnabled) {
+            this.baseDir = baseDir;
+            this.existingIds = existingIds;
+            this.deleteEnabled = deleteEnabled;
+        }
+
+        void accept(String documentId, String sourcePath) {
+            if (existingIds.contains(documentId)) {
+                return;
+            }
+            Path path = resolve(sourcePath);
+            if (path == null) {
+                unmapped++;
+                return;
+            }
+            if (!path.startsWith(baseDir)) {
+                outOfScope++;
+                return;
+            }
+            if (!documentId.equals(elasticsearchIdGenerator.generateIdFromFilePath(path))) {
+                unmapped++; // source_path 不是该文档的目标文件路径，无法判断文件是否存在
+                return;
+            }
+            candidates++;
+            if (Files.exists(path)) {
+                return; // 扫描之后新建的文件
+            }
+            confirmed++;
+            logger.debug("对账: 孤儿文档 {} (文件已不存在: {})", documentId, path);
+            if (deleteEnabled) {
+                pendingDeletes.add(documentId);
+                if (pendingDeletes.size() >= deleteBatchSize) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() {
+            if (pendingDeletes.isEmpty()) {
+                return;
+            }
+            deleted += elasticsearchPersistenceService.bulkDeleteDocuments(new ArrayList<>(pendingDeletes));
+            pendingDeletes.clear();
+        }
+
+        /**
+         * 只接受绝对路径。相对路径来自 Kafka 事件 (加密源文件的路径)，不能按 targetBaseDir 解析。
+         */
+        private Path resolve(String sourcePath) {
+            if (sourcePath == null || sourcePath.isBlank()) {
+                return null;
+            }
+            try {
+                Path path = Paths.get(sourcePath);
+                return path.isAbsolute() ? path.normalize() : null;
+            } catch (InvalidPathException e) {
+                return null;
+            }
+        }
+    }
+}
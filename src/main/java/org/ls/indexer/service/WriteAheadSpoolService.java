@@ -0,0 +1,816 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/service/WriteAheadSpoolService.java
+ * 文件名称: WriteAheadSpoolService.java
+ * 开发时间: 2025-06-25 22:30:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: Elasticsearch 不可用时的本地预写暂存 (dms.indexer.spool.enabled)。Kafka 事件已经解析完成的文档写入、
+ *          部分更新和删除操作先追加到本地磁盘，刷盘后即可提交偏移量，ES 恢复后由后台线程按 bulk 回放，
+ *          不再经过重试耗尽、进入失败 Topic、人工重新投递的过程，也不需要重新解析文件。
+ *
+ * 功能说明：
+ * 1. 存储: directory 下按序号命名的段文件 (spool-<序号>.seg)，只追加写入，通过内存映射 (MappedByteBuffer) 读写。
+ *    每条记录为 [负载长度][CRC32][操作类型][暂存时间][文档 ID][文档 JSON]，记录之后写入长度 0 作为结束标记；
+ *    当前段剩余空间不足时切换到下一个段 (单条记录超过 segment-bytes 时该段按记录大小分配)。
+ * 2. 刷盘: 每条记录写入后对写入的区域执行 force (fsync)，返回后调用方才提交 Kafka 偏移量。
+ * 3. 何时暂存: ES 不可用 (后台 ping 失败) 或暂存中还有未回放的记录时 (保证同一文档的操作顺序)，offer* 方法暂存并返回 true；
+ *    其他情况返回 false，由调用方按原来的方式写入。未回放的数据超过 max-bytes 或写入磁盘失败时也返回 false。
+ * 4. 回放: 后台线程每 health-check-interval-ms 检查一次 ES，可用时按 drain-batch-size 条一批、
+ *    drain-rate-per-second 的速率提交到共享的 BulkIngestionService (写入当前索引，重建进行中时双写)，
+ *    同一批中不包含同一文档的两个操作。一批全部完成后把回放位置写入检查点文件 (spool.checkpoint) 并删除已回放完的段；
+ *    一批中有失败且 ES 已不可用时停止回放，下次从检查点重新回放 (写入和删除都是幂等的)。
+ *    ES 可用时仍然失败的操作 (例如 mapping 错误) 已由 BulkFailureHandler 发送到失败 Topic，回放位置照常前进。
+ * 5. 启动时从检查点开始校验记录 (CRC)，恢复未回放的记录数和写入位置，未完整写入的末尾记录被丢弃。
+ *    回放时同样校验每条记录，损坏的记录 (长度或 CRC 不正确) 计入 corruptRecords 并跳过该段剩余部分，不会使回放停滞。
+ * 6. 顺序保护: 暂存的记录可能晚于其他路径的写入回放 (分区再均衡后由其他实例处理了同一文档的较新事件)。
+ *    - 分区被收回时 (ConsumerRebalanceListener，见 KafkaConsumerConfig) 在提交偏移量前尽量回放完暂存，
+ *      最长等待 revoke-drain-timeout-ms，使新的分区所有者的写入晚于本实例暂存的操作。
+ *    - 回放写入和部分更新前按批查询索引中文档当前的 last_modified，比暂存的 last_modified 更新时跳过该记录
+ *      (计入 supersededRecords)，较早的暂存操作不会覆盖较新的文档。删除记录不携带 last_modified，不做此检查。
+ * 暂存大小、最早记录的等待时间和回放速率通过 getStats 提供给监控接口。
+ */
+package org.ls.indexer.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.ls.indexer.dto.EsDocumentDto;
+import org.ls.indexer.exception.IndexingException;
+import org.ls.indexer.util.TokenBucketRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+@Service
+public class WriteAheadSpoolService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadSpoolService.class);
+
+    /**
+     * 暂存的操作类型 (以序号写入记录)。
+     */
+    public enum OperationType {
+        INDEX,
+        UPDATE,
+        DELETE
+    }
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "spool.checkpoint";
+
+    // 记录头: 负载长度 (int) + CRC32 (int)
+    private static final int RECORD_HEADER_BYTES = 8;
+    // 负载头: 操作类型 (byte) + 暂存时间 (long) + 文档 ID 长度 (short)
+    private static final int PAYLOAD_HEADER_BYTES = 11;
+    // 记录之后的结束标记 (长度 0)
+    private static final int END_MARKER_BYTES = 4;
+
+    @Value("${dms.indexer.spool.enabled:false}")
+    private boolean enabled;
+
+    @Value("${dms.indexer.spool.directory:./spool}")
+    private String directory;
+
+    // 每个段文件的大小 (字节)
+    @Value("${dms.indexer.spool.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    // 未回放数据的上限 (字节)，超过时不再暂存
+    @Value("${dms.indexer.spool.max-bytes:10737418240}")
+    private long maxBytes;
+
+    @Value("${dms.indexer.spool.health-check-interval-ms:5000}")
+    private long healthCheckIntervalMillis;
+
+    @Value("${dms.indexer.spool.drain-batch-size:500}")
+    private int drainBatchSize;
+
+    // 回放速率 (操作数/秒)，小于等于 0 表示不限速
+    @Value("${dms.indexer.spool.drain-rate-per-second:2000}")
+    private double drainRatePerSecond;
+
+    // 等待一批回放完成的最长时间 (毫秒)，超时后下次从检查点重新回放
+    @Value("${dms.indexer.spool.drain-timeout-ms:120000}")
+    private long drainTimeoutMillis;
+
+    // 分区被收回时等待暂存回放完成的最长时间 (毫秒)
+    @Value("${dms.indexer.spool.revoke-drain-timeout-ms:30000}")
+    private long revokeDrainTimeoutMillis;
+
+    private final ElasticsearchClient elasticsearchClient;
+    private final BulkIngestionService bulkIngestionService;
+    private final ObjectMapper objectMapper;
+    private final ElasticsearchPersistenceService elasticsearchPersistenceService;
+    private final BlueGreenReindexService blueGreenReindexService;
+
+    private final ScheduledExecutorService drainScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "spool-drainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean healthCheckPending = new AtomicBoolean();
+
+    private Path spoolDirectory;
+    private TokenBucketRateLimiter drainLimiter;
+
+    // 写入端，只在 synchronized (this) 中访问
+    private long writeSegment;
+    private FileChannel writeChannel;
+    private MappedByteBuffer writeBuffer;
+    private long pendingRecords;
+    private long pendingBytes;
+    private long oldestPendingMillis; // 0 表示没有未回放的记录
+
+    // 读取端，只在回放线程中访问 (启动恢复除外)
+    private long readSegment;
+    private int readOffset;
+    private long readBufferSegment = -1;
+    private MappedByteBuffer readBuffer;
+
+    private volatile boolean available = true;
+    private volatile Instant lastHealthCheck;
+    private volatile Instant unavailableSince;
+    private volatile double lastDrainRate;
+    private final LongAdder spooledRecords = new LongAdder();
+    private final LongAdder drainedRecords = new LongAdder();
+    private final LongAdder rejectedRecords = new LongAdder();
+    private final LongAdder interruptedDrains = new LongAdder();
+    private final LongAdder corruptRecords = new LongAdder();
+    private final LongAdder supersededRecords = new LongAdder();
+
+    @Autowired
+    public WriteAheadSpoolService(ElasticsearchClient elasticsearchClient,
+                                  BulkIngestionService bulkIngestionService,
+                                  ObjectMapper objectMapper,
+                                  ElasticsearchPersistenceService elasticsearchPersistenceService,
+                                  BlueGreenReindexService blueGreenReindexService) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.bulkIngestionService = bulkIngestionService;
+        this.objectMapper = objectMapper;
+        this.elasticsearchPersistenceService = elasticsearchPersistenceService;
+        this.blueGreenReindexService = blueGreenReindexService;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        spoolDirectory = Paths.get(directory).toAbsolutePath().normalize();
+        drainLimiter = new TokenBucketRateLimiter(drainRatePerSecond);
+        try {
+            Files.createDirectories(spoolDirectory);
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("初始化本地预写暂存目录 " + spoolDirectory + " 失败: " + e.getMessage(), e);
+        }
+        drainScheduler.scheduleWithFixedDelay(this::checkHealthAndDrain, 0, healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("本地预写暂存已启用: 目录 {}，未回放 {} 条 ({} 字节)，回放速率上限 {}/秒",
+                spoolDirectory, pendingRecords, pendingBytes, drainRatePerSecond);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * ES 不可用或暂存中还有未回放的记录时暂存一个文档写入操作。
+     *
+     * @param document 完整解析后的文档
+     * @return 已暂存并刷盘时返回 true (调用方可以提交偏移量)；返回 false 时调用方按原来的方式写入 ES
+     */
+    public boolean offerIndex(EsDocumentDto document) {
+        return offerDocument(OperationType.INDEX, document);
+    }
+
+    /**
+     * ES 不可用或暂存中还有未回放的记录时暂存一个元数据部分更新操作。
+     *
+     * @param partialDocument 只填充了 fileId 和要更新字段的文档
+     * @return 是否已暂存并刷盘
+     */
+    public boolean offerMetadataUpdate(EsDocumentDto partialDocument) {
+        return offerDocument(OperationType.UPDATE, partialDocument);
+    }
+
+    /**
+     * ES 不可用或暂存中还有未回放的记录时暂存一个文档删除操作。
+     *
+     * @param documentId 要删除的文档 ID
+     * @return 是否已暂存并刷盘
+     */
+    public boolean offerDelete(String documentId) {
+        return shouldSpool() && append(OperationType.DELETE, documentId, new byte[0]);
+    }
+
+    /**
+     * 实时写入失败时调用，立即检查一次 ES 是否可用 (不等待下一次定时检查)。
+     */
+    public void reportWriteFailure() {
+        if (enabled && healthCheckPending.compareAndSet(false, true)) {
+            try {
+                drainScheduler.execute(this::checkHealthAndDrain);
+            } catch (RejectedExecutionException e) {
+                healthCheckPending.set(false); // 应用正在关闭
+            }
+        }
+    }
+
+    /**
+     * 分区被收回时调用 (在提交偏移量之前): 回放暂存中的记录，最长等待 revoke-drain-timeout-ms。
+     * 超时或 ES 不可用时回放在后台继续，新的分区所有者对同一文档的写入由回放时的 last_modified 检查保护。
+     */
+    public void drainBeforeRevoke() {
+        if (!enabled || getPendingRecords() == 0) {
+            return;
+        }
+        try {
+            Future<?> drained = drainScheduler.submit(this::checkHealthAndDrain);
+            drained.get(revokeDrainTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("分区被收回时等待本地暂存回放超时 ({}ms)，回放将在后台继续。", revokeDrainTimeoutMillis);
+        } catch (ExecutionException | RejectedExecutionException e) {
+            logger.warn("分区被收回时回放本地暂存失败: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long remaining = getPendingRecords();
+        if (remaining > 0) {
+            logger.warn("分区被收回时本地暂存中仍有 {} 条未回放的记录。", remaining);
+        }
+    }
+
+    private boolean shouldSpool() {
+        if (!enabled) {
+            return false;
+        }
+        if (!available) {
+            return true;
+        }
+        synchronized (this) {
+            return pendingRecords > 0;
+        }
+    }
+
+    private boolean offerDocument(OperationType type, EsDocumentDto document) {
+        if (!shouldSpool()) {
+            return false;
+        }
+        try {
+            return append(type, document.getFileId(), objectMapper.writeValueAsBytes(document));
+        } catch (IOException e) {
+            logger.error("序列化要暂存的文档 {} 失败: {}", document.getFileId(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 追加一条记录并刷盘。
+     */
+    private boolean append(OperationType type, String documentId, byte[] body) {
+        byte[] idBytes = documentId.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = PAYLOAD_HEADER_BYTES + idBytes.length + body.length;
+        int recordLength = RECORD_HEADER_BYTES + payloadLength;
+        long now = System.currentTimeMillis();
+        ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+        payload.put((byte) type.ordinal()).putLong(now).putShort((short) idBytes.length).put(idBytes).put(body).flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        synchronized (this) {
+            if (pendingBytes + recordLength > maxBytes) {
+                rejectedRecords.increment();
+                logger.warn("本地暂存已达到上限 {} 字节，文档 ID: {} 的 {} 操作将直接写入 ES。", maxBytes, documentId, type);
+                return false;
+            }
+            try {
+                if (writeBuffer.remaining() < recordLength + END_MARKER_BYTES) {
+                    rollSegment(recordLength + END_MARKER_BYTES);
+                }
+                int start = writeBuffer.position();
+                writeBuffer.putInt(payloadLength).putInt((int) crc.getValue()).put(payload);
+                writeBuffer.putInt(writeBuffer.position(), 0);
+                writeBuffer.force(start, recordLength + END_MARKER_BYTES);
+            } catch (IOException | UncheckedIOException e) {
+                rejectedRecords.increment();
+                logger.error("写入本地暂存失败 (文档 ID: {}): {}", documentId, e.getMessage(), e);
+                return false;
+            }
+            pendingRecords++;
+            pendingBytes += recordLength;
+            if (oldestPendingMillis == 0) {
+                oldestPendingMillis = now;
+            }
+        }
+        spooledRecords.increment();
+        logger.debug("文档 ID: {} 的 {} 操作已写入本地暂存。", documentId, type);
+        return true;
+    }
+
+    private void rollSegment(int minBytes) throws IOException {
+        writeBuffer.force();
+        writeChannel.close(); // 映射在通道关闭后仍然有效，供回放线程读取
+        openWriteSegment(writeSegment + 1, 0, Math.max(segmentBytes, minBytes));
+    }
+
+    private void openWriteSegment(long segment, int position, int minBytes) throws IOException {
+        writeChannel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(writeChannel.size(), minBytes);
+        writeBuffer = writeChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        writeChannel.force(true); // 新段的文件大小
+        writeBuffer.position(position);
+        writeSegment = segment;
+    }
+
+    /**
+     * 启动时从检查点恢复回放位置、写入位置和未回放的记录数。
+     */
+    private void recover() throws IOException {
+        List<Long> segments = listSegments();
+        long[] checkpoint = readCheckpoint();
+        if (segments.isEmpty()) {
+            readSegment = 0;
+            readOffset = 0;
+            openWriteSegment(0, 0, segmentBytes);
+            return;
+        }
+        if (checkpoint != null && segments.contains(checkpoint[0])) {
+            readSegment = checkpoint[0];
+            readOffset = (int) checkpoint[1];
+        } else {
+            readSegment = segments.get(0);
+            readOffset = 0;
+        }
+        int writePosition = 0;
+        long lastSegment = segments.get(segments.size() - 1);
+        for (long segment : segments) {
+            if (segment < readSegment) {
+                deleteSegment(segment); // 已回放完 (检查点之后删除前进程退出)
+                continue;
+            }
+            MappedByteBuffer buffer = mapReadOnly(segment);
+            int offset = segment == readSegment ? readOffset : 0;
+            while (offset + RECORD_HEADER_BYTES <= buffer.limit()) {
+                int length = buffer.getInt(offset);
+                if (length < PAYLOAD_HEADER_BYTES || offset + RECORD_HEADER_BYTES + length > buffer.limit()
+                        || buffer.getInt(offset + 4) != crc(buffer, offset + RECORD_HEADER_BYTES, length)) {
+                    break;
+                }
+                if (oldestPendingMillis == 0) {
+                    oldestPendingMillis = buffer.getLong(offset + RECORD_HEADER_BYTES + 1);
+                }
+                pendingRecords++;
+                pendingBytes += RECORD_HEADER_BYTES + length;
+                offset += RECORD_HEADER_BYTES + length;
+            }
+            if (segment == lastSegment) {
+                writePosition = offset;
+            }
+        }
+        openWriteSegment(lastSegment, writePosition, segmentBytes);
+        if (writeBuffer.remaining() >= END_MARKER_BYTES) {
+            writeBuffer.putInt(writePosition, 0); // 丢弃未完整写入的末尾记录
+            writeBuffer.force(writePosition, END_MARKER_BYTES);
+        }
+    }
+
+    /**
+     * 定时任务: 检查 ES 是否可用，可用且有未回放的记录时回放。
+     */
+    private void checkHealthAndDrain() {
+        healthCheckPending.set(false);
+        try {
+            boolean healthy = ping();
+            if (healthy && !available) {
+                logger.info("Elasticsearch 已恢复可用 (不可用开始于 {})，开始回放本地暂存。", unavailableSince);
+            } else if (!healthy && available) {
+                unavailableSince = Instant.now();
+                logger.warn("Elasticsearch 不可用，后续 Kafka 事件将写入本地暂存: {}", spoolDirectory);
+            }
+            available = healthy;
+            if (healthy) {
+                drain();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // 应用正在关闭
+        } catch (Exception e) {
+            logger.error("回放本地暂存时发生错误: {}", e.getMessage(), e);
+        }
+    }
+
+    private boolean ping() {
+        lastHealthCheck = Instant.now();
+        try {
+            return elasticsearchClient.ping().value();
+        } catch (Exception e) {
+            logger.debug("Elasticsearch ping 失败: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void drain() throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        long drained = 0;
+        while (available && !drainScheduler.isShutdown()) {
+            long[] end = writeMark();
+            SpoolBatch batch = readBatch(end[0], (int) end[1]);
+            if (batch.records.isEmpty() && batch.segment == readSegment && batch.offset == readOffset) {
+                break;
+            }
+            Map<String, EsDocumentDto> documents = decodeDocuments(batch.records);
+            Map<String, Long> storedLastModified;
+            try {
+                storedLastModified = fetchStoredLastModified(documents);
+            } catch (IndexingException e) {
+                interruptedDrains.increment();
+                logger.warn("回放本地暂存前查询文档 last_modified 失败，下次从检查点重新回放: {}", e.getMessage());
+                break;
+            }
+            List<CompletableFuture<BulkResponseItem>> futures = new ArrayList<>(batch.records.size());
+            for (SpoolRecord record : batch.records) {
+                EsDocumentDto document = documents.get(record.documentId);
+                if (isSuperseded(document, storedLastModified.get(record.documentId))) {
+                    supersededRecords.increment();
+                    logger.info("本地暂存中文档 {} 的 {} 操作早于索引中的版本 (last_modified {} < {})，已跳过。",
+                            record.documentId, record.type, document.getLastModified(), storedLastModified.get(record.documentId));
+                    continue;
+                }
+                drainLimiter.acquire(1);
+                futures.add(replay(record, document));
+            }
+            bulkIngestionService.flush();
+            boolean failed;
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(drainTimeoutMillis, TimeUnit.MILLISECONDS);
+                failed = false;
+            } catch (ExecutionException e) {
+                failed = true;
+            } catch (TimeoutException e) {
+                interruptedDrains.increment();
+                logger.warn("等待本地暂存回放完成超时 ({}ms)，下次从检查点重新回放。", drainTimeoutMillis);
+                break;
+            }
+            if (failed && !ping()) {
+                available = false;
+                unavailableSince = Instant.now();
+                interruptedDrains.increment();
+                logger.warn("回放本地暂存时 Elasticsearch 不可用，已暂停回放，下次从检查点重新回放。");
+                break;
+            }
+            commit(batch);
+            drained += batch.records.size();
+        }
+        if (drained > 0) {
+            double seconds = Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+            lastDrainRate = drained / seconds;
+            logger.info("本地暂存已回放 {} 条，速率 {}/秒，剩余 {} 条。", drained, String.format("%.1f", lastDrainRate),
+                    getPendingRecords());
+        }
+    }
+
+    private CompletableFuture<BulkResponseItem> replay(SpoolRecord record, EsDocumentDto document) {
+        if (record.type != OperationType.DELETE && document == null) {
+            return CompletableFuture.completedFuture(null); // 无法反序列化，已在 decodeDocuments 中记录
+        }
+        return switch (record.type) {
+            case INDEX -> bulkIngestionService.submitIndex(document);
+            case UPDATE -> bulkIngestionService.submitMetadataUpdate(document);
+            case DELETE -> bulkIngestionService.submitDelete(record.documentId);
+        };
+    }
+
+    /**
+     * 反序列化一批中写入和部分更新记录的文档 (同一批中每个文档只有一个操作)。
+     */
+    private Map<String, EsDocumentDto> decodeDocuments(List<SpoolRecord> records) {
+        Map<String, EsDocumentDto> documents = new HashMap<>();
+        for (SpoolRecord record : records) {
+            if (record.type == OperationType.DELETE) {
+                continue;
+            }
+            try {
+                documents.put(record.documentId, objectMapper.readValue(record.body, EsDocumentDto.class));
+            } catch (IOException e) {
+                logger.error("本地暂存中文档 {} 的记录无法反序列化，已跳过: {}", record.documentId, e.getMessage());
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * 查询一批中带有 last_modified 的文档在当前写入索引中的 last_modified。
+     */
+    private Map<String, Long> fetchStoredLastModified(Map<String, EsDocumentDto> documents) throws IndexingException {
+        List<String> documentIds = documents.values().stream()
+                .filter(document -> document.getLastModified() != null)
+                .map(EsDocumentDto::getFileId)
+                .toList();
+        return elasticsearchPersistenceService.fetchLastModified(documentIds, blueGreenReindexService.getLiveWriteIndices());
+    }
+
+    private static boolean isSuperseded(EsDocumentDto document, Long storedLastModified) {
+        return document != null && document.getLastModified() != null && storedLastModified != null
+                && storedLastModified > document.getLastModified();
+    }
+
+    /**
+     * 从回放位置读取一批记录，直到 end 或批大小；遇到同一文档的第二个操作时结束本批，保证同一文档的操作顺序。
+     */
+    private SpoolBatch readBatch(long endSegment, int endOffset) throws IOException {
+        long segment = readSegment;
+        int offset = readOffset;
+        Set<String> documentIds = new HashSet<>();
+        List<SpoolRecord> records = new ArrayList<>();
+        long bytes = 0;
+        while (records.size() < drainBatchSize && (segment < endSegment || offset < endOffset)) {
+            MappedByteBuffer buffer = readBuffer(segment);
+            int length = offset + RECORD_HEADER_BYTES <= buffer.limit() ? buffer.getInt(offset) : 0;
+            if (length == 0) { // 段结束，继续读下一个段
+                segment++;
+                offset = 0;
+                continue;
+            }
+            if (length < PAYLOAD_HEADER_BYTES || offset + RECORD_HEADER_BYTES + length > buffer.limit()
+                    || buffer.getInt(offset + 4) != crc(buffer, offset + RECORD_HEADER_BYTES, length)) {
+                // 损坏的记录之后无法可靠地定位下一条记录，跳过该段剩余部分 (写入中的段跳到当前写入位置)
+                corruptRecords.increment();
+                logger.error("本地暂存段 {} 偏移 {} 处的记录已损坏 (长度 {})，跳过该段剩余的记录。", segmentPath(segment), offset, length);
+                if (segment < endSegment) {
+                    segment++;
+                    offset = 0;
+                } else {
+                    offset = endOffset;
+                }
+                break; // 先提交已读取的记录和新的回放位置
+            }
+            SpoolRecord record = decode(buffer, offset, length);
+            if (!documentIds.add(record.documentId)) {
+                break;
+            }
+            records.add(record);
+            bytes += RECORD_HEADER_BYTES + length;
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        return new SpoolBatch(records, segment, offset, bytes);
+    }
+
+    /**
+     * 一批回放完成: 写入检查点、更新统计并删除已回放完的段。
+     */
+    private void commit(SpoolBatch batch) throws IOException {
+        long previousSegment = readSegment;
+        readSegment = batch.segment;
+        readOffset = batch.offset;
+        writeCheckpoint();
+        long nextTimestamp = peekTimestamp();
+        synchronized (this) {
+            if (readSegment == writeSegment && readOffset == writeBuffer.position()) {
+                // 已回放到写入位置 (跳过的损坏记录没有逐条计数)
+                pendingRecords = 0;
+                pendingBytes = 0;
+            } else {
+                pendingRecords = Math.max(0, pendingRecords - batch.records.size());
+                pendingBytes = Math.max(0, pendingBytes - batch.bytes);
+            }
+            oldestPendingMillis = pendingRecords > 0 ? nextTimestamp : 0;
+        }
+        drainedRecords.add(batch.records.size());
+        for (long segment = previousSegment; segment < readSegment; segment++) {
+            deleteSegment(segment);
+        }
+    }
+
+    /**
+     * 读取回放位置之后第一条记录的暂存时间，没有记录时返回 0。
+     */
+    private long peekTimestamp() throws IOException {
+        long[] end = writeMark();
+        long segment = readSegment;
+        int offset = readOffset;
+        while (segment < end[0] || offset < end[1]) {
+            MappedByteBuffer buffer = readBuffer(segment);
+            if (offset + RECORD_HEADER_BYTES + PAYLOAD_HEADER_BYTES <= buffer.limit() && buffer.getInt(offset) > 0) {
+                return buffer.getLong(offset + RECORD_HEADER_BYTES + 1);
+            }
+            segment++; // 下一条记录在下一个段中
+            offset = 0;
+        }
+        return 0;
+    }
+
+    private synchronized long[] writeMark() {
+        return new long[]{writeSegment, writeBuffer.position()};
+    }
+
+    private synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    private SpoolRecord decode(MappedByteBuffer buffer, int offset, int length) {
+        int payloadOffset = offset + RECORD_HEADER_BYTES;
+        OperationType type = OperationType.values()[buffer.get(payloadOffset)];
+        int idLength = buffer.getShort(payloadOffset + 9) & 0xFFFF;
+        byte[] idBytes = new byte[idLength];
+        buffer.get(payloadOffset + PAYLOAD_HEADER_BYTES, idBytes);
+        byte[] body = new byte[length - PAYLOAD_HEADER_BYTES - idLength];
+        buffer.get(payloadOffset + PAYLOAD_HEADER_BYTES + idLength, body);
+        return new SpoolRecord(type, new String(idBytes, StandardCharsets.UTF_8), body);
+    }
+
+    private MappedByteBuffer readBuffer(long segment) throws IOException {
+        if (readBufferSegment != segment) {
+            readBuffer = mapReadOnly(segment);
+            readBufferSegment = segment;
+        }
+        return readBuffer;
+    }
+
+    private MappedByteBuffer mapReadOnly(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private void deleteSegment(long segment) {
+        if (readBufferSegment == segment) {
+            readBuffer = null;
+            readBufferSegment = -1;
+        }
+        try {
+            Files.deleteIfExists(segmentPath(segment));
+        } catch (IOException e) {
+            logger.warn("删除已回放的暂存段 {} 失败: {}", segmentPath(segment), e.getMessage());
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path temp = spoolDirectory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap((readSegment + " " + readOffset).getBytes(StandardCharsets.US_ASCII)));
+            channel.force(true);
+        }
+        Files.move(temp, spoolDirectory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private long[] readCheckpoint() {
+        Path checkpoint = spoolDirectory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpoint)) {
+            return null;
+        }
+        try {
+            String[] parts = Files.readString(checkpoint, StandardCharsets.US_ASCII).trim().split(" ");
+            return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+        } catch (IOException | RuntimeException e) {
+            logger.warn("读取暂存检查点 {} 失败，将从最早的段开始回放: {}", checkpoint, e.getMessage());
+            return null;
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(spoolDirectory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return spoolDirectory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static int crc(MappedByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 获取暂存统计，供监控接口显示。
+     *
+     * @return 统计信息 (未回放的记录数/字节数、最早记录的等待秒数、回放速率等)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        if (!enabled) {
+            return stats;
+        }
+        stats.put("directory", spoolDirectory.toString());
+        stats.put("elasticsearchAvailable", available);
+        stats.put("unavailableSince", available || unavailableSince == null ? null : unavailableSince.toString());
+        stats.put("lastHealthCheck", lastHealthCheck == null ? null : lastHealthCheck.toString());
+        synchronized (this) {
+            stats.put("pendingRecords", pendingRecords);
+            stats.put("pendingBytes", pendingBytes);
+            stats.put("maxBytes", maxBytes);
+            stats.put("oldestPendingAgeSeconds",
+                    oldestPendingMillis == 0 ? 0 : (System.currentTimeMillis() - oldestPendingMillis) / 1000);
+            stats.put("segments", writeSegment - readSegment + 1);
+        }
+        stats.put("spooledRecords", spooledRecords.sum());
+        stats.put("drainedRecords", drainedRecords.sum());
+        stats.put("rejectedRecords", rejectedRecords.sum());
+        stats.put("interruptedDrains", interruptedDrains.sum());
+        stats.put("corruptRecords", corruptRecords.sum());
+        stats.put("supersededRecords", supersededRecords.sum());
+        stats.put("lastDrainRatePerSecond", Math.round(lastDrainRate * 10) / 10.0);
+        stats.put("drainRateLimitPerSecond", drainRatePerSecond);
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        drainScheduler.shutdown(); // 正在回放的批次在检查 isShutdown 后结束
+        try {
+            if (!drainScheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                drainScheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drainScheduler.shutdownNow();
+        }
+        synchronized (this) {
+            if (writeChannel != null) {
+                try {
+                    writeBuffer.force();
+                    writeChannel.close();
+                } catch (IOException | UncheckedIOException e) {
+                    logger.warn("关闭本地暂存段失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 暂存中的一条记录。
+     */
+    private static final class SpoolRecord {
+        private final OperationType type;
+        private final String documentId;
+        private final byte[] body;
+
+        SpoolRecord(OperationType type, String documentId, byte[] body) {
+            this.type = type;
+            this.documentId = documentId;
+            this.body = body;
+        }
+    }
+
+    /**
+     * 一批要回放的记录，以及回放完成后的回放位置。
+     */
+    private static final class SpoolBatch {
+        private final List<SpoolRecord> records;
+        private final long segment;
+        private final int offset;
+        private final long bytes;
+
+        SpoolBatch(List<SpoolRecord> records, long segment, int offset, long bytes) {
+            this.records = records;
+            this.segment = segment;
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+    }
+}
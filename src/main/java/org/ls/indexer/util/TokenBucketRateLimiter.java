@@ -0,0 +1,105 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/main/java/org/ls/indexer/util/TokenBucketRateLimiter.java
+ * 文件名称: TokenBucketRateLimiter.java
+ * 开发时间: 2025-06-24 14:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: 令牌桶限流器。速率可以在运行期间动态调整，速率小于等于 0 表示不限流。
+ *
+ * 功能说明：
+ * 令牌按 permitsPerSecond 的速率补充，桶容量为 1 秒的令牌数 (允许 1 秒的突发)。
+ * acquire(permits) 会先扣除令牌，令牌不足时允许透支，并阻塞调用线程直到透支部分被补足。
+ * 因此单次请求的令牌数可以超过桶容量 (例如一个大于 1 秒配额的大文件)，后续请求会相应等待更久。
+ * 等待在限流器的监视器上进行 (带截止时间的 wait)，setRate 会唤醒等待的线程按新的速率重新计算等待时间
+ * (调整为不限流时立即返回)；releaseWaiters 使当前所有等待立即返回 (例如作业被暂停或停止时)。
+ */
+package org.ls.indexer.util;
+
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucketRateLimiter {
+
+    private double permitsPerSecond;
+    private double availablePermits;
+    private long lastRefillNanos;
+    // 累计补充的令牌数，等待的线程在它达到自己的目标值时返回
+    private double refilledPermits;
+    // releaseWaiters 每调用一次加 1，等待的线程发现变化后立即返回
+    private long releaseGeneration;
+
+    public TokenBucketRateLimiter(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.availablePermits = Math.max(0d, permitsPerSecond);
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized double getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * 调整速率，立即对后续的 acquire 生效。
+     *
+     * @param permitsPerSecond 每秒令牌数，小于等于 0 表示不限流
+     */
+    public synchronized void setRate(double permitsPerSecond) {
+        refill(System.nanoTime());
+        this.permitsPerSecond = permitsPerSecond;
+        if (permitsPerSecond <= 0) {
+            this.availablePermits = 0d;
+        } else {
+            this.availablePermits = Math.min(availablePermits, permitsPerSecond);
+        }
+        notifyAll(); // 等待的线程按新的速率重新计算等待时间
+    }
+
+    /**
+     * 使当前所有等待令牌的线程立即返回 (已透支的令牌不归还，之后的请求仍按速率等待)。
+     */
+    public synchronized void releaseWaiters() {
+        releaseGeneration++;
+        notifyAll();
+    }
+
+    /**
+     * 获取指定数量的令牌，令牌不足时阻塞等待。
+     *
+     * @param permits 令牌数
+     * @return 实际等待的纳秒数
+     * @throws InterruptedException 如果等待期间线程被中断
+     */
+    public synchronized long acquire(double permits) throws InterruptedException {
+        if (permitsPerSecond <= 0 || permits <= 0) {
+            return 0L;
+        }
+        long start = System.nanoTime();
+        refill(start);
+        availablePermits -= permits;
+        if (availablePermits >= 0) {
+            return 0L;
+        }
+        // 透支部分被补足时累计补充的令牌数
+        double target = refilledPermits - availablePermits;
+        long generation = releaseGeneration;
+        while (permitsPerSecond > 0 && generation == releaseGeneration) {
+            long now = System.nanoTime();
+            refill(now);
+            double missing = target - refilledPermits;
+            if (missing <= 0) {
+                break;
+            }
+            long waitNanos = Math.max(1L, (long) (missing / permitsPerSecond * TimeUnit.SECONDS.toNanos(1)));
+            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void refill(long now) {
+        if (permitsPerSecond > 0) {
+            double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            double refilled = Math.min(permitsPerSecond, availablePermits + elapsedSeconds * permitsPerSecond);
+            refilledPermits += Math.max(0d, refilled - availablePermits);
+            availablePermits = refilled;
+        }
+        lastRefillNanos = now;
+    }
+}
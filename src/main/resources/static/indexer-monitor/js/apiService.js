@@ -112,6 +112,43 @@ const apiService = {
         return fetchData('/batch/historical-index/latest-status');
     },
 
+    /**
+     * 暂停正在运行的作业 (当前块提交后停止，可恢复)。
+     * POST /api/batch/historical-index/{jobExecutionId}/pause
+     * @param {number|string} jobExecutionId - 作业执行ID。
+     */
+    pauseBatchJob: (jobExecutionId) => {
+        return fetchData(`/batch/historical-index/${jobExecutionId}/pause`, { method: 'POST' });
+    },
+
+    /**
+     * 从检查点恢复已暂停 (STOPPED) 或失败 (FAILED) 的作业。
+     * POST /api/batch/historical-index/{jobExecutionId}/resume
+     * @param {number|string} jobExecutionId - 作业执行ID。
+     */
+    resumeBatchJob: (jobExecutionId) => {
+        return fetchData(`/batch/historical-index/${jobExecutionId}/resume`, { method: 'POST' });
+    },
+
+    /**
+     * 查询历史数据索引作业的吞吐量上限。
+     * GET /api/batch/historical-index/throttle
+     */
+    getBatchThrottle: () => {
+        return fetchData('/batch/historical-index/throttle');
+    },
+
+    /**
+     * 调整历史数据索引作业的吞吐量上限 (0 表示不限制)。
+     * POST /api/batch/historical-index/throttle?docsPerSecond=..&mbPerSecond=..
+     * @param {number} docsPerSecond - 每秒文档数上限。
+     * @param {number} mbPerSecond - 每秒 MB 上限。
+     */
+    updateBatchThrottle: (docsPerSecond, mbPerSecond) => {
+        const params = new URLSearchParams({ docsPerSecond, mbPerSecond });
+        return fetchData(`/batch/historical-index/throttle?${params}`, { method: 'POST' });
+    },
+
     // --- DLQ 消息管理 API (占位符，后续实现) ---
     /**
      * 查看指定DLQ Topic的消息 (占位符)。
@@ -57,7 +57,9 @@ function initializePage() {
     const startBatchJobButton = document.getElementById('startBatchJobButton');
     if (startBatchJobButton) startBatchJobButton.disabled = false;
     const stopBatchJobButton = document.getElementById('stopBatchJobButton');
-    if (stopBatchJobButton) stopBatchJobButton.disabled = true; // 停止功能待实现
+    if (stopBatchJobButton) stopBatchJobButton.disabled = true; // 有运行中的作业时才可暂停
+    const resumeBatchJobButton = document.getElementById('resumeBatchJobButton');
+    if (resumeBatchJobButton) resumeBatchJobButton.disabled = true; // 有已暂停的作业时才可恢复
 }
 
 /**
@@ -99,6 +101,9 @@ function setupEventListeners() {
     if (startBatchJobButton) {
         startBatchJobButton.addEventListener('click', handleStartBatchJob);
     }
+    document.getElementById('stopBatchJobButton')?.addEventListener('click', handlePauseBatchJob);
+    document.getElementById('resumeBatchJobButton')?.addEventListener('click', handleResumeBatchJob);
+    document.getElementById('applyThrottleButton')?.addEventListener('click', handleApplyThrottle);
 
     // DLQ 相关按钮 (查看、重试、删除 - 当前为占位符)
     document.getElementById('viewUpsertDlqMessages')?.addEventListener('click', () => uiUpdater.showNotification('查看 Upsert DLQ 消息功能待实现。'));
@@ -156,12 +161,13 @@ async function fetchAllData() {
 
     try {
         // 并行获取数据
-        const [healthData, esHealthData, kafkaLagData, dlqSummaryData, latestBatchJobs] = await Promise.all([
+        const [healthData, esHealthData, kafkaLagData, dlqSummaryData, latestBatchJobs, throttleData] = await Promise.all([
             apiService.getApplicationHealth().catch(handleApiError('应用健康状况')),
             apiService.getEsClusterHealth().catch(handleApiError('ES集群健康')),
             apiService.getKafkaConsumerLag().catch(handleApiError('Kafka消费者Lag')),
             apiService.getKafkaDlqSummary().catch(handleApiError('Kafka DLQ摘要')),
-            apiService.getLatestBatchJobStatuses().catch(handleApiError('最新批处理作业'))
+            apiService.getLatestBatchJobStatuses().catch(handleApiError('最新批处理作业')),
+            apiService.getBatchThrottle().catch(handleApiError('批处理吞吐量上限'))
         ]);
 
         // 更新服务概览 (需要 healthData, esHealthData, kafkaLagData)
@@ -186,6 +192,7 @@ async function fetchAllData() {
         // 更新批处理作业历史
         if (latestBatchJobs) {
             uiUpdater.updateBatchJobHistory(latestBatchJobs);
+            uiUpdater.updateBatchActiveWindow(latestBatchJobs.length > 0 ? latestBatchJobs[0].activeWindow : null);
             // 如果没有当前轮询的作业ID，或者当前轮询的作业已完成，则显示最新的一个（如果存在）
             const shouldUpdateBatchDisplay = !currentJobExecutionIdForPolling ||
                 (currentJobExecutionIdForPolling && latestBatchJobs.find(job => job.jobExecutionId === currentJobExecutionIdForPolling && ['COMPLETED', 'FAILED', 'STOPPED'].includes(job.status)));
@@ -208,6 +215,11 @@ async function fetchAllData() {
             uiUpdater.updateBatchJobStatusDisplay(null); // 清空当前作业显示
         }
 
+        // 更新吞吐量上限
+        if (throttleData && !throttleData.error) {
+            uiUpdater.updateBatchThrottleDisplay(throttleData, false);
+        }
+
         // 如果有正在运行的批处理作业ID，则单独轮询其状态
         if (currentJobExecutionIdForPolling) {
             fetchAndDisplaySpecificJobStatus(currentJobExecutionIdForPolling);
@@ -268,6 +280,68 @@ async function handleStartBatchJob() {
     }
 }
 
+/**
+ * 暂停当前显示的运行中作业。作业在当前块提交后变为 STOPPED，之后可以恢复。
+ */
+async function handlePauseBatchJob() {
+    const pauseButton = document.getElementById('stopBatchJobButton');
+    const jobExecutionId = pauseButton ? Number(pauseButton.dataset.executionId) : null;
+    if (!jobExecutionId) return;
+    pauseButton.disabled = true;
+    try {
+        const result = await apiService.pauseBatchJob(jobExecutionId);
+        uiUpdater.showNotification(result && result.message ? result.message : '已请求暂停作业。', 'success');
+        currentJobExecutionIdForPolling = jobExecutionId; // 继续轮询直到状态变为 STOPPED
+        fetchAndDisplaySpecificJobStatus(jobExecutionId);
+    } catch (error) {
+        console.error('暂停批处理作业失败:', error);
+        uiUpdater.showNotification(`暂停作业失败: ${error.message || '未知错误'}`, 'error');
+        pauseButton.disabled = false;
+    }
+}
+
+/**
+ * 恢复当前显示的已暂停 (或失败) 作业，作业从检查点继续。
+ */
+async function handleResumeBatchJob() {
+    const resumeButton = document.getElementById('resumeBatchJobButton');
+    const jobExecutionId = resumeButton ? Number(resumeButton.dataset.executionId) : null;
+    if (!jobExecutionId) return;
+    resumeButton.disabled = true;
+    try {
+        const result = await apiService.resumeBatchJob(jobExecutionId);
+        uiUpdater.showNotification(result && result.message ? result.message : '已请求恢复作业。', 'success');
+        currentJobExecutionIdForPolling = null; // 恢复后会产生新的作业执行，由 fetchAllData 显示最新的作业
+        setTimeout(fetchAllData, 1000);
+    } catch (error) {
+        console.error('恢复批处理作业失败:', error);
+        uiUpdater.showNotification(`恢复作业失败: ${error.message || '未知错误'}`, 'error');
+        resumeButton.disabled = false;
+    }
+}
+
+/**
+ * 应用吞吐量上限，运行中的作业立即生效。
+ */
+async function handleApplyThrottle() {
+    const docsInput = document.getElementById('throttleDocsPerSecond');
+    const mbInput = document.getElementById('throttleMbPerSecond');
+    const docsPerSecond = parseFloat(docsInput && docsInput.value !== '' ? docsInput.value : '0');
+    const mbPerSecond = parseFloat(mbInput && mbInput.value !== '' ? mbInput.value : '0');
+    if (isNaN(docsPerSecond) || isNaN(mbPerSecond) || docsPerSecond < 0 || mbPerSecond < 0) {
+        uiUpdater.showNotification('吞吐量上限必须是大于等于 0 的数字。', 'error');
+        return;
+    }
+    try {
+        const result = await apiService.updateBatchThrottle(docsPerSecond, mbPerSecond);
+        uiUpdater.updateBatchThrottleDisplay(result, true);
+        uiUpdater.showNotification('吞吐量上限已更新。', 'success');
+    } catch (error) {
+        console.error('更新吞吐量上限失败:', error);
+        uiUpdater.showNotification(`更新吞吐量上限失败: ${error.message || '未知错误'}`, 'error');
+    }
+}
+
 /**
  * 获取并显示特定批处理作业的执行状态。
  * @param {number|string} jobExecutionId - 作业执行ID。
@@ -302,6 +302,17 @@ const uiUpdater = {
             if (startButton) {
                 startButton.disabled = (jobExecutionData.status === 'STARTING' || jobExecutionData.status === 'STARTED');
             }
+            // 运行中的作业可以暂停，已暂停或失败的作业可以恢复
+            const pauseButton = document.getElementById('stopBatchJobButton');
+            if (pauseButton) {
+                pauseButton.dataset.executionId = jobExecutionData.jobExecutionId;
+                pauseButton.disabled = !(jobExecutionData.status === 'STARTING' || jobExecutionData.status === 'STARTED');
+            }
+            const resumeButton = document.getElementById('resumeBatchJobButton');
+            if (resumeButton) {
+                resumeButton.dataset.executionId = jobExecutionData.jobExecutionId;
+                resumeButton.disabled = !(jobExecutionData.status === 'STOPPED' || jobExecutionData.status === 'FAILED');
+            }
 
         } else {
             uiUpdater.updateText('batchJobStatus', (jobExecutionData && jobExecutionData.error) ? '获取失败' : 'IDLE');
@@ -317,6 +328,40 @@ const uiUpdater = {
             }
             const startButton = document.getElementById('startBatchJobButton');
             if (startButton) startButton.disabled = false;
+            ['stopBatchJobButton', 'resumeBatchJobButton'].forEach(id => {
+                const button = document.getElementById(id);
+                if (button) button.disabled = true;
+            });
+        }
+    },
+
+    /**
+     * 更新当前所在的调度时间窗口。
+     * @param {object|null} activeWindow - { name, start, end, docsPerSecond, mbPerSecond, action }，不在窗口内时为 null。
+     */
+    updateBatchActiveWindow: (activeWindow) => {
+        if (!activeWindow) {
+            uiUpdater.updateText('batchActiveWindow', '-');
+            return;
+        }
+        const end = activeWindow.end ? new Date(activeWindow.end).toLocaleString() : '-';
+        uiUpdater.updateText('batchActiveWindow', `${activeWindow.name} (至 ${end})`);
+    },
+
+    /**
+     * 更新历史数据索引作业的吞吐量上限输入框。
+     * @param {object} throttleData - { docsPerSecond, mbPerSecond, throttledSeconds }
+     * @param {boolean} force - 为 false 时不覆盖用户正在编辑的输入框。
+     */
+    updateBatchThrottleDisplay: (throttleData, force) => {
+        if (!throttleData) return;
+        const docsInput = document.getElementById('throttleDocsPerSecond');
+        const mbInput = document.getElementById('throttleMbPerSecond');
+        if (docsInput && (force || document.activeElement !== docsInput)) {
+            docsInput.value = throttleData.docsPerSecond ?? 0;
+        }
+        if (mbInput && (force || document.activeElement !== mbInput)) {
+            mbInput.value = throttleData.mbPerSecond ?? 0;
         }
     },
 
@@ -0,0 +1,60 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/test/java/org/ls/indexer/service/FileParserServiceTest.java
+ * 文件名称: FileParserServiceTest.java
+ * 开发时间: 2025-06-25 23:20:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: FileParserService 的单元测试。
+ *
+ * 功能说明：
+ * 预读命中 (内存缓冲区，支持 mark/reset) 与未命中 (直接读取文件) 时计算出的 content_sha256 相同，
+ * 且等于文件内容的 SHA-256 (Tika 检测类型时的 mark/reset 不会使开头的字节被重复计入摘要)。
+ */
+package org.ls.indexer.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FileParserServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final FilePrefetchService filePrefetchService = mock(FilePrefetchService.class);
+    private FileParserService fileParserService;
+
+    @BeforeEach
+    void setUp() {
+        fileParserService = new FileParserService(filePrefetchService);
+        ReflectionTestUtils.setField(fileParserService, "tikaWriteLimit", -1);
+        fileParserService.init();
+    }
+
+    @Test
+    void prefetchHitAndMissProduceTheFileSha256() throws Exception {
+        byte[] bytes = "第一段落\n\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+        Path file = Files.write(directory.resolve("document.txt"), bytes);
+        String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+
+        when(filePrefetchService.openStream(file)).thenAnswer(invocation -> Files.newInputStream(file));
+        String miss = fileParserService.parseFile(file).getContentSha256();
+
+        when(filePrefetchService.openStream(file)).thenAnswer(invocation -> new ByteArrayInputStream(bytes));
+        String hit = fileParserService.parseFile(file).getContentSha256();
+
+        assertEquals(expected, miss);
+        assertEquals(expected, hit);
+    }
+}
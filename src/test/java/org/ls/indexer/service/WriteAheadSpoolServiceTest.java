@@ -0,0 +1,154 @@
+/**
+ * 目录结构: ElasticsearchIndexService/src/test/java/org/ls/indexer/service/WriteAheadSpoolServiceTest.java
+ * 文件名称: WriteAheadSpoolServiceTest.java
+ * 开发时间: 2025-06-25 23:00:00 UTC/GMT+08:00
+ * 作者: Gemini
+ * 代码用途: WriteAheadSpoolService 的单元测试。
+ *
+ * 功能说明：
+ * 1. 未完整写入 (CRC 不正确) 的末尾记录在重启后被丢弃，之后的写入覆盖该位置，回放时不会出现被丢弃的记录。
+ * 2. 回放中断后重启，从检查点继续回放，已回放的记录不会重复回放。
+ */
+package org.ls.indexer.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.transport.endpoints.BooleanResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WriteAheadSpoolServiceTest {
+
+    // 删除记录的大小: 记录头 8 + 负载头 11 + 单字符文档 ID 1
+    private static final int DELETE_RECORD_BYTES = 20;
+
+    @TempDir
+    Path spoolDirectory;
+
+    private final List<WriteAheadSpoolService> services = new ArrayList<>();
+
+    @AfterEach
+    void closeServices() {
+        services.forEach(WriteAheadSpoolService::close);
+    }
+
+    @Test
+    void tornTailRecordIsDiscardedOnRecovery() throws Exception {
+        WriteAheadSpoolService first = start(unavailableClient(), completingBulkIngestion(), 500L);
+        assertTrue(first.offerDelete("a"));
+        assertTrue(first.offerDelete("b"));
+        assertTrue(first.offerDelete("c"));
+        first.close();
+
+        // 模拟第三条记录只写入了一部分: 负载被破坏，CRC 不再匹配
+        corruptByte(2 * DELETE_RECORD_BYTES + 19);
+
+        ElasticsearchClient client = unavailableClient();
+        BulkIngestionService bulkIngestionService = completingBulkIngestion();
+        WriteAheadSpoolService second = start(client, bulkIngestionService, 500L);
+        assertEquals(2L, second.getStats().get("pendingRecords"));
+
+        assertTrue(second.offerDelete("d")); // 覆盖被丢弃的末尾记录
+        when(client.ping()).thenReturn(new BooleanResponse(true));
+        second.drainBeforeRevoke();
+
+        verify(bulkIngestionService).submitDelete("a");
+        verify(bulkIngestionService).submitDelete("b");
+        verify(bulkIngestionService).submitDelete("d");
+        verify(bulkIngestionService, never()).submitDelete("c");
+        assertEquals(0L, second.getStats().get("pendingRecords"));
+        assertEquals(0L, second.getStats().get("corruptRecords"));
+    }
+
+    @Test
+    void drainResumesFromCheckpointAfterRestart() throws Exception {
+        ElasticsearchClient client = unavailableClient();
+        BulkIngestionService bulkIngestionService = completingBulkIngestion();
+        // 第二批 ("c") 的写入不会完成，回放超时后停在第一批之后的检查点
+        when(bulkIngestionService.submitDelete("c")).thenReturn(new CompletableFuture<>());
+        WriteAheadSpoolService first = start(client, bulkIngestionService, 2L);
+        assertTrue(first.offerDelete("a"));
+        assertTrue(first.offerDelete("b"));
+        assertTrue(first.offerDelete("c"));
+
+        when(client.ping()).thenReturn(new BooleanResponse(true));
+        first.drainBeforeRevoke();
+        assertEquals(1L, first.getStats().get("pendingRecords"));
+        first.close();
+
+        ElasticsearchClient restartedClient = unavailableClient();
+        BulkIngestionService restartedBulkIngestion = completingBulkIngestion();
+        WriteAheadSpoolService second = start(restartedClient, restartedBulkIngestion, 2L);
+        assertEquals(1L, second.getStats().get("pendingRecords"));
+
+        when(restartedClient.ping()).thenReturn(new BooleanResponse(true));
+        second.drainBeforeRevoke();
+
+        verify(restartedBulkIngestion).submitDelete("c");
+        verify(restartedBulkIngestion, never()).submitDelete("a");
+        verify(restartedBulkIngestion, never()).submitDelete("b");
+        assertEquals(0L, second.getStats().get("pendingRecords"));
+    }
+
+    private WriteAheadSpoolService start(ElasticsearchClient client, BulkIngestionService bulkIngestionService,
+                                         long drainBatchSize) {
+        WriteAheadSpoolService service = new WriteAheadSpoolService(client, bulkIngestionService, new ObjectMapper(),
+                mock(ElasticsearchPersistenceService.class), mock(BlueGreenReindexService.class));
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "directory", spoolDirectory.toString());
+        ReflectionTestUtils.setField(service, "segmentBytes", 4096);
+        ReflectionTestUtils.setField(service, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(service, "healthCheckIntervalMillis", 3_600_000L);
+        ReflectionTestUtils.setField(service, "drainBatchSize", (int) drainBatchSize);
+        ReflectionTestUtils.setField(service, "drainRatePerSecond", 0d);
+        ReflectionTestUtils.setField(service, "drainTimeoutMillis", 300L);
+        ReflectionTestUtils.setField(service, "revokeDrainTimeoutMillis", 5_000L);
+        service.init();
+        ReflectionTestUtils.setField(service, "available", false); // 不等待启动时的健康检查
+        services.add(service);
+        return service;
+    }
+
+    private static ElasticsearchClient unavailableClient() throws IOException {
+        ElasticsearchClient client = mock(ElasticsearchClient.class);
+        when(client.ping()).thenReturn(new BooleanResponse(false));
+        return client;
+    }
+
+    private static BulkIngestionService completingBulkIngestion() {
+        BulkIngestionService bulkIngestionService = mock(BulkIngestionService.class);
+        when(bulkIngestionService.submitDelete(anyString()))
+                .thenAnswer(invocation -> CompletableFuture.<BulkResponseItem>completedFuture(null));
+        return bulkIngestionService;
+    }
+
+    private void corruptByte(long position) throws IOException {
+        Path segment = spoolDirectory.resolve(String.format("spool-%020d.seg", 0));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, position);
+            value.put(0, (byte) (value.get(0) ^ 0xFF));
+            channel.write(value.flip(), position);
+        }
+    }
+}